@@ -0,0 +1,87 @@
+package com.github.mtakaki.credentialstorage.client;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.spec.MGF1ParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The decrypting side of the server cipher suites, named as they are sent in
+ * the {@code cipher_suite} field.
+ *
+ * @author mtakaki
+ *
+ */
+enum CipherSuite {
+    /**
+     * AES in ECB mode, with PKCS#5 padding, and RSA with PKCS#1 v1.5 padding
+     * for the symmetric key. Used by the records written before the cipher
+     * suite was recorded.
+     */
+    AES_ECB_RSA_PKCS1 {
+        @Override
+        SecretKey unwrapKey(final PrivateKey privateKey, final byte[] wrappedKey)
+                throws GeneralSecurityException {
+            final Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            return new SecretKeySpec(cipher.doFinal(wrappedKey), SYMMETRIC_KEY_ALGORITHM);
+        }
+
+        @Override
+        byte[] decrypt(final SecretKey symmetricKey, final byte[] cipherText)
+                throws GeneralSecurityException {
+            final Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, symmetricKey);
+            return cipher.doFinal(cipherText);
+        }
+    },
+    /**
+     * AES in GCM mode, where the ciphertext is a 12 bytes nonce followed by
+     * the encrypted data and a 16 bytes tag, and RSA-OAEP using SHA-256 and
+     * MGF1 with SHA-256 for the symmetric key.
+     */
+    AES_GCM_RSA_OAEP {
+        @Override
+        SecretKey unwrapKey(final PrivateKey privateKey, final byte[] wrappedKey)
+                throws GeneralSecurityException {
+            final Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPPadding");
+            cipher.init(Cipher.DECRYPT_MODE, privateKey, OAEP_PARAMETERS);
+            return new SecretKeySpec(cipher.doFinal(wrappedKey), SYMMETRIC_KEY_ALGORITHM);
+        }
+
+        @Override
+        byte[] decrypt(final SecretKey symmetricKey, final byte[] cipherText)
+                throws GeneralSecurityException {
+            final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, symmetricKey, new GCMParameterSpec(
+                    GCM_TAG_LENGTH * Byte.SIZE, cipherText, 0, GCM_NONCE_LENGTH));
+            return cipher.doFinal(cipherText, GCM_NONCE_LENGTH,
+                    cipherText.length - GCM_NONCE_LENGTH);
+        }
+    };
+
+    private static final String SYMMETRIC_KEY_ALGORITHM = "AES";
+    private static final int GCM_NONCE_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 16;
+    // The same explicit parameters the server encrypts with.
+    private static final OAEPParameterSpec OAEP_PARAMETERS = new OAEPParameterSpec("SHA-256",
+            "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT);
+
+    /**
+     * Decrypts the symmetric key with the client private key.
+     */
+    abstract SecretKey unwrapKey(PrivateKey privateKey, byte[] wrappedKey)
+            throws GeneralSecurityException;
+
+    /**
+     * Decrypts a credential with the symmetric key.
+     */
+    abstract byte[] decrypt(SecretKey symmetricKey, byte[] cipherText)
+            throws GeneralSecurityException;
+}
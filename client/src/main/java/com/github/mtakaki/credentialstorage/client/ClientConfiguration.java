@@ -0,0 +1,48 @@
+package com.github.mtakaki.credentialstorage.client;
+
+import java.net.URI;
+import java.time.Duration;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * How {@link CredentialStorageClient} reaches the server and how long it keeps
+ * its copy of the credential.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@Builder
+public class ClientConfiguration {
+    // Where the service runs, such as http://localhost:8080.
+    @NonNull
+    private final URI baseUri;
+
+    @Builder.Default
+    private final Duration connectTimeout = Duration.ofSeconds(1L);
+
+    @Builder.Default
+    private final Duration readTimeout = Duration.ofSeconds(5L);
+
+    // Once the copy is older, it's refreshed in the background while it keeps
+    // being returned.
+    @Builder.Default
+    private final Duration refreshAfter = Duration.ofMinutes(1L);
+
+    // Whether the copy is also refreshed every refreshAfter, even if it's not
+    // read, so reads never wait for the server.
+    @Builder.Default
+    private final boolean backgroundRefresh = true;
+
+    // Once the copy is older, reads wait for it to be refreshed.
+    @Builder.Default
+    private final Duration expireAfter = Duration.ofMinutes(10L);
+
+    // How old the copy can be and still be returned while the server can't be
+    // reached.
+    @Builder.Default
+    private final Duration maxStale = Duration.ofHours(24L);
+}
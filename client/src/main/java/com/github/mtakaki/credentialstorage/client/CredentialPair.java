@@ -0,0 +1,26 @@
+package com.github.mtakaki.credentialstorage.client;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The decrypted credential pair, as stored by the client.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString(exclude = { "primary", "secondary" })
+public class CredentialPair {
+    private final String primary;
+    // Null if it wasn't stored.
+    private final String secondary;
+    private final String description;
+    // UNIX timestamp, in seconds, when the lease expires. Null if there is no
+    // lease.
+    private final Long expiresAt;
+}
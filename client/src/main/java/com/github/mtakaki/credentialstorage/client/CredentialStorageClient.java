@@ -0,0 +1,312 @@
+package com.github.mtakaki.credentialstorage.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.SecretKey;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Retrieves the credential pair stored for a key pair and decrypts it with
+ * the private key, keeping the plain text in memory.
+ *
+ * <p>
+ * The copy is refreshed ahead of time, in the background, once it's older
+ * than {@code refreshAfter}, and reads only wait for the server if it's older
+ * than {@code expireAfter}. Refreshes send the ETag of the copy, so the server
+ * only sends the credential again, and it's only decrypted again, after it
+ * was changed. Concurrent refreshes share a single request. While the server
+ * can't be reached the copy keeps being returned, for up to
+ * {@code maxStale}.
+ * </p>
+ *
+ * <p>
+ * The metrics are kept under {@code CredentialStorageClient}: {@code hits}
+ * and {@code stale-hits} for the reads served from the copy, and
+ * {@code requests}, {@code not-modified} and {@code failures} for the calls to
+ * the server.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class CredentialStorageClient implements Closeable {
+    private static final String PUBLIC_KEY_HEADER = "X-Auth-RSA";
+    private static final String ENTITY_TAG_HEADER = "ETag";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final String CREDENTIAL_PATH = "credential";
+
+    private final ClientConfiguration configuration;
+    private final URL credentialUrl;
+    private final String base64PublicKey;
+    private final PrivateKey privateKey;
+    private final Clock clock;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService refreshExecutor;
+    private final AtomicReference<CompletableFuture<Entry>> refreshing = new AtomicReference<>();
+    // Whether a refresh ahead is already queued, so reads queue one at most.
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    private volatile Entry entry;
+
+    private final Meter hitsMeter;
+    private final Meter staleHitsMeter;
+    private final Meter notModifiedMeter;
+    private final Meter failuresMeter;
+    private final Timer requestsTimer;
+
+    public CredentialStorageClient(final ClientConfiguration configuration,
+            final KeyPair keyPair, final MetricRegistry metricRegistry) throws IOException {
+        this(configuration, keyPair, metricRegistry, Clock.defaultClock());
+    }
+
+    CredentialStorageClient(final ClientConfiguration configuration, final KeyPair keyPair,
+            final MetricRegistry metricRegistry, final Clock clock) throws IOException {
+        this.configuration = configuration;
+        this.credentialUrl = credentialUrl(configuration.getBaseUri());
+        this.base64PublicKey = Base64.getEncoder()
+                .encodeToString(keyPair.getPublic().getEncoded());
+        this.privateKey = keyPair.getPrivate();
+        this.clock = clock;
+        this.hitsMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialStorageClient.class, "hits"));
+        this.staleHitsMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialStorageClient.class, "stale-hits"));
+        this.notModifiedMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialStorageClient.class, "not-modified"));
+        this.failuresMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialStorageClient.class, "failures"));
+        this.requestsTimer = metricRegistry
+                .timer(MetricRegistry.name(CredentialStorageClient.class, "requests"));
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "credential-storage-client-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (configuration.isBackgroundRefresh()) {
+            final long refreshAfterMillis = configuration.getRefreshAfter().toMillis();
+            this.refreshExecutor.scheduleWithFixedDelay(this::refreshIfOlder,
+                    refreshAfterMillis, refreshAfterMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the decrypted credential pair.
+     *
+     * @return The credential pair, or empty if none is stored for the key
+     *         pair.
+     * @throws IOException
+     *             Thrown if the credential couldn't be retrieved or decrypted,
+     *             and there is no copy recent enough to be returned instead.
+     */
+    public Optional<CredentialPair> get() throws IOException {
+        final Entry current = this.entry;
+        if (current != null) {
+            final long age = this.ageMillis(current);
+            if (age < this.configuration.getExpireAfter().toMillis()) {
+                this.hitsMeter.mark();
+                if (age >= this.configuration.getRefreshAfter().toMillis()
+                        && this.refreshQueued.compareAndSet(false, true)) {
+                    this.refreshExecutor.execute(() -> {
+                        this.refreshQueued.set(false);
+                        this.refreshIfOlder();
+                    });
+                }
+                return current.credentialPair;
+            }
+        }
+
+        try {
+            return this.refresh().get().credentialPair;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrieving the credential.", e);
+        } catch (final ExecutionException e) {
+            if (current != null
+                    && this.ageMillis(current) < this.configuration.getMaxStale().toMillis()) {
+                this.staleHitsMeter.mark();
+                log.warn("Failed to refresh the credential, returning a copy {}ms old.",
+                        this.ageMillis(current), e.getCause());
+                return current.credentialPair;
+            }
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("Failed to retrieve the credential.", e.getCause());
+        }
+    }
+
+    /**
+     * Drops the copy, so the next read retrieves the credential again. Meant
+     * for when it's known to be changed, such as after the credentials were
+     * rejected.
+     */
+    public void invalidate() {
+        this.entry = null;
+    }
+
+    private long ageMillis(final Entry entry) {
+        return TimeUnit.NANOSECONDS.toMillis(this.clock.getTick() - entry.validatedAt);
+    }
+
+    private void refreshIfOlder() {
+        final Entry current = this.entry;
+        if (current == null
+                || this.ageMillis(current) >= this.configuration.getRefreshAfter().toMillis()) {
+            // Failures are logged and counted, and the copy is kept.
+            this.refresh();
+        }
+    }
+
+    /**
+     * Retrieves the credential, unless another thread is already retrieving
+     * it, in which case its result is shared.
+     */
+    private CompletableFuture<Entry> refresh() {
+        final CompletableFuture<Entry> future = new CompletableFuture<>();
+        while (!this.refreshing.compareAndSet(null, future)) {
+            final CompletableFuture<Entry> inFlight = this.refreshing.get();
+            if (inFlight != null) {
+                return inFlight;
+            }
+        }
+        try {
+            this.entry = this.fetch(this.entry);
+            future.complete(this.entry);
+        } catch (final IOException | GeneralSecurityException | RuntimeException e) {
+            this.failuresMeter.mark();
+            log.debug("Failed to retrieve the credential.", e);
+            future.completeExceptionally(e);
+        } finally {
+            this.refreshing.set(null);
+        }
+        return future;
+    }
+
+    private Entry fetch(final Entry current) throws IOException, GeneralSecurityException {
+        final HttpURLConnection connection = (HttpURLConnection) this.credentialUrl
+                .openConnection();
+        connection.setConnectTimeout((int) this.configuration.getConnectTimeout().toMillis());
+        connection.setReadTimeout((int) this.configuration.getReadTimeout().toMillis());
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setRequestProperty(PUBLIC_KEY_HEADER, this.base64PublicKey);
+        if (current != null && current.entityTag != null) {
+            connection.setRequestProperty(IF_NONE_MATCH_HEADER, current.entityTag);
+        }
+
+        try (Timer.Context context = this.requestsTimer.time()) {
+            final int status = connection.getResponseCode();
+            final long now = this.clock.getTick();
+            switch (status) {
+            case HttpURLConnection.HTTP_NOT_MODIFIED:
+                if (current == null) {
+                    throw new IOException("Not modified, but there is no copy of the credential.");
+                }
+                this.notModifiedMeter.mark();
+                return new Entry(current.credentialPair, current.entityTag, now);
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                drain(connection.getErrorStream());
+                return new Entry(Optional.empty(), null, now);
+            case HttpURLConnection.HTTP_OK:
+                try (InputStream body = connection.getInputStream()) {
+                    return new Entry(Optional.of(this.decrypt(this.objectMapper.readTree(body))),
+                            connection.getHeaderField(ENTITY_TAG_HEADER), now);
+                }
+            default:
+                drain(connection.getErrorStream());
+                throw new IOException(String.format("Failed to retrieve the credential: %d %s",
+                        status, connection.getResponseMessage()));
+            }
+        }
+    }
+
+    private CredentialPair decrypt(final JsonNode credential) throws GeneralSecurityException {
+        // Records written before the cipher suite was recorded don't have it.
+        final CipherSuite cipherSuite = credential.hasNonNull("cipher_suite")
+                ? CipherSuite.valueOf(credential.get("cipher_suite").asText())
+                : CipherSuite.AES_ECB_RSA_PKCS1;
+        final SecretKey symmetricKey = cipherSuite.unwrapKey(this.privateKey,
+                Base64.getDecoder().decode(credential.get("symmetric_key").asText()));
+        return new CredentialPair(
+                decrypt(cipherSuite, symmetricKey, credential.get("primary")),
+                decrypt(cipherSuite, symmetricKey, credential.get("secondary")),
+                credential.hasNonNull("description") ? credential.get("description").asText()
+                        : null,
+                credential.hasNonNull("expires_at") ? credential.get("expires_at").asLong()
+                        : null);
+    }
+
+    /**
+     * The credential endpoint under the base URI, whose last path segment is
+     * kept as a directory: resolving against {@code http://host/api} would
+     * otherwise drop {@code api}, and against {@code http://host:8080} glue
+     * the path to the port.
+     */
+    private static URL credentialUrl(final URI baseUri) throws IOException {
+        final String path = baseUri.getRawPath();
+        final URI directory = path.endsWith("/") ? baseUri
+                : URI.create(String.format("%s://%s%s/", baseUri.getScheme(),
+                        baseUri.getRawAuthority(), path));
+        return directory.resolve(CREDENTIAL_PATH).toURL();
+    }
+
+    private static String decrypt(final CipherSuite cipherSuite, final SecretKey symmetricKey,
+            final JsonNode cipherText) throws GeneralSecurityException {
+        if (cipherText == null || cipherText.isNull()) {
+            return null;
+        }
+        return new String(cipherSuite.decrypt(symmetricKey,
+                Base64.getDecoder().decode(cipherText.asText())), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the error body, so the connection can be reused.
+     */
+    private static void drain(final InputStream body) throws IOException {
+        if (body != null) {
+            try (InputStream stream = body) {
+                final byte[] buffer = new byte[1024];
+                while (stream.read(buffer) != -1) {
+                    // Discarded.
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.refreshExecutor.shutdownNow();
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final Optional<CredentialPair> credentialPair;
+        private final String entityTag;
+        // Clock tick, in nanoseconds, when the server last confirmed it.
+        private final long validatedAt;
+    }
+}
@@ -0,0 +1,320 @@
+package com.github.mtakaki.credentialstorage.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.MGF1ParameterSpec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class CredentialStorageClientTest {
+    private static KeyPair keyPair;
+
+    private HttpServer server;
+    private MetricRegistry metricRegistry;
+    private ClientConfiguration configuration;
+    private final AtomicLong tick = new AtomicLong();
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return CredentialStorageClientTest.this.tick.get();
+        }
+    };
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> ifNoneMatch = new ArrayList<>();
+    // What the fake server replies: the status, the ETag and the body.
+    private volatile int status = 200;
+    private volatile String entityTag = "\"1\"";
+    private volatile String body;
+    private volatile CountDownLatch replying = new CountDownLatch(0);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/credential", this::reply);
+        this.server.start();
+        this.metricRegistry = new MetricRegistry();
+        this.configuration = ClientConfiguration.builder()
+                .baseUri(URI.create(
+                        String.format("http://localhost:%d/", this.server.getAddress().getPort())))
+                .backgroundRefresh(false)
+                .build();
+        this.body = encrypted("user", "pass");
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    private void reply(final HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+        synchronized (this.ifNoneMatch) {
+            this.ifNoneMatch.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+        }
+        assertThat(exchange.getRequestHeaders().getFirst("X-Auth-RSA")).isEqualTo(
+                Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()));
+        try {
+            this.replying.await(5L, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final String requestTag = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (this.status == 200 && this.entityTag.equals(requestTag)) {
+            exchange.sendResponseHeaders(304, -1L);
+        } else if (this.status == 200) {
+            final byte[] payload = this.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", this.entityTag);
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(payload);
+            }
+        } else {
+            exchange.sendResponseHeaders(this.status, -1L);
+        }
+        exchange.close();
+    }
+
+    /**
+     * Encrypts the credential pair as the server does, with AES_GCM_RSA_OAEP.
+     */
+    private static String encrypted(final String primary, final String secondary)
+            throws Exception {
+        final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        final SecretKey symmetricKey = keyGenerator.generateKey();
+        final Cipher rsa = Cipher.getInstance("RSA/ECB/OAEPPadding");
+        rsa.init(Cipher.ENCRYPT_MODE, keyPair.getPublic(), new OAEPParameterSpec("SHA-256",
+                "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+        return String.format("{\"symmetric_key\":\"%s\",\"cipher_suite\":\"AES_GCM_RSA_OAEP\","
+                + "\"primary\":\"%s\",\"secondary\":%s,\"description\":\"db\","
+                + "\"expires_at\":1760878626}",
+                Base64.getEncoder().encodeToString(rsa.doFinal(symmetricKey.getEncoded())),
+                encrypt(symmetricKey, primary),
+                secondary == null ? "null" : "\"" + encrypt(symmetricKey, secondary) + "\"");
+    }
+
+    private static String encrypt(final SecretKey symmetricKey, final String plainText)
+            throws Exception {
+        final byte[] nonce = new byte[12];
+        new SecureRandom().nextBytes(nonce);
+        final Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+        aes.init(Cipher.ENCRYPT_MODE, symmetricKey, new GCMParameterSpec(128, nonce));
+        final byte[] cipherText = aes.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(
+                ByteBuffer.allocate(nonce.length + cipherText.length).put(nonce).put(cipherText)
+                        .array());
+    }
+
+    private CredentialStorageClient newClient() throws IOException {
+        return new CredentialStorageClient(this.configuration, keyPair, this.metricRegistry,
+                this.clock);
+    }
+
+    private CredentialStorageClient newClient(final String baseUri) throws IOException {
+        return new CredentialStorageClient(ClientConfiguration.builder()
+                .baseUri(URI.create(baseUri))
+                .backgroundRefresh(false)
+                .build(), keyPair, this.metricRegistry, this.clock);
+    }
+
+    private long count(final String meter) {
+        return this.metricRegistry.meter(MetricRegistry.name(CredentialStorageClient.class, meter))
+                .getCount();
+    }
+
+    private void advance(final Duration duration) {
+        this.tick.addAndGet(duration.toNanos());
+    }
+
+    @Test
+    public void testGetDecrypts() throws Exception {
+        try (CredentialStorageClient client = this.newClient()) {
+            assertThat(client.get()).contains(
+                    new CredentialPair("user", "pass", "db", 1760878626L));
+            assertThat(client.get()).isPresent();
+        }
+
+        assertThat(this.requests.get()).isEqualTo(1);
+        assertThat(this.count("hits")).isEqualTo(1L);
+    }
+
+    @Test
+    public void testGetWithoutTrailingSlash() throws Exception {
+        try (CredentialStorageClient client = this.newClient(
+                String.format("http://localhost:%d", this.server.getAddress().getPort()))) {
+            assertThat(client.get()).isPresent();
+        }
+
+        assertThat(this.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetUnderPathPrefix() throws Exception {
+        this.server.removeContext("/credential");
+        this.server.createContext("/api/credential", this::reply);
+
+        try (CredentialStorageClient client = this.newClient(
+                String.format("http://localhost:%d/api", this.server.getAddress().getPort()))) {
+            assertThat(client.get()).isPresent();
+        }
+
+        assertThat(this.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetWithoutSecondary() throws Exception {
+        this.body = encrypted("user", null);
+
+        try (CredentialStorageClient client = this.newClient()) {
+            assertThat(client.get().get().getSecondary()).isNull();
+        }
+    }
+
+    @Test
+    public void testGetNotFound() throws Exception {
+        this.status = 404;
+
+        try (CredentialStorageClient client = this.newClient()) {
+            assertThat(client.get()).isEmpty();
+            assertThat(client.get()).isEmpty();
+        }
+
+        assertThat(this.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRefreshAheadIsConditional() throws Exception {
+        try (CredentialStorageClient client = this.newClient()) {
+            final Optional<CredentialPair> credentialPair = client.get();
+
+            // Returned as it is while it's refreshed in the background.
+            this.advance(this.configuration.getRefreshAfter());
+            assertThat(client.get()).isEqualTo(credentialPair);
+            this.awaitRequests(2);
+
+            assertThat(this.ifNoneMatch).containsExactly(null, "\"1\"");
+            assertThat(this.count("not-modified")).isEqualTo(1L);
+
+            // Rotated on the server.
+            this.body = encrypted("other", "secret");
+            this.entityTag = "\"2\"";
+            this.advance(this.configuration.getExpireAfter());
+            assertThat(client.get().get().getPrimary()).isEqualTo("other");
+            assertThat(this.requests.get()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void testServesStaleWhileUnreachable() throws Exception {
+        try (CredentialStorageClient client = this.newClient()) {
+            client.get();
+            this.status = 503;
+
+            this.advance(this.configuration.getExpireAfter());
+            assertThat(client.get().get().getPrimary()).isEqualTo("user");
+            assertThat(this.count("stale-hits")).isEqualTo(1L);
+            assertThat(this.count("failures")).isEqualTo(1L);
+
+            this.server.stop(0);
+            assertThat(client.get().get().getPrimary()).isEqualTo("user");
+
+            this.advance(this.configuration.getMaxStale());
+            try {
+                client.get();
+                fail("Expected the copy to be too old.");
+            } catch (final IOException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRefreshesAreCoalesced() throws Exception {
+        this.replying = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (CredentialStorageClient client = this.newClient()) {
+            final List<Future<Optional<CredentialPair>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(client::get));
+            }
+            this.awaitRequests(1);
+            Thread.sleep(100L);
+            this.replying.countDown();
+
+            for (final Future<Optional<CredentialPair>> result : results) {
+                assertThat(result.get().get().getPrimary()).isEqualTo("user");
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(this.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        try (CredentialStorageClient client = this.newClient()) {
+            client.get();
+            client.invalidate();
+            client.get();
+        }
+
+        assertThat(this.ifNoneMatch).containsExactly(null, null);
+    }
+
+    private void awaitRequests(final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (this.requests.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        // Letting the reply be handled.
+        Thread.sleep(100L);
+        assertThat(this.requests.get()).isEqualTo(count);
+    }
+}
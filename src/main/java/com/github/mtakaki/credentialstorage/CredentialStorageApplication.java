@@ -1,18 +1,54 @@
 package com.github.mtakaki.credentialstorage;
 
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.github.mtakaki.credentialstorage.bulkhead.BulkheadFeature;
 import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.database.AuditEventDAO;
+import com.github.mtakaki.credentialstorage.database.AuditStatsDAO;
+import com.github.mtakaki.credentialstorage.database.ConnectionProvider;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.RateLimitDAO;
+import com.github.mtakaki.credentialstorage.database.cold.ColdTier;
+import com.github.mtakaki.credentialstorage.database.journal.WriteJournal;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.grpc.CredentialStorageService;
 import com.github.mtakaki.credentialstorage.healthchecks.RedisHealthCheck;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimitFeature;
+import com.github.mtakaki.credentialstorage.limit.RateLimitFeature;
+import com.github.mtakaki.credentialstorage.limit.RateLimiter;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CredentialReaper;
+import com.github.mtakaki.credentialstorage.managed.CredentialWatcher;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.github.mtakaki.credentialstorage.managed.GrpcServer;
 import com.github.mtakaki.credentialstorage.managed.JedisManaged;
+import com.github.mtakaki.credentialstorage.managed.JournalReplayer;
+import com.github.mtakaki.credentialstorage.managed.LocalSnapshot;
+import com.github.mtakaki.credentialstorage.managed.TieringEngine;
+import com.github.mtakaki.credentialstorage.resources.BinaryFormats;
+import com.github.mtakaki.credentialstorage.resources.BlobResource;
 import com.github.mtakaki.credentialstorage.resources.CredentialResource;
+import com.github.mtakaki.credentialstorage.resources.GroupResource;
 import com.github.mtakaki.credentialstorage.resources.admin.AuditResource;
+import com.github.mtakaki.credentialstorage.resources.admin.CryptoProviderResource;
+import com.github.mtakaki.credentialstorage.resources.admin.RateLimitResource;
+import com.github.mtakaki.credentialstorage.resources.admin.SearchResource;
+import com.github.mtakaki.credentialstorage.tasks.CatalogueStatsTask;
+import com.github.mtakaki.credentialstorage.tasks.CredentialBackupTask;
+import com.github.mtakaki.credentialstorage.tasks.CredentialRestoreTask;
+import com.github.mtakaki.credentialstorage.tasks.DescriptionIndexTask;
+import com.github.mtakaki.credentialstorage.tasks.KeyLayoutMigrationTask;
+import com.github.mtakaki.credentialstorage.tenant.TenantFilter;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
 import com.github.mtakaki.dropwizard.admin.AdminResourceBundle;
 import com.github.mtakaki.dropwizard.circuitbreaker.jersey.CircuitBreakerBundle;
 import com.github.mtakaki.dropwizard.circuitbreaker.jersey.CircuitBreakerConfiguration;
 import com.github.mtakaki.dropwizard.petite.PetiteBundle;
 import com.github.mtakaki.dropwizard.petite.PetiteConfiguration;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 
 import io.dropwizard.Application;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
@@ -24,7 +60,6 @@ import io.federecio.dropwizard.swagger.SwaggerBundle;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
 
 import jodd.petite.PetiteContainer;
-import redis.clients.jedis.JedisPool;
 
 /**
  * Credential storage application. This is our main application class.
@@ -82,17 +117,82 @@ public class CredentialStorageApplication extends Application<CredentialStorageC
             final Environment environment) throws Exception {
         final JedisManaged jedisManaged = this.buildJedis(configuration.getRedis());
         environment.lifecycle().manage(jedisManaged);
+        // The databases of the tenants, used in place of the default one while
+        // serving them.
+        final TenantPool tenantPool = new TenantPool(configuration.getRedis(),
+                jedisManaged.getJedisPool(), environment.metrics());
+        environment.lifecycle().manage(tenantPool);
+        final TenantFilter tenantFilter = new TenantFilter(tenantPool);
         final PetiteContainer petiteContainer = this.petite.getPetiteContainer();
-        this.registerExternalDependencies(configuration, environment, jedisManaged,
+        this.registerExternalDependencies(configuration, environment, tenantPool,
                 petiteContainer);
 
+        // Local copy of the credentials, serving reads while redis is down.
+        final LocalSnapshot localSnapshot = new LocalSnapshot(configuration.getSnapshot(),
+                petiteContainer.getBean(CredentialDAO.class), environment.metrics());
+        environment.lifecycle().manage(localSnapshot);
+        petiteContainer.addBean(LocalSnapshot.class.getName(), localSnapshot);
+
+        // Separate connections and concurrency limits for the user reads,
+        // the user writes and the admin requests.
+        final BulkheadFeature bulkheadFeature = new BulkheadFeature(configuration.getRedis(),
+                jedisManaged.getJedisPool(), environment.metrics());
+        // Adaptive limits of concurrent requests, following their latency.
+        final ConcurrencyLimitFeature concurrencyLimitFeature = new ConcurrencyLimitFeature(
+                configuration.getConcurrencyLimit(), environment.metrics());
+
         environment.getObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+        // Smile and CBOR, along with JSON.
+        environment.jersey().register(BinaryFormats.smileProvider());
+        environment.jersey().register(BinaryFormats.cborProvider());
+        environment.jersey().register(tenantFilter);
+        environment.jersey().register(new RateLimitFeature(configuration.getRateLimit(),
+                petiteContainer.getBean(RateLimiter.class)));
+        environment.jersey().register(concurrencyLimitFeature);
+        environment.jersey().register(bulkheadFeature);
         environment.jersey().register(petiteContainer.getBean(CredentialResource.class));
+        environment.jersey().register(petiteContainer.getBean(BlobResource.class));
+        environment.jersey().register(petiteContainer.getBean(GroupResource.class));
 
         // Admin resources.
         final JerseyEnvironment adminJerseyEnvironment = this.adminResourceBundle
                 .getJerseyEnvironment();
+        adminJerseyEnvironment.register(tenantFilter);
+        adminJerseyEnvironment.register(concurrencyLimitFeature);
+        adminJerseyEnvironment.register(bulkheadFeature);
         adminJerseyEnvironment.register(petiteContainer.getBean(AuditResource.class));
+        adminJerseyEnvironment.register(petiteContainer.getBean(CryptoProviderResource.class));
+        adminJerseyEnvironment.register(petiteContainer.getBean(RateLimitResource.class));
+        adminJerseyEnvironment.register(petiteContainer.getBean(SearchResource.class));
+
+        // gRPC server, with the same credential operations, and the changes
+        // its watches follow.
+        final CredentialWatcher credentialWatcher = new CredentialWatcher(configuration.getGrpc(),
+                jedisManaged.getJedisPool(), environment.metrics());
+        environment.lifecycle().manage(credentialWatcher);
+        petiteContainer.addBean(CredentialWatcher.class.getName(), credentialWatcher);
+        environment.lifecycle().manage(new GrpcServer(configuration.getGrpc(),
+                petiteContainer.getBean(CredentialStorageService.class)));
+
+        // Background clean up of the audit sorted sets and idle credentials,
+        // of every tenant.
+        environment.lifecycle().manage(new CredentialReaper(configuration.getReaper(),
+                petiteContainer.getBean(CredentialDAO.class), tenantPool, environment.metrics()));
+        // Background move of the idle credentials to the local disk.
+        environment.lifecycle().manage(new TieringEngine(configuration.getTiering(),
+                petiteContainer.getBean(CredentialDAO.class),
+                petiteContainer.getBean(ColdTier.class), environment.metrics()));
+        // Background replay of the writes journaled while redis was down.
+        environment.lifecycle().manage(new JournalReplayer(configuration.getJournal(),
+                petiteContainer.getBean(WriteJournal.class),
+                petiteContainer.getBean(CredentialDAO.class), environment.metrics()));
+
+        // Admin tasks.
+        environment.admin().addTask(petiteContainer.getBean(KeyLayoutMigrationTask.class));
+        environment.admin().addTask(petiteContainer.getBean(CredentialBackupTask.class));
+        environment.admin().addTask(petiteContainer.getBean(CredentialRestoreTask.class));
+        environment.admin().addTask(petiteContainer.getBean(DescriptionIndexTask.class));
+        environment.admin().addTask(petiteContainer.getBean(CatalogueStatsTask.class));
 
         // Health checks
         environment.healthChecks().register("redis",
@@ -113,21 +213,64 @@ public class CredentialStorageApplication extends Application<CredentialStorageC
      *            The application configuration object.
      * @param environment
      *            The application environment.
-     * @param jedisManaged
-     *            The managed Jedis object, providing access to a redis
-     *            instance.
+     * @param tenantPool
+     *            The connections to redis, to the database of the tenant being
+     *            served.
      * @param petiteContainer
      *            The petite container where the beans will be registered.
+     * @throws GeneralSecurityException
+     *             Thrown if the keys used to self-test the JCA providers can't
+     *             be generated.
+     * @throws IOException
+     *             Thrown if the cold tier segments or the write journal can't
+     *             be read.
      */
     protected void registerExternalDependencies(
             final CredentialStorageConfiguration configuration, final Environment environment,
-            final JedisManaged jedisManaged, final PetiteContainer petiteContainer) {
-        // The SessionFactory that provides connection to the database.
-        petiteContainer.addBean(JedisPool.class.getName(), jedisManaged.getJedisPool());
+            final TenantPool tenantPool, final PetiteContainer petiteContainer)
+            throws GeneralSecurityException, IOException {
+        // The connections to the database of the tenant being served, or else
+        // from the pool of the traffic class being served.
+        petiteContainer.addBean(ConnectionProvider.class.getName(), tenantPool);
+        // And the tenants themselves, for the jobs going through all of them.
+        petiteContainer.addBean(TenantPool.class.getName(), tenantPool);
         // Hooking up our configuration just in case we need to pass it around.
         petiteContainer.addBean(CredentialStorageConfiguration.class.getName(), configuration);
-        // Our cache that will be used to reduce the load on the database.
-        petiteContainer.addBean(Cache.class.getName(),
-                CacheBuilder.from(configuration.getPublicKeysCache()).recordStats().build());
+        // Thread pool for the encryption work, bound to the application life
+        // cycle.
+        final CryptoExecutor cryptoExecutor = new CryptoExecutor(configuration.getCryptoExecutor(),
+                environment.metrics());
+        environment.lifecycle().manage(cryptoExecutor);
+        petiteContainer.addBean(CryptoExecutor.class.getName(), cryptoExecutor);
+        // Audit events and statistics, sent in batches by a background
+        // thread.
+        final AuditLog auditLog = new AuditLog(configuration.getAuditLog(),
+                new AuditEventDAO(tenantPool), new AuditStatsDAO(tenantPool),
+                environment.metrics());
+        environment.lifecycle().manage(auditLog);
+        petiteContainer.addBean(AuditLog.class.getName(), auditLog);
+        // Credentials moved out of redis, kept on the local disk.
+        final ColdTier coldTier = ColdTier.open(configuration.getTiering(), environment.metrics());
+        environment.lifecycle().manage(coldTier);
+        petiteContainer.addBean(ColdTier.class.getName(), coldTier);
+        // Writes kept on the local disk while redis is down.
+        final WriteJournal writeJournal = WriteJournal.open(configuration.getJournal(),
+                environment.metrics());
+        environment.lifecycle().manage(writeJournal);
+        petiteContainer.addBean(WriteJournal.class.getName(), writeJournal);
+        // The JCA providers, self-tested and benchmarked. It runs before the
+        // server is built, so the installed providers can be used for TLS.
+        final CryptoProviders cryptoProviders = CryptoProviders
+                .select(configuration.getCryptoProviders());
+        petiteContainer.addBean(CryptoProviders.class.getName(), cryptoProviders);
+        // Requests per public key, kept in redis if they are shared.
+        petiteContainer.addBean(RateLimiter.class.getName(),
+                new RateLimiter(configuration.getRateLimit(),
+                        petiteContainer.getBean(RateLimitDAO.class), environment.metrics()));
+        // Parsed public keys, so we don't parse them on every request.
+        petiteContainer.addBean(PublicKeyStore.class.getName(),
+                new PublicKeyStore(configuration.getPublicKeyStore(),
+                        configuration.getSymmetricKeySize(), configuration.getCipherSuite(),
+                        cryptoProviders, environment.metrics()));
     }
 }
\ No newline at end of file
@@ -4,10 +4,22 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.mtakaki.credentialstorage.configuration.AuditLogConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.BlobConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.ConcurrencyLimitConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.CryptoProviderConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.GrpcConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.JournalConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.RateLimitConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.ReaperConfiguration;
 import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.SnapshotConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TieringConfiguration;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
 import com.github.mtakaki.dropwizard.circuitbreaker.jersey.CircuitBreakerConfiguration;
 import com.github.mtakaki.dropwizard.petite.PetiteConfiguration;
-import com.google.common.cache.CacheBuilderSpec;
 
 import io.dropwizard.Configuration;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
@@ -29,13 +41,62 @@ public class CredentialStorageConfiguration extends Configuration {
     private CircuitBreakerConfiguration circuitBreaker;
 
     @NotNull
-    private CacheBuilderSpec publicKeysCache;
+    @Valid
+    private PublicKeyStoreConfiguration publicKeyStore;
 
     @JsonProperty("swagger")
     private SwaggerBundleConfiguration swaggerBundleConfiguration;
 
     private int symmetricKeySize;
 
+    // Used for new and updated records, existing records keep their own.
+    @NotNull
+    private CipherSuite cipherSuite;
+
+    @NotNull
+    @Valid
+    private CryptoProviderConfiguration cryptoProviders;
+
+    @NotNull
+    @Valid
+    private CryptoExecutorConfiguration cryptoExecutor;
+
+    @NotNull
+    @Valid
+    private ConcurrencyLimitConfiguration concurrencyLimit;
+
+    @NotNull
+    @Valid
+    private RateLimitConfiguration rateLimit;
+
+    @NotNull
+    @Valid
+    private GrpcConfiguration grpc;
+
+    @NotNull
+    @Valid
+    private BlobConfiguration blob;
+
+    @NotNull
+    @Valid
+    private AuditLogConfiguration auditLog;
+
+    @NotNull
+    @Valid
+    private ReaperConfiguration reaper;
+
+    @NotNull
+    @Valid
+    private TieringConfiguration tiering;
+
+    @NotNull
+    @Valid
+    private SnapshotConfiguration snapshot;
+
+    @NotNull
+    @Valid
+    private JournalConfiguration journal;
+
     @NotNull
     @Valid
     private final PetiteConfiguration petite = new PetiteConfiguration();
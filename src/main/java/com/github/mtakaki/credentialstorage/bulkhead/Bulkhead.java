@@ -0,0 +1,96 @@
+package com.github.mtakaki.credentialstorage.bulkhead;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.ServiceUnavailableException;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.mtakaki.credentialstorage.configuration.BulkheadConfiguration;
+
+import lombok.Getter;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Limits how many requests of a class of traffic run at the same time, and
+ * gives them their own redis connections through the {@link TrafficClassPool}.
+ * A burst or a slow query in one class can then only slow down that class,
+ * so an admin scanning the whole database doesn't hold the connections the
+ * user reads need.
+ *
+ * <p>
+ * A request waits up to the configured time for its turn, and is then
+ * rejected with {@code 503 Service Unavailable} and a {@code Retry-After}
+ * header, instead of piling up request threads.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class Bulkhead {
+    @Getter
+    private final TrafficClass trafficClass;
+    private final Semaphore permits;
+    private final long maxWaitNanos;
+    private final long retryAfterSeconds;
+    private final Timer waitTimer;
+    private final Meter rejectedMeter;
+
+    public Bulkhead(final TrafficClass trafficClass, final BulkheadConfiguration configuration,
+            final JedisPool jedisPool, final MetricRegistry metricRegistry) {
+        this.trafficClass = trafficClass;
+        this.permits = new Semaphore(configuration.getMaxConcurrent(), true);
+        this.maxWaitNanos = configuration.getMaxWait().toNanoseconds();
+        this.retryAfterSeconds = Math.max(1L, configuration.getRetryAfter().toSeconds());
+        final String name = trafficClass.getName();
+        this.waitTimer = metricRegistry.timer(MetricRegistry.name(Bulkhead.class, name, "wait"));
+        this.rejectedMeter = metricRegistry
+                .meter(MetricRegistry.name(Bulkhead.class, name, "rejected"));
+        final int maxConcurrent = configuration.getMaxConcurrent();
+        metricRegistry.register(MetricRegistry.name(Bulkhead.class, name, "active"),
+                (Gauge<Integer>) () -> maxConcurrent - this.permits.availablePermits());
+        metricRegistry.register(MetricRegistry.name(Bulkhead.class, name, "waiting"),
+                (Gauge<Integer>) this.permits::getQueueLength);
+        metricRegistry.register(MetricRegistry.name(Bulkhead.class, name, "pool-active"),
+                (Gauge<Integer>) jedisPool::getNumActive);
+        metricRegistry.register(MetricRegistry.name(Bulkhead.class, name, "pool-idle"),
+                (Gauge<Integer>) jedisPool::getNumIdle);
+        metricRegistry.register(MetricRegistry.name(Bulkhead.class, name, "pool-waiters"),
+                (Gauge<Integer>) jedisPool::getNumWaiters);
+    }
+
+    /**
+     * Waits for a turn and routes the redis connections of the current thread
+     * to this bulkhead pool. It must be followed by {@link #exit()}.
+     *
+     * @throws ServiceUnavailableException
+     *             Thrown if no turn comes within the configured wait or if
+     *             we're interrupted while waiting, which is mapped to a
+     *             {@code 503} response.
+     */
+    public void enter() {
+        final boolean acquired;
+        try (Timer.Context context = this.waitTimer.time()) {
+            acquired = this.permits.tryAcquire(this.maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException(this.retryAfterSeconds);
+        }
+        if (!acquired) {
+            this.rejectedMeter.mark();
+            throw new ServiceUnavailableException(this.retryAfterSeconds);
+        }
+        TrafficClassPool.enter(this.trafficClass);
+    }
+
+    /**
+     * Gives the turn to the next request.
+     */
+    public void exit() {
+        TrafficClassPool.exit();
+        this.permits.release();
+    }
+}
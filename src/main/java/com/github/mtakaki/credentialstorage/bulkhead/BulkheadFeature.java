@@ -0,0 +1,79 @@
+package com.github.mtakaki.credentialstorage.bulkhead;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Runs the resource methods annotated with {@link Bulkheaded} in the bulkhead
+ * of their traffic class. The turn is taken before the method is called and
+ * given back once the response is ready.
+ *
+ * @author mtakaki
+ *
+ */
+public class BulkheadFeature implements DynamicFeature {
+    private static final String BULKHEAD_PROPERTY = Bulkhead.class.getName();
+
+    private final Map<TrafficClass, Bulkhead> bulkheads = new EnumMap<>(TrafficClass.class);
+
+    public BulkheadFeature(final RedisConfiguration configuration,
+            final TrafficClassPool trafficClassPool, final MetricRegistry metricRegistry) {
+        for (final TrafficClass trafficClass : TrafficClass.values()) {
+            this.bulkheads.put(trafficClass,
+                    new Bulkhead(trafficClass, trafficClass.getConfiguration(configuration),
+                            trafficClassPool.getPool(trafficClass), metricRegistry));
+        }
+    }
+
+    @Override
+    public void configure(final ResourceInfo resourceInfo, final FeatureContext context) {
+        final Method method = resourceInfo.getResourceMethod();
+        Bulkheaded bulkheaded = method.getAnnotation(Bulkheaded.class);
+        if (bulkheaded == null) {
+            bulkheaded = resourceInfo.getResourceClass().getAnnotation(Bulkheaded.class);
+        }
+        if (bulkheaded != null) {
+            context.register(new BulkheadFilter(this.bulkheads.get(bulkheaded.value())));
+        }
+    }
+
+    // Running after the authentication and before anything else.
+    @Priority(Priorities.AUTHORIZATION + 1)
+    @AllArgsConstructor
+    private static class BulkheadFilter
+            implements ContainerRequestFilter, ContainerResponseFilter {
+        private final Bulkhead bulkhead;
+
+        @Override
+        public void filter(final ContainerRequestContext requestContext) {
+            this.bulkhead.enter();
+            requestContext.setProperty(BULKHEAD_PROPERTY, this.bulkhead);
+        }
+
+        @Override
+        public void filter(final ContainerRequestContext requestContext,
+                final ContainerResponseContext responseContext) {
+            // Rejected requests also get here, without a turn to give back.
+            if (requestContext.getProperty(BULKHEAD_PROPERTY) != null) {
+                requestContext.removeProperty(BULKHEAD_PROPERTY);
+                this.bulkhead.exit();
+            }
+        }
+    }
+}
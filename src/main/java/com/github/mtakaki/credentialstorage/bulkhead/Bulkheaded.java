@@ -0,0 +1,19 @@
+package com.github.mtakaki.credentialstorage.bulkhead;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs the annotated resource method, or all the methods of the annotated
+ * resource, in the {@link Bulkhead} of the given class of traffic.
+ *
+ * @author mtakaki
+ *
+ */
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Bulkheaded {
+    TrafficClass value();
+}
@@ -0,0 +1,38 @@
+package com.github.mtakaki.credentialstorage.bulkhead;
+
+import com.github.mtakaki.credentialstorage.configuration.BulkheadConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+
+/**
+ * The classes of traffic kept apart from each other, each with its own
+ * {@link Bulkhead}.
+ *
+ * @author mtakaki
+ *
+ */
+public enum TrafficClass {
+    READ {
+        @Override
+        public BulkheadConfiguration getConfiguration(final RedisConfiguration configuration) {
+            return configuration.getRead();
+        }
+    },
+    WRITE {
+        @Override
+        public BulkheadConfiguration getConfiguration(final RedisConfiguration configuration) {
+            return configuration.getWrite();
+        }
+    },
+    ADMIN {
+        @Override
+        public BulkheadConfiguration getConfiguration(final RedisConfiguration configuration) {
+            return configuration.getAdmin();
+        }
+    };
+
+    public abstract BulkheadConfiguration getConfiguration(RedisConfiguration configuration);
+
+    public String getName() {
+        return this.name().toLowerCase();
+    }
+}
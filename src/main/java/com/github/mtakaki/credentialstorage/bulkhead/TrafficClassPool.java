@@ -0,0 +1,68 @@
+package com.github.mtakaki.credentialstorage.bulkhead;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.github.mtakaki.credentialstorage.database.ConnectionProvider;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Hands out connections from the pool of the traffic class the current thread
+ * is serving, or from the shared pool when it's not in a {@link Bulkhead}, as
+ * the background jobs. The DAOs are given this pool, so they don't need to
+ * know which request they are serving.
+ *
+ * <p>
+ * A connection is returned to the pool it came from when it's closed.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class TrafficClassPool implements ConnectionProvider {
+    private static final ThreadLocal<TrafficClass> CURRENT = new ThreadLocal<>();
+
+    private final JedisPool sharedPool;
+    private final Map<TrafficClass, JedisPool> pools;
+
+    public TrafficClassPool(final JedisPool sharedPool,
+            final Map<TrafficClass, JedisPool> pools) {
+        this.sharedPool = sharedPool;
+        this.pools = new EnumMap<>(pools);
+    }
+
+    static void enter(final TrafficClass trafficClass) {
+        CURRENT.set(trafficClass);
+    }
+
+    static void exit() {
+        CURRENT.remove();
+    }
+
+    /**
+     * The pool of the given traffic class.
+     */
+    public JedisPool getPool(final TrafficClass trafficClass) {
+        return this.pools.get(trafficClass);
+    }
+
+    private JedisPool getCurrentPool() {
+        final TrafficClass trafficClass = CURRENT.get();
+        return trafficClass == null ? this.sharedPool : this.pools.get(trafficClass);
+    }
+
+    @Override
+    public Jedis getResource() {
+        return this.getCurrentPool().getResource();
+    }
+
+    /**
+     * Closes the shared pool and the pools of the traffic classes.
+     */
+    public void close() {
+        this.pools.values().forEach(JedisPool::close);
+        this.sharedPool.close();
+    }
+}
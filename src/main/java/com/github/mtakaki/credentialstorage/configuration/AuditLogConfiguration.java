@@ -0,0 +1,48 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the audit log of reads and changes, and its statistics.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditLogConfiguration {
+    // How many events are kept in redis, the oldest ones are removed.
+    @Min(1)
+    private long maxLength = 100000L;
+
+    // Events waiting to be sent. Once it's full new events are dropped, so
+    // requests never wait for the audit log.
+    @Min(1)
+    private int queueCapacity = 10000;
+
+    // Maximum events sent per round trip.
+    @Min(1)
+    private int batchSize = 500;
+
+    @NotNull
+    private Duration flushInterval = Duration.seconds(1L);
+
+    // How long the per minute and per hour statistics are kept. A day of
+    // minutes is as much as a heatmap request can ask for.
+    @NotNull
+    private Duration minuteRetention = Duration.hours(24L);
+
+    @NotNull
+    private Duration hourRetention = Duration.days(30L);
+
+    // Recorded in the events, defaults to the host name.
+    private String node;
+}
@@ -0,0 +1,41 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.dropwizard.validation.MaxSize;
+import io.dropwizard.validation.MinSize;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the binary secrets, which are encrypted and stored in fixed
+ * size chunks.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BlobConfiguration {
+    // Each request holds about three chunks in memory, regardless of the
+    // payload size.
+    @NotNull
+    @MinSize(1024)
+    @MaxSize(8 * 1024 * 1024)
+    private Size chunkSize = Size.kilobytes(64L);
+
+    // How long the chunks replaced by a new upload are kept, so downloads in
+    // progress can finish.
+    @NotNull
+    private Duration replacedRetention = Duration.minutes(1L);
+
+    // How long the chunks of an upload are kept without receiving any more,
+    // so the chunks of an upload that never finishes are dropped.
+    @NotNull
+    private Duration uploadTimeout = Duration.minutes(10L);
+}
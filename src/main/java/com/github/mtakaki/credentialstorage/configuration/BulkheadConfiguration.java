@@ -0,0 +1,50 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * Settings of a bulkhead, the redis connections and the number of concurrent
+ * requests set aside for a class of traffic.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkheadConfiguration {
+    // How many requests can run at the same time, the others wait for a turn.
+    @Min(1)
+    private int maxConcurrent = 8;
+
+    // How long a request waits for its turn before it's rejected.
+    @NotNull
+    private Duration maxWait = Duration.milliseconds(100L);
+
+    // Sent in the Retry-After header when a request is rejected.
+    @NotNull
+    private Duration retryAfter = Duration.seconds(1L);
+
+    // The connections used only by this class of traffic.
+    @NotNull
+    private JedisPoolConfig poolConfig = new JedisPoolConfig();
+
+    /**
+     * A bulkhead with the given number of connections.
+     */
+    public static BulkheadConfiguration of(final int maxConcurrent, final int connections) {
+        final JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(connections);
+        poolConfig.setMaxIdle(connections);
+        return new BulkheadConfiguration(maxConcurrent, Duration.milliseconds(100L),
+                Duration.seconds(1L), poolConfig);
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the adaptive concurrency limit of each endpoint, which follows
+ * the latency of its requests.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConcurrencyLimitConfiguration {
+    private boolean enabled = true;
+
+    // Limit of concurrent requests an endpoint starts with.
+    @Min(1)
+    private int initialLimit = 20;
+
+    @Min(1)
+    private int minLimit = 4;
+
+    @Min(1)
+    private int maxLimit = 500;
+
+    // How much slower than the fastest request the requests can get before
+    // the limit goes down.
+    @DecimalMin("1.0")
+    private double tolerance = 2.0;
+
+    // How much of the new limit is taken on each request, the rest is kept.
+    @DecimalMin("0.01")
+    @DecimalMax("1.0")
+    private double smoothing = 0.2;
+
+    // How many requests the fastest one is taken from, before starting over.
+    @Min(1)
+    private int latencyWindow = 1000;
+
+    // Share of their limit the writes and the admin requests can use while
+    // the reads are close to theirs.
+    @DecimalMin("0.1")
+    @DecimalMax("1.0")
+    private double lowPriorityShare = 0.5;
+}
@@ -0,0 +1,38 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the thread pool that runs the encryption work, away from the
+ * request threads.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CryptoExecutorConfiguration {
+    // Zero means one thread per available core.
+    @Min(0)
+    private int threads = 0;
+
+    // How many requests can wait for a thread before we start rejecting them.
+    @Min(1)
+    private int queueCapacity = 64;
+
+    // Sent in the Retry-After header when the queue is full.
+    @NotNull
+    private Duration retryAfter = Duration.seconds(1L);
+
+    public int getThreads() {
+        return this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors();
+    }
+}
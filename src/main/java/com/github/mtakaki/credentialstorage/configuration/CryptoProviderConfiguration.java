@@ -0,0 +1,38 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for choosing the JCA providers used for encryption.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CryptoProviderConfiguration {
+    // Provider classes added to the JVM if they are in the class path, such as
+    // org.conscrypt.OpenSSLProvider. Once added, they can also be used by name
+    // for TLS, through the jceProvider setting of the https connectors.
+    @NotNull
+    private List<String> install = new ArrayList<>();
+
+    // Provider names to choose from. Empty means all the installed providers.
+    @NotNull
+    private List<String> candidates = new ArrayList<>();
+
+    // How long each candidate is benchmarked at startup. Zero skips the
+    // benchmark and the first candidate that passes the self-test is used.
+    @NotNull
+    private Duration benchmarkDuration = Duration.milliseconds(200L);
+}
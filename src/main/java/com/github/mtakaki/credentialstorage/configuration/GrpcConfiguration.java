@@ -0,0 +1,57 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the gRPC server, serving the credential operations over HTTP/2
+ * along with the REST API.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class GrpcConfiguration {
+    // Off by default, as the calls don't go through the limits of the REST
+    // API.
+    private boolean enabled = false;
+
+    // Zero picks any free port.
+    @Min(0)
+    @Max(65535)
+    private int port = 8090;
+
+    // Calls multiplexed over a single client connection.
+    @Min(1)
+    private int maxConcurrentCallsPerConnection = 100;
+
+    @NotNull
+    private Size maxInboundMessageSize = Size.megabytes(1L);
+
+    // Public keys read by a single batch get.
+    @Min(1)
+    private int maxBatchSize = 100;
+
+    // How long the calls in progress have to finish when the server stops.
+    @NotNull
+    private Duration shutdownGracePeriod = Duration.seconds(5L);
+
+    // How long to wait before subscribing to the changes again, after losing
+    // the redis connection.
+    @NotNull
+    private Duration watchRetryInterval = Duration.seconds(1L);
+
+    // Threads telling the watches about the changes.
+    @Min(1)
+    private int watchThreads = 4;
+}
@@ -0,0 +1,47 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.dropwizard.validation.MaxSize;
+import io.dropwizard.validation.MinSize;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the local journal that keeps the credential writes while redis
+ * is unavailable.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class JournalConfiguration {
+    private boolean enabled = false;
+
+    // The journal file, which must be on a persistent disk.
+    @NotEmpty
+    private String file = "credentials.journal";
+
+    // Writes are refused, as without the journal, once it's full.
+    @NotNull
+    @MinSize(1024)
+    @MaxSize(1024 * 1024 * 1024)
+    private Size size = Size.megabytes(64L);
+
+    // How often the journal is checked for writes to be replayed.
+    @NotNull
+    private Duration replayInterval = Duration.seconds(1L);
+
+    // Writes replayed before the progress is flushed to the disk.
+    @Min(1)
+    private int batchSize = 100;
+}
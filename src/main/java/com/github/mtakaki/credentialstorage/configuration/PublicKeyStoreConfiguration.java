@@ -0,0 +1,32 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the in-memory store of parsed client public keys.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PublicKeyStoreConfiguration {
+    // Upper bound of the estimated memory used by the parsed keys.
+    @NotNull
+    private Size maximumWeight = Size.megabytes(1L);
+
+    @NotNull
+    private Duration expireAfterAccess = Duration.minutes(10L);
+
+    // How long an invalid public key is remembered before it's parsed again.
+    @NotNull
+    private Duration negativeExpiration = Duration.seconds(30L);
+}
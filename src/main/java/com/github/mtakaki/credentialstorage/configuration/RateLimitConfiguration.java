@@ -0,0 +1,75 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import io.dropwizard.util.Duration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the rate limit of the requests made with each public key.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class RateLimitConfiguration {
+    private boolean enabled = false;
+
+    // Keeps the limits in redis, so they are shared by all the servers.
+    private boolean shared = false;
+
+    // Requests per second allowed for a public key, on average.
+    @DecimalMin("0.001")
+    private double ratePerSecond = 100.0;
+
+    // Requests allowed at once, after being idle.
+    @Min(1)
+    private int burst = 200;
+
+    // Limits for the given public keys, by fingerprint.
+    @NotNull
+    @Valid
+    private List<KeyLimit> keys = new ArrayList<>();
+
+    // Upper bound of the public keys tracked in memory.
+    @Min(1)
+    private long maximumKeys = 100000L;
+
+    // A public key not used for this long is forgotten, as its limit is
+    // back to a full burst by then.
+    @NotNull
+    private Duration expireAfterAccess = Duration.minutes(5L);
+
+    /**
+     * Limit of the public key with the given hex SHA-256 fingerprint, as
+     * listed by the rejections and in the audit data.
+     */
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class KeyLimit {
+        @NotEmpty
+        @Pattern(regexp = "[0-9a-f]{64}")
+        private String fingerprint;
+
+        @DecimalMin("0.001")
+        private double ratePerSecond = 100.0;
+
+        @Min(1)
+        private int burst = 200;
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the background job that cleans up the audit sorted sets and
+ * deletes idle credentials.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReaperConfiguration {
+    private boolean enabled = true;
+
+    // Time between the end of a pass and the start of the next one.
+    @NotNull
+    private Duration interval = Duration.hours(1L);
+
+    // Sorted set members handled per round trip.
+    @Min(1)
+    private int batchSize = 100;
+
+    // Keeps the reaper from competing with the requests for redis.
+    @DecimalMin("0.1")
+    private double batchesPerSecond = 10.0;
+
+    // Credentials not accessed for this long are deleted. Disabled if not
+    // set.
+    private Duration idleExpiration;
+
+    // Only counts what would be removed, without removing anything.
+    private boolean dryRun = false;
+}
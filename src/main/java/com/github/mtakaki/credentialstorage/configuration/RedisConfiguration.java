@@ -1,5 +1,9 @@
 package com.github.mtakaki.credentialstorage.configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 import lombok.AllArgsConstructor;
@@ -13,5 +17,23 @@ import redis.clients.jedis.JedisPoolConfig;
 public class RedisConfiguration {
     @NotNull
     private String url;
+    // Used by the background jobs and anything outside of a bulkhead.
     private final JedisPoolConfig poolConfig = new JedisPoolConfig();
-}
\ No newline at end of file
+    // User requests reading credentials and blobs.
+    @NotNull
+    @Valid
+    private final BulkheadConfiguration read = BulkheadConfiguration.of(32, 8);
+    // User requests storing, renewing or deleting credentials and blobs.
+    @NotNull
+    @Valid
+    private final BulkheadConfiguration write = BulkheadConfiguration.of(16, 4);
+    // Admin and audit requests, which can scan the whole database.
+    @NotNull
+    @Valid
+    private final BulkheadConfiguration admin = BulkheadConfiguration.of(2, 2);
+    // Namespaces of the teams sharing the service, by name. Requests without
+    // a tenant are served from the url above.
+    @NotNull
+    @Valid
+    private final Map<String, TenantConfiguration> tenants = new HashMap<>();
+}
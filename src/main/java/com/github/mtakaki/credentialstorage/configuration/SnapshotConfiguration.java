@@ -0,0 +1,54 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import io.dropwizard.util.Duration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the local copy of the credentials, used to serve reads while
+ * redis is unavailable.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SnapshotConfiguration {
+    private boolean enabled = false;
+
+    // Where the snapshot is kept.
+    @NotEmpty
+    private String directory = "snapshot";
+
+    // Time between the end of a refresh and the start of the next one.
+    @NotNull
+    private Duration interval = Duration.minutes(5L);
+
+    // In between, a refresh only reads the records written since the last
+    // one. A full one also picks up the changes that don't touch the last
+    // update, such as lease renewals and replayed writes.
+    @NotNull
+    private Duration fullRefreshInterval = Duration.hours(1L);
+
+    // Keys scanned per round trip.
+    @Min(1)
+    private int batchSize = 100;
+
+    // Keeps the refresh from competing with the requests for redis.
+    @DecimalMin("0.1")
+    private double batchesPerSecond = 50.0;
+
+    // After redis fails, reads go straight to the snapshot for this long
+    // before redis is tried again.
+    @NotNull
+    private Duration retryInterval = Duration.seconds(5L);
+}
@@ -0,0 +1,43 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * Settings of a tenant, a team with its own namespace in the service. Its
+ * credentials, audit log and indexes are kept in a redis database of its own,
+ * reached through its own connections.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TenantConfiguration {
+    // Another redis server for the tenant, the default one if left out.
+    private String url;
+
+    // The logical database holding the tenant keys. No two tenants, nor the
+    // default namespace, can share one.
+    @Min(0)
+    private int database;
+
+    // The connections used only by this tenant.
+    @NotNull
+    private JedisPoolConfig poolConfig = new JedisPoolConfig();
+
+    // How many requests of the tenant can run at the same time, the others
+    // are rejected. Unlimited if left out.
+    @Min(1)
+    private Integer maxConcurrent;
+
+    // How many credentials the tenant can store. Unlimited if left out.
+    @Min(0)
+    private Long maxCredentials;
+}
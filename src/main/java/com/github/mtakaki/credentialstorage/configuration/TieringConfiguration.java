@@ -0,0 +1,61 @@
+package com.github.mtakaki.credentialstorage.configuration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.dropwizard.validation.MinSize;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Settings for the background job that moves the credentials not accessed for
+ * a while out of redis, to a store on the local disk.
+ *
+ * @author mtakaki
+ *
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TieringConfiguration {
+    private boolean enabled = false;
+
+    // Where the cold tier segments are kept. It must be on a persistent disk.
+    @NotEmpty
+    private String directory = "cold";
+
+    // Credentials not accessed for this long are moved to the disk.
+    @NotNull
+    private Duration idleThreshold = Duration.days(7L);
+
+    // Time between the end of a pass and the start of the next one.
+    @NotNull
+    private Duration interval = Duration.minutes(10L);
+
+    // Credentials moved per round trip.
+    @Min(1)
+    private int batchSize = 100;
+
+    // Keeps the job from competing with the requests for redis.
+    @DecimalMin("0.1")
+    private double batchesPerSecond = 10.0;
+
+    // A new segment file is started past this size.
+    @NotNull
+    @MinSize(1024)
+    private Size segmentSize = Size.megabytes(64L);
+
+    // Segments where less than this ratio of the bytes is still in use are
+    // rewritten after each pass.
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double compactionRatio = 0.5;
+}
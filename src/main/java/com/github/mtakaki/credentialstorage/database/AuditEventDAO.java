@@ -0,0 +1,112 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent;
+import com.github.mtakaki.credentialstorage.database.model.AuditEventPage;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Database Access Object that handles the audit log.
+ *
+ * <p>
+ * The events are stored as JSON in the {@code audit:events} sorted set, scored
+ * by an id taken from the {@code audit:sequence} counter, and the oldest events
+ * are removed once it goes over its maximum length. A batch of events is
+ * appended with a single script call. Readers page through it with the id of
+ * the last event they have seen.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+@AllArgsConstructor
+public class AuditEventDAO {
+    static final String EVENTS_KEY = "audit:events";
+    static final String SEQUENCE_KEY = "audit:sequence";
+    /*
+     * Assigns the next ids to the events, adds them to the sorted set and
+     * trims it down to its maximum length. The id is spliced in front of the
+     * event JSON, which is sent without it, so the event isn't parsed here.
+     * KEYS: events set, sequence. ARGV: maximum length, events. Returns the id
+     * of the last event.
+     */
+    private static final RedisScript APPEND_SCRIPT = new RedisScript(""
+            + "local id "
+            + "for i = 2, #ARGV do "
+            + "id = redis.call('incr', KEYS[2]) "
+            + "redis.call('zadd', KEYS[1], id, '{\"id\":' .. id .. ',' .. string.sub(ARGV[i], 2)) "
+            + "end "
+            + "redis.call('zremrangebyrank', KEYS[1], 0, -tonumber(ARGV[1]) - 1) "
+            + "return id");
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final ConnectionProvider jedisPool;
+
+    /**
+     * Appends the given events to the audit log, in order.
+     *
+     * @param events
+     *            The events to be appended. It must not be empty.
+     * @param maxLength
+     *            How many events are kept in the log. The oldest ones are
+     *            removed.
+     * @return The id assigned to the last event.
+     */
+    public long append(final List<AuditEvent> events, final long maxLength) {
+        final List<String> args = new ArrayList<>(events.size() + 1);
+        args.add(Long.toString(maxLength));
+        for (final AuditEvent event : events) {
+            try {
+                args.add(MAPPER.writeValueAsString(event));
+            } catch (final JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            return (Long) APPEND_SCRIPT.eval(jedis, Arrays.asList(EVENTS_KEY, SEQUENCE_KEY),
+                    args);
+        }
+    }
+
+    /**
+     * Retrieves the events appended after the given cursor, oldest first. If
+     * events after the cursor were already trimmed, the page starts at the
+     * oldest event kept, which can be noticed by the gap in the ids.
+     *
+     * @param cursor
+     *            The id of the last event seen, or {@code 0} to start from
+     *            the oldest event.
+     * @param count
+     *            The maximum number of events returned.
+     * @return The page of events.
+     */
+    public AuditEventPage getEvents(final long cursor, final int count) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final List<AuditEvent> events = new ArrayList<>(count);
+            for (final String event : jedis.zrangeByScore(EVENTS_KEY, "(" + cursor, "+inf", 0,
+                    count)) {
+                events.add(MAPPER.readValue(event, AuditEvent.class));
+            }
+            final long nextCursor = events.isEmpty() ? cursor
+                    : events.get(events.size() - 1).getId();
+            return new AuditEventPage(events, nextCursor);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
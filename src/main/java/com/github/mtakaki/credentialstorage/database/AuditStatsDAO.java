@@ -0,0 +1,161 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap.Bucket;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap.Granularity;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Database Access Object that handles the audit statistics.
+ *
+ * <p>
+ * Each minute and each hour has its own keys, which expire after the
+ * configured retention: {@code stats:<granularity>:<bucket>} counts the
+ * requests, {@code stats:<granularity>:<bucket>:keys} is a hash with the
+ * requests per key digest and {@code stats:<granularity>:<bucket>:callers} is
+ * a HyperLogLog of the key digests, which estimates the distinct callers in
+ * 12KB whatever their number. Both writes and reads take a single pipeline.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+@AllArgsConstructor
+public class AuditStatsDAO {
+    private static final String KEY_PREFIX = "stats:";
+    private static final String KEYS_SUFFIX = ":keys";
+    private static final String CALLERS_SUFFIX = ":callers";
+
+    private final ConnectionProvider jedisPool;
+
+    /**
+     * Counts the given events in their minute and hour buckets. The events are
+     * grouped first, so a batch takes a few commands per bucket instead of a
+     * few per event.
+     *
+     * @param events
+     *            The events to be counted.
+     * @param retentionSeconds
+     *            How long the buckets of each granularity are kept, in
+     *            seconds.
+     * @throws IOException
+     *             Thrown if the pipeline fails to be closed.
+     */
+    public void increment(final List<AuditEvent> events,
+            final Map<Granularity, Integer> retentionSeconds) throws IOException {
+        try (Jedis jedis = this.jedisPool.getResource();
+                final Pipeline pipeline = jedis.pipelined()) {
+            for (final Granularity granularity : Granularity.values()) {
+                final int expiration = retentionSeconds.get(granularity);
+                for (final Map.Entry<Long, Multiset<String>> bucket : groupByBucket(events,
+                        granularity).entrySet()) {
+                    final String countKey = this.getKey(granularity, bucket.getKey());
+                    final String keysKey = countKey + KEYS_SUFFIX;
+                    final String callersKey = countKey + CALLERS_SUFFIX;
+                    final Multiset<String> keyDigests = bucket.getValue();
+
+                    pipeline.incrBy(countKey, keyDigests.size());
+                    for (final Multiset.Entry<String> keyDigest : keyDigests.entrySet()) {
+                        pipeline.hincrBy(keysKey, keyDigest.getElement(), keyDigest.getCount());
+                    }
+                    pipeline.pfadd(callersKey,
+                            keyDigests.elementSet().toArray(new String[0]));
+                    pipeline.expire(countKey, expiration);
+                    pipeline.expire(keysKey, expiration);
+                    pipeline.expire(callersKey, expiration);
+                }
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Retrieves the buckets between the given times, both included, in a
+     * single pipeline. Expired buckets come back empty.
+     *
+     * @param granularity
+     *            The bucket size.
+     * @param from
+     *            Start of the range, as a UNIX timestamp in seconds.
+     * @param to
+     *            End of the range, as a UNIX timestamp in seconds.
+     * @param keyDigest
+     *            If not {@code null}, the requests made by this key are also
+     *            returned.
+     * @return The buckets, oldest first.
+     * @throws IOException
+     *             Thrown if the pipeline fails to be closed.
+     */
+    public AuditHeatmap getHeatmap(final Granularity granularity, final long from,
+            final long to, final String keyDigest) throws IOException {
+        final List<Long> timestamps = new ArrayList<>();
+        for (long bucket = granularity.bucketOf(from); bucket <= to; bucket += granularity
+                .getSeconds()) {
+            timestamps.add(bucket);
+        }
+
+        try (Jedis jedis = this.jedisPool.getResource();
+                final Pipeline pipeline = jedis.pipelined()) {
+            final List<Response<String>> counts = new ArrayList<>(timestamps.size());
+            final List<Response<Long>> callers = new ArrayList<>(timestamps.size());
+            final List<Response<String>> keyCounts = new ArrayList<>(timestamps.size());
+            final String[] callersKeys = new String[timestamps.size()];
+            for (int i = 0; i < timestamps.size(); i++) {
+                final String countKey = this.getKey(granularity, timestamps.get(i));
+                callersKeys[i] = countKey + CALLERS_SUFFIX;
+                counts.add(pipeline.get(countKey));
+                callers.add(pipeline.pfcount(callersKeys[i]));
+                if (keyDigest != null) {
+                    keyCounts.add(pipeline.hget(countKey + KEYS_SUFFIX, keyDigest));
+                }
+            }
+            final Response<Long> distinctCallers = callersKeys.length == 0 ? null
+                    : pipeline.pfcount(callersKeys);
+            pipeline.sync();
+
+            final List<Bucket> buckets = new ArrayList<>(timestamps.size());
+            for (int i = 0; i < timestamps.size(); i++) {
+                buckets.add(new Bucket(timestamps.get(i), parseCount(counts.get(i).get()),
+                        callers.get(i).get(),
+                        keyDigest == null ? null : parseCount(keyCounts.get(i).get())));
+            }
+            return new AuditHeatmap(granularity, buckets,
+                    distinctCallers == null ? 0L : distinctCallers.get());
+        }
+    }
+
+    private static Map<Long, Multiset<String>> groupByBucket(final List<AuditEvent> events,
+            final Granularity granularity) {
+        final Map<Long, Multiset<String>> buckets = new HashMap<>();
+        for (final AuditEvent event : events) {
+            buckets.computeIfAbsent(
+                    granularity.bucketOf(TimeUnit.MILLISECONDS.toSeconds(event.getTimestamp())),
+                    bucket -> HashMultiset.create()).add(event.getKeyDigest());
+        }
+        return buckets;
+    }
+
+    private static long parseCount(final String count) {
+        return count == null ? 0L : Long.parseLong(count);
+    }
+
+    private String getKey(final Granularity granularity, final long bucket) {
+        return KEY_PREFIX + granularity.name().toLowerCase() + ":" + bucket;
+    }
+}
@@ -0,0 +1,256 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mtakaki.credentialstorage.database.model.Blob;
+import com.google.common.base.Optional;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Transaction;
+
+/**
+ * Database Access Object that handles the binary secrets, stored as a list of
+ * encrypted chunks.
+ *
+ * <p>
+ * The description of the blob is stored under {@code blob:<digest>}, where the
+ * digest is the hex SHA-256 of the public key, and its chunks are stored in a
+ * list under {@code blob:<digest>:<upload id>}. Chunks are written and read a
+ * few at a time, so the memory used doesn't depend on the blob size. A new
+ * upload only replaces the current one once all its chunks are stored, and
+ * its chunks expire if it stops receiving them before that.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+@AllArgsConstructor
+public class BlobDAO {
+    private static final String KEY_PREFIX = "blob:";
+    private static final String UPLOAD_ID_FIELD = "uploadId";
+    // How many chunks are sent or fetched per round trip.
+    private static final int CHUNKS_PER_BATCH = 16;
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setDateFormat(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS"));
+
+    private final ConnectionProvider jedisPool;
+
+    /**
+     * Queries for the {@link Blob} stored under the given key.
+     *
+     * @param key
+     *            Key used to store the blob.
+     * @return The blob description or {@code Optional.absent()} if it's
+     *         missing.
+     */
+    public Optional<Blob> getBlobByKey(final String key) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final Map<String, String> propertyValues = jedis.hgetAll(this.getKey(key));
+            if (propertyValues.isEmpty()) {
+                return Optional.absent();
+            }
+            return Optional.of(MAPPER.convertValue(propertyValues, Blob.class));
+        }
+    }
+
+    /**
+     * Stores the given chunks and, once they are all stored, replaces the
+     * current blob, if any. The chunks of the replaced blob are kept for the
+     * given retention, so downloads in progress can finish.
+     *
+     * @param blob
+     *            The blob description. Its upload id, chunk count and creation
+     *            date are filled up here.
+     * @param chunks
+     *            The encrypted chunks, in order.
+     * @param plainTextLength
+     *            Gives the size of the plain text held by a chunk.
+     * @param replacedRetentionSeconds
+     *            How long the replaced chunks are kept, in seconds.
+     * @param uploadTimeoutSeconds
+     *            How long the chunks are kept, while the upload is in
+     *            progress, after the last ones are stored, in seconds.
+     * @throws IOException
+     *             Thrown if the pipeline fails to be closed.
+     */
+    public void save(final Blob blob, final Iterator<byte[]> chunks,
+            final ChunkLength plainTextLength, final int replacedRetentionSeconds,
+            final int uploadTimeoutSeconds) throws IOException {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            blob.setUploadId(UUID.randomUUID().toString());
+            blob.setCreatedAt(new Date());
+            final byte[] chunksKey = this.getChunksKey(blob.getKey(), blob.getUploadId());
+
+            try {
+                long chunkCount = 0L;
+                long size = 0L;
+                try (final Pipeline pipeline = jedis.pipelined()) {
+                    while (chunks.hasNext()) {
+                        final byte[] chunk = chunks.next();
+                        pipeline.rpush(chunksKey, chunk);
+                        size += plainTextLength.of(chunk);
+                        // Syncing every few chunks, so we don't pile up
+                        // replies while the client keeps sending. The chunks
+                        // expire if the upload dies before it's replaced.
+                        if (++chunkCount % CHUNKS_PER_BATCH == 0) {
+                            pipeline.expire(chunksKey, uploadTimeoutSeconds);
+                            pipeline.sync();
+                        }
+                    }
+                    pipeline.expire(chunksKey, uploadTimeoutSeconds);
+                    pipeline.sync();
+                }
+                blob.setChunkCount(chunkCount);
+                blob.setSize(size);
+
+                this.replace(jedis, blob, replacedRetentionSeconds);
+            } catch (final IOException | RuntimeException e) {
+                this.deleteChunks(chunksKey, e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Deletes the chunks of a failed upload, using another connection, as the
+     * one used for the upload may be broken. A failure here is added to the
+     * one that failed the upload, instead of replacing it.
+     */
+    private void deleteChunks(final byte[] chunksKey, final Exception uploadFailure) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.del(chunksKey);
+        } catch (final RuntimeException e) {
+            uploadFailure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Points the blob description to the new upload, retrying if another
+     * upload replaced it in the meantime.
+     */
+    private void replace(final Jedis jedis, final Blob blob, final int replacedRetentionSeconds) {
+        final String blobKey = this.getKey(blob.getKey());
+        final byte[] chunksKey = this.getChunksKey(blob.getKey(), blob.getUploadId());
+        final Map<String, String> propertyValues = MAPPER.convertValue(blob,
+                new TypeReference<Map<String, String>>() {
+                });
+        List<Object> result;
+        do {
+            jedis.watch(blobKey);
+            final String replacedUploadId = jedis.hget(blobKey, UPLOAD_ID_FIELD);
+            final Transaction transaction = jedis.multi();
+            transaction.del(blobKey);
+            transaction.hmset(blobKey, propertyValues);
+            transaction.persist(chunksKey);
+            if (replacedUploadId != null) {
+                transaction.expire(this.getChunksKey(blob.getKey(), replacedUploadId),
+                        replacedRetentionSeconds);
+            }
+            result = transaction.exec();
+        } while (result == null || result.isEmpty());
+    }
+
+    /**
+     * Reads the chunks of the given blob, in order, fetching a few of them per
+     * round trip.
+     *
+     * @param blob
+     *            The blob description, as returned by
+     *            {@link #getBlobByKey(String)}.
+     * @param consumer
+     *            Receives each chunk and its position.
+     * @throws IOException
+     *             Thrown if the consumer fails to handle a chunk.
+     */
+    public void readChunks(final Blob blob, final ChunkConsumer consumer) throws IOException {
+        final byte[] chunksKey = this.getChunksKey(blob.getKey(), blob.getUploadId());
+        long index = 0L;
+        while (index < blob.getChunkCount()) {
+            final List<byte[]> chunks;
+            // Not holding the connection while the consumer writes to a
+            // possibly slow client.
+            try (Jedis jedis = this.jedisPool.getResource()) {
+                chunks = jedis.lrange(chunksKey, index, index + CHUNKS_PER_BATCH - 1);
+            }
+            if (chunks.isEmpty()) {
+                throw new IOException(String.format(
+                        "Blob chunks are missing, it was replaced %d chunks into the read.",
+                        index));
+            }
+            for (final byte[] chunk : chunks) {
+                consumer.accept(index++, chunk);
+            }
+        }
+    }
+
+    /**
+     * Deletes the blob stored under the given key.
+     *
+     * @param key
+     *            The key that were used to store the blob.
+     * @return {@code true} if the blob could be found and could be deleted.
+     *         {@code false} if otherwise.
+     */
+    public boolean deleteByKey(final String key) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final String blobKey = this.getKey(key);
+            List<Object> result;
+            // Retrying if an upload replaced the blob in the meantime, so its
+            // chunks aren't left behind.
+            do {
+                jedis.watch(blobKey);
+                final String uploadId = jedis.hget(blobKey, UPLOAD_ID_FIELD);
+                if (uploadId == null) {
+                    jedis.unwatch();
+                    return false;
+                }
+                final Transaction transaction = jedis.multi();
+                transaction.del(blobKey);
+                transaction.del(this.getChunksKey(key, uploadId));
+                result = transaction.exec();
+            } while (result == null || result.isEmpty());
+            return true;
+        }
+    }
+
+    private String getKey(final String key) {
+        return KEY_PREFIX + KeyDigest.of(key);
+    }
+
+    private byte[] getChunksKey(final String key, final String uploadId) {
+        return (this.getKey(key) + ":" + uploadId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Receives the chunks read from the database.
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(long index, byte[] chunk) throws IOException;
+    }
+
+    /**
+     * Gives the size of the plain text held by an encrypted chunk.
+     */
+    @FunctionalInterface
+    public interface ChunkLength {
+        int of(byte[] chunk);
+    }
+}
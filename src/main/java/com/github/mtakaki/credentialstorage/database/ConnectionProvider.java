@@ -0,0 +1,21 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Hands out redis connections to the DAOs, which return them by closing them.
+ * The pool a connection comes from is picked by the provider, as the one of
+ * the tenant or the traffic class the current thread is serving, so the DAOs
+ * don't need to know which request they are serving. A single pool is given
+ * as {@code jedisPool::getResource}.
+ *
+ * @author mtakaki
+ *
+ */
+@FunctionalInterface
+public interface ConnectionProvider {
+    /**
+     * A connection, returned to its pool once it's closed.
+     */
+    Jedis getResource();
+}
@@ -2,46 +2,530 @@ package com.github.mtakaki.credentialstorage.database;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.DateTimeFormatterBuilder;
 
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mtakaki.credentialstorage.database.cold.ColdRecord;
+import com.github.mtakaki.credentialstorage.database.cold.ColdTier;
+import com.github.mtakaki.credentialstorage.database.journal.JournalEntry;
+import com.github.mtakaki.credentialstorage.database.journal.WriteJournal;
+import com.github.mtakaki.credentialstorage.database.model.CatalogueStats;
 import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.DescriptionPage;
+import com.github.mtakaki.credentialstorage.database.model.Lease;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
 import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Bytes;
 
 import jodd.petite.meta.PetiteBean;
+import jodd.petite.meta.PetiteInject;
 import lombok.AllArgsConstructor;
+import lombok.Getter;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.SafeEncoder;
 
 /**
  * Database Access Object that handles all credential operations.
  *
+ * <p>
+ * Credentials are stored under {@code cred:<digest>}, where the digest is the
+ * hex SHA-256 of the public key, and the audit sorted sets only hold the
+ * digest. The full public key is only kept inside the record. Records written
+ * by older versions, under {@code credential:<public key>}, are moved to the
+ * new layout when they are accessed or in bulk by
+ * {@link #migrateLegacyKeys(int)}.
+ * </p>
+ *
+ * <p>
+ * Credentials not accessed for a while can be moved to the {@link ColdTier},
+ * along with their sorted sets scores, by
+ * {@link #demoteIdleCredentials(long, int, int)}. They are put back in redis
+ * the first time they are read.
+ * </p>
+ *
+ * <p>
+ * Writes that can't reach redis are kept in the {@link WriteJournal}, if it's
+ * enabled, and stored later by {@link #replay(JournalEntry)}.
+ * </p>
+ *
+ * <p>
+ * Tenants keep the same keys in a database of their own, through the
+ * {@link TenantPool}, without the cold tier and the journal.
+ * </p>
+ *
+ * <p>
+ * Writes and deletes publish the digest of the credential on
+ * {@link #CHANGES_CHANNEL}, so it can be watched. Leases that expire aren't
+ * published.
+ * </p>
+ *
  * @author mitsuo
  *
  */
 @PetiteBean
-@AllArgsConstructor
 public class CredentialDAO {
     private static final String SET_LAST_UPDATED_KEY = "last_updated";
     private static final String SET_LAST_ACCESSED_KEY = "last_accessed";
-    private static final String KEY_PREFIX = "credential:";
-    private static final String KEY_FORMAT = KEY_PREFIX + "%s";
+    private static final String SET_EXPIRES_AT_KEY = "expires_at";
+    private static final String SET_DESCRIPTION_INDEX_KEY = "description_index";
+    private static final String STATS_KEY = "credential_stats";
+    private static final String STATS_LEASES_KEY = "credential_stats:leases";
+    private static final String RECOUNT_SUFFIX = ":recount";
+    private static final String KEY_PREFIX = "cred:";
+    private static final String LEGACY_KEY_PREFIX = "credential:";
+    private static final String KEY_FIELD = "key";
+    private static final String UPDATED_AT_FIELD = "updatedAt";
+    // The time of the last write, in milliseconds, telling apart the writes
+    // made in the same second of the last updated set.
+    private static final String UPDATED_AT_MILLIS_FIELD = "updatedAtMillis";
+    private static final String LAST_ACCESS_FIELD = "lastAccess";
+    private static final String EXPIRES_AT_FIELD = "expiresAt";
+    private static final String SECONDARY_FIELD = "secondary";
+    private static final String DESCRIPTION_FIELD = "description";
+    // Separates the description from the member in the description index.
+    private static final char DESCRIPTION_SEPARATOR = '\0';
+    private static final int SCAN_BATCH_SIZE = 100;
+    // The payload size histogram buckets, in bytes. Each one holds the
+    // payloads up to its size, and the last one also holds the larger ones.
+    private static final int MIN_SIZE_BUCKET = 256;
+    private static final int MAX_SIZE_BUCKET = 65536;
+    private static final String COUNT_FIELD = "count";
+    private static final String BYTES_FIELD = "bytes";
+    private static final String SIZE_FIELD_PREFIX = "size:";
+    private static final String CREATED_FIELD_PREFIX = "created:";
+    // The last access buckets, in days.
+    private static final int[] ACCESS_RECENCY_DAYS = { 1, 7, 30, 90 };
+    // ZRANGEBYLEX bound prefixes.
+    private static final byte[] INCLUSIVE = { '[' };
+    private static final byte[] EXCLUSIVE = { '(' };
+    // Index entries are binary, so the cursors handed out are encoded.
+    private static final BaseEncoding CURSOR_ENCODING = BaseEncoding.base64Url().omitPadding();
+    /**
+     * Channel where the digest of a credential is published whenever it's
+     * written or deleted.
+     */
+    public static final String CHANGES_CHANNEL = "cred-changes";
+    /*
+     * Lua functions shared by the scripts that write or delete records, which
+     * keep the catalogue statistics and the description index up to date.
+     * Like the changes channel, their keys have fixed names. A record counts
+     * its primary and secondary as its size and its createdAt month as its
+     * age. Records with a lease keep a copy of what they count in the leases
+     * hash, as redis removes them on its own. stored reads what a record
+     * counts, from its lease entry if redis already expired it, and update
+     * applies the difference between two versions of a record, so replacing
+     * a record with a similar one only takes a few commands. Records moved to
+     * the cold tier keep their index entry.
+     */
+    private static final String TRACKING_FUNCTIONS = ""
+            + "local stats, leases, index = '" + STATS_KEY + "', '" + STATS_LEASES_KEY + "', '"
+            + SET_DESCRIPTION_INDEX_KEY + "' "
+            + "local function add(field, delta) "
+            + "if redis.call('hincrby', stats, field, delta) == 0 then "
+            + "redis.call('hdel', stats, field) end "
+            + "end "
+            + "local function move(prefix, from, to) "
+            + "if from == to then return end "
+            + "if from then add(prefix .. from, -1) end "
+            + "if to then add(prefix .. to, 1) end "
+            + "end "
+            + "local function counted(size, month, description, leased) "
+            + "local bucket = " + MIN_SIZE_BUCKET + " "
+            + "while bucket < size and bucket < " + MAX_SIZE_BUCKET + " do bucket = bucket * 2 end "
+            + "if month == '' then month = nil end "
+            + "return {size = size, bucket = bucket, month = month, description = description, "
+            + "leased = leased} "
+            + "end "
+            + "local function current(record) "
+            + "local fields = redis.call('hmget', record, 'primary', 'secondary', 'createdAt', "
+            + "'description', 'expiresAt') "
+            + "if not (fields[1] or fields[2] or fields[3] or fields[4]) "
+            + "and redis.call('exists', record) == 0 then return nil end "
+            + "return counted(#(fields[1] or '') + #(fields[2] or ''), "
+            + "string.sub(fields[3] or '', 1, 7), fields[4] or '', fields[5] ~= false) "
+            + "end "
+            + "local function stored(record, member) "
+            + "local record = current(record) "
+            + "if record then return record end "
+            + "local entry = redis.call('hget', leases, member) "
+            + "if not entry then return nil end "
+            + "local size, month, description = string.match(entry, '^(%d+) (%S*) (.*)$') "
+            + "return counted(tonumber(size), month, description, true) "
+            + "end "
+            + "local function update(member, old, new, keepIndex) "
+            + "local none = {size = 0, description = ''} "
+            + "local from, to = old or none, new or none "
+            + "if (old == nil) ~= (new == nil) then add('count', new and 1 or -1) end "
+            + "if from.size ~= to.size then add('bytes', to.size - from.size) end "
+            + "move('size:', from.bucket, to.bucket) "
+            + "move('created:', from.month, to.month) "
+            + "if from.description ~= to.description then "
+            + "if from.description ~= '' and not keepIndex then "
+            + "redis.call('zrem', index, from.description .. '\\0' .. member) end "
+            + "if to.description ~= '' then "
+            + "redis.call('zadd', index, 0, to.description .. '\\0' .. member) end "
+            + "end "
+            + "if to.leased then "
+            + "redis.call('hset', leases, member, "
+            + "to.size .. ' ' .. (to.month or '') .. ' ' .. to.description) "
+            + "elseif from.leased then redis.call('hdel', leases, member) end "
+            + "end "
+            + "local function track(record, member) "
+            + "update(member, nil, current(record)) "
+            + "end "
+            + "local function untrack(record, member, keepIndex) "
+            + "update(member, stored(record, member), nil, keepIndex) "
+            + "end ";
+    /*
+     * Replaces a record, along with its sorted sets members, its lease, its
+     * statistics and its description index entry, and removes any copy in the
+     * legacy layout. The version is moved past both the stored one and the
+     * one in the given fields, which the record was read with. KEYS: record,
+     * last accessed set, last updated set, expires at set, legacy record.
+     * ARGV: UNIX timestamp, sorted set member, lease expiration or an empty
+     * string, then the record fields and values. Returns the version.
+     */
+    private static final RedisScript SAVE_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "local before = stored(KEYS[1], ARGV[2]) "
+            + "local version = tonumber(redis.call('hget', KEYS[1], 'version') or '0') + 1 "
+            + "redis.call('del', KEYS[1], KEYS[5]) "
+            + "redis.call('hmset', KEYS[1], unpack(ARGV, 4)) "
+            + "version = math.max(version, "
+            + "tonumber(redis.call('hget', KEYS[1], 'version') or '0')) "
+            + "redis.call('hset', KEYS[1], 'version', version) "
+            + "redis.call('zadd', KEYS[2], ARGV[1], ARGV[2]) "
+            + "redis.call('zadd', KEYS[3], ARGV[1], ARGV[2]) "
+            // The hash is recreated, so the lease has to be set again.
+            + "if ARGV[3] ~= '' then "
+            + "redis.call('expireat', KEYS[1], ARGV[3]) "
+            + "redis.call('zadd', KEYS[4], ARGV[3], ARGV[2]) "
+            + "else redis.call('zrem', KEYS[4], ARGV[2]) end "
+            + "for i = 2, 3 do redis.call('zrem', KEYS[i], KEYS[5]) end "
+            + "update(ARGV[2], before, current(KEYS[1])) "
+            + "redis.call('publish', '" + CHANGES_CHANNEL + "', ARGV[2]) "
+            + "return version");
+    /*
+     * Deletes a record and its legacy copy, along with their sorted sets
+     * members, statistics and description index entry. KEYS: record, last
+     * accessed set, last updated set, expires at set, legacy record. ARGV:
+     * sorted set member. Returns how many records were deleted.
+     */
+    private static final RedisScript DELETE_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "untrack(KEYS[1], ARGV[1]) "
+            + "local deleted = redis.call('del', KEYS[1], KEYS[5]) "
+            + "for i = 2, 3 do redis.call('zrem', KEYS[i], ARGV[1], KEYS[5]) end "
+            + "redis.call('zrem', KEYS[4], ARGV[1]) "
+            + "redis.call('publish', '" + CHANGES_CHANNEL + "', ARGV[1]) "
+            + "return deleted");
+    /*
+     * Counts a batch of records into a new copy of the statistics, which
+     * replaces the current one after the last batch. KEYS: new statistics,
+     * new leases, statistics, leases, then the record of each member. ARGV:
+     * first batch flag, last batch flag, then the members. Returns how many
+     * records were counted.
+     */
+    private static final RedisScript RECOUNT_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "if ARGV[1] == '1' then redis.call('del', KEYS[1], KEYS[2]) end "
+            + "stats, leases = KEYS[1], KEYS[2] "
+            + "local counted = 0 "
+            + "for i = 5, #KEYS do "
+            + "if redis.call('exists', KEYS[i]) == 1 then "
+            + "track(KEYS[i], ARGV[i - 2]) "
+            + "counted = counted + 1 end "
+            + "end "
+            + "if ARGV[2] == '1' then "
+            + "for i = 1, 2 do "
+            + "if redis.call('exists', KEYS[i]) == 1 then "
+            + "redis.call('rename', KEYS[i], KEYS[i + 2]) "
+            + "else redis.call('del', KEYS[i + 2]) end "
+            + "end "
+            + "end "
+            + "return counted");
+    /*
+     * Indexes the description of the given records, skipping the ones that
+     * are gone or have no description. KEYS: description index, then the
+     * record of each member. ARGV: the members. Returns how many were indexed.
+     */
+    private static final RedisScript INDEX_RECORDS_SCRIPT = new RedisScript(""
+            + "local indexed = 0 "
+            + "for i = 2, #KEYS do "
+            + "local description = redis.call('hget', KEYS[i], 'description') "
+            + "if description and description ~= '' then "
+            + "indexed = indexed + redis.call('zadd', KEYS[1], 0, "
+            + "description .. '\\0' .. ARGV[i - 1]) end "
+            + "end "
+            + "return indexed");
+    /*
+     * Removes the given description index entries, unless their record has
+     * been given that description since they were listed. KEYS: description
+     * index, then the record of each entry. ARGV: for each entry, the entry
+     * and its description. Returns how many were removed.
+     */
+    private static final RedisScript REMOVE_STALE_DESCRIPTIONS_SCRIPT = new RedisScript(""
+            + "local removed = 0 "
+            + "for i = 2, #KEYS do "
+            + "local j = (i - 2) * 2 "
+            + "if redis.call('hget', KEYS[i], 'description') ~= ARGV[j + 2] then "
+            + "removed = removed + redis.call('zrem', KEYS[1], ARGV[j + 1]) end "
+            + "end "
+            + "return removed");
+    /*
+     * Retrieves the record and, only if it exists, updates its lastAccess and
+     * the last_accessed sorted set. KEYS: record, last accessed set. ARGV:
+     * formatted timestamp, UNIX timestamp, sorted set member.
+     */
+    private static final RedisScript GET_AND_TOUCH_SCRIPT = new RedisScript(""
+            + "local record = redis.call('hgetall', KEYS[1]) "
+            + "if #record > 0 then "
+            + "redis.call('hset', KEYS[1], 'lastAccess', ARGV[1]) "
+            + "redis.call('zadd', KEYS[2], ARGV[2], ARGV[3]) "
+            + "end "
+            + "return record");
+    /*
+     * Moves a legacy record to the new layout, keeping the newest copy if both
+     * exist, carries over its audit scores and starts tracking it. KEYS:
+     * legacy record, record, last accessed set, last updated set. ARGV: the
+     * new sorted sets member. The result is returned as a string, as
+     * pipelined scripts are parsed as strings.
+     */
+    private static final RedisScript MIGRATE_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "if redis.call('exists', KEYS[1]) == 0 then return '0' end "
+            + "if redis.call('exists', KEYS[2]) == 0 then "
+            + "redis.call('rename', KEYS[1], KEYS[2]) "
+            + "track(KEYS[2], ARGV[1]) "
+            + "else redis.call('del', KEYS[1]) end "
+            + "for i = 3, 4 do "
+            + "local score = redis.call('zscore', KEYS[i], KEYS[1]) "
+            + "if score then "
+            + "redis.call('zrem', KEYS[i], KEYS[1]) "
+            + "if not redis.call('zscore', KEYS[i], ARGV[1]) then "
+            + "redis.call('zadd', KEYS[i], score, ARGV[1]) end "
+            + "end "
+            + "end "
+            + "return '1'");
+    private static final String MIGRATED = "1";
+    /*
+     * Removes the members of a sorted set whose record is gone, or only counts
+     * them on a dry run. KEYS: sorted set, then the record of each member.
+     * ARGV: dry run flag, then the members.
+     */
+    private static final RedisScript REMOVE_ORPHANS_SCRIPT = new RedisScript(""
+            + "local orphans = 0 "
+            + "for i = 2, #KEYS do "
+            + "if redis.call('exists', KEYS[i]) == 0 then "
+            + "orphans = orphans + 1 "
+            + "if ARGV[1] == '0' then redis.call('zrem', KEYS[1], ARGV[i]) end "
+            + "end "
+            + "end "
+            + "return orphans");
+    /*
+     * Deletes the records that are still not accessed since the horizon, and
+     * their sorted sets members, or only counts them on a dry run. The score
+     * is checked again, so a record read since it was listed is kept. KEYS:
+     * last accessed set, last updated set, then the record of each member.
+     * ARGV: horizon, dry run flag, then the members.
+     */
+    private static final RedisScript EXPIRE_IDLE_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "local expired = 0 "
+            + "for i = 3, #KEYS do "
+            + "local score = redis.call('zscore', KEYS[1], ARGV[i]) "
+            + "if score and tonumber(score) <= tonumber(ARGV[1]) then "
+            + "expired = expired + 1 "
+            + "if ARGV[2] == '0' then "
+            + "untrack(KEYS[i], ARGV[i]) "
+            + "redis.call('del', KEYS[i]) "
+            + "redis.call('zrem', KEYS[1], ARGV[i]) "
+            + "redis.call('zrem', KEYS[2], ARGV[i]) "
+            + "end "
+            + "end "
+            + "end "
+            + "return expired");
+    /*
+     * Moves the lease expiration forward, if the record exists, using the
+     * given lease duration or else the stored one. KEYS: record, expires at
+     * set. ARGV: UNIX timestamp, lease duration or an empty string, sorted
+     * set member. Returns the lease duration and expiration, or nil.
+     */
+    private static final RedisScript RENEW_LEASE_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "if redis.call('exists', KEYS[1]) == 0 then return nil end "
+            + "local ttl = ARGV[2] "
+            + "if ttl == '' then ttl = redis.call('hget', KEYS[1], 'ttl') end "
+            + "if not ttl then return nil end "
+            + "local expiresAt = tonumber(ARGV[1]) + tonumber(ttl) "
+            + "local before = current(KEYS[1]) "
+            + "redis.call('hmset', KEYS[1], 'ttl', ttl, 'expiresAt', expiresAt) "
+            + "update(ARGV[3], before, current(KEYS[1])) "
+            + "redis.call('expireat', KEYS[1], expiresAt) "
+            + "redis.call('zadd', KEYS[2], expiresAt, ARGV[3]) "
+            + "return {tonumber(ttl), expiresAt}");
+    /*
+     * Sets the given fields of the record, if it exists and, when a version is
+     * given, it's still the stored one, and bumps its version. KEYS: record,
+     * last updated set. ARGV: expected version or an empty string, sorted set
+     * member, UNIX timestamp, fields to remove as a comma separated list or an
+     * empty string, then the fields and values to set. Returns a status, 0 if
+     * it's missing, 1 if it was patched and 2 on a version conflict, and the
+     * version.
+     */
+    private static final RedisScript PATCH_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "if redis.call('exists', KEYS[1]) == 0 then return {0, 0} end "
+            + "local version = tonumber(redis.call('hget', KEYS[1], 'version') or '0') "
+            + "if ARGV[1] ~= '' and tonumber(ARGV[1]) ~= version then return {2, version} end "
+            + "local before = current(KEYS[1]) "
+            + "for field in string.gmatch(ARGV[4], '[^,]+') do "
+            + "redis.call('hdel', KEYS[1], field) end "
+            + "version = version + 1 "
+            + "redis.call('hmset', KEYS[1], 'version', version, unpack(ARGV, 5)) "
+            + "update(ARGV[2], before, current(KEYS[1])) "
+            + "redis.call('zadd', KEYS[2], ARGV[3], ARGV[2]) "
+            + "redis.call('publish', '" + CHANGES_CHANNEL + "', ARGV[2]) "
+            + "return {1, version}");
+    /*
+     * Removes the sorted sets members of the given expired leases, and takes
+     * them out of the statistics, unless the record is still there. KEYS:
+     * last accessed set, last updated set, expires at set, then the record of
+     * each member. ARGV: the members.
+     */
+    private static final RedisScript REMOVE_EXPIRED_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "local removed = 0 "
+            + "for i = 4, #KEYS do "
+            + "if redis.call('exists', KEYS[i]) == 0 then "
+            + "removed = removed + 1 "
+            + "untrack(KEYS[i], ARGV[i - 3]) "
+            + "for j = 1, 3 do redis.call('zrem', KEYS[j], ARGV[i - 3]) end "
+            + "end "
+            + "end "
+            + "return removed");
+    /*
+     * Deletes the records moved to the cold tier, and their sorted sets
+     * members, unless they were read or updated since they were copied. KEYS:
+     * last accessed set, last updated set, expires at set, then the record of
+     * each member. ARGV: for each member, the member, its last access score
+     * and its updatedAt field when copied. Returns a flag per member, 1 if it
+     * was deleted.
+     */
+    private static final RedisScript DEMOTE_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "local demoted = {} "
+            + "for i = 4, #KEYS do "
+            + "local j = (i - 4) * 3 "
+            + "local member = ARGV[j + 1] "
+            + "local score = redis.call('zscore', KEYS[1], member) "
+            + "local updatedAt = redis.call('hget', KEYS[i], 'updatedAt') or '' "
+            + "if score and tonumber(score) == tonumber(ARGV[j + 2]) "
+            + "and updatedAt == ARGV[j + 3] then "
+            + "untrack(KEYS[i], member, true) "
+            + "redis.call('del', KEYS[i]) "
+            + "for k = 1, 3 do redis.call('zrem', KEYS[k], member) end "
+            + "demoted[#demoted + 1] = 1 "
+            + "else demoted[#demoted + 1] = 0 end "
+            + "end "
+            + "return demoted");
+    /*
+     * Puts back a record from the cold tier, unless it was written again in
+     * the meantime. KEYS: record, last accessed set, last updated set, expires
+     * at set. ARGV: UNIX timestamp, last updated score, sorted set member,
+     * lease expiration or an empty string, then the record fields and values.
+     */
+    private static final RedisScript PROMOTE_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "if redis.call('exists', KEYS[1]) == 1 then return 0 end "
+            + "local before = stored(KEYS[1], ARGV[3]) "
+            + "redis.call('hmset', KEYS[1], unpack(ARGV, 5)) "
+            + "update(ARGV[3], before, current(KEYS[1])) "
+            + "redis.call('zadd', KEYS[2], ARGV[1], ARGV[3]) "
+            + "redis.call('zadd', KEYS[3], ARGV[2], ARGV[3]) "
+            + "if ARGV[4] ~= '' then "
+            + "redis.call('expireat', KEYS[1], ARGV[4]) "
+            + "redis.call('zadd', KEYS[4], ARGV[4], ARGV[3]) "
+            + "end "
+            + "return 1");
+    /*
+     * Stores a journaled or backed up record, unless the record was written
+     * again since then, and removes any copy in the legacy layout. A record
+     * written in the same second is kept, unless its write time in
+     * milliseconds shows it's older. As on a save, the version is moved past
+     * the stored one, as a journaled write only knows the version it was read
+     * with. KEYS: record, last accessed set, last updated set, expires at set,
+     * legacy record. ARGV: last updated score, sorted set member, lease expiration
+     * or an empty string, last accessed score, then the record fields and
+     * values. The result is returned as a string, as pipelined scripts are
+     * parsed as strings.
+     */
+    private static final RedisScript REPLAY_SCRIPT = new RedisScript(TRACKING_FUNCTIONS
+            + "local score = redis.call('zscore', KEYS[3], ARGV[2]) "
+            + "if score and tonumber(score) >= tonumber(ARGV[1]) then "
+            + "local stored = tonumber(redis.call('hget', KEYS[1], '" + UPDATED_AT_MILLIS_FIELD
+            + "') or '0') "
+            + "local replayed = 0 "
+            + "for i = 5, #ARGV - 1, 2 do "
+            + "if ARGV[i] == '" + UPDATED_AT_MILLIS_FIELD + "' then "
+            + "replayed = tonumber(ARGV[i + 1]) end "
+            + "end "
+            + "if tonumber(score) > tonumber(ARGV[1]) or replayed <= stored then return '0' end "
+            + "end "
+            + "local before = stored(KEYS[1], ARGV[2]) "
+            + "local version = tonumber(redis.call('hget', KEYS[1], 'version') or '0') + 1 "
+            + "redis.call('del', KEYS[1], KEYS[5]) "
+            + "redis.call('hmset', KEYS[1], unpack(ARGV, 5)) "
+            + "if tonumber(redis.call('hget', KEYS[1], 'version') or '0') < version then "
+            + "redis.call('hset', KEYS[1], 'version', version) end "
+            + "update(ARGV[2], before, current(KEYS[1])) "
+            + "redis.call('zadd', KEYS[2], ARGV[4], ARGV[2]) "
+            + "redis.call('zadd', KEYS[3], ARGV[1], ARGV[2]) "
+            + "if ARGV[3] ~= '' then "
+            + "redis.call('expireat', KEYS[1], ARGV[3]) "
+            + "redis.call('zadd', KEYS[4], ARGV[3], ARGV[2]) "
+            + "else redis.call('zrem', KEYS[4], ARGV[2]) end "
+            + "for i = 2, 3 do redis.call('zrem', KEYS[i], KEYS[5]) end "
+            + "return '1'");
+    private static final String REPLAYED = "1";
+    /*
+     * Reads the given records and their sorted sets scores, atomically. KEYS:
+     * last accessed set, last updated set, then the record of each member.
+     * ARGV: the members. Returns, for each record, its fields and values
+     * followed by both scores, or an empty list if it's gone.
+     */
+    private static final RedisScript EXPORT_SCRIPT = new RedisScript(""
+            + "local records = {} "
+            + "for i = 3, #KEYS do "
+            + "local record = redis.call('hgetall', KEYS[i]) "
+            + "if #record > 0 then "
+            + "for j = 1, 2 do "
+            + "record[#record + 1] = redis.call('zscore', KEYS[j], ARGV[i - 2]) or '0' end "
+            + "end "
+            + "records[#records + 1] = record "
+            + "end "
+            + "return records");
     private static final ObjectMapper MAPPER = new ObjectMapper()
             .setSerializationInclusion(Include.NON_NULL)
             .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
@@ -52,7 +536,42 @@ public class CredentialDAO {
             .appendMinuteOfHour(2).appendLiteral(':').appendSecondOfMinute(2).appendLiteral('.')
             .appendMillisOfSecond(3).toFormatter();
 
-    private final JedisPool jedisPool;
+    private final ConnectionProvider jedisPool;
+    private final ColdTier coldTier;
+    private final WriteJournal writeJournal;
+
+    public CredentialDAO(final ConnectionProvider jedisPool) {
+        this(jedisPool, ColdTier.DISABLED);
+    }
+
+    public CredentialDAO(final ConnectionProvider jedisPool, final ColdTier coldTier) {
+        this(jedisPool, coldTier, WriteJournal.DISABLED);
+    }
+
+    @PetiteInject
+    public CredentialDAO(final ConnectionProvider jedisPool, final ColdTier coldTier,
+            final WriteJournal writeJournal) {
+        this.jedisPool = jedisPool;
+        this.coldTier = coldTier;
+        this.writeJournal = writeJournal;
+    }
+
+    // Both are kept on the local disk, where the records of a tenant would
+    // end up mixed with the default namespace ones.
+    private ColdTier getColdTier() {
+        return TenantPool.getCurrent() == null ? this.coldTier : ColdTier.DISABLED;
+    }
+
+    private WriteJournal getWriteJournal() {
+        return TenantPool.getCurrent() == null ? this.writeJournal : WriteJournal.DISABLED;
+    }
+
+    /**
+     * Whether writes are kept in the journal while redis is unavailable.
+     */
+    public boolean isJournalEnabled() {
+        return this.getWriteJournal().isEnabled();
+    }
 
     /**
      * Queries for a {@link Credential} stored under the given key.
@@ -66,67 +585,438 @@ public class CredentialDAO {
      */
     public Optional<Credential> getCredentialByKey(final String key) throws IOException {
         try (Jedis jedis = this.jedisPool.getResource()) {
+            List<String> record = this.getAndTouch(jedis, key);
+            if (record.isEmpty() && this.migrateLegacyKey(jedis, key)) {
+                record = this.getAndTouch(jedis, key);
+            }
+
+            final Map<String, String> propertyValues;
+            if (!record.isEmpty()) {
+                this.getColdTier().markHot();
+                propertyValues = new HashMap<>();
+                for (int i = 0; i + 1 < record.size(); i += 2) {
+                    propertyValues.put(record.get(i), record.get(i + 1));
+                }
+            } else {
+                propertyValues = this.promote(jedis, key);
+                if (propertyValues.isEmpty()) {
+                    this.getColdTier().markMiss();
+                }
+            }
+            return toCredential(propertyValues);
+        }
+    }
+
+    /**
+     * Queries for the {@link Credential}s stored under the given keys, reading
+     * them from redis in a single round trip. Keys not found there, which may
+     * be in the legacy layout or in the cold tier, are then read one by one.
+     *
+     * @param keys
+     *            Keys used to store the credentials.
+     * @return The credential stored under each key, in the same order, or
+     *         {@code Optional.absent()} if it's missing.
+     * @throws IOException
+     *             Thrown if the pipeline fails to be closed.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Optional<Credential>> getCredentialsByKeys(final List<String> keys)
+            throws IOException {
+        final List<Response<Object>> responses = new ArrayList<>(keys.size());
+        final DateTime lastAccesTimestamp = new DateTime();
+        final byte[] formattedTimestamp = SafeEncoder
+                .encode(TIMESTAMP_FORMATTER.print(lastAccesTimestamp));
+        final byte[] timestamp = SafeEncoder
+                .encode(String.valueOf(lastAccesTimestamp.toDate().getTime() / 1000));
+        final byte[] lastAccessedKey = SafeEncoder.encode(SET_LAST_ACCESSED_KEY);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // Making sure the script is cached, so it can be pipelined by its
+            // digest. The binary pipeline keeps the list it returns.
+            jedis.scriptLoad(GET_AND_TOUCH_SCRIPT.body);
+            final byte[] sha = SafeEncoder.encode(GET_AND_TOUCH_SCRIPT.sha);
             try (final Pipeline pipeline = jedis.pipelined()) {
-                pipeline.watch(this.getKey(key));
-                /*
-                 * Transaction does the following steps: 1. Retrieve the object
-                 * from redis, with the given key. 2. Update the lastAccess
-                 * field with current timestamp. 3. Updates the last_accessed
-                 * zrange that keeps all credentials ordered for auditing.
-                 */
-                final Response<Map<String, String>> credentialJson = pipeline
-                        .hgetAll(this.getKey(key));
-                // We update lastAccess after the get.
-                final DateTime lastAccesTimestamp = new DateTime();
-                pipeline.hset(this.getKey(key), "lastAccess",
-                        TIMESTAMP_FORMATTER.print(lastAccesTimestamp));
-                pipeline.zadd(SET_LAST_ACCESSED_KEY,
-                        lastAccesTimestamp.toDate().getTime() / 1000,
-                        this.getKey(key));
+                for (final String key : keys) {
+                    responses.add(pipeline.evalsha(sha,
+                            Arrays.asList(SafeEncoder.encode(this.getKey(key)), lastAccessedKey),
+                            Arrays.asList(formattedTimestamp, timestamp,
+                                    SafeEncoder.encode(this.getMember(key)))));
+                }
                 pipeline.sync();
-                return this.createAndPopulateBean(credentialJson.get());
             }
         }
+
+        final List<Optional<Credential>> credentials = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            final List<byte[]> record = (List<byte[]>) responses.get(i).get();
+            if (record.isEmpty()) {
+                credentials.add(this.getCredentialByKey(keys.get(i)));
+                continue;
+            }
+            this.getColdTier().markHot();
+            final Map<String, String> propertyValues = new HashMap<>();
+            for (int j = 0; j + 1 < record.size(); j += 2) {
+                propertyValues.put(SafeEncoder.encode(record.get(j)),
+                        SafeEncoder.encode(record.get(j + 1)));
+            }
+            credentials.add(toCredential(propertyValues));
+        }
+        return credentials;
+    }
+
+    /**
+     * Puts the record back in redis if it's in the cold tier, touching its
+     * last access as a read from redis would.
+     *
+     * @return The record fields or an empty map if it's not in the cold tier
+     *         or its lease expired there.
+     */
+    private Map<String, String> promote(final Jedis jedis, final String key)
+            throws IOException {
+        final String member = this.getMember(key);
+        final Optional<ColdRecord> coldRecord = this.getColdTier().get(member);
+        if (!coldRecord.isPresent()) {
+            return Collections.emptyMap();
+        }
+        final DateTime now = new DateTime();
+        final long nowSeconds = now.toDate().getTime() / 1000L;
+        final Map<String, String> propertyValues = new HashMap<>(
+                coldRecord.get().getFields());
+        if (isExpired(propertyValues, nowSeconds)) {
+            this.getColdTier().remove(member);
+            return Collections.emptyMap();
+        }
+
+        try (Timer.Context context = this.getColdTier().timePromotion()) {
+            propertyValues.put(LAST_ACCESS_FIELD, TIMESTAMP_FORMATTER.print(now));
+            final String expiresAt = propertyValues.get(EXPIRES_AT_FIELD);
+            final List<String> args = new ArrayList<>(4 + propertyValues.size() * 2);
+            args.add(Long.toString(nowSeconds));
+            args.add(Long.toString(coldRecord.get().getLastUpdated()));
+            args.add(member);
+            args.add(expiresAt == null ? "" : expiresAt);
+            propertyValues.forEach((field, value) -> {
+                args.add(field);
+                args.add(value);
+            });
+            final Long promoted = (Long) PROMOTE_SCRIPT.eval(jedis,
+                    Arrays.asList(this.getKey(key), SET_LAST_ACCESSED_KEY, SET_LAST_UPDATED_KEY,
+                            SET_EXPIRES_AT_KEY),
+                    args);
+            // Redis has the record now, so the cold copy is no longer needed.
+            // A write since it was demoted takes precedence over it.
+            this.getColdTier().remove(member);
+            if (promoted == 0L) {
+                final List<String> record = this.getAndTouch(jedis, key);
+                propertyValues.clear();
+                for (int i = 0; i + 1 < record.size(); i += 2) {
+                    propertyValues.put(record.get(i), record.get(i + 1));
+                }
+            }
+            return propertyValues;
+        }
+    }
+
+    private static boolean isExpired(final Map<String, String> propertyValues,
+            final long nowSeconds) {
+        final String expiresAt = propertyValues.get(EXPIRES_AT_FIELD);
+        return expiresAt != null && Long.parseLong(expiresAt) <= nowSeconds;
+    }
+
+    /**
+     * Retrieves the record stored under the given key and updates its last
+     * access, in a single round trip.
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> getAndTouch(final Jedis jedis, final String key) {
+        // We update lastAccess after the get.
+        final DateTime lastAccesTimestamp = new DateTime();
+        return (List<String>) GET_AND_TOUCH_SCRIPT.eval(jedis,
+                Arrays.asList(this.getKey(key), SET_LAST_ACCESSED_KEY),
+                Arrays.asList(TIMESTAMP_FORMATTER.print(lastAccesTimestamp),
+                        String.valueOf(lastAccesTimestamp.toDate().getTime() / 1000),
+                        this.getMember(key)));
     }
 
-    private Optional<Credential> createAndPopulateBean(final Map<String, String> propertyValues) {
+    /**
+     * Converts the fields of a credential record to a {@link Credential}.
+     *
+     * @param propertyValues
+     *            The record hash fields.
+     * @return The credential or {@code Optional.absent()} if the record is
+     *         empty.
+     */
+    public static Optional<Credential> toCredential(final Map<String, String> propertyValues) {
         if (propertyValues.isEmpty()) {
             return Optional.absent();
         }
 
-        return Optional.of(MAPPER.convertValue(propertyValues, Credential.class));
+        final Credential credential = MAPPER.convertValue(propertyValues, Credential.class);
+        if (credential.getCipherSuite() == null) {
+            credential.setCipherSuite(CipherSuite.AES_ECB_RSA_PKCS1);
+        }
+        if (credential.getVersion() == null) {
+            credential.setVersion(0L);
+        }
+        return Optional.of(credential);
     }
 
     /**
-     * Saves or updates the given credential.
+     * Saves or updates the given credential, replacing the whole record, and
+     * moves its version past the one it was read with and the stored one,
+     * setting it on the credential. If redis can't be
+     * reached and the journal is enabled, the write is kept in the journal
+     * instead, to be replayed once redis is back.
      *
      * @param credential
      *            The credential that will be persisted to the database.
+     * @return {@code true} if the write was only stored in the journal,
+     *         {@code false} if it was stored in redis.
      * @throws IOException
-     *             Thrown if the pipeline fails to be closed.
+     *             Thrown if the cold tier copy fails to be removed.
+     * @throws JedisConnectionException
+     *             Thrown if redis can't be reached and the journal is disabled
+     *             or full.
+     */
+    public boolean save(final Credential credential) throws IOException {
+        final Date updatedTimestamp = new Date();
+        if (credential.getCreatedAt() == null) {
+            credential.setCreatedAt(updatedTimestamp);
+        }
+        credential.setUpdatedAt(updatedTimestamp);
+        credential.setLastAccess(updatedTimestamp);
+        credential.setVersion(credential.getVersion() == null ? 1L : credential.getVersion() + 1L);
+        final Map<String, String> propertyValues = MAPPER.convertValue(credential,
+                new TypeReference<Map<String, String>>() {
+                });
+        propertyValues.put(UPDATED_AT_MILLIS_FIELD, Long.toString(updatedTimestamp.getTime()));
+
+        final List<String> args = new ArrayList<>(3 + propertyValues.size() * 2);
+        args.add(Long.toString(updatedTimestamp.getTime() / 1000));
+        args.add(this.getMember(credential.getKey()));
+        args.add(credential.getExpiresAt() == null ? "" : credential.getExpiresAt().toString());
+        propertyValues.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+
+        // A single script, so the version, the statistics and the description
+        // index are updated atomically along with the record.
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            credential.setVersion((Long) SAVE_SCRIPT.eval(jedis,
+                    this.getWriteKeys(credential.getKey()), args));
+        } catch (final JedisConnectionException e) {
+            if (!this.getWriteJournal().isEnabled()
+                    || !this.getWriteJournal().append(new JournalEntry(credential.getKey(),
+                            propertyValues, updatedTimestamp.getTime() / 1000))) {
+                throw e;
+            }
+            return true;
+        }
+        // And so is any copy in the cold tier, making sure it can't come back
+        // after a crash.
+        final String member = this.getMember(credential.getKey());
+        if (this.getColdTier().contains(member)) {
+            this.getColdTier().remove(member);
+            this.getColdTier().sync();
+        }
+        return false;
+    }
+
+    /**
+     * Stores a write kept in the journal while redis was unavailable. The
+     * write is dropped if the record was written again since then, or if its
+     * lease already expired.
+     *
+     * @param entry
+     *            The journaled write.
+     * @return {@code true} if the write was stored, {@code false} if it was
+     *         dropped.
+     * @throws IOException
+     *             Thrown if the cold tier can't be read.
      */
-    public void save(final Credential credential) throws IOException {
+    public boolean replay(final JournalEntry entry) throws IOException {
+        final String member = this.getMember(entry.getKey());
+        if (!this.isReplayable(member, entry.getFields(), entry.getUpdatedAt())) {
+            return false;
+        }
         try (Jedis jedis = this.jedisPool.getResource()) {
-            final Date updatedTimestamp = new Date();
-            if (credential.getCreatedAt() == null) {
-                credential.setCreatedAt(updatedTimestamp);
+            if (!REPLAYED.equals(REPLAY_SCRIPT.eval(jedis, this.getWriteKeys(entry.getKey()),
+                    getReplayArgs(member, entry.getFields(), entry.getUpdatedAt(),
+                            entry.getUpdatedAt())))) {
+                return false;
             }
-            credential.setUpdatedAt(updatedTimestamp);
-            credential.setLastAccess(updatedTimestamp);
+            jedis.publish(CHANGES_CHANNEL, member);
+        }
+        this.getColdTier().remove(member);
+        return true;
+    }
 
+    /**
+     * Reads a batch of credential records, along with their sorted sets
+     * scores, scanning the key space. Each batch is read atomically. Records
+     * in the legacy layout are skipped.
+     *
+     * @param cursor
+     *            Where the scan stopped, {@link ScanParams#SCAN_POINTER_START}
+     *            to start a new one.
+     * @param batchSize
+     *            How many keys are scanned per round trip.
+     * @param consumer
+     *            Receives the records found, if any.
+     * @return Where the next batch starts, or
+     *         {@link ScanParams#SCAN_POINTER_START} once the scan is done.
+     * @throws IOException
+     *             Thrown if the consumer fails to handle the batch.
+     */
+    @SuppressWarnings("unchecked")
+    public String exportCredentials(final String cursor, final int batchSize,
+            final BatchConsumer consumer) throws IOException {
+        final List<ColdRecord> batch = new ArrayList<>(batchSize);
+        final ScanResult<String> result;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            result = jedis.scan(cursor, new ScanParams().match(KEY_PREFIX + "*").count(batchSize));
+            if (!result.getResult().isEmpty()) {
+                final List<String> keys = new ArrayList<>(result.getResult().size() + 2);
+                keys.add(SET_LAST_ACCESSED_KEY);
+                keys.add(SET_LAST_UPDATED_KEY);
+                keys.addAll(result.getResult());
+                final List<String> members = result.getResult().stream()
+                        .map(credentialKey -> credentialKey.substring(KEY_PREFIX.length()))
+                        .collect(Collectors.toList());
+                for (final List<String> record : (List<List<String>>) EXPORT_SCRIPT.eval(jedis,
+                        keys, members)) {
+                    // Gone since it was scanned.
+                    if (record.isEmpty()) {
+                        continue;
+                    }
+                    final Map<String, String> propertyValues = new HashMap<>();
+                    for (int i = 0; i + 3 < record.size(); i += 2) {
+                        propertyValues.put(record.get(i), record.get(i + 1));
+                    }
+                    batch.add(new ColdRecord(propertyValues,
+                            (long) Double.parseDouble(record.get(record.size() - 2)),
+                            (long) Double.parseDouble(record.get(record.size() - 1))));
+                }
+            }
+        }
+        // Not holding the connection while the consumer handles the batch.
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+        return result.getStringCursor();
+    }
+
+    /**
+     * Reads all the credential records in the cold tier, in batches.
+     *
+     * @param batchSize
+     *            How many records are handed over at a time.
+     * @param consumer
+     *            Receives the records.
+     * @throws IOException
+     *             Thrown if the cold tier can't be read or the consumer fails
+     *             to handle a batch.
+     */
+    public void exportColdCredentials(final int batchSize, final BatchConsumer consumer)
+            throws IOException {
+        List<ColdRecord> batch = new ArrayList<>(batchSize);
+        for (final String member : this.getColdTier().getMembers()) {
+            final Optional<ColdRecord> record = this.getColdTier().get(member);
+            // Promoted since it was listed.
+            if (record.isPresent()) {
+                batch.add(record.get());
+            }
+            if (batch.size() == batchSize) {
+                consumer.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * Stores the given backed up records, in a single round trip. A record is
+     * skipped if the stored one was written since the backup, or if its lease
+     * already expired.
+     *
+     * @param records
+     *            The records, with their sorted sets scores.
+     * @return How many records were stored.
+     * @throws IOException
+     *             Thrown if the cold tier can't be read or the pipeline fails
+     *             to be closed.
+     */
+    public long restoreCredentials(final List<ColdRecord> records) throws IOException {
+        final Map<String, Response<String>> responses = new LinkedHashMap<>();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // Making sure the script is cached, so it can be pipelined by its
+            // digest.
+            jedis.scriptLoad(REPLAY_SCRIPT.body);
             try (final Pipeline pipeline = jedis.pipelined()) {
-                final String credentialKey = this.getKey(credential.getKey());
-                pipeline.del(credentialKey);
-                pipeline.hmset(credentialKey,
-                        MAPPER.convertValue(credential, new TypeReference<Map<String, String>>() {
-                        }));
-                pipeline.zadd(SET_LAST_ACCESSED_KEY, updatedTimestamp.getTime() / 1000,
-                        credentialKey);
-                pipeline.zadd(SET_LAST_UPDATED_KEY, updatedTimestamp.getTime() / 1000,
-                        credentialKey);
+                for (final ColdRecord record : records) {
+                    final String key = record.getFields().get(KEY_FIELD);
+                    if (key == null) {
+                        continue;
+                    }
+                    final String member = this.getMember(key);
+                    if (this.isReplayable(member, record.getFields(), record.getLastUpdated())) {
+                        responses.put(member, pipeline.evalsha(REPLAY_SCRIPT.sha,
+                                this.getWriteKeys(key),
+                                getReplayArgs(member, record.getFields(),
+                                        record.getLastUpdated(), record.getLastAccessed())));
+                    }
+                }
                 pipeline.sync();
             }
         }
+        long restored = 0L;
+        for (final Map.Entry<String, Response<String>> response : responses.entrySet()) {
+            if (REPLAYED.equals(response.getValue().get())) {
+                this.getColdTier().remove(response.getKey());
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Whether a record written at the given time can still be stored: its
+     * lease didn't expire and the cold tier has no newer copy of it.
+     */
+    private boolean isReplayable(final String member, final Map<String, String> propertyValues,
+            final long lastUpdated) throws IOException {
+        if (isExpired(propertyValues, System.currentTimeMillis() / 1000L)) {
+            return false;
+        }
+        final Optional<ColdRecord> coldRecord = this.getColdTier().get(member);
+        return !coldRecord.isPresent() || coldRecord.get().getLastUpdated() <= lastUpdated;
+    }
+
+    /**
+     * The keys written along with a record, as expected by the save, delete
+     * and replay scripts.
+     */
+    private List<String> getWriteKeys(final String key) {
+        return Arrays.asList(this.getKey(key), SET_LAST_ACCESSED_KEY, SET_LAST_UPDATED_KEY,
+                SET_EXPIRES_AT_KEY, this.getLegacyKey(key));
+    }
+
+    private static List<String> getReplayArgs(final String member,
+            final Map<String, String> propertyValues, final long lastUpdated,
+            final long lastAccessed) {
+        final String expiresAt = propertyValues.get(EXPIRES_AT_FIELD);
+        final List<String> args = new ArrayList<>(4 + propertyValues.size() * 2);
+        args.add(Long.toString(lastUpdated));
+        args.add(member);
+        args.add(expiresAt == null ? "" : expiresAt);
+        args.add(Long.toString(lastAccessed));
+        propertyValues.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        return args;
     }
 
     /**
@@ -136,31 +1026,541 @@ public class CredentialDAO {
      *            The key that were used to store the credential.
      * @return {@code true} if the credential could be found and could be
      *         delete. {@code false} if otherwise.
+     * @throws IOException
+     *             Thrown if the cold tier copy fails to be removed.
      */
-    public boolean deleteByKey(final String key) {
+    public boolean deleteByKey(final String key) throws IOException {
         try (Jedis jedis = this.jedisPool.getResource()) {
-            return jedis.del(this.getKey(key)) != 0L;
+            // Removing the sorted sets members too, so they don't pile up.
+            final Long deleted = (Long) DELETE_SCRIPT.eval(jedis, this.getWriteKeys(key),
+                    Collections.singletonList(this.getMember(key)));
+            // Making sure the cold copy can't come back after a crash.
+            final String member = this.getMember(key);
+            final boolean cold = this.getColdTier().contains(member);
+            if (cold) {
+                this.getColdTier().remove(member);
+                this.getColdTier().sync();
+            }
+            return deleted != 0L || cold;
         }
     }
 
     /**
-     * Retrieves all credentials from the database.
+     * Moves forward the lease of the credential stored under the given key,
+     * without touching the rest of the record.
+     *
+     * @param key
+     *            The key that were used to store the credential.
+     * @param ttl
+     *            The new lease duration, in seconds, or {@code null} to keep
+     *            the current one.
+     * @return The renewed lease or {@code Optional.absent()} if the
+     *         credential is missing or has no lease and no duration was
+     *         given.
+     * @throws IOException
+     *             Thrown if the credential can't be read from the cold tier.
+     */
+    @SuppressWarnings("unchecked")
+    public Optional<Lease> renewLease(final String key, final Long ttl) throws IOException {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            if (this.getColdTier().contains(this.getMember(key))) {
+                this.promote(jedis, key);
+            }
+            final List<Long> lease = (List<Long>) RENEW_LEASE_SCRIPT.eval(jedis,
+                    Arrays.asList(this.getKey(key), SET_EXPIRES_AT_KEY),
+                    Arrays.asList(String.valueOf(System.currentTimeMillis() / 1000L),
+                            ttl == null ? "" : ttl.toString(), this.getMember(key)));
+            if (lease == null) {
+                return Optional.absent();
+            }
+            return Optional.of(new Lease(lease.get(0), lease.get(1)));
+        }
+    }
+
+    /**
+     * Sets only the given fields of the credential stored under the given key,
+     * along with its updatedAt, the last updated sorted set and its version,
+     * in a single round trip. The rest of the record, including its lease, is
+     * kept as it is.
+     *
+     * @param key
+     *            The key that were used to store the credential.
+     * @param changes
+     *            The fields to set. Fields left {@code null} are kept, except
+     *            for the secondary when the changes carry a new symmetric key,
+     *            as the credential pair is then replaced as a whole.
+     * @param expectedVersion
+     *            The version the changes were based on, or {@code null} to
+     *            patch whatever version is stored.
+     * @return The outcome, with the new version or, on a conflict, the stored
+     *         one.
+     * @throws IOException
+     *             Thrown if the credential can't be read from the cold tier.
+     */
+    @SuppressWarnings("unchecked")
+    public PatchResult patch(final String key, final Credential changes,
+            final Long expectedVersion) throws IOException {
+        final Date updatedTimestamp = new Date();
+        changes.setUpdatedAt(updatedTimestamp);
+        final List<String> args = new ArrayList<>();
+        args.add(expectedVersion == null ? "" : expectedVersion.toString());
+        args.add(this.getMember(key));
+        args.add(String.valueOf(updatedTimestamp.getTime() / 1000));
+        args.add(changes.getSymmetricKey() != null && changes.getSecondary() == null
+                ? SECONDARY_FIELD : "");
+        final Map<String, String> propertyValues = MAPPER.convertValue(changes,
+                new TypeReference<Map<String, String>>() {
+                });
+        propertyValues.put(UPDATED_AT_MILLIS_FIELD, Long.toString(updatedTimestamp.getTime()));
+        propertyValues.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        final List<String> keys = Arrays.asList(this.getKey(key), SET_LAST_UPDATED_KEY);
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            if (this.getColdTier().contains(this.getMember(key))) {
+                this.promote(jedis, key);
+            }
+            List<Long> result = (List<Long>) PATCH_SCRIPT.eval(jedis, keys, args);
+            if (result.get(0) == 0L && this.migrateLegacyKey(jedis, key)) {
+                result = (List<Long>) PATCH_SCRIPT.eval(jedis, keys, args);
+            }
+            return new PatchResult(PatchResult.Status.values()[result.get(0).intValue()],
+                    result.get(1));
+        }
+    }
+
+    /**
+     * Removes the sorted sets members of a batch of credentials whose lease
+     * expired. Redis removes the records on its own, so only the index needs
+     * to be cleaned up, and the expired ones are found without a scan.
+     *
+     * @param now
+     *            UNIX timestamp, in seconds.
+     * @param offset
+     *            How many expired leases to skip, as the ones whose record is
+     *            still there are left in place.
+     * @param batchSize
+     *            How many expired leases are handled.
+     * @return How many leases were listed and how many were removed.
+     */
+    public IndexBatch removeExpiredLeases(final long now, final int offset,
+            final int batchSize) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final Set<String> members = jedis.zrangeByScore(SET_EXPIRES_AT_KEY,
+                    Double.NEGATIVE_INFINITY, now, offset, batchSize);
+            long removed = 0L;
+            if (!members.isEmpty()) {
+                final List<String> keys = new ArrayList<>(members.size() + 3);
+                keys.add(SET_LAST_ACCESSED_KEY);
+                keys.add(SET_LAST_UPDATED_KEY);
+                keys.add(SET_EXPIRES_AT_KEY);
+                members.stream().map(this::getRecordKey).forEach(keys::add);
+                removed = (Long) REMOVE_EXPIRED_SCRIPT.eval(jedis, keys,
+                        new ArrayList<>(members));
+            }
+            return new IndexBatch(Long.toString(offset + members.size() - removed),
+                    members.size(), removed, members.size() < batchSize);
+        }
+    }
+
+    /**
+     * Removes a batch of sorted set members whose record no longer exists, as
+     * left behind by older versions when a credential was deleted.
+     *
+     * @param index
+     *            The sorted set to be scanned.
+     * @param cursor
+     *            Where the scan stopped, {@link ScanParams#SCAN_POINTER_START}
+     *            to start a new one.
+     * @param batchSize
+     *            How many members are scanned.
+     * @param dryRun
+     *            If {@code true}, the orphaned members are only counted.
+     * @return The scan progress and how many orphaned members were found.
+     */
+    public IndexBatch removeOrphanedMembers(final Index index, final String cursor,
+            final int batchSize, final boolean dryRun) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final ScanResult<Tuple> result = jedis.zscan(index.key, cursor,
+                    new ScanParams().count(batchSize));
+            final List<String> members = result.getResult().stream().map(Tuple::getElement)
+                    .collect(Collectors.toList());
+            long orphans = 0L;
+            if (!members.isEmpty()) {
+                final List<String> keys = new ArrayList<>(members.size() + 1);
+                keys.add(index.key);
+                members.stream().map(this::getRecordKey).forEach(keys::add);
+                final List<String> args = new ArrayList<>(members.size() + 1);
+                args.add(dryRun ? "1" : "0");
+                args.addAll(members);
+                orphans = (Long) REMOVE_ORPHANS_SCRIPT.eval(jedis, keys, args);
+            }
+            return new IndexBatch(result.getStringCursor(), members.size(), orphans,
+                    ScanParams.SCAN_POINTER_START.equals(result.getStringCursor()));
+        }
+    }
+
+    /**
+     * Deletes a batch of credentials that were not accessed since the given
+     * time.
+     *
+     * @param horizon
+     *            UNIX timestamp, in seconds, of the oldest access kept.
+     * @param offset
+     *            How many idle credentials to skip, as the ones found on a dry
+     *            run are left in place.
+     * @param batchSize
+     *            How many idle credentials are handled.
+     * @param dryRun
+     *            If {@code true}, the idle credentials are only counted.
+     * @return How many credentials were listed and how many were deleted.
+     */
+    public IndexBatch expireIdleCredentials(final long horizon, final int offset,
+            final int batchSize, final boolean dryRun) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final Set<String> members = jedis.zrangeByScore(SET_LAST_ACCESSED_KEY,
+                    Double.NEGATIVE_INFINITY, horizon, offset, batchSize);
+            long expired = 0L;
+            if (!members.isEmpty()) {
+                final List<String> keys = new ArrayList<>(members.size() + 2);
+                keys.add(SET_LAST_ACCESSED_KEY);
+                keys.add(SET_LAST_UPDATED_KEY);
+                members.stream().map(this::getRecordKey).forEach(keys::add);
+                final List<String> args = new ArrayList<>(members.size() + 2);
+                args.add(Long.toString(horizon));
+                args.add(dryRun ? "1" : "0");
+                args.addAll(members);
+                expired = (Long) EXPIRE_IDLE_SCRIPT.eval(jedis, keys, args);
+            }
+            final int nextOffset = dryRun ? offset + members.size() : offset;
+            return new IndexBatch(Integer.toString(nextOffset), members.size(), expired,
+                    members.size() < batchSize);
+        }
+    }
+
+    /**
+     * Moves a batch of credentials that were not accessed since the given
+     * time to the cold tier. They are written and flushed to the disk before
+     * being deleted from redis, and the ones read or updated in the meantime
+     * are left in redis.
+     *
+     * @param horizon
+     *            UNIX timestamp, in seconds, of the oldest access kept in
+     *            redis.
+     * @param offset
+     *            How many idle credentials to skip, as the ones that can't be
+     *            moved are left in place.
+     * @param batchSize
+     *            How many idle credentials are handled.
+     * @return How many credentials were listed and how many were moved.
+     * @throws IOException
+     *             Thrown if the cold tier can't be written.
+     */
+    @SuppressWarnings("unchecked")
+    public IndexBatch demoteIdleCredentials(final long horizon, final int offset,
+            final int batchSize) throws IOException {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final Set<Tuple> members = jedis.zrangeByScoreWithScores(SET_LAST_ACCESSED_KEY,
+                    Double.NEGATIVE_INFINITY, horizon, offset, batchSize);
+            final Map<String, Response<Map<String, String>>> records = new LinkedHashMap<>();
+            final Map<String, Response<Double>> lastUpdated = new HashMap<>();
+            try (final Pipeline pipeline = jedis.pipelined()) {
+                for (final Tuple tuple : members) {
+                    // Legacy records are left for the layout migration.
+                    if (!tuple.getElement().startsWith(LEGACY_KEY_PREFIX)) {
+                        records.put(tuple.getElement(),
+                                pipeline.hgetAll(KEY_PREFIX + tuple.getElement()));
+                        lastUpdated.put(tuple.getElement(),
+                                pipeline.zscore(SET_LAST_UPDATED_KEY, tuple.getElement()));
+                    }
+                }
+                pipeline.sync();
+            }
+
+            final Map<String, ColdRecord> coldRecords = new LinkedHashMap<>();
+            final List<String> keys = new ArrayList<>();
+            keys.add(SET_LAST_ACCESSED_KEY);
+            keys.add(SET_LAST_UPDATED_KEY);
+            keys.add(SET_EXPIRES_AT_KEY);
+            final List<String> args = new ArrayList<>();
+            for (final Tuple tuple : members) {
+                final String member = tuple.getElement();
+                final Response<Map<String, String>> record = records.get(member);
+                // Orphaned members are left for the reaper.
+                if (record == null || record.get().isEmpty()) {
+                    continue;
+                }
+                final long lastAccessed = (long) tuple.getScore();
+                final Double updated = lastUpdated.get(member).get();
+                coldRecords.put(member, new ColdRecord(record.get(), lastAccessed,
+                        updated == null ? lastAccessed : updated.longValue()));
+                keys.add(KEY_PREFIX + member);
+                args.add(member);
+                args.add(Long.toString(lastAccessed));
+                final String updatedAt = record.get().get(UPDATED_AT_FIELD);
+                args.add(updatedAt == null ? "" : updatedAt);
+            }
+
+            long demoted = 0L;
+            if (!coldRecords.isEmpty()) {
+                this.getColdTier().putAll(coldRecords);
+                final List<Long> flags = (List<Long>) DEMOTE_SCRIPT.eval(jedis, keys, args);
+                int i = 0;
+                for (final String member : coldRecords.keySet()) {
+                    if (flags.get(i++) == 1L) {
+                        demoted++;
+                    } else {
+                        // Redis still has it, or a newer version of it.
+                        this.getColdTier().remove(member);
+                    }
+                }
+            }
+            return new IndexBatch(Long.toString(offset + members.size() - demoted),
+                    members.size(), demoted, members.size() < batchSize);
+        }
+    }
+
+    /**
+     * Reads a batch of credential records, as they are stored in redis,
+     * scanning the key space. Records in the legacy layout are skipped.
+     *
+     * @param cursor
+     *            Where the scan stopped, {@link ScanParams#SCAN_POINTER_START}
+     *            to start a new one.
+     * @param batchSize
+     *            How many keys are scanned per round trip.
+     * @param consumer
+     *            Receives each record and its sorted sets member.
+     * @return Where the next batch starts, or
+     *         {@link ScanParams#SCAN_POINTER_START} once the scan is done.
+     * @throws IOException
+     *             Thrown if the consumer fails to handle a record.
+     */
+    public String scanCredentials(final String cursor, final int batchSize,
+            final RecordConsumer consumer) throws IOException {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final ScanResult<String> result = jedis.scan(cursor,
+                    new ScanParams().match(KEY_PREFIX + "*").count(batchSize));
+            final Map<String, Response<Map<String, String>>> records = new LinkedHashMap<>();
+            try (final Pipeline pipeline = jedis.pipelined()) {
+                for (final String credentialKey : result.getResult()) {
+                    records.put(credentialKey.substring(KEY_PREFIX.length()),
+                            pipeline.hgetAll(credentialKey));
+                }
+                pipeline.sync();
+            }
+            for (final Map.Entry<String, Response<Map<String, String>>> record : records
+                    .entrySet()) {
+                // Gone since it was scanned.
+                if (!record.getValue().get().isEmpty()) {
+                    consumer.accept(record.getKey(), record.getValue().get());
+                }
+            }
+            return result.getStringCursor();
+        }
+    }
+
+    /**
+     * Reads a batch of the credential records still stored in the legacy
+     * layout, scanning the key space. Each record is given with the sorted
+     * sets member it gets once migrated.
+     *
+     * @param cursor
+     *            Where the scan stopped, {@link ScanParams#SCAN_POINTER_START}
+     *            to start a new one.
+     * @param batchSize
+     *            How many keys are scanned per round trip.
+     * @param consumer
+     *            Receives each record and its sorted sets member.
+     * @return Where the next batch starts, or
+     *         {@link ScanParams#SCAN_POINTER_START} once the scan is done.
+     * @throws IOException
+     *             Thrown if the consumer fails to handle a record.
+     */
+    public String scanLegacyCredentials(final String cursor, final int batchSize,
+            final RecordConsumer consumer) throws IOException {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final ScanResult<String> result = jedis.scan(cursor,
+                    new ScanParams().match(LEGACY_KEY_PREFIX + "*").count(batchSize));
+            final Map<String, Response<Map<String, String>>> records = new LinkedHashMap<>();
+            try (final Pipeline pipeline = jedis.pipelined()) {
+                for (final String legacyKey : result.getResult()) {
+                    records.put(
+                            this.getMember(legacyKey.substring(LEGACY_KEY_PREFIX.length())),
+                            pipeline.hgetAll(legacyKey));
+                }
+                pipeline.sync();
+            }
+            for (final Map.Entry<String, Response<Map<String, String>>> record : records
+                    .entrySet()) {
+                // Gone since it was scanned.
+                if (!record.getValue().get().isEmpty()) {
+                    consumer.accept(record.getKey(), record.getValue().get());
+                }
+            }
+            return result.getStringCursor();
+        }
+    }
+
+    /**
+     * Reads all the credential records in the cold tier.
+     *
+     * @param consumer
+     *            Receives each record and its sorted sets member.
+     * @throws IOException
+     *             Thrown if the cold tier can't be read or the consumer fails
+     *             to handle a record.
+     */
+    public void scanColdCredentials(final RecordConsumer consumer) throws IOException {
+        for (final String member : this.getColdTier().getMembers()) {
+            final Optional<ColdRecord> record = this.getColdTier().get(member);
+            // Promoted since it was listed.
+            if (record.isPresent()) {
+                consumer.accept(member, record.get().getFields());
+            }
+        }
+    }
+
+    /**
+     * The sorted sets members of the records written since the given time.
+     * Legacy members are left out, as those records are never written again.
+     *
+     * @param since
+     *            UNIX timestamp, in seconds.
+     * @return The members.
+     */
+    public Set<String> getMembersUpdatedSince(final long since) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            return jedis.zrangeByScore(SET_LAST_UPDATED_KEY, since, Double.POSITIVE_INFINITY)
+                    .stream().filter(member -> !member.startsWith(LEGACY_KEY_PREFIX))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Reads the records of the given sorted sets members, as they are stored
+     * in redis, in a single round trip. Missing records are skipped.
+     *
+     * @param members
+     *            The members, in the digest based layout.
+     * @param consumer
+     *            Receives each record and its sorted sets member.
+     * @throws IOException
+     *             Thrown if the consumer fails to handle a record.
+     */
+    public void readCredentials(final Collection<String> members,
+            final RecordConsumer consumer) throws IOException {
+        final Map<String, Response<Map<String, String>>> records = new LinkedHashMap<>();
+        try (Jedis jedis = this.jedisPool.getResource();
+                final Pipeline pipeline = jedis.pipelined()) {
+            for (final String member : members) {
+                records.put(member, pipeline.hgetAll(KEY_PREFIX + member));
+            }
+            pipeline.sync();
+        }
+        for (final Map.Entry<String, Response<Map<String, String>>> record : records
+                .entrySet()) {
+            if (!record.getValue().get().isEmpty()) {
+                consumer.accept(record.getKey(), record.getValue().get());
+            }
+        }
+    }
+
+    /**
+     * Which of the given keys have a record in redis, in either layout, in a
+     * single round trip.
+     *
+     * @param keys
+     *            Keys used to store the credentials.
+     * @return The keys that have a record.
+     * @throws IOException
+     *             Thrown if the pipeline fails to be closed.
+     */
+    public Set<String> getStoredKeys(final Collection<String> keys) throws IOException {
+        final Map<String, Response<Boolean>> records = new LinkedHashMap<>();
+        final Map<String, Response<Boolean>> legacyRecords = new LinkedHashMap<>();
+        try (Jedis jedis = this.jedisPool.getResource();
+                final Pipeline pipeline = jedis.pipelined()) {
+            // One key per call, as older servers don't take more.
+            for (final String key : keys) {
+                records.put(key, pipeline.exists(this.getKey(key)));
+                legacyRecords.put(key, pipeline.exists(this.getLegacyKey(key)));
+            }
+            pipeline.sync();
+        }
+        return records.keySet().stream()
+                .filter(key -> records.get(key).get() || legacyRecords.get(key).get())
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Retrieves all credentials from the database, including the ones in the
+     * cold tier.
      *
      * @return All credentials.
+     * @throws IOException
+     *             Thrown if the cold tier can't be read.
      */
-    public List<String> getAllCredentialsKey() {
+    public List<String> getAllCredentialsKey() throws IOException {
         try (Jedis jedis = this.jedisPool.getResource()) {
-            final List<String> keys = new LinkedList<>();
-            ScanResult<String> result = jedis.scan("0", new ScanParams().match(this.getKey("*")));
-            do {
-                keys.addAll(result.getResult().parallelStream()
-                        .map(key -> key.replace(KEY_PREFIX, "")).collect(Collectors.toList()));
-                result = jedis.scan(result.getStringCursor());
-            } while (!result.getStringCursor().equals("0"));
-            return keys;
+            final List<String> members = new LinkedList<>();
+            for (final String credentialKey : this.scanKeys(jedis, KEY_PREFIX)) {
+                members.add(credentialKey.substring(KEY_PREFIX.length()));
+            }
+            for (final String legacyKey : this.scanKeys(jedis, LEGACY_KEY_PREFIX)) {
+                members.add(legacyKey);
+            }
+            final Set<String> publicKeys = this.resolvePublicKeys(jedis, members);
+            final long nowSeconds = System.currentTimeMillis() / 1000L;
+            for (final String member : this.getColdTier().getMembers()) {
+                final Optional<ColdRecord> coldRecord = this.getColdTier().get(member);
+                if (coldRecord.isPresent()
+                        && !isExpired(coldRecord.get().getFields(), nowSeconds)) {
+                    publicKeys.add(coldRecord.get().getFields().get(KEY_FIELD));
+                }
+            }
+            return new LinkedList<>(publicKeys);
         }
     }
 
+    private List<String> scanKeys(final Jedis jedis, final String prefix) {
+        final List<String> keys = new LinkedList<>();
+        final ScanParams scanParams = new ScanParams().match(prefix + "*").count(SCAN_BATCH_SIZE);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            final ScanResult<String> result = jedis.scan(cursor, scanParams);
+            keys.addAll(result.getResult());
+            cursor = result.getStringCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        return keys;
+    }
+
+    /**
+     * Converts the audit sorted sets members back to the public keys. Legacy
+     * members carry the public key themselves, while the digests need to be
+     * looked up in their records.
+     */
+    private Set<String> resolvePublicKeys(final Jedis jedis, final Collection<String> members) {
+        final Set<String> publicKeys = new HashSet<>();
+        final List<Response<String>> lookups = new ArrayList<>();
+        try (final Pipeline pipeline = jedis.pipelined()) {
+            for (final String member : members) {
+                if (member.startsWith(LEGACY_KEY_PREFIX)) {
+                    publicKeys.add(member.substring(LEGACY_KEY_PREFIX.length()));
+                } else {
+                    lookups.add(pipeline.hget(KEY_PREFIX + member, KEY_FIELD));
+                }
+            }
+            pipeline.sync();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        lookups.stream().map(Response::get).filter(Objects::nonNull).forEach(publicKeys::add);
+        return publicKeys;
+    }
+
     /**
      * Converts the given key into the internal key used to store the element in
      * redis.
@@ -170,7 +1570,26 @@ public class CredentialDAO {
      * @return The key properly formatted.
      */
     private String getKey(final String key) {
-        return String.format(KEY_FORMAT, key);
+        return KEY_PREFIX + this.getMember(key);
+    }
+
+    /**
+     * Fixed length digest of the public key, used as the sorted sets member.
+     */
+    private String getMember(final String key) {
+        return KeyDigest.of(key);
+    }
+
+    private String getLegacyKey(final String key) {
+        return LEGACY_KEY_PREFIX + key;
+    }
+
+    /**
+     * The record of a sorted sets member. Legacy members are the record key
+     * itself.
+     */
+    private String getRecordKey(final String member) {
+        return member.startsWith(LEGACY_KEY_PREFIX) ? member : KEY_PREFIX + member;
     }
 
     /**
@@ -187,8 +1606,385 @@ public class CredentialDAO {
     public Set<String> getCredentialKeysAccessedSince(final long fromTimestamp,
             final long toTimestamp) {
         try (Jedis jedis = this.jedisPool.getResource()) {
-            return jedis.zrangeByScore(SET_LAST_ACCESSED_KEY, fromTimestamp, toTimestamp)
-                    .stream().map(key -> key.replace(KEY_PREFIX, "")).collect(Collectors.toSet());
+            return this.resolvePublicKeys(jedis,
+                    jedis.zrangeByScore(SET_LAST_ACCESSED_KEY, fromTimestamp, toTimestamp));
+        }
+    }
+
+    /**
+     * Moves all the records still stored in the legacy layout, keyed by the
+     * full public key, to the digest based layout. It's safe to run while the
+     * service takes traffic, as each record is moved atomically.
+     *
+     * @param batchSize
+     *            How many keys are scanned and moved per round trip.
+     * @return The number of records that were moved.
+     */
+    public long migrateLegacyKeys(final int batchSize) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // Making sure the script is cached, so it can be pipelined by its
+            // digest.
+            jedis.scriptLoad(MIGRATE_SCRIPT.body);
+            final ScanParams scanParams = new ScanParams().match(LEGACY_KEY_PREFIX + "*")
+                    .count(batchSize);
+            long migrated = 0L;
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                final ScanResult<String> result = jedis.scan(cursor, scanParams);
+                final List<Response<String>> responses = new ArrayList<>();
+                try (final Pipeline pipeline = jedis.pipelined()) {
+                    for (final String legacyKey : result.getResult()) {
+                        final String key = legacyKey.substring(LEGACY_KEY_PREFIX.length());
+                        responses.add(pipeline.evalsha(MIGRATE_SCRIPT.sha,
+                                this.getMigrateKeys(key),
+                                Collections.singletonList(this.getMember(key))));
+                    }
+                    pipeline.sync();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                migrated += responses.stream().map(Response::get).filter(MIGRATED::equals)
+                        .count();
+                cursor = result.getStringCursor();
+            } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+            return migrated;
+        }
+    }
+
+    private boolean migrateLegacyKey(final Jedis jedis, final String key) {
+        return MIGRATED.equals(MIGRATE_SCRIPT.eval(jedis, this.getMigrateKeys(key),
+                Collections.singletonList(this.getMember(key))));
+    }
+
+    private List<String> getMigrateKeys(final String key) {
+        return Arrays.asList(this.getLegacyKey(key), this.getKey(key), SET_LAST_ACCESSED_KEY,
+                SET_LAST_UPDATED_KEY);
+    }
+
+    /**
+     * Counts the credentials in redis, from the catalogue statistics.
+     *
+     * @return How many credentials are stored, leaving out the cold tier.
+     */
+    public long countCredentials() {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final String count = jedis.hget(STATS_KEY, COUNT_FIELD);
+            return count == null ? 0L : Long.parseLong(count);
+        }
+    }
+
+    /**
+     * Reads the catalogue statistics. Counts and sizes are kept up to date by
+     * the writes, and the last access is counted from the last accessed
+     * sorted set, so it takes a single round trip whatever the number of
+     * credentials.
+     *
+     * @param now
+     *            UNIX timestamp, in seconds, the last access is measured
+     *            from.
+     * @return The statistics.
+     */
+    public CatalogueStats getStatistics(final long now) {
+        final Response<Map<String, String>> stats;
+        final Map<String, Response<Long>> lastAccessed = new LinkedHashMap<>();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            try (final Pipeline pipeline = jedis.pipelined()) {
+                stats = pipeline.hgetAll(STATS_KEY);
+                String max = "+inf";
+                for (final int days : ACCESS_RECENCY_DAYS) {
+                    final String min = Long.toString(now - TimeUnit.DAYS.toSeconds(days));
+                    lastAccessed.put(days + "d", pipeline.zcount(SET_LAST_ACCESSED_KEY, min, max));
+                    max = "(" + min;
+                }
+                lastAccessed.put("older", pipeline.zcount(SET_LAST_ACCESSED_KEY, "-inf", max));
+                pipeline.sync();
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        final CatalogueStats catalogueStats = new CatalogueStats(0L, 0L, new TreeMap<>(),
+                new TreeMap<>(), new LinkedHashMap<>(), this.getColdTier().getMembers().size());
+        stats.get().forEach((field, value) -> {
+            final long count = Long.parseLong(value);
+            if (field.startsWith(SIZE_FIELD_PREFIX)) {
+                catalogueStats.getSizes().put(
+                        Long.parseLong(field.substring(SIZE_FIELD_PREFIX.length())), count);
+            } else if (field.startsWith(CREATED_FIELD_PREFIX)) {
+                catalogueStats.getCreatedByMonth()
+                        .put(field.substring(CREATED_FIELD_PREFIX.length()), count);
+            } else if (COUNT_FIELD.equals(field)) {
+                catalogueStats.setCount(count);
+            } else if (BYTES_FIELD.equals(field)) {
+                catalogueStats.setBytes(count);
+            }
+        });
+        lastAccessed.forEach((bucket, count) -> catalogueStats.getLastAccessed().put(bucket,
+                count.get()));
+        return catalogueStats;
+    }
+
+    /**
+     * Counts a batch of records, scanning the key space, into a new copy of
+     * the statistics, which replaces the current one after the last batch.
+     * Used to count the records written before the statistics existed, or to
+     * fix any drift. Writes made to records already scanned while it runs are
+     * lost with the current copy.
+     *
+     * @param cursor
+     *            Where the scan stopped, {@link ScanParams#SCAN_POINTER_START}
+     *            to start a new count.
+     * @param batchSize
+     *            How many keys are scanned per round trip.
+     * @return How many records were scanned and how many were counted.
+     */
+    public IndexBatch recountStatistics(final String cursor, final int batchSize) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final ScanResult<String> result = jedis.scan(cursor,
+                    new ScanParams().match(KEY_PREFIX + "*").count(batchSize));
+            final boolean done = ScanParams.SCAN_POINTER_START.equals(result.getStringCursor());
+            final List<String> keys = new ArrayList<>(result.getResult().size() + 4);
+            keys.add(STATS_KEY + RECOUNT_SUFFIX);
+            keys.add(STATS_LEASES_KEY + RECOUNT_SUFFIX);
+            keys.add(STATS_KEY);
+            keys.add(STATS_LEASES_KEY);
+            keys.addAll(result.getResult());
+            final List<String> args = new ArrayList<>(result.getResult().size() + 2);
+            args.add(ScanParams.SCAN_POINTER_START.equals(cursor) ? "1" : "0");
+            args.add(done ? "1" : "0");
+            result.getResult().stream()
+                    .map(credentialKey -> credentialKey.substring(KEY_PREFIX.length()))
+                    .forEach(args::add);
+            final long counted = (Long) RECOUNT_SCRIPT.eval(jedis, keys, args);
+            return new IndexBatch(result.getStringCursor(), result.getResult().size(), counted,
+                    done);
+        }
+    }
+
+    /**
+     * Lists the credentials whose description starts with the given prefix,
+     * in description order, from the description index. The prefix match is
+     * case sensitive. Index entries whose record no longer has that
+     * description, like records whose lease expired, are left out, so a page
+     * can have fewer matches than entries scanned.
+     *
+     * @param prefix
+     *            The description prefix. An empty prefix lists all the
+     *            descriptions.
+     * @param cursor
+     *            The next cursor of the previous page, or {@code null} for the
+     *            first page.
+     * @param count
+     *            How many index entries are scanned.
+     * @return The matching credentials and the cursor of the next page.
+     * @throws IOException
+     *             Thrown if the cold tier can't be read.
+     * @throws IllegalArgumentException
+     *             Thrown if the cursor is malformed.
+     */
+    public DescriptionPage searchDescriptions(final String prefix, final String cursor,
+            final int count) throws IOException {
+        final byte[] prefixBytes = SafeEncoder.encode(prefix);
+        final byte[] min = cursor == null ? Bytes.concat(INCLUSIVE, prefixBytes)
+                : Bytes.concat(EXCLUSIVE, CURSOR_ENCODING.decode(cursor));
+        // No UTF-8 string has a 0xff byte, so it's past any description with
+        // the given prefix.
+        final byte[] max = Bytes.concat(INCLUSIVE, prefixBytes, new byte[] { (byte) 0xff });
+        final List<String> entries = new ArrayList<>(count);
+        final List<Response<List<String>>> records = new ArrayList<>(count);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.zrangeByLex(SafeEncoder.encode(SET_DESCRIPTION_INDEX_KEY), min, max, 0, count)
+                    .forEach(entry -> entries.add(SafeEncoder.encode(entry)));
+            try (final Pipeline pipeline = jedis.pipelined()) {
+                for (final String entry : entries) {
+                    records.add(pipeline.hmget(KEY_PREFIX + getEntryMember(entry), KEY_FIELD,
+                            DESCRIPTION_FIELD));
+                }
+                pipeline.sync();
+            }
+        }
+
+        final List<DescriptionPage.Match> matches = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            final String description = getEntryDescription(entries.get(i));
+            List<String> record = records.get(i).get();
+            if (record.get(0) == null) {
+                // Not in redis, but the cold tier may still have it.
+                final Optional<ColdRecord> coldRecord = this.getColdTier()
+                        .get(getEntryMember(entries.get(i)));
+                if (!coldRecord.isPresent()) {
+                    continue;
+                }
+                record = Arrays.asList(coldRecord.get().getFields().get(KEY_FIELD),
+                        coldRecord.get().getFields().get(DESCRIPTION_FIELD));
+            }
+            if (description.equals(record.get(1))) {
+                matches.add(new DescriptionPage.Match(record.get(0), description));
+            }
         }
+        final String nextCursor = entries.size() < count ? null
+                : CURSOR_ENCODING.encode(SafeEncoder.encode(entries.get(entries.size() - 1)));
+        return new DescriptionPage(matches, nextCursor);
+    }
+
+    /**
+     * Adds the description of a batch of records to the description index,
+     * scanning the key space. Used to index the records written before the
+     * index existed, as writes keep it up to date.
+     *
+     * @param cursor
+     *            Where the scan stopped, {@link ScanParams#SCAN_POINTER_START}
+     *            to start a new one.
+     * @param batchSize
+     *            How many keys are scanned per round trip.
+     * @return How many records were scanned and how many were added to the
+     *         index.
+     */
+    public IndexBatch indexDescriptions(final String cursor, final int batchSize) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final ScanResult<String> result = jedis.scan(cursor,
+                    new ScanParams().match(KEY_PREFIX + "*").count(batchSize));
+            long indexed = 0L;
+            if (!result.getResult().isEmpty()) {
+                final List<String> keys = new ArrayList<>(result.getResult().size() + 1);
+                keys.add(SET_DESCRIPTION_INDEX_KEY);
+                keys.addAll(result.getResult());
+                final List<String> args = result.getResult().stream()
+                        .map(credentialKey -> credentialKey.substring(KEY_PREFIX.length()))
+                        .collect(Collectors.toList());
+                indexed = (Long) INDEX_RECORDS_SCRIPT.eval(jedis, keys, args);
+            }
+            return new IndexBatch(result.getStringCursor(), result.getResult().size(), indexed,
+                    ScanParams.SCAN_POINTER_START.equals(result.getStringCursor()));
+        }
+    }
+
+    /**
+     * Removes a batch of description index entries whose record is gone or no
+     * longer has that description, which happens when a lease or an idle
+     * credential expires. Entries of records in the cold tier are kept.
+     *
+     * @param cursor
+     *            The cursor returned by the previous batch, or {@code null} to
+     *            start from the first entry.
+     * @param batchSize
+     *            How many entries are checked.
+     * @return How many entries were checked and how many were removed.
+     * @throws IOException
+     *             Thrown if the cold tier can't be read.
+     */
+    public IndexBatch removeStaleDescriptions(final String cursor, final int batchSize)
+            throws IOException {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final byte[] min = cursor == null ? SafeEncoder.encode("-")
+                    : Bytes.concat(EXCLUSIVE, CURSOR_ENCODING.decode(cursor));
+            final List<String> entries = new ArrayList<>(batchSize);
+            jedis.zrangeByLex(SafeEncoder.encode(SET_DESCRIPTION_INDEX_KEY), min,
+                    SafeEncoder.encode("+"), 0, batchSize)
+                    .forEach(entry -> entries.add(SafeEncoder.encode(entry)));
+            final List<Response<String>> descriptions = new ArrayList<>(entries.size());
+            try (final Pipeline pipeline = jedis.pipelined()) {
+                for (final String entry : entries) {
+                    descriptions.add(pipeline.hget(KEY_PREFIX + getEntryMember(entry),
+                            DESCRIPTION_FIELD));
+                }
+                pipeline.sync();
+            }
+
+            final List<String> keys = new ArrayList<>();
+            keys.add(SET_DESCRIPTION_INDEX_KEY);
+            final List<String> args = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                final String entry = entries.get(i);
+                final String description = getEntryDescription(entry);
+                if (description.equals(descriptions.get(i).get())) {
+                    continue;
+                }
+                if (descriptions.get(i).get() == null) {
+                    final Optional<ColdRecord> coldRecord = this.getColdTier()
+                            .get(getEntryMember(entry));
+                    if (coldRecord.isPresent() && description
+                            .equals(coldRecord.get().getFields().get(DESCRIPTION_FIELD))) {
+                        continue;
+                    }
+                }
+                keys.add(KEY_PREFIX + getEntryMember(entry));
+                args.add(entry);
+                args.add(description);
+            }
+            final long removed = args.isEmpty() ? 0L
+                    : (Long) REMOVE_STALE_DESCRIPTIONS_SCRIPT.eval(jedis, keys, args);
+            final boolean done = entries.size() < batchSize;
+            return new IndexBatch(done ? null
+                    : CURSOR_ENCODING.encode(SafeEncoder.encode(entries.get(entries.size() - 1))),
+                    entries.size(), removed, done);
+        }
+    }
+
+    private static String getEntryDescription(final String entry) {
+        return entry.substring(0, entry.lastIndexOf(DESCRIPTION_SEPARATOR));
+    }
+
+    private static String getEntryMember(final String entry) {
+        return entry.substring(entry.lastIndexOf(DESCRIPTION_SEPARATOR) + 1);
+    }
+
+    /**
+     * Receives the credential records read from the database.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(String member, Map<String, String> propertyValues) throws IOException;
+    }
+
+    /**
+     * Receives batches of credential records, along with their sorted sets
+     * scores.
+     */
+    @FunctionalInterface
+    public interface BatchConsumer {
+        void accept(List<ColdRecord> records) throws IOException;
+    }
+
+    /**
+     * The audit sorted sets.
+     */
+    public enum Index {
+        LAST_ACCESSED(SET_LAST_ACCESSED_KEY), LAST_UPDATED(SET_LAST_UPDATED_KEY);
+
+        private final String key;
+
+        private Index(final String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * The outcome of a batch of maintenance work.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class IndexBatch {
+        // Where the next batch starts, a scan cursor or an offset.
+        private final String cursor;
+        private final int scanned;
+        // The members removed, or that would be removed on a dry run.
+        private final long matched;
+        private final boolean done;
+    }
+
+    /**
+     * The outcome of a partial update.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class PatchResult {
+        public enum Status {
+            NOT_FOUND, PATCHED, CONFLICT
+        }
+
+        private final Status status;
+        // The new version, or the stored one on a conflict.
+        private final long version;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,272 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.CredentialGroup;
+import com.google.common.base.Optional;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Database Access Object that handles the credential groups, the credentials
+ * shared by many public keys.
+ *
+ * <p>
+ * The encrypted credential pair is stored once under {@code group:<name>} and
+ * the symmetric key, encrypted for each member, is stored in a hash under
+ * {@code group:<name>:keys}, by the member key digest. Reading as a member
+ * fetches both in a single round trip, and replacing the group writes both in
+ * a single script, so members never see the new credential pair with the old
+ * symmetric key.
+ * </p>
+ *
+ * <p>
+ * The {@code group_members} hash keeps the group of each member digest, so a
+ * member can read the group credential without knowing its name. A key that
+ * is a member of many groups is kept in the last one it was added to.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+@AllArgsConstructor
+public class GroupDAO {
+    private static final String KEY_PREFIX = "group:";
+    private static final String KEYS_SUFFIX = ":keys";
+    // Not under the group prefix, so it can't clash with a group name.
+    private static final String MEMBERS_KEY = "group_members";
+    private static final String CREATED_AT_FIELD = "createdAt";
+    /*
+     * Takes the members of the group out of the members index, unless they
+     * were added to another group since then. KEYS: group, group keys,
+     * members index. ARGV: the group name.
+     */
+    private static final String UNINDEX_FUNCTION = ""
+            + "local function unindex() "
+            + "for _, member in ipairs(redis.call('hkeys', KEYS[2])) do "
+            + "if redis.call('hget', KEYS[3], member) == ARGV[1] then "
+            + "redis.call('hdel', KEYS[3], member) end "
+            + "end "
+            + "end ";
+    /*
+     * Replaces the group and its members, unless it's owned by another public
+     * key, keeping its creation date. KEYS: group, group keys, members index.
+     * ARGV: the group name, owner, creation date if it's new, how many group
+     * fields and values follow, the group fields and values, then the digest
+     * and symmetric key of each member. Returns 0 if it has another owner, 1
+     * if it was created and 2 if it was replaced, and the creation date.
+     */
+    private static final RedisScript SAVE_SCRIPT = new RedisScript(UNINDEX_FUNCTION
+            + "local owner = redis.call('hget', KEYS[1], 'owner') "
+            + "if owner and owner ~= ARGV[2] then return {0, ''} end "
+            + "local createdAt = redis.call('hget', KEYS[1], '" + CREATED_AT_FIELD + "') "
+            + "or ARGV[3] "
+            + "unindex() "
+            + "redis.call('del', KEYS[1], KEYS[2]) "
+            + "local last = 4 + tonumber(ARGV[4]) "
+            + "redis.call('hmset', KEYS[1], '" + CREATED_AT_FIELD + "', createdAt, "
+            + "unpack(ARGV, 5, last)) "
+            + "for i = last + 1, #ARGV, 2 do "
+            + "redis.call('hset', KEYS[2], ARGV[i], ARGV[i + 1]) "
+            + "redis.call('hset', KEYS[3], ARGV[i], ARGV[1]) "
+            + "end "
+            + "return {owner and 2 or 1, createdAt}");
+    /*
+     * Deletes the group and its members. KEYS: group, group keys, members
+     * index. ARGV: the group name. Returns the keys removed.
+     */
+    private static final RedisScript DELETE_SCRIPT = new RedisScript(UNINDEX_FUNCTION
+            + "unindex() "
+            + "return redis.call('del', KEYS[1], KEYS[2])");
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setDateFormat(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS"));
+
+    private final ConnectionProvider jedisPool;
+
+    /**
+     * Queries for the group stored under the given name, without its members.
+     *
+     * @param name
+     *            The group name.
+     * @return The group or {@code Optional.absent()} if it's missing.
+     */
+    public Optional<CredentialGroup> getGroup(final String name) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final Map<String, String> propertyValues = jedis.hgetAll(getKey(name));
+            if (propertyValues.isEmpty()) {
+                return Optional.absent();
+            }
+            return Optional.of(MAPPER.convertValue(propertyValues, CredentialGroup.class));
+        }
+    }
+
+    /**
+     * Assembles the credential of a group member, from the shared credential
+     * pair and the symmetric key encrypted for the member.
+     *
+     * @param name
+     *            The group name.
+     * @param memberKey
+     *            The member public key.
+     * @return The credential, with the symmetric key encrypted with the member
+     *         public key, or {@code Optional.absent()} if the group is missing
+     *         or the key is not one of its members.
+     */
+    public Optional<Credential> getCredentialForMember(final String name,
+            final String memberKey) throws IOException {
+        final Response<Map<String, String>> group;
+        final Response<String> symmetricKey;
+        try (Jedis jedis = this.jedisPool.getResource();
+                final Pipeline pipeline = jedis.pipelined()) {
+            group = pipeline.hgetAll(getKey(name));
+            symmetricKey = pipeline.hget(getKeysKey(name), KeyDigest.of(memberKey));
+            pipeline.sync();
+        }
+        if (group.get().isEmpty() || symmetricKey.get() == null) {
+            return Optional.absent();
+        }
+
+        final CredentialGroup credentialGroup = MAPPER.convertValue(group.get(),
+                CredentialGroup.class);
+        return Optional.of(Credential.builder()
+                .key(memberKey)
+                .symmetricKey(symmetricKey.get())
+                .cipherSuite(credentialGroup.getCipherSuite())
+                .primary(credentialGroup.getPrimary())
+                .secondary(credentialGroup.getSecondary())
+                .description(credentialGroup.getDescription())
+                .createdAt(credentialGroup.getCreatedAt())
+                .updatedAt(credentialGroup.getUpdatedAt())
+                .build());
+    }
+
+    /**
+     * Assembles the credential of a group member, from the group the member
+     * was last added to.
+     *
+     * @param memberKey
+     *            The member public key.
+     * @return The credential, with the symmetric key encrypted with the member
+     *         public key, or {@code Optional.absent()} if the key is not a
+     *         member of any group.
+     * @throws IOException
+     *             Thrown if the group can't be read.
+     */
+    public Optional<Credential> getCredentialForMember(final String memberKey)
+            throws IOException {
+        final String name;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            name = jedis.hget(MEMBERS_KEY, KeyDigest.of(memberKey));
+        }
+        return name == null ? Optional.absent() : this.getCredentialForMember(name, memberKey);
+    }
+
+    /**
+     * Replaces the group and all its members, unless it's owned by another
+     * public key.
+     *
+     * @param group
+     *            The encrypted group, without its members. Its member count
+     *            and dates are filled up here.
+     * @param symmetricKeys
+     *            The symmetric key encrypted for each member, by the member
+     *            public key.
+     * @return Whether the group was created or replaced, or
+     *         {@link SaveResult#FORBIDDEN} if it exists and has another
+     *         owner, in which case nothing is written.
+     */
+    @SuppressWarnings("unchecked")
+    public SaveResult save(final CredentialGroup group,
+            final Map<String, String> symmetricKeys) {
+        final Date now = new Date();
+        group.setMembers(null);
+        group.setMemberCount(symmetricKeys.size());
+        group.setCreatedAt(now);
+        group.setUpdatedAt(now);
+        final Map<String, String> propertyValues = MAPPER.convertValue(group,
+                new TypeReference<Map<String, String>>() {
+                });
+        final String createdAt = propertyValues.remove(CREATED_AT_FIELD);
+
+        final List<String> args = new ArrayList<>(
+                4 + propertyValues.size() * 2 + symmetricKeys.size() * 2);
+        args.add(group.getName());
+        args.add(group.getOwner());
+        args.add(createdAt);
+        args.add(Integer.toString(propertyValues.size() * 2));
+        propertyValues.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        symmetricKeys.forEach((memberKey, symmetricKey) -> {
+            args.add(KeyDigest.of(memberKey));
+            args.add(symmetricKey);
+        });
+
+        final List<Object> result;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            result = (List<Object>) SAVE_SCRIPT.eval(jedis, getScriptKeys(group.getName()),
+                    args);
+        }
+        final SaveResult saveResult = SaveResult.values()[((Long) result.get(0)).intValue()];
+        if (saveResult == SaveResult.REPLACED) {
+            group.setCreatedAt(MAPPER.convertValue(
+                    Collections.singletonMap(CREATED_AT_FIELD, result.get(1)),
+                    CredentialGroup.class).getCreatedAt());
+        }
+        return saveResult;
+    }
+
+    /**
+     * Deletes the group and all its members.
+     *
+     * @param name
+     *            The group name.
+     * @return {@code true} if the group could be found and deleted.
+     */
+    public boolean delete(final String name) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            return (Long) DELETE_SCRIPT.eval(jedis, getScriptKeys(name),
+                    Collections.singletonList(name)) > 0L;
+        }
+    }
+
+    private static List<String> getScriptKeys(final String name) {
+        return Arrays.asList(getKey(name), getKeysKey(name), MEMBERS_KEY);
+    }
+
+    private static String getKey(final String name) {
+        return KEY_PREFIX + name;
+    }
+
+    private static String getKeysKey(final String name) {
+        return KEY_PREFIX + name + KEYS_SUFFIX;
+    }
+
+    /**
+     * The outcome of a save, in the order of the codes returned by the save
+     * script.
+     */
+    public enum SaveResult {
+        FORBIDDEN, CREATED, REPLACED
+    }
+}
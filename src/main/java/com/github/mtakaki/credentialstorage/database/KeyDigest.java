@@ -0,0 +1,29 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Fixed length digest of a public key, used in the redis keys and in the audit
+ * data instead of the full key.
+ *
+ * @author mtakaki
+ *
+ */
+public final class KeyDigest {
+    private static final HashFunction DIGEST_FUNCTION = Hashing.sha256();
+
+    private KeyDigest() {
+    }
+
+    /**
+     * @param publicKey
+     *            The client public key, as sent in the header.
+     * @return The hex SHA-256 of the key.
+     */
+    public static String of(final String publicKey) {
+        return DIGEST_FUNCTION.hashString(publicKey, StandardCharsets.UTF_8).toString();
+    }
+}
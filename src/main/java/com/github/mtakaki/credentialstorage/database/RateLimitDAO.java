@@ -0,0 +1,74 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Database Access Object that handles the rate limits shared by all the
+ * servers.
+ *
+ * <p>
+ * Each public key has a {@code rate:<digest>} key holding the theoretical
+ * arrival time of its next request, in microseconds, as in the generic cell
+ * rate algorithm. A request is allowed while that time is no further ahead
+ * than the burst allows, and then pushes it forward by one interval. The key
+ * expires once the time has passed, as a full burst is allowed from then on.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+@AllArgsConstructor
+public class RateLimitDAO {
+    private static final String KEY_PREFIX = "rate:";
+    /*
+     * KEYS: the rate key. ARGV: now, the interval between requests and how
+     * far ahead the arrival time can be, all in microseconds. Returns how long
+     * to wait, in microseconds, or 0 if the request is allowed. The time is
+     * given by the caller, as scripts can't write after reading the redis
+     * clock before redis 3.2.
+     */
+    private static final RedisScript ACQUIRE_SCRIPT = new RedisScript(""
+            + "local now = tonumber(ARGV[1]) "
+            + "local tat = tonumber(redis.call('get', KEYS[1]) or ARGV[1]) "
+            + "if tat < now then tat = now end "
+            + "local wait = tat - now - tonumber(ARGV[3]) "
+            + "if wait > 0 then return string.format('%.0f', wait) end "
+            + "tat = tat + tonumber(ARGV[2]) "
+            + "redis.call('set', KEYS[1], string.format('%.0f', tat), "
+            + "'px', math.ceil((tat - now) / 1000)) "
+            + "return '0'");
+
+    private final ConnectionProvider jedisPool;
+
+    /**
+     * Takes a request from the shared limit of the given public key.
+     *
+     * @param keyDigest
+     *            The public key digest, see {@link KeyDigest}.
+     * @param nowMicros
+     *            The current time, in microseconds.
+     * @param intervalMicros
+     *            The time between two requests at the allowed rate, in
+     *            microseconds.
+     * @param toleranceMicros
+     *            How far ahead of time requests can be made, which gives the
+     *            burst, in microseconds.
+     * @return How long to wait for the next request to be allowed, in
+     *         microseconds, or 0 if this one is allowed.
+     */
+    public long acquire(final String keyDigest, final long nowMicros, final long intervalMicros,
+            final long toleranceMicros) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            return Long.parseLong((String) ACQUIRE_SCRIPT.eval(jedis,
+                    Collections.singletonList(KEY_PREFIX + keyDigest),
+                    Arrays.asList(String.valueOf(nowMicros), String.valueOf(intervalMicros),
+                            String.valueOf(toleranceMicros))));
+        }
+    }
+}
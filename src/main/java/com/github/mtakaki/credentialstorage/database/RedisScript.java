@@ -0,0 +1,40 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.google.common.hash.Hashing;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * A lua script and its SHA1 digest, as expected by {@code EVALSHA}.
+ *
+ * @author mtakaki
+ *
+ */
+class RedisScript {
+    final String body;
+    final String sha;
+
+    RedisScript(final String body) {
+        this.body = body;
+        this.sha = Hashing.sha1().hashString(body, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Runs the script by its digest, so the script body is only sent once per
+     * redis instance.
+     */
+    Object eval(final Jedis jedis, final List<String> keys, final List<String> args) {
+        try {
+            return jedis.evalsha(this.sha, keys, args);
+        } catch (final JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            return jedis.eval(this.body, keys, args);
+        }
+    }
+}
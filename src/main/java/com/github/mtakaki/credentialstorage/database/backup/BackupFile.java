@@ -0,0 +1,204 @@
+package com.github.mtakaki.credentialstorage.database.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.mtakaki.credentialstorage.database.cold.ColdRecord;
+
+/**
+ * The format of the credential backups: a gzip stream with a header, the
+ * records in checksummed batches and a trailer holding the record count.
+ *
+ * <pre>
+ * [magic][version]
+ * [record count][length][records][CRC32] ...
+ * [0][total record count]
+ * </pre>
+ *
+ * <p>
+ * Each record is its hash fields, as {@code [field count]([length][UTF-8])*},
+ * followed by its last accessed and last updated scores. A batch is only
+ * handed over once its checksum is verified, and a backup cut short is
+ * detected by its missing trailer.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public final class BackupFile {
+    private static final int MAGIC = 0x43524244;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BackupFile() {
+    }
+
+    /**
+     * Writes a backup to a stream.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream output;
+        private final ByteArrayOutputStream batchBytes = new ByteArrayOutputStream();
+        private final DataOutputStream batchOutput = new DataOutputStream(this.batchBytes);
+        private long records;
+
+        public Writer(final OutputStream output) throws IOException {
+            this.output = new DataOutputStream(new GZIPOutputStream(output, BUFFER_SIZE));
+            this.output.writeInt(MAGIC);
+            this.output.writeInt(VERSION);
+        }
+
+        public void append(final List<ColdRecord> batch) throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            this.batchBytes.reset();
+            for (final ColdRecord record : batch) {
+                this.batchOutput.writeInt(record.getFields().size());
+                for (final Map.Entry<String, String> field : record.getFields().entrySet()) {
+                    writeString(this.batchOutput, field.getKey());
+                    writeString(this.batchOutput, field.getValue());
+                }
+                this.batchOutput.writeLong(record.getLastAccessed());
+                this.batchOutput.writeLong(record.getLastUpdated());
+            }
+            this.batchOutput.flush();
+            final CRC32 crc = new CRC32();
+            crc.update(this.batchBytes.toByteArray());
+            this.output.writeInt(batch.size());
+            this.output.writeInt(this.batchBytes.size());
+            this.batchBytes.writeTo(this.output);
+            this.output.writeInt((int) crc.getValue());
+            this.records += batch.size();
+        }
+
+        public long getRecords() {
+            return this.records;
+        }
+
+        /**
+         * Writes the trailer. A backup closed without it is seen as
+         * incomplete.
+         */
+        public void finish() throws IOException {
+            this.output.writeInt(0);
+            this.output.writeLong(this.records);
+            this.output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.output.close();
+        }
+
+        private static void writeString(final DataOutputStream output, final String value)
+                throws IOException {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a backup from a stream, one batch at a time.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream input;
+        private long records;
+
+        public Reader(final InputStream input) throws IOException {
+            this.input = new DataInputStream(new GZIPInputStream(input, BUFFER_SIZE));
+            if (this.input.readInt() != MAGIC) {
+                throw new IOException("Not a credentials backup.");
+            }
+            final int version = this.input.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("Unsupported backup version %d.", version));
+            }
+        }
+
+        /**
+         * Reads the next batch.
+         *
+         * @return The batch records or {@code null} once the backup is fully
+         *         read.
+         * @throws IOException
+         *             Thrown if the batch is corrupted or the backup is
+         *             incomplete.
+         */
+        public List<ColdRecord> next() throws IOException {
+            try {
+                return this.readBatch();
+            } catch (final EOFException e) {
+                throw new IOException(String.format(
+                        "Backup is incomplete, it ends after record %d.", this.records), e);
+            }
+        }
+
+        private List<ColdRecord> readBatch() throws IOException {
+            final int count = this.input.readInt();
+            if (count == 0) {
+                final long expectedRecords = this.input.readLong();
+                if (expectedRecords != this.records) {
+                    throw new IOException(String.format(
+                            "Backup holds %d records, but %d were read.", expectedRecords,
+                            this.records));
+                }
+                return null;
+            }
+            final byte[] batchBytes = new byte[this.input.readInt()];
+            this.input.readFully(batchBytes);
+            final CRC32 crc = new CRC32();
+            crc.update(batchBytes);
+            if ((int) crc.getValue() != this.input.readInt()) {
+                throw new IOException(String.format(
+                        "Backup is corrupted, the batch after record %d fails its checksum.",
+                        this.records));
+            }
+
+            final DataInputStream batchInput = new DataInputStream(
+                    new ByteArrayInputStream(batchBytes));
+            final List<ColdRecord> batch = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final int fieldCount = batchInput.readInt();
+                final Map<String, String> fields = new HashMap<>(fieldCount * 2);
+                for (int j = 0; j < fieldCount; j++) {
+                    fields.put(readString(batchInput), readString(batchInput));
+                }
+                batch.add(new ColdRecord(fields, batchInput.readLong(), batchInput.readLong()));
+            }
+            this.records += count;
+            return batch;
+        }
+
+        public long getRecords() {
+            return this.records;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.input.close();
+        }
+
+        private static String readString(final DataInputStream input) throws IOException {
+            final byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.mtakaki.credentialstorage.database.cold;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A credential moved out of redis, with what is needed to put it back: the
+ * record hash and its audit sorted sets scores.
+ *
+ * @author mtakaki
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ColdRecord {
+    private Map<String, String> fields;
+    // UNIX timestamps, in seconds.
+    private long lastAccessed;
+    private long lastUpdated;
+}
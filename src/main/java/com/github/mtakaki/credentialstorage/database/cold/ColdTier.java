@@ -0,0 +1,179 @@
+package com.github.mtakaki.credentialstorage.database.cold;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mtakaki.credentialstorage.configuration.TieringConfiguration;
+import com.google.common.base.Optional;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * The credentials moved out of redis, as they were not accessed for a while,
+ * kept in a {@link SegmentStore} on the local disk and keyed by the sorted
+ * sets member.
+ *
+ * <p>
+ * It also keeps the metrics of where the reads were served from: redis, the
+ * cold tier, at the cost of a promotion, or neither.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class ColdTier implements Managed {
+    /**
+     * No cold tier, every read is served by redis alone.
+     */
+    public static final ColdTier DISABLED = new ColdTier(null, new MetricRegistry());
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Null if there is no cold tier.
+    private final SegmentStore store;
+    private final Meter hotMeter;
+    private final Meter coldMeter;
+    private final Meter missMeter;
+    private final Timer promotionTimer;
+
+    private ColdTier(final SegmentStore store, final MetricRegistry metricRegistry) {
+        this.store = store;
+        this.hotMeter = metricRegistry.meter(MetricRegistry.name(ColdTier.class, "hot-hits"));
+        this.coldMeter = metricRegistry.meter(MetricRegistry.name(ColdTier.class, "cold-hits"));
+        this.missMeter = metricRegistry.meter(MetricRegistry.name(ColdTier.class, "misses"));
+        this.promotionTimer = metricRegistry
+                .timer(MetricRegistry.name(ColdTier.class, "promotion"));
+        metricRegistry.register(MetricRegistry.name(ColdTier.class, "hot-ratio"),
+                new RatioGauge() {
+                    @Override
+                    protected Ratio getRatio() {
+                        return Ratio.of(ColdTier.this.hotMeter.getFifteenMinuteRate(),
+                                ColdTier.this.hotMeter.getFifteenMinuteRate()
+                                        + ColdTier.this.coldMeter.getFifteenMinuteRate());
+                    }
+                });
+        metricRegistry.register(MetricRegistry.name(ColdTier.class, "records"),
+                (Gauge<Integer>) () -> store == null ? 0 : store.size());
+        metricRegistry.register(MetricRegistry.name(ColdTier.class, "disk-size"),
+                (Gauge<Long>) () -> store == null ? 0L : store.getDiskSize());
+    }
+
+    /**
+     * Opens the cold tier in the configured directory. When tiering is
+     * disabled, the directory is still opened if it exists, so the records
+     * demoted before are promoted back as they are read.
+     *
+     * @param configuration
+     *            The tiering settings.
+     * @param metricRegistry
+     *            Where the tier metrics are registered.
+     * @return The cold tier, which might have no store.
+     * @throws IOException
+     *             Thrown if the segments can't be read.
+     */
+    public static ColdTier open(final TieringConfiguration configuration,
+            final MetricRegistry metricRegistry) throws IOException {
+        final Path directory = Paths.get(configuration.getDirectory());
+        final SegmentStore store = configuration.isEnabled() || Files.isDirectory(directory)
+                ? new SegmentStore(directory, configuration.getSegmentSize().toBytes())
+                : null;
+        return new ColdTier(store, metricRegistry);
+    }
+
+    public boolean isEnabled() {
+        return this.store != null;
+    }
+
+    public boolean contains(final String member) {
+        return this.store != null && this.store.contains(member);
+    }
+
+    public Set<String> getMembers() {
+        return this.store == null ? Collections.emptySet() : this.store.keys();
+    }
+
+    public Optional<ColdRecord> get(final String member) throws IOException {
+        if (this.store == null) {
+            return Optional.absent();
+        }
+        final Optional<byte[]> value = this.store.get(member);
+        return value.isPresent() ? Optional.of(MAPPER.readValue(value.get(), ColdRecord.class))
+                : Optional.absent();
+    }
+
+    /**
+     * Stores the given records and flushes them to the disk, so they can be
+     * removed from redis.
+     */
+    public void putAll(final Map<String, ColdRecord> records) throws IOException {
+        for (final Map.Entry<String, ColdRecord> record : records.entrySet()) {
+            this.store.put(record.getKey(), MAPPER.writeValueAsBytes(record.getValue()));
+        }
+        this.store.sync();
+    }
+
+    /**
+     * Removes the given record, if present. It's only durable after
+     * {@link #sync()}.
+     */
+    public void remove(final String member) throws IOException {
+        if (this.store != null) {
+            this.store.remove(member);
+        }
+    }
+
+    public void sync() throws IOException {
+        if (this.store != null) {
+            this.store.sync();
+        }
+    }
+
+    /**
+     * Rewrites the segments where less than the given ratio of the bytes
+     * belongs to records still in the tier.
+     *
+     * @return How many segments were rewritten.
+     */
+    public int compact(final double liveRatio) throws IOException {
+        return this.store == null ? 0 : this.store.compact(liveRatio);
+    }
+
+    public void markHot() {
+        this.hotMeter.mark();
+    }
+
+    public void markMiss() {
+        this.missMeter.mark();
+    }
+
+    /**
+     * Times a promotion, which is also counted as a read served by the cold
+     * tier.
+     */
+    public Timer.Context timePromotion() {
+        this.coldMeter.mark();
+        return this.promotionTimer.time();
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (this.store != null) {
+            this.store.close();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.github.mtakaki.credentialstorage.database.cold;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Optional;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Append-only key value store, kept in segment files on the local disk, with
+ * the position of every value held in memory. A read is a single positional
+ * read from disk.
+ *
+ * <p>
+ * Each record is its length, a CRC32 of the rest of the record, the record
+ * type, the key length, the key and the value. Removing a key appends a
+ * tombstone, so the index can be rebuilt by reading the segments in order
+ * when the store is opened. A record cut short by a crash, or with a bad
+ * checksum, ends the segment. Segments are rolled once they go over the
+ * configured size and {@link #compact(double)} rewrites the ones that are
+ * mostly garbage.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class SegmentStore implements Closeable {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    // Length, checksum, type and key length.
+    private static final int HEADER_LENGTH = 4 + 4 + 1 + 2;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    // Guarded by the lock. Reads share it, while writes and compaction,
+    // which close segments, take it exclusively.
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Segment active;
+
+    /**
+     * Opens the store in the given directory, creating it if needed, and
+     * rebuilds the index from its segments.
+     *
+     * @param directory
+     *            Where the segment files are kept.
+     * @param segmentSize
+     *            Size, in bytes, after which a new segment is started.
+     * @throws IOException
+     *             Thrown if the segments can't be read.
+     */
+    public SegmentStore(final Path directory, final long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                "*" + SEGMENT_SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                final long id = Long.parseLong(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                this.segments.put(id, new Segment(id, file));
+            }
+        }
+        for (final Segment segment : this.segments.values()) {
+            this.load(segment);
+        }
+        this.active = this.segments.isEmpty() ? this.newSegment(0L)
+                : this.segments.lastEntry().getValue();
+    }
+
+    /**
+     * Reads the value stored under the given key.
+     *
+     * @param key
+     *            The record key.
+     * @return The value or {@code Optional.absent()} if the key is missing.
+     * @throws IOException
+     *             Thrown if the segment can't be read or the record is
+     *             corrupted.
+     */
+    public Optional<byte[]> get(final String key) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            final Location location = this.index.get(key);
+            if (location == null) {
+                return Optional.absent();
+            }
+            final ByteBuffer record = this.segments.get(location.segment).read(location.offset,
+                    location.length);
+            if (!isValid(record)) {
+                throw new IOException("Corrupted record for key " + key);
+            }
+            return Optional.of(getValue(record));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(final String key) {
+        return this.index.containsKey(key);
+    }
+
+    public Set<String> keys() {
+        return this.index.keySet();
+    }
+
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * The total size of the segments, including the garbage not compacted
+     * yet.
+     */
+    public long getDiskSize() {
+        this.lock.readLock().lock();
+        try {
+            return this.segments.values().stream().mapToLong(segment -> segment.size).sum();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the value under the given key, replacing the current one. It's
+     * only durable after {@link #sync()}.
+     */
+    public void put(final String key, final byte[] value) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.append(key, encode(PUT, key, value));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the given key, if present. It's only durable after
+     * {@link #sync()}.
+     */
+    public void remove(final String key) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            if (this.index.containsKey(key)) {
+                this.append(key, encode(DELETE, key, new byte[0]));
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes the writes to the disk.
+     */
+    public void sync() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.active.channel.force(false);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the segments, except the active one, where less than the given
+     * ratio of the bytes is still live. Their live records, and the
+     * tombstones that still hide a record in an older segment, are appended
+     * again and the segment file is deleted. A segment left with tombstones
+     * that hide nothing is just deleted.
+     *
+     * @param liveRatio
+     *            Segments under this ratio of live bytes are rewritten.
+     * @return How many segments were rewritten.
+     * @throws IOException
+     *             Thrown if a segment can't be read or written.
+     */
+    public int compact(final double liveRatio) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            final List<Segment> candidates = new ArrayList<>();
+            for (final Segment segment : this.segments.values()) {
+                if (segment != this.active && segment.live < segment.size * liveRatio) {
+                    candidates.add(segment);
+                }
+            }
+            for (final Segment segment : candidates) {
+                long position = 0L;
+                while (position < segment.size) {
+                    final ByteBuffer record = segment.read(position, readLength(segment, position));
+                    final String key = getKey(record);
+                    final Location location = this.index.get(key);
+                    final boolean live = location != null && location.segment == segment.id
+                            && location.offset == position;
+                    // A tombstone is only needed while an older segment
+                    // still has a record of the key, and while there is no
+                    // newer record for it.
+                    final boolean tombstone = record.get(8) == DELETE && location == null
+                            && this.isHiddenBefore(segment.id, key);
+                    if (live || tombstone) {
+                        record.rewind();
+                        this.append(key, record);
+                    }
+                    position += record.capacity();
+                }
+                // The copies must be durable before the original is gone.
+                this.active.channel.force(false);
+                segment.channel.close();
+                Files.delete(segment.file);
+                this.segments.remove(segment.id);
+            }
+            return candidates.size();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Whether a segment older than the given one still has a replaced or
+     * removed record of the key.
+     */
+    private boolean isHiddenBefore(final long segmentId, final String key) {
+        return this.segments.headMap(segmentId).values().stream()
+                .anyMatch(segment -> segment.garbageKeys.contains(key));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            for (final Segment segment : this.segments.values()) {
+                segment.channel.close();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends an encoded record to the active segment and updates the index.
+     */
+    private void append(final String key, final ByteBuffer record) throws IOException {
+        if (this.active.size >= this.segmentSize) {
+            this.active.channel.force(false);
+            this.active = this.newSegment(this.active.id + 1L);
+        }
+        final long offset = this.active.size;
+        final int length = record.remaining();
+        while (record.hasRemaining()) {
+            this.active.channel.write(record, this.active.size + length - record.remaining());
+        }
+        this.active.size += length;
+        this.apply(record.get(8), key, new Location(this.active.id, offset, length));
+    }
+
+    private void apply(final byte type, final String key, final Location location) {
+        final Location previous = type == PUT ? this.index.put(key, location)
+                : this.index.remove(key);
+        if (previous != null) {
+            final Segment previousSegment = this.segments.get(previous.segment);
+            if (previousSegment != null) {
+                previousSegment.live -= previous.length;
+                previousSegment.garbageKeys.add(key);
+            }
+        }
+        if (type == PUT) {
+            this.segments.get(location.segment).live += location.length;
+        }
+    }
+
+    /**
+     * Reads the records of a segment into the index, truncating it at the
+     * first incomplete or corrupted record.
+     */
+    private void load(final Segment segment) throws IOException {
+        final long fileSize = segment.channel.size();
+        long position = 0L;
+        while (position + HEADER_LENGTH <= fileSize) {
+            final int length = readLength(segment, position);
+            if (length < HEADER_LENGTH || position + length > fileSize) {
+                break;
+            }
+            final ByteBuffer record = segment.read(position, length);
+            if (!isValid(record)) {
+                break;
+            }
+            this.apply(record.get(8), getKey(record), new Location(segment.id, position, length));
+            position += length;
+        }
+        if (position < fileSize) {
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    private Segment newSegment(final long id) throws IOException {
+        final Segment segment = new Segment(id,
+                this.directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX)));
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    private static int readLength(final Segment segment, final long position)
+            throws IOException {
+        return segment.read(position, 4).getInt(0);
+    }
+
+    private static ByteBuffer encode(final byte type, final String key, final byte[] value) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int length = HEADER_LENGTH + keyBytes.length + value.length;
+        final ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length).putInt(0).put(type).putShort((short) keyBytes.length)
+                .put(keyBytes).put(value);
+        record.putInt(4, checksum(record));
+        record.flip();
+        return record;
+    }
+
+    private static int checksum(final ByteBuffer record) {
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        return (int) crc.getValue();
+    }
+
+    private static boolean isValid(final ByteBuffer record) {
+        return record.getInt(4) == checksum(record);
+    }
+
+    private static String getKey(final ByteBuffer record) {
+        return new String(record.array(), HEADER_LENGTH, record.getShort(9),
+                StandardCharsets.UTF_8);
+    }
+
+    private static byte[] getValue(final ByteBuffer record) {
+        final int offset = HEADER_LENGTH + record.getShort(9);
+        final byte[] value = new byte[record.capacity() - offset];
+        System.arraycopy(record.array(), offset, value, 0, value.length);
+        return value;
+    }
+
+    @AllArgsConstructor
+    private static class Location {
+        private final long segment;
+        private final long offset;
+        private final int length;
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path file;
+        private final FileChannel channel;
+        private long size;
+        // Bytes of the records still in the index.
+        private long live;
+        // Keys of the records replaced or removed since, which a tombstone
+        // in a newer segment may have to keep hidden until this one is gone.
+        private final Set<String> garbageKeys = new HashSet<>();
+
+        private Segment(final long id, final Path file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        private ByteBuffer read(final long position, final int length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of segment " + this.file);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.mtakaki.credentialstorage.database.journal;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A credential write kept in the {@link WriteJournal}, as it would have been
+ * stored in redis.
+ *
+ * @author mtakaki
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JournalEntry {
+    // The credential public key.
+    private String key;
+    private Map<String, String> fields;
+    // UNIX timestamp, in seconds, of the write.
+    private long updatedAt;
+}
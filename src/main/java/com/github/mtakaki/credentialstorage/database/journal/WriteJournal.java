@@ -0,0 +1,308 @@
+package com.github.mtakaki.credentialstorage.database.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mtakaki.credentialstorage.configuration.JournalConfiguration;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal, on the local disk, of the credential writes that
+ * couldn't be stored in redis. They are replayed to redis, in order, once it's
+ * back.
+ *
+ * <p>
+ * The journal is a fixed size memory-mapped file. It starts with a header
+ * holding where the entries not yet replayed start, followed by the entries,
+ * each stored as {@code [length][CRC32][JSON]}. The length is written last,
+ * so an entry cut short by a crash is found by its checksum or its missing
+ * length and dropped when the journal is opened. Appends only return once the
+ * entry is on the disk. Writers that arrive while the file is being flushed
+ * are covered by the next flush, so a burst of writes shares a few of them.
+ * Once every entry is replayed, the journal is cleared and starts over.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class WriteJournal implements Managed {
+    /**
+     * No journal, writes fail while redis is unavailable.
+     */
+    public static final WriteJournal DISABLED = new WriteJournal(null, new MetricRegistry());
+
+    private static final int MAGIC = 0x434a524e;
+    // Magic number and the replayed position.
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int REPLAYED_POSITION = Integer.BYTES;
+    // Length and checksum.
+    private static final int ENTRY_HEADER_SIZE = Integer.BYTES * 2;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] ZEROES = new byte[8192];
+
+    // Null if there is no journal.
+    private final MappedByteBuffer buffer;
+    private final Object appendLock = new Object();
+    private final Object flushLock = new Object();
+    private final Object replayLock = new Object();
+    private final Meter appendedMeter;
+    private final Timer fsyncTimer;
+    // Where the next entry is appended.
+    private volatile int end;
+    // Where the entries not yet replayed start.
+    private volatile int replayed;
+    // How much of the journal is known to be on the disk.
+    private int flushed;
+    private volatile int depth;
+
+    private WriteJournal(final MappedByteBuffer buffer, final MetricRegistry metricRegistry) {
+        this.buffer = buffer;
+        this.appendedMeter = metricRegistry
+                .meter(MetricRegistry.name(WriteJournal.class, "appended"));
+        this.fsyncTimer = metricRegistry.timer(MetricRegistry.name(WriteJournal.class, "fsync"));
+        metricRegistry.register(MetricRegistry.name(WriteJournal.class, "depth"),
+                (Gauge<Integer>) this::getDepth);
+        if (buffer != null) {
+            this.load();
+        }
+    }
+
+    /**
+     * Opens the configured journal, creating it if needed, and finds the
+     * entries left to be replayed.
+     *
+     * @param configuration
+     *            The journal settings.
+     * @param metricRegistry
+     *            Where the journal metrics are registered.
+     * @return The journal, which might be disabled.
+     * @throws IOException
+     *             Thrown if the file can't be mapped.
+     */
+    public static WriteJournal open(final JournalConfiguration configuration,
+            final MetricRegistry metricRegistry) throws IOException {
+        if (!configuration.isEnabled()) {
+            return new WriteJournal(null, metricRegistry);
+        }
+        final Path file = Paths.get(configuration.getFile()).toAbsolutePath();
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed.
+            return new WriteJournal(
+                    channel.map(MapMode.READ_WRITE, 0L, configuration.getSize().toBytes()),
+                    metricRegistry);
+        }
+    }
+
+    private void load() {
+        if (this.buffer.getInt(0) != MAGIC) {
+            this.buffer.putInt(0, MAGIC);
+            this.buffer.putLong(REPLAYED_POSITION, HEADER_SIZE);
+            this.buffer.force();
+        }
+        this.replayed = (int) this.buffer.getLong(REPLAYED_POSITION);
+        int position = this.replayed;
+        int entries = 0;
+        byte[] payload;
+        while ((payload = this.read(position)) != null) {
+            position += ENTRY_HEADER_SIZE + payload.length;
+            entries++;
+        }
+        // Clearing whatever is left of an entry cut short.
+        this.zero(position, this.buffer.capacity());
+        this.end = position;
+        this.flushed = position;
+        this.depth = entries;
+        if (entries > 0) {
+            log.info("Write journal has {} entries to be replayed.", entries);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.buffer != null;
+    }
+
+    /**
+     * How many entries are waiting to be replayed.
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * Stores the given entry and waits until it's flushed to the disk.
+     *
+     * @param entry
+     *            The write to be replayed later.
+     * @return {@code true} if the entry was stored, {@code false} if the
+     *         journal is full.
+     * @throws IOException
+     *             Thrown if the entry can't be serialized.
+     */
+    public boolean append(final JournalEntry entry) throws IOException {
+        final byte[] payload = MAPPER.writeValueAsBytes(entry);
+        final int entryEnd;
+        synchronized (this.appendLock) {
+            final int position = this.end;
+            if ((long) position + ENTRY_HEADER_SIZE + payload.length > this.buffer
+                    .capacity()) {
+                return false;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            this.buffer.position(position + ENTRY_HEADER_SIZE);
+            this.buffer.put(payload);
+            this.buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+            this.buffer.putInt(position, payload.length);
+            entryEnd = position + ENTRY_HEADER_SIZE + payload.length;
+            this.end = entryEnd;
+            this.depth++;
+        }
+        this.flush(entryEnd);
+        this.appendedMeter.mark();
+        return true;
+    }
+
+    /**
+     * Flushes the journal up to at least the given position. A single flush
+     * covers all the entries appended before it started.
+     */
+    private void flush(final int position) {
+        synchronized (this.flushLock) {
+            if (this.flushed >= position) {
+                return;
+            }
+            final int target = this.end;
+            try (Timer.Context context = this.fsyncTimer.time()) {
+                this.buffer.force();
+            }
+            this.flushed = target;
+        }
+    }
+
+    /**
+     * Hands the oldest entries, in order, to the given handler. The progress
+     * is stored after each batch, so a crash only replays that batch again.
+     * It stops at the first entry the handler fails to replay, which is kept
+     * for the next call.
+     *
+     * @param batchSize
+     *            How many entries are replayed before the progress is stored.
+     * @param handler
+     *            Stores the entry in redis.
+     * @return How many entries were replayed.
+     * @throws IOException
+     *             Thrown if the handler fails, redis is likely still down.
+     */
+    public int replay(final int batchSize, final EntryHandler handler) throws IOException {
+        if (this.buffer == null) {
+            return 0;
+        }
+        synchronized (this.replayLock) {
+            int replayedEntries = 0;
+            try {
+                int position = this.replayed;
+                final int limit = this.end;
+                while (position < limit && replayedEntries < batchSize) {
+                    final byte[] payload = this.read(position);
+                    handler.accept(MAPPER.readValue(payload, JournalEntry.class));
+                    position += ENTRY_HEADER_SIZE + payload.length;
+                    replayedEntries++;
+                    this.replayed = position;
+                }
+            } finally {
+                if (replayedEntries > 0) {
+                    this.storeProgress(replayedEntries);
+                }
+            }
+            return replayedEntries;
+        }
+    }
+
+    private void storeProgress(final int replayedEntries) {
+        synchronized (this.appendLock) {
+            this.depth -= replayedEntries;
+            if (this.replayed == this.end) {
+                // Clearing the entries before the header, so they can't be
+                // replayed again, over newer writes, after a crash.
+                this.zero(HEADER_SIZE, this.end);
+                this.buffer.force();
+                this.replayed = HEADER_SIZE;
+                this.end = HEADER_SIZE;
+                synchronized (this.flushLock) {
+                    this.flushed = HEADER_SIZE;
+                }
+            }
+            this.buffer.putLong(REPLAYED_POSITION, this.replayed);
+            this.buffer.force();
+        }
+    }
+
+    /**
+     * Reads the entry at the given position.
+     *
+     * @return The entry payload or {@code null} if there is no complete entry
+     *         there.
+     */
+    private byte[] read(final int position) {
+        if (position + ENTRY_HEADER_SIZE > this.buffer.capacity()) {
+            return null;
+        }
+        final int length = this.buffer.getInt(position);
+        if (length <= 0 || length > this.buffer.capacity() - position - ENTRY_HEADER_SIZE) {
+            return null;
+        }
+        final byte[] payload = new byte[length];
+        // The buffer position is shared with the appends.
+        synchronized (this.appendLock) {
+            this.buffer.position(position + ENTRY_HEADER_SIZE);
+            this.buffer.get(payload);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == this.buffer.getInt(position + Integer.BYTES) ? payload
+                : null;
+    }
+
+    private void zero(final int from, final int to) {
+        this.buffer.position(from);
+        while (this.buffer.position() < to) {
+            this.buffer.put(ZEROES, 0, Math.min(ZEROES.length, to - this.buffer.position()));
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (this.buffer != null) {
+            this.buffer.force();
+        }
+    }
+
+    /**
+     * Stores a journaled write in redis.
+     */
+    @FunctionalInterface
+    public interface EntryHandler {
+        void accept(JournalEntry entry) throws IOException;
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An entry of the audit log, recorded every time a credential or a binary
+ * secret is read or changed.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class AuditEvent {
+    // Assigned in order by the database when the event is appended, so it's
+    // left out until then.
+    @JsonInclude(Include.NON_DEFAULT)
+    private long id;
+
+    // UNIX timestamp in milliseconds.
+    private long timestamp;
+
+    private Action action;
+
+    private Target target;
+
+    // Digest of the public key, the same one used in the database keys.
+    private String keyDigest;
+
+    // The server that handled the request.
+    private String node;
+
+    public enum Action {
+        READ, WRITE, RENEW, DELETE
+    }
+
+    public enum Target {
+        CREDENTIAL, BLOB, GROUP
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A page of the audit log, along with the cursor to fetch the next one.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditEventPage {
+    private List<AuditEvent> events;
+
+    // The id of the last event in this page, or the given cursor if the page
+    // is empty, so polling with it only returns newer events.
+    private long nextCursor;
+}
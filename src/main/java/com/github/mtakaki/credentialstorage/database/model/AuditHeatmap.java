@@ -0,0 +1,70 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Access counts and distinct caller estimates over a time range, one bucket
+ * per minute or per hour.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditHeatmap {
+    private Granularity granularity;
+
+    private List<Bucket> buckets;
+
+    // Estimated over the whole range, which is less than the sum of the
+    // buckets when callers come back.
+    private long distinctCallers;
+
+    public enum Granularity {
+        MINUTE(TimeUnit.MINUTES.toSeconds(1L)), HOUR(TimeUnit.HOURS.toSeconds(1L));
+
+        @Getter
+        private final long seconds;
+
+        private Granularity(final long seconds) {
+            this.seconds = seconds;
+        }
+
+        /**
+         * The start of the bucket holding the given time.
+         *
+         * @param unixTimestamp
+         *            UNIX timestamp in seconds.
+         * @return The bucket start, as a UNIX timestamp in seconds.
+         */
+        public long bucketOf(final long unixTimestamp) {
+            return unixTimestamp - unixTimestamp % this.seconds;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Bucket {
+        // Bucket start, as a UNIX timestamp in seconds.
+        private long timestamp;
+
+        private long count;
+
+        // Estimated number of distinct keys that made a request.
+        private long distinctCallers;
+
+        // Requests made by a single key, only set when one is asked for.
+        @JsonInclude(Include.NON_NULL)
+        private Long keyCount;
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Describes a binary secret, such as a keystore or a certificate, stored in
+ * encrypted chunks. The chunks themselves are kept apart, under the upload
+ * id, so a new upload never mixes its chunks with the current ones.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Blob {
+    private String key;
+
+    // Encrypted using the public asymmetric key, like the credentials.
+    private String symmetricKey;
+
+    // How the symmetric key was encrypted. The chunks are always AES-GCM.
+    private CipherSuite cipherSuite;
+
+    private String uploadId;
+
+    private int chunkSize;
+
+    private long chunkCount;
+
+    // Size of the plain text payload, in bytes.
+    private long size;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS")
+    private Date createdAt;
+}
@@ -0,0 +1,39 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Aggregate statistics of the stored credentials, kept up to date by every
+ * write and delete.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogueStats {
+    // The credentials in redis. The ones moved to the cold tier are only
+    // counted in cold.
+    private long count;
+
+    // The size of the encrypted primary and secondary of all the credentials.
+    private long bytes;
+
+    // How many credentials fit in each power of two, in bytes, from 256. The
+    // largest bucket also holds the larger credentials.
+    private SortedMap<Long, Long> sizes;
+
+    // How many credentials were created in each month, as yyyy-MM.
+    private SortedMap<String, Long> createdByMonth;
+
+    // How many credentials were last accessed within a day, 7 days, 30 days,
+    // 90 days, and before that.
+    private Map<String, Long> lastAccessed;
+
+    private long cold;
+}
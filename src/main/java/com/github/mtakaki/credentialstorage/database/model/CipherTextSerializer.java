@@ -0,0 +1,58 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Writes a base64 encoded cipher text as raw bytes in the formats that support
+ * them, such as Smile and CBOR, so they are a third smaller and don't need to
+ * be decoded by the client. JSON still gets the base64 string.
+ *
+ * <p>
+ * Values that aren't valid base64 are written as strings. Reading doesn't need
+ * anything else, as Jackson already reads raw bytes into a string field as
+ * base64.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class CipherTextSerializer extends StdSerializer<String> {
+    private static final long serialVersionUID = 1L;
+
+    public CipherTextSerializer() {
+        super(String.class);
+    }
+
+    @Override
+    public void serialize(final String value, final JsonGenerator generator,
+            final SerializerProvider provider) throws IOException {
+        // TokenBuffer claims native binary support, but it's used to convert
+        // the credential into the map stored in redis, which holds strings.
+        if (generator.canWriteBinaryNatively() && !(generator instanceof TokenBuffer)) {
+            final byte[] cipherText = decode(value);
+            if (cipherText != null) {
+                generator.writeBinary(cipherText);
+                return;
+            }
+        }
+        generator.writeString(value);
+    }
+
+    private static byte[] decode(final String value) {
+        // Without the padding, the client couldn't tell the original string.
+        if (value.length() % 4 != 0) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode(value);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
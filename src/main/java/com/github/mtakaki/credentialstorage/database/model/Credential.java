@@ -2,11 +2,14 @@ package com.github.mtakaki.credentialstorage.database.model;
 
 import java.util.Date;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.github.mtakaki.credentialstorage.database.model.view.AdminView;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -28,17 +31,37 @@ public class Credential {
     @JsonView(AdminView.class)
     private String key;
 
+    // The cipher texts are sent as raw bytes in the binary formats.
+    @JsonSerialize(using = CipherTextSerializer.class)
     private String symmetricKey;
 
+    // Missing in records written before the cipher suite was recorded, which
+    // are all AES_ECB_RSA_PKCS1.
+    private CipherSuite cipherSuite;
+
     // The length would never be longer than 876 because it's encrypted.
     @NotNull
+    @JsonSerialize(using = CipherTextSerializer.class)
     private String primary;
 
     // The length would never be longer than 876 because it's encrypted.
+    @JsonSerialize(using = CipherTextSerializer.class)
     private String secondary;
 
     private String description;
 
+    // Optional lease, in seconds. The credential is removed once it expires,
+    // unless the lease is renewed.
+    @Min(1)
+    private Long ttl;
+
+    // UNIX timestamp, in seconds, when the lease expires. Set by the server.
+    private Long expiresAt;
+
+    // Incremented by the server on every write. Missing in records written
+    // before it was recorded, which are version 0.
+    private Long version;
+
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'hh:mm:ss.SSS")
     private Date lastAccess;
 
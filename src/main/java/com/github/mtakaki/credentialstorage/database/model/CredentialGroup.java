@@ -0,0 +1,58 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A credential pair shared by many public keys. It's encrypted once, with a
+ * single symmetric key, and each member gets that symmetric key encrypted
+ * with its own public key, which are kept apart from the group.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CredentialGroup {
+    private String name;
+
+    // Digest of the public key that created the group, the only one allowed
+    // to replace or delete it.
+    private String owner;
+
+    private CipherSuite cipherSuite;
+
+    // Sent in plain text and stored encrypted, as in the credentials.
+    @NotNull
+    private String primary;
+
+    private String secondary;
+
+    private String description;
+
+    // The public keys of the members, as sent in the X-Auth-RSA header. Only
+    // sent by the owner, it's not stored along with the group.
+    @NotNull
+    @Size(min = 1, max = 10000)
+    private List<String> members;
+
+    private int memberCount;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS")
+    private Date createdAt;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS")
+    private Date updatedAt;
+}
@@ -0,0 +1,34 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import javax.validation.constraints.Min;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The fields to be changed in a stored credential. Fields left out are kept as
+ * they are.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CredentialPatch {
+    // Sent in plain text. As the server can't decrypt the stored pair, both
+    // are encrypted again with a new symmetric key whenever the primary is
+    // sent, and a missing secondary is then removed.
+    private String primary;
+
+    private String secondary;
+
+    private String description;
+
+    // The version the patch was based on. If it's sent and the stored
+    // credential has another version, the patch is rejected.
+    @Min(0)
+    private Long version;
+}
@@ -0,0 +1,31 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A page of the credentials found by their description prefix, along with the
+ * cursor to fetch the next one.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DescriptionPage {
+    private List<Match> matches;
+
+    // null once there are no more pages.
+    private String nextCursor;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Match {
+        private String key;
+        private String description;
+    }
+}
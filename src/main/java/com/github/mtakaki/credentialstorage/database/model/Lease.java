@@ -0,0 +1,21 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The lifetime of a credential that expires on its own unless it's renewed.
+ *
+ * @author mtakaki
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Lease {
+    // Lease duration in seconds, used again on every renewal.
+    private long ttl;
+
+    // UNIX timestamp, in seconds, when the credential is removed.
+    private long expiresAt;
+}
@@ -0,0 +1,268 @@
+package com.github.mtakaki.credentialstorage.database.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+
+import lombok.Getter;
+
+/**
+ * A read only copy of the credential records, memory mapped from the local
+ * disk, keyed by the sorted sets member.
+ *
+ * <p>
+ * The file starts with a magic number and the time the copy was started,
+ * followed by the records: their length, the member length, the member and
+ * the record fields as JSON. It's written by a {@link Writer} under a
+ * temporary name and only renamed once complete, so an open snapshot is never
+ * partial. The file is mapped in regions of {@link #REGION_SIZE} bytes and
+ * the writer pads the end of a region, so no record crosses two of them.
+ * </p>
+ *
+ * <p>
+ * Closing it unmaps the file right away, instead of waiting for the garbage
+ * collector, and the reads still in progress are let finish first.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class SnapshotFile implements Closeable {
+    static final int REGION_SIZE = 1 << 30;
+    private static final int MAGIC = 0x43535331;
+    // Magic number and creation time.
+    private static final int HEADER_LENGTH = 4 + 8;
+    // Record and member lengths.
+    private static final int RECORD_HEADER_LENGTH = 4 + 2;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, String>> FIELDS_TYPE =
+            new TypeReference<Map<String, String>>() {
+            };
+
+    private final MappedByteBuffer[] regions;
+    private final Map<String, Long> index;
+    // UNIX timestamp, in milliseconds, of when the copy was started.
+    @Getter
+    private final long createdAt;
+    // Reads share it, while closing takes it exclusively.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    private SnapshotFile(final MappedByteBuffer[] regions, final Map<String, Long> index,
+            final long createdAt) {
+        this.regions = regions;
+        this.index = index;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Maps the given snapshot and indexes its records.
+     *
+     * @param file
+     *            A snapshot written by a {@link Writer}.
+     * @return The snapshot.
+     * @throws IOException
+     *             Thrown if the file can't be read or it's not a snapshot.
+     */
+    public static SnapshotFile open(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((size + REGION_SIZE
+                    - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                final long position = (long) i * REGION_SIZE;
+                regions[i] = channel.map(MapMode.READ_ONLY, position,
+                        Math.min(REGION_SIZE, size - position));
+            }
+            if (size < HEADER_LENGTH || regions[0].getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a credentials snapshot.");
+            }
+
+            final Map<String, Long> index = new HashMap<>();
+            long position = HEADER_LENGTH;
+            while (position < size) {
+                final ByteBuffer region = regions[(int) (position / REGION_SIZE)];
+                final int offset = (int) (position % REGION_SIZE);
+                final int length = offset + 4 <= region.limit() ? region.getInt(offset) : 0;
+                if (length == 0) {
+                    // Padding up to the next region.
+                    position += REGION_SIZE - offset;
+                    continue;
+                }
+                index.put(getMember(region, offset), position);
+                position += length;
+            }
+            return new SnapshotFile(regions, index, regions[0].getLong(4));
+        }
+    }
+
+    /**
+     * Reads the record of the given sorted sets member.
+     *
+     * @return The record fields or {@code Optional.absent()} if it's not in
+     *         the snapshot, or if the snapshot was closed.
+     * @throws IOException
+     *             Thrown if the record can't be parsed.
+     */
+    public Optional<Map<String, String>> get(final String member) throws IOException {
+        final Long position = this.index.get(member);
+        if (position == null) {
+            return Optional.absent();
+        }
+        final byte[] value;
+        this.lock.readLock().lock();
+        try {
+            if (this.closed) {
+                return Optional.absent();
+            }
+            // Each reader needs its own position.
+            final ByteBuffer region = this.regions[(int) (position / REGION_SIZE)].duplicate();
+            final int offset = (int) (position % REGION_SIZE);
+            final int valueOffset = offset + RECORD_HEADER_LENGTH + region.getShort(offset + 4);
+            value = new byte[offset + region.getInt(offset) - valueOffset];
+            region.position(valueOffset);
+            region.get(value);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return Optional.of(MAPPER.readValue(value, FIELDS_TYPE));
+    }
+
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * The sorted sets members of the records in the snapshot.
+     */
+    public Set<String> getMembers() {
+        return Collections.unmodifiableSet(this.index.keySet());
+    }
+
+    /**
+     * Unmaps the file. Reads made afterwards find nothing.
+     */
+    @Override
+    public void close() {
+        this.lock.writeLock().lock();
+        try {
+            if (!this.closed) {
+                this.closed = true;
+                for (final MappedByteBuffer region : this.regions) {
+                    unmap(region);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the mapping, through the JDK internal cleaner, as there is no
+     * public API for it.
+     */
+    private static void unmap(final MappedByteBuffer region) {
+        try {
+            final Method cleanerMethod = region.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(region);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector, which unmaps it eventually.
+        }
+    }
+
+    private static String getMember(final ByteBuffer region, final int offset) {
+        final byte[] member = new byte[region.getShort(offset + 4)];
+        final ByteBuffer buffer = region.duplicate();
+        buffer.position(offset + RECORD_HEADER_LENGTH);
+        buffer.get(member);
+        return new String(member, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a new snapshot, record by record, under a temporary name.
+     */
+    public static class Writer implements Closeable {
+        private final Path temporaryFile;
+        private final DataOutputStream output;
+        private long position;
+        private boolean committed;
+
+        public Writer(final Path temporaryFile, final long createdAt) throws IOException {
+            this.temporaryFile = temporaryFile;
+            this.output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporaryFile)));
+            this.output.writeInt(MAGIC);
+            this.output.writeLong(createdAt);
+            this.position = HEADER_LENGTH;
+        }
+
+        public void append(final String member, final Map<String, String> fields)
+                throws IOException {
+            final byte[] memberBytes = member.getBytes(StandardCharsets.UTF_8);
+            final byte[] value = MAPPER.writeValueAsBytes(fields);
+            final int length = RECORD_HEADER_LENGTH + memberBytes.length + value.length;
+            final long regionLeft = REGION_SIZE - this.position % REGION_SIZE;
+            if (length > regionLeft) {
+                this.output.write(new byte[(int) regionLeft]);
+                this.position += regionLeft;
+            }
+            this.output.writeInt(length);
+            this.output.writeShort(memberBytes.length);
+            this.output.write(memberBytes);
+            this.output.write(value);
+            this.position += length;
+        }
+
+        /**
+         * Flushes the snapshot to the disk, moves it to the given file and
+         * opens it.
+         */
+        public SnapshotFile commit(final Path file) throws IOException {
+            this.output.close();
+            try (FileChannel channel = FileChannel.open(this.temporaryFile,
+                    StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(this.temporaryFile, file, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            this.committed = true;
+            return SnapshotFile.open(file);
+        }
+
+        /**
+         * Discards the snapshot, unless it was committed.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!this.committed) {
+                this.output.close();
+                Files.deleteIfExists(this.temporaryFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.github.mtakaki.credentialstorage.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Encrypts large payloads in fixed size chunks using AES-GCM, so they can be
+ * streamed without holding the whole payload in memory.
+ *
+ * <p>
+ * Each encrypted chunk, or frame, is the 12 bytes random nonce followed by the
+ * ciphertext and the 16 bytes authentication tag. The chunk index and whether
+ * it's the last chunk are authenticated as additional data, so chunks can't
+ * be reordered, dropped or the payload truncated without failing the
+ * decryption.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class ChunkedCipher {
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKey symmetricKey;
+    private final int chunkSize;
+    private final Provider provider;
+
+    /**
+     * @param symmetricKey
+     *            The AES key used for all chunks.
+     * @param chunkSize
+     *            The plain text size of each chunk, except the last one.
+     * @param provider
+     *            The JCA provider or {@code null} to use the JVM default.
+     */
+    public ChunkedCipher(final SecretKey symmetricKey, final int chunkSize,
+            final Provider provider) {
+        this.symmetricKey = symmetricKey;
+        this.chunkSize = chunkSize;
+        this.provider = provider;
+    }
+
+    public ChunkedCipher(final SecretKey symmetricKey, final int chunkSize) {
+        this(symmetricKey, chunkSize, null);
+    }
+
+    /**
+     * Lazily reads and encrypts the given input, one chunk at a time. At most
+     * two chunks are kept in memory, as we need to read ahead to know which
+     * one is the last.
+     *
+     * @param input
+     *            The plain text payload.
+     * @return The encrypted frames. The iterator throws
+     *         {@link UncheckedIOException} if the input fails to be read and
+     *         {@link IllegalStateException} if AES-GCM is not available.
+     */
+    public Iterator<byte[]> encrypt(final InputStream input) {
+        return this.encrypt(input, this::encryptChunk);
+    }
+
+    /**
+     * Lazily reads the given input, one chunk at a time, and has each chunk
+     * encrypted by the given encryptor, which may hand it to another thread.
+     * The chunk buffer is reused once the encryptor returns.
+     *
+     * @param input
+     *            The plain text payload.
+     * @param encryptor
+     *            Encrypts each chunk, as {@link #encryptChunk} does.
+     * @return The encrypted frames. The iterator throws
+     *         {@link UncheckedIOException} if the input fails to be read and
+     *         whatever the encryptor throws.
+     */
+    public Iterator<byte[]> encrypt(final InputStream input, final ChunkEncryptor encryptor) {
+        return new Iterator<byte[]>() {
+            private byte[] current = new byte[ChunkedCipher.this.chunkSize];
+            private byte[] next = new byte[ChunkedCipher.this.chunkSize];
+            private int currentLength = this.read(this.current);
+            private long index = 0L;
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                return !this.done;
+            }
+
+            @Override
+            public byte[] next() {
+                if (this.done) {
+                    throw new NoSuchElementException();
+                }
+                final int nextLength = this.currentLength < this.current.length ? 0
+                        : this.read(this.next);
+                final boolean last = nextLength == 0;
+                final byte[] frame = encryptor.encrypt(this.index++, this.current,
+                        this.currentLength, last);
+
+                final byte[] swap = this.current;
+                this.current = this.next;
+                this.next = swap;
+                this.currentLength = nextLength;
+                this.done = last;
+                return frame;
+            }
+
+            private int read(final byte[] buffer) {
+                try {
+                    return ByteStreams.read(input, buffer, 0, buffer.length);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Encrypts a single chunk.
+     *
+     * @param index
+     *            The chunk position in the payload, starting at zero.
+     * @param plainText
+     *            The buffer holding the chunk.
+     * @param length
+     *            How many bytes of the buffer belong to the chunk.
+     * @param last
+     *            Whether this is the last chunk of the payload.
+     * @return The frame, the nonce followed by the ciphertext and tag.
+     */
+    public byte[] encryptChunk(final long index, final byte[] plainText, final int length,
+            final boolean last) {
+        final byte[] frame = new byte[NONCE_LENGTH + length + TAG_LENGTH];
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        System.arraycopy(nonce, 0, frame, 0, NONCE_LENGTH);
+        try {
+            final Cipher cipher = CipherSuite.getCipher(TRANSFORMATION, this.provider);
+            cipher.init(Cipher.ENCRYPT_MODE, this.symmetricKey,
+                    new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, nonce));
+            cipher.updateAAD(associatedData(index, last));
+            cipher.doFinal(plainText, 0, length, frame, NONCE_LENGTH);
+            return frame;
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(new InitializationException(e));
+        }
+    }
+
+    /**
+     * Decrypts a single frame, verifying it belongs to the given position.
+     *
+     * @param index
+     *            The chunk position in the payload, starting at zero.
+     * @param frame
+     *            The frame produced by {@link #encryptChunk}.
+     * @param last
+     *            Whether this is the last chunk of the payload.
+     * @return The plain text chunk.
+     * @throws InitializationException
+     *             Thrown if the frame was tampered with, is out of place or
+     *             was encrypted with another key.
+     */
+    public byte[] decryptChunk(final long index, final byte[] frame, final boolean last)
+            throws InitializationException {
+        try {
+            final Cipher cipher = CipherSuite.getCipher(TRANSFORMATION, this.provider);
+            cipher.init(Cipher.DECRYPT_MODE, this.symmetricKey, new GCMParameterSpec(
+                    TAG_LENGTH * Byte.SIZE, Arrays.copyOf(frame, NONCE_LENGTH)));
+            cipher.updateAAD(associatedData(index, last));
+            return cipher.doFinal(frame, NONCE_LENGTH, frame.length - NONCE_LENGTH);
+        } catch (final GeneralSecurityException e) {
+            throw new InitializationException(e);
+        }
+    }
+
+    /**
+     * Size of the plain text held by the given frame.
+     */
+    public static int getPlainTextLength(final byte[] frame) {
+        return frame.length - NONCE_LENGTH - TAG_LENGTH;
+    }
+
+    private static byte[] associatedData(final long index, final boolean last) {
+        return ByteBuffer.allocate(Long.BYTES + 1).putLong(index).put((byte) (last ? 1 : 0))
+                .array();
+    }
+
+    /**
+     * Encrypts a single chunk into a frame.
+     */
+    @FunctionalInterface
+    public interface ChunkEncryptor {
+        byte[] encrypt(long index, byte[] plainText, int length, boolean last);
+    }
+}
@@ -0,0 +1,174 @@
+package com.github.mtakaki.credentialstorage.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.MGF1ParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.crypto.spec.SecretKeySpec;
+
+import lombok.Getter;
+
+/**
+ * The algorithms used to encrypt a record. It's stored along with the record,
+ * so clients know how to decrypt it and records written with an older suite
+ * keep working after the default changes.
+ *
+ * <p>
+ * All operations take the JCA {@link Provider} to be used, or {@code null} for
+ * the JVM default, as chosen by {@link CryptoProviders}. The decryption
+ * operations are only used to verify the providers, as the server never
+ * decrypts the records.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public enum CipherSuite {
+    /**
+     * AES in ECB mode, with PKCS#5 padding, and RSA with PKCS#1 v1.5 padding
+     * for the symmetric key. The ciphertext has no integrity protection. Used
+     * by all the records written before the cipher suite was recorded.
+     */
+    AES_ECB_RSA_PKCS1("RSA/ECB/PKCS1Padding", "AES/ECB/PKCS5Padding") {
+        @Override
+        byte[] wrapKey(final Provider provider, final PublicKey publicKey,
+                final SecretKey symmetricKey) throws GeneralSecurityException {
+            final Cipher cipher = getCipher(this.getAsymmetricTransformation(), provider);
+            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+            return cipher.doFinal(symmetricKey.getEncoded());
+        }
+
+        @Override
+        SecretKey unwrapKey(final Provider provider, final PrivateKey privateKey,
+                final byte[] wrappedKey) throws GeneralSecurityException {
+            final Cipher cipher = getCipher(this.getAsymmetricTransformation(), provider);
+            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            return new SecretKeySpec(cipher.doFinal(wrappedKey), SYMMETRIC_KEY_ALGORITHM);
+        }
+
+        @Override
+        byte[] encrypt(final Provider provider, final SecretKey symmetricKey,
+                final byte[] plainText) throws GeneralSecurityException {
+            final Cipher cipher = getCipher(this.getSymmetricTransformation(), provider);
+            cipher.init(Cipher.ENCRYPT_MODE, symmetricKey);
+            return cipher.doFinal(plainText);
+        }
+
+        @Override
+        byte[] decrypt(final Provider provider, final SecretKey symmetricKey,
+                final byte[] cipherText) throws GeneralSecurityException {
+            final Cipher cipher = getCipher(this.getSymmetricTransformation(), provider);
+            cipher.init(Cipher.DECRYPT_MODE, symmetricKey);
+            return cipher.doFinal(cipherText);
+        }
+    },
+    /**
+     * AES in GCM mode, with a random 12 bytes nonce and a 16 bytes tag, and
+     * RSA-OAEP using SHA-256 and MGF1 with SHA-256 for the symmetric key. The
+     * ciphertext is the nonce followed by the encrypted data and the tag.
+     */
+    AES_GCM_RSA_OAEP("RSA/ECB/OAEPPadding", "AES/GCM/NoPadding") {
+        @Override
+        byte[] wrapKey(final Provider provider, final PublicKey publicKey,
+                final SecretKey symmetricKey) throws GeneralSecurityException {
+            final Cipher cipher = getCipher(this.getAsymmetricTransformation(), provider);
+            cipher.init(Cipher.ENCRYPT_MODE, publicKey, OAEP_PARAMETERS);
+            return cipher.doFinal(symmetricKey.getEncoded());
+        }
+
+        @Override
+        SecretKey unwrapKey(final Provider provider, final PrivateKey privateKey,
+                final byte[] wrappedKey) throws GeneralSecurityException {
+            final Cipher cipher = getCipher(this.getAsymmetricTransformation(), provider);
+            cipher.init(Cipher.DECRYPT_MODE, privateKey, OAEP_PARAMETERS);
+            return new SecretKeySpec(cipher.doFinal(wrappedKey), SYMMETRIC_KEY_ALGORITHM);
+        }
+
+        @Override
+        byte[] encrypt(final Provider provider, final SecretKey symmetricKey,
+                final byte[] plainText) throws GeneralSecurityException {
+            final byte[] nonce = new byte[GCM_NONCE_LENGTH];
+            RANDOM.nextBytes(nonce);
+            final Cipher cipher = getCipher(this.getSymmetricTransformation(), provider);
+            cipher.init(Cipher.ENCRYPT_MODE, symmetricKey,
+                    new GCMParameterSpec(GCM_TAG_LENGTH * Byte.SIZE, nonce));
+
+            final ByteBuffer output = ByteBuffer
+                    .allocate(GCM_NONCE_LENGTH + cipher.getOutputSize(plainText.length));
+            output.put(nonce);
+            cipher.doFinal(ByteBuffer.wrap(plainText), output);
+            return output.array();
+        }
+
+        @Override
+        byte[] decrypt(final Provider provider, final SecretKey symmetricKey,
+                final byte[] cipherText) throws GeneralSecurityException {
+            final Cipher cipher = getCipher(this.getSymmetricTransformation(), provider);
+            cipher.init(Cipher.DECRYPT_MODE, symmetricKey, new GCMParameterSpec(
+                    GCM_TAG_LENGTH * Byte.SIZE, cipherText, 0, GCM_NONCE_LENGTH));
+            return cipher.doFinal(cipherText, GCM_NONCE_LENGTH,
+                    cipherText.length - GCM_NONCE_LENGTH);
+        }
+    };
+
+    private static final String SYMMETRIC_KEY_ALGORITHM = "AES";
+    private static final int GCM_NONCE_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 16;
+    // Explicit parameters, as providers don't agree on the MGF1 digest when
+    // it's only named in the transformation.
+    private static final OAEPParameterSpec OAEP_PARAMETERS = new OAEPParameterSpec("SHA-256",
+            "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    @Getter
+    private final String asymmetricTransformation;
+    @Getter
+    private final String symmetricTransformation;
+
+    private CipherSuite(final String asymmetricTransformation,
+            final String symmetricTransformation) {
+        this.asymmetricTransformation = asymmetricTransformation;
+        this.symmetricTransformation = symmetricTransformation;
+    }
+
+    /**
+     * Encrypts the symmetric key with the client public key.
+     */
+    abstract byte[] wrapKey(Provider provider, PublicKey publicKey, SecretKey symmetricKey)
+            throws GeneralSecurityException;
+
+    /**
+     * Decrypts a symmetric key encrypted by
+     * {@link #wrapKey(Provider, PublicKey, SecretKey)}.
+     */
+    abstract SecretKey unwrapKey(Provider provider, PrivateKey privateKey, byte[] wrappedKey)
+            throws GeneralSecurityException;
+
+    /**
+     * Encrypts the plain text with the symmetric key.
+     */
+    abstract byte[] encrypt(Provider provider, SecretKey symmetricKey, byte[] plainText)
+            throws GeneralSecurityException;
+
+    /**
+     * Decrypts a ciphertext encrypted by
+     * {@link #encrypt(Provider, SecretKey, byte[])}.
+     */
+    abstract byte[] decrypt(Provider provider, SecretKey symmetricKey, byte[] cipherText)
+            throws GeneralSecurityException;
+
+    static Cipher getCipher(final String transformation, final Provider provider)
+            throws GeneralSecurityException {
+        return provider == null ? Cipher.getInstance(transformation)
+                : Cipher.getInstance(transformation, provider);
+    }
+}
@@ -0,0 +1,280 @@
+package com.github.mtakaki.credentialstorage.encryption;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.github.mtakaki.credentialstorage.configuration.CryptoProviderConfiguration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chooses the JCA provider used for each cipher transformation of the
+ * {@link CipherSuite}s.
+ *
+ * <p>
+ * Every candidate provider offering a transformation is self-tested, by
+ * encrypting and decrypting a random payload, and then benchmarked for a short
+ * period. The fastest provider that passes the self-test is used. Candidates
+ * that fail are left out, and if none passes the transformation falls back to
+ * the JVM default, which will fail on use as it would without this class.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class CryptoProviders {
+    /**
+     * Uses the JVM default provider for every transformation.
+     */
+    public static final CryptoProviders JVM_DEFAULT = new CryptoProviders(
+            Collections.emptyMap());
+
+    private static final String SYMMETRIC_KEY_ALGORITHM = "AES";
+    private static final String ASYMMETRIC_KEY_ALGORITHM = "RSA";
+    private static final int SELF_TEST_KEY_SIZE = 2048;
+    private static final int SELF_TEST_PAYLOAD_SIZE = 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Map<String, Selection> selections;
+
+    private CryptoProviders(final Map<String, Selection> selections) {
+        this.selections = selections;
+    }
+
+    /**
+     * Installs the configured providers and chooses the provider for each
+     * transformation. It takes about the benchmark duration for each candidate
+     * of each transformation.
+     *
+     * @param configuration
+     *            The providers to install and to consider.
+     * @return The chosen providers.
+     * @throws GeneralSecurityException
+     *             Thrown if RSA or AES keys can't be generated, so nothing
+     *             could be tested.
+     */
+    public static CryptoProviders select(final CryptoProviderConfiguration configuration)
+            throws GeneralSecurityException {
+        configuration.getInstall().forEach(CryptoProviders::install);
+
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator
+                .getInstance(ASYMMETRIC_KEY_ALGORITHM);
+        keyPairGenerator.initialize(SELF_TEST_KEY_SIZE);
+        final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        final KeyGenerator keyGenerator = KeyGenerator.getInstance(SYMMETRIC_KEY_ALGORITHM);
+        keyGenerator.init(128);
+        final SecretKey symmetricKey = keyGenerator.generateKey();
+        final byte[] payload = new byte[SELF_TEST_PAYLOAD_SIZE];
+        RANDOM.nextBytes(payload);
+
+        final List<Provider> candidates = getCandidates(configuration.getCandidates());
+        final long benchmarkNanos = configuration.getBenchmarkDuration().toNanoseconds();
+        final Map<String, Selection> selections = new LinkedHashMap<>();
+        for (final CipherSuite cipherSuite : CipherSuite.values()) {
+            selections.computeIfAbsent(cipherSuite.getAsymmetricTransformation(),
+                    transformation -> select(transformation, candidates,
+                            benchmarkNanos, provider -> {
+                                final byte[] wrappedKey = cipherSuite.wrapKey(provider,
+                                        keyPair.getPublic(), symmetricKey);
+                                return Arrays.equals(symmetricKey.getEncoded(), cipherSuite
+                                        .unwrapKey(provider, keyPair.getPrivate(), wrappedKey)
+                                        .getEncoded());
+                            }, provider -> cipherSuite.wrapKey(provider, keyPair.getPublic(),
+                                    symmetricKey)));
+            selections.computeIfAbsent(cipherSuite.getSymmetricTransformation(),
+                    transformation -> select(transformation, candidates,
+                            benchmarkNanos, provider -> {
+                                final byte[] cipherText = cipherSuite.encrypt(provider,
+                                        symmetricKey, payload);
+                                return Arrays.equals(payload,
+                                        cipherSuite.decrypt(provider, symmetricKey, cipherText));
+                            }, provider -> cipherSuite.encrypt(provider, symmetricKey, payload)));
+        }
+        return new CryptoProviders(selections);
+    }
+
+    /**
+     * The provider to be used for the given transformation.
+     *
+     * @param transformation
+     *            The cipher transformation, such as {@code AES/GCM/NoPadding}.
+     * @return The chosen provider or {@code null} to use the JVM default.
+     */
+    public Provider get(final String transformation) {
+        final Selection selection = this.selections.get(transformation);
+        return selection == null ? null : selection.provider;
+    }
+
+    /**
+     * How each transformation provider was chosen.
+     */
+    public Collection<Selection> getSelections() {
+        return Collections.unmodifiableCollection(this.selections.values());
+    }
+
+    /**
+     * Adds the provider with the given class name to the JVM, at the end of
+     * the preference list, so it can be chosen here and also be used by name,
+     * by Jetty for example. It's skipped if the class is not in the class
+     * path.
+     */
+    private static void install(final String className) {
+        try {
+            final Provider provider = (Provider) Class.forName(className).newInstance();
+            if (Security.getProvider(provider.getName()) == null) {
+                Security.addProvider(provider);
+            }
+            log.info("Installed JCA provider {} {}", provider.getName(), provider.getVersion());
+        } catch (final ReflectiveOperationException | LinkageError | ClassCastException e) {
+            log.warn("Skipping JCA provider {}, it can't be loaded: {}", className,
+                    e.toString());
+        }
+    }
+
+    private static Selection select(final String transformation,
+            final List<Provider> providers, final long benchmarkNanos,
+            final SelfTest selfTest, final Operation operation) {
+        final List<Candidate> candidates = new ArrayList<>();
+        Provider chosenProvider = null;
+        long chosenOpsPerSecond = -1L;
+        for (final Provider provider : providers) {
+            if (!supports(provider, transformation)) {
+                continue;
+            }
+            final Candidate candidate = evaluate(provider, benchmarkNanos, selfTest, operation);
+            candidates.add(candidate);
+            // Ties, as when the benchmark is disabled, keep the first one.
+            if (candidate.failure == null && candidate.opsPerSecond > chosenOpsPerSecond) {
+                chosenProvider = provider;
+                chosenOpsPerSecond = candidate.opsPerSecond;
+            }
+        }
+
+        if (chosenProvider == null) {
+            log.warn("No JCA provider passed the self-test for {}, using the JVM default.",
+                    transformation);
+        } else {
+            log.info("Using JCA provider {} for {}", chosenProvider.getName(), transformation);
+        }
+        return new Selection(transformation, chosenProvider, candidates);
+    }
+
+    /**
+     * The configured providers, in order, or all the installed providers in
+     * the JVM preference order if none is configured.
+     */
+    private static List<Provider> getCandidates(final List<String> candidateNames) {
+        final List<Provider> providers = new ArrayList<>();
+        if (candidateNames.isEmpty()) {
+            providers.addAll(Arrays.asList(Security.getProviders()));
+        } else {
+            for (final String name : candidateNames) {
+                final Provider provider = Security.getProvider(name);
+                if (provider == null) {
+                    log.warn("JCA provider {} is not installed.", name);
+                } else {
+                    providers.add(provider);
+                }
+            }
+        }
+        return providers;
+    }
+
+    private static boolean supports(final Provider provider, final String transformation) {
+        try {
+            Cipher.getInstance(transformation, provider);
+            return true;
+        } catch (final GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    private static Candidate evaluate(final Provider provider, final long benchmarkNanos,
+            final SelfTest selfTest, final Operation operation) {
+        try {
+            if (!selfTest.passes(provider)) {
+                return new Candidate(provider.getName(), 0L, "Self-test output mismatch");
+            }
+            if (benchmarkNanos <= 0L) {
+                return new Candidate(provider.getName(), 0L, null);
+            }
+            // Warming up, so the JIT doesn't favour the last candidates.
+            run(provider, benchmarkNanos / 4, operation);
+            final long operations = run(provider, benchmarkNanos, operation);
+            return new Candidate(provider.getName(),
+                    operations * TimeUnit.SECONDS.toNanos(1L) / benchmarkNanos, null);
+        } catch (final GeneralSecurityException | RuntimeException e) {
+            return new Candidate(provider.getName(), 0L, e.toString());
+        }
+    }
+
+    private static long run(final Provider provider, final long nanos, final Operation operation)
+            throws GeneralSecurityException {
+        final long deadline = System.nanoTime() + nanos;
+        long operations = 0L;
+        while (System.nanoTime() < deadline) {
+            operation.run(provider);
+            operations++;
+        }
+        return operations;
+    }
+
+    @FunctionalInterface
+    private interface SelfTest {
+        boolean passes(Provider provider) throws GeneralSecurityException;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(Provider provider) throws GeneralSecurityException;
+    }
+
+    /**
+     * The provider chosen for a transformation, along with the results of all
+     * candidates.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Selection {
+        private final String transformation;
+        @JsonIgnore
+        private final Provider provider;
+        private final List<Candidate> candidates;
+
+        public String getProviderName() {
+            return this.provider == null ? null : this.provider.getName();
+        }
+    }
+
+    /**
+     * The result of the self-test and benchmark of a provider.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Candidate {
+        private final String provider;
+        private final long opsPerSecond;
+        // Why the provider can't be used, or null if it passed the self-test.
+        private final String failure;
+    }
+}
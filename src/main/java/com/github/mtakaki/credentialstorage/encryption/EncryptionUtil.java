@@ -2,7 +2,7 @@ package com.github.mtakaki.credentialstorage.encryption;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
@@ -10,40 +10,52 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Optional;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.lang3.StringUtils;
 
 import jodd.util.Base64;
+import lombok.Getter;
 
 /**
  * Utility class that wraps encryption operations using RSA asymmetric algorithm
- * and AES symmetric algorithm.
+ * and AES symmetric algorithm, in the modes given by its {@link CipherSuite}.
  *
  * @author mtakaki
  *
  */
 public class EncryptionUtil {
-    private static final String ASYMMETRIC_CIPHER = "RSA/ECB/PKCS1Padding";
     private static final String ASYMMETRIC_KEY_ALGORITHM = "RSA";
-    private static final String SYMMETRIC_CIPHER = "AES/ECB/PKCS5Padding";
     private static final String SYMMETRIC_KEY_ALGORITHM = "AES";
 
     private final PublicKey publicKey;
     private final int symmetricKeySize;
+    @Getter
+    private final CipherSuite cipherSuite;
+    private final CryptoProviders cryptoProviders;
 
-    public EncryptionUtil(final byte[] publicKeyBytes, final int symmetricKeySize)
+    public EncryptionUtil(final byte[] publicKeyBytes, final int symmetricKeySize,
+            final CipherSuite cipherSuite, final CryptoProviders cryptoProviders)
             throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
         final X509EncodedKeySpec spec = new X509EncodedKeySpec(publicKeyBytes);
         final KeyFactory kf = KeyFactory.getInstance(ASYMMETRIC_KEY_ALGORITHM);
         this.publicKey = kf.generatePublic(spec);
         this.symmetricKeySize = symmetricKeySize;
+        this.cipherSuite = cipherSuite;
+        this.cryptoProviders = cryptoProviders;
+    }
+
+    public EncryptionUtil(final byte[] publicKeyBytes, final int symmetricKeySize,
+            final CipherSuite cipherSuite)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        this(publicKeyBytes, symmetricKeySize, cipherSuite, CryptoProviders.JVM_DEFAULT);
+    }
+
+    public EncryptionUtil(final byte[] publicKeyBytes, final int symmetricKeySize)
+            throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        this(publicKeyBytes, symmetricKeySize, CipherSuite.AES_ECB_RSA_PKCS1);
     }
 
     public EncryptionUtil(final String base64PublicKey, final int symmetricKeySize)
@@ -86,7 +98,7 @@ public class EncryptionUtil {
      *            base64.
      * @return The encrypted symmetric key in a base64 string.
      * @throws InitializationException
-     *             Thrown if the RSA algorithm is not available, or if PKCS1
+     *             Thrown if the RSA algorithm is not available, or if the
      *             padding is not available, or if the public key is invalid, or
      *             if the symmetric key length is too long to be encrypted using
      *             RSA algorithm, or if the data is not padded correctly.
@@ -94,13 +106,11 @@ public class EncryptionUtil {
     public String encrypt(final SecretKey symetricKey)
             throws InitializationException {
         try {
-            final Cipher cipher = Cipher.getInstance(ASYMMETRIC_CIPHER);
-            cipher.init(Cipher.ENCRYPT_MODE, this.publicKey);
-
-            final byte[] encryptedSymmetricKey = cipher.doFinal(symetricKey.getEncoded());
+            final byte[] encryptedSymmetricKey = this.cipherSuite.wrapKey(
+                    this.cryptoProviders.get(this.cipherSuite.getAsymmetricTransformation()),
+                    this.publicKey, symetricKey);
             return Base64.encodeToString(encryptedSymmetricKey);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
-                | IllegalBlockSizeException | BadPaddingException e) {
+        } catch (final GeneralSecurityException e) {
             throw new InitializationException(e);
         }
     }
@@ -117,10 +127,10 @@ public class EncryptionUtil {
      *         the give plain text is blank, we'll return just an
      *         {@code Optional.empty()}.
      * @throws InitializationException
-     *             Thrown if the AES algorithm is not available, or if PKCS1
-     *             padding is not available, or if the symmetric key is invalid,
-     *             or if the plain text is too long to be encrypted, or if the
-     *             data is not padded correctly.
+     *             Thrown if the AES algorithm is not available, or if the
+     *             padding or mode is not available, or if the symmetric key is
+     *             invalid, or if the plain text is too long to be encrypted, or
+     *             if the data is not padded correctly.
      */
     public Optional<String> encrypt(final SecretKey symmetricSecretKey, final String plainText)
             throws InitializationException {
@@ -129,13 +139,11 @@ public class EncryptionUtil {
         }
 
         try {
-            final Cipher cipher = Cipher.getInstance(SYMMETRIC_CIPHER);
-            cipher.init(Cipher.ENCRYPT_MODE, symmetricSecretKey);
-            final byte[] encryptedBytes = cipher
-                    .doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+            final byte[] encryptedBytes = this.cipherSuite.encrypt(
+                    this.cryptoProviders.get(this.cipherSuite.getSymmetricTransformation()),
+                    symmetricSecretKey, plainText.getBytes(StandardCharsets.UTF_8));
             return Optional.of(Base64.encodeToString(encryptedBytes));
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
-                | IllegalBlockSizeException | BadPaddingException e) {
+        } catch (final GeneralSecurityException e) {
             throw new InitializationException(e);
         }
     }
@@ -0,0 +1,195 @@
+package com.github.mtakaki.credentialstorage.encryption;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import jodd.util.Base64;
+import lombok.AllArgsConstructor;
+
+/**
+ * Keeps the parsed client public keys, ready to be used for encryption, so we
+ * don't go through {@code KeyFactory} on every request.
+ *
+ * <p>
+ * Entries are keyed by a 128 bits fingerprint of the decoded key, instead of
+ * the full base64 header, and the store is bounded by the estimated memory
+ * used by the keys. The eviction is done by Caffeine's W-TinyLFU policy, so a
+ * burst of one-off keys can't flush the keys used by the regular clients.
+ * Keys that fail to be parsed are cached as well, for a short period, and
+ * will fail right away until they expire.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class PublicKeyStore {
+    private static final HashFunction FINGERPRINT_FUNCTION = Hashing.murmur3_128();
+    // Rough size of the entry, the fingerprint and the parsed RSA key objects.
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final Cache<HashCode, Entry> cache;
+    private final int symmetricKeySize;
+    private final CipherSuite cipherSuite;
+    private final CryptoProviders cryptoProviders;
+    private final Meter rejectedKeys;
+
+    public PublicKeyStore(final PublicKeyStoreConfiguration configuration,
+            final int symmetricKeySize, final CipherSuite cipherSuite,
+            final CryptoProviders cryptoProviders, final MetricRegistry metricRegistry) {
+        this.symmetricKeySize = symmetricKeySize;
+        this.cipherSuite = cipherSuite;
+        this.cryptoProviders = cryptoProviders;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(configuration.getMaximumWeight().toBytes())
+                // The encoded key is kept for collision checks, and the parsed
+                // key holds roughly the same amount of data.
+                .<HashCode, Entry> weigher(
+                        (fingerprint, entry) -> ENTRY_OVERHEAD_BYTES
+                                + 2 * entry.encodedKey.length)
+                .expireAfter(new EntryExpiry(
+                        configuration.getExpireAfterAccess().toNanoseconds(),
+                        configuration.getNegativeExpiration().toNanoseconds()))
+                .recordStats()
+                .build();
+        this.rejectedKeys = metricRegistry
+                .meter(MetricRegistry.name(PublicKeyStore.class, "rejected-keys"));
+        this.registerMetrics(metricRegistry);
+    }
+
+    /**
+     * Retrieves the {@link EncryptionUtil} for the given public key, parsing it
+     * if it's not in the store yet.
+     *
+     * @param base64PublicKey
+     *            The client public key, encoded in base64.
+     * @return An {@link EncryptionUtil} ready to be used for encryption.
+     * @throws ExecutionException
+     *             Thrown if the public key is invalid, now or in a previous
+     *             attempt that is still cached.
+     */
+    public EncryptionUtil get(final String base64PublicKey) throws ExecutionException {
+        final byte[] encodedKey = decode(base64PublicKey);
+        final Entry entry = this.cache.get(FINGERPRINT_FUNCTION.hashBytes(encodedKey),
+                fingerprint -> this.parse(encodedKey));
+
+        if (!Arrays.equals(entry.encodedKey, encodedKey)) {
+            // Fingerprint collision. Extremely unlikely, but we never want to
+            // encrypt with someone else's key, so we skip the store.
+            return this.parse(encodedKey).getOrThrow();
+        }
+        if (entry.failure != null) {
+            this.rejectedKeys.mark();
+        }
+        return entry.getOrThrow();
+    }
+
+    /**
+     * Drops all the parsed keys from the store.
+     */
+    public void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    private Entry parse(final byte[] encodedKey) {
+        try {
+            return new Entry(encodedKey,
+                    new EncryptionUtil(encodedKey, this.symmetricKeySize, this.cipherSuite,
+                            this.cryptoProviders),
+                    null);
+        } catch (final Exception e) {
+            return new Entry(encodedKey, null, e);
+        }
+    }
+
+    private static byte[] decode(final String base64PublicKey) {
+        try {
+            return Base64.decode(base64PublicKey);
+        } catch (final RuntimeException e) {
+            // Not even base64, so we fingerprint the raw header and let the key
+            // parsing reject it.
+            return base64PublicKey.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private void registerMetrics(final MetricRegistry metricRegistry) {
+        this.registerStatsGauge(metricRegistry, "hits", CacheStats::hitCount);
+        this.registerStatsGauge(metricRegistry, "misses", CacheStats::missCount);
+        this.registerStatsGauge(metricRegistry, "hit-rate", CacheStats::hitRate);
+        this.registerStatsGauge(metricRegistry, "evictions", CacheStats::evictionCount);
+        this.registerStatsGauge(metricRegistry, "eviction-weight", CacheStats::evictionWeight);
+        this.registerStatsGauge(metricRegistry, "load-time", CacheStats::averageLoadPenalty);
+        metricRegistry.register(MetricRegistry.name(PublicKeyStore.class, "size"),
+                (Gauge<Long>) this.cache::estimatedSize);
+        metricRegistry.register(MetricRegistry.name(PublicKeyStore.class, "weight"),
+                (Gauge<Long>) () -> this.cache.policy().eviction()
+                        .map(eviction -> eviction.weightedSize().orElse(0L))
+                        .orElse(0L));
+    }
+
+    private <T> void registerStatsGauge(final MetricRegistry metricRegistry, final String name,
+            final Function<CacheStats, T> statistic) {
+        metricRegistry.register(MetricRegistry.name(PublicKeyStore.class, name),
+                (Gauge<T>) () -> statistic.apply(this.cache.stats()));
+    }
+
+    /**
+     * The outcome of parsing a public key, either the ready to use
+     * {@link EncryptionUtil} or the failure.
+     */
+    @AllArgsConstructor
+    private static class Entry {
+        private final byte[] encodedKey;
+        private final EncryptionUtil encryptionUtil;
+        private final Exception failure;
+
+        private EncryptionUtil getOrThrow() throws ExecutionException {
+            if (this.failure != null) {
+                throw new ExecutionException(this.failure);
+            }
+            return this.encryptionUtil;
+        }
+    }
+
+    /**
+     * Valid keys expire after they are not accessed for a while, while invalid
+     * keys expire after a fixed period since they were parsed.
+     */
+    @AllArgsConstructor
+    private static class EntryExpiry implements Expiry<HashCode, Entry> {
+        private final long expireAfterAccessNanos;
+        private final long negativeExpirationNanos;
+
+        @Override
+        public long expireAfterCreate(final HashCode fingerprint, final Entry entry,
+                final long currentTime) {
+            return entry.failure == null ? this.expireAfterAccessNanos
+                    : this.negativeExpirationNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(final HashCode fingerprint, final Entry entry,
+                final long currentTime, final long currentDuration) {
+            return this.expireAfterCreate(fingerprint, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(final HashCode fingerprint, final Entry entry,
+                final long currentTime, final long currentDuration) {
+            return entry.failure == null ? this.expireAfterAccessNanos : currentDuration;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.github.mtakaki.credentialstorage.grpc;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.SecretKey;
+import javax.ws.rs.ServiceUnavailableException;
+
+import com.github.mtakaki.credentialstorage.CredentialStorageConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.encryption.EncryptionUtil;
+import com.github.mtakaki.credentialstorage.encryption.InitializationException;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.grpc.proto.BatchGetRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.BatchGetResponse;
+import com.github.mtakaki.credentialstorage.grpc.proto.BatchGetResult;
+import com.github.mtakaki.credentialstorage.grpc.proto.CredentialPair;
+import com.github.mtakaki.credentialstorage.grpc.proto.CredentialStorageGrpc.CredentialStorageImplBase;
+import com.github.mtakaki.credentialstorage.grpc.proto.DeleteRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.DeleteResponse;
+import com.github.mtakaki.credentialstorage.grpc.proto.GetRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.StoreRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.StoreResponse;
+import com.github.mtakaki.credentialstorage.grpc.proto.WatchEvent;
+import com.github.mtakaki.credentialstorage.grpc.proto.WatchRequest;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CredentialWatcher;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.google.common.base.Optional;
+import com.google.protobuf.ByteString;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import jodd.petite.meta.PetiteBean;
+import jodd.util.Base64;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * gRPC version of the credential operations of
+ * {@link com.github.mtakaki.credentialstorage.resources.CredentialResource},
+ * backed by the same {@link CredentialDAO} and {@link EncryptionUtil}s. The
+ * encrypted fields are sent as raw bytes.
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+@AllArgsConstructor
+@PetiteBean
+public class CredentialStorageService extends CredentialStorageImplBase {
+    private final CredentialDAO credentialDAO;
+    private final PublicKeyStore publicKeyStore;
+    private final CryptoExecutor cryptoExecutor;
+    private final AuditLog auditLog;
+    private final CredentialWatcher credentialWatcher;
+    private final CredentialStorageConfiguration configuration;
+
+    @Override
+    public void get(final GetRequest request, final StreamObserver<CredentialPair> observer) {
+        this.call(observer, () -> {
+            final String publicKey = requirePublicKey(request.getPublicKey());
+            final Optional<Credential> credential = this.credentialDAO
+                    .getCredentialByKey(publicKey);
+            if (!credential.isPresent()) {
+                throw Status.NOT_FOUND.asRuntimeException();
+            }
+            this.auditLog.record(Action.READ, Target.CREDENTIAL, publicKey);
+            return toMessage(credential.get());
+        });
+    }
+
+    @Override
+    public void batchGet(final BatchGetRequest request,
+            final StreamObserver<BatchGetResponse> observer) {
+        this.call(observer, () -> {
+            final List<String> publicKeys = request.getPublicKeysList();
+            if (publicKeys.size() > this.configuration.getGrpc().getMaxBatchSize()) {
+                throw Status.INVALID_ARGUMENT
+                        .withDescription(String.format("At most %d public keys per batch.",
+                                this.configuration.getGrpc().getMaxBatchSize()))
+                        .asRuntimeException();
+            }
+            publicKeys.forEach(CredentialStorageService::requirePublicKey);
+
+            final List<Optional<Credential>> credentials = this.credentialDAO
+                    .getCredentialsByKeys(publicKeys);
+            final BatchGetResponse.Builder response = BatchGetResponse.newBuilder();
+            for (int i = 0; i < publicKeys.size(); i++) {
+                final BatchGetResult.Builder result = BatchGetResult.newBuilder()
+                        .setPublicKey(publicKeys.get(i));
+                if (credentials.get(i).isPresent()) {
+                    this.auditLog.record(Action.READ, Target.CREDENTIAL, publicKeys.get(i));
+                    result.setCredential(toMessage(credentials.get(i).get()));
+                }
+                response.addResults(result);
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public void store(final StoreRequest request, final StreamObserver<StoreResponse> observer) {
+        this.call(observer, () -> {
+            final String publicKey = requirePublicKey(request.getPublicKey());
+            if (request.getPrimary().isEmpty()) {
+                throw Status.INVALID_ARGUMENT.withDescription("The primary credential is missing.")
+                        .asRuntimeException();
+            }
+            if (request.getTtl() < 0L) {
+                throw Status.INVALID_ARGUMENT.withDescription("The ttl must be positive.")
+                        .asRuntimeException();
+            }
+
+            final Credential credential = this.credentialDAO.getCredentialByKey(publicKey)
+                    .or(() -> Credential.builder().build());
+            // An empty description keeps the stored one.
+            if (!request.getDescription().isEmpty()) {
+                credential.setDescription(request.getDescription());
+            }
+            // The lease is replaced as well, and it's only set by the server.
+            final Long ttl = request.getTtl() == 0L ? null : request.getTtl();
+            credential.setTtl(ttl);
+            credential.setExpiresAt(ttl == null ? null : System.currentTimeMillis() / 1000L + ttl);
+            this.encrypt(publicKey, credential, request.getPrimary(),
+                    emptyToNull(request.getSecondary()));
+
+            final boolean journaled = this.credentialDAO.save(credential);
+            this.auditLog.record(Action.WRITE, Target.CREDENTIAL, publicKey);
+            return StoreResponse.newBuilder().setJournaled(journaled).build();
+        });
+    }
+
+    /**
+     * Encrypts the given credential pair with a new symmetric key, as
+     * {@link com.github.mtakaki.credentialstorage.resources.CredentialResource}
+     * does, in the crypto pool.
+     */
+    private void encrypt(final String publicKey, final Credential credential,
+            final String primary, final String secondary)
+            throws InitializationException, NoSuchAlgorithmException, ExecutionException {
+        this.cryptoExecutor.execute(() -> {
+            final EncryptionUtil encryptionUtil = this.publicKeyStore.get(publicKey);
+            final SecretKey symmetricKey = encryptionUtil.generateSymmetricKey();
+            credential.setKey(publicKey);
+            credential.setSymmetricKey(encryptionUtil.encrypt(symmetricKey));
+            credential.setCipherSuite(encryptionUtil.getCipherSuite());
+            credential.setPrimary(encryptionUtil.encrypt(symmetricKey, primary).orElse(null));
+            credential.setSecondary(encryptionUtil.encrypt(symmetricKey, secondary).orElse(null));
+            return credential;
+        });
+    }
+
+    @Override
+    public void delete(final DeleteRequest request,
+            final StreamObserver<DeleteResponse> observer) {
+        this.call(observer, () -> {
+            final String publicKey = requirePublicKey(request.getPublicKey());
+            if (!this.credentialDAO.deleteByKey(publicKey)) {
+                throw Status.NOT_FOUND.asRuntimeException();
+            }
+            this.auditLog.record(Action.DELETE, Target.CREDENTIAL, publicKey);
+            return DeleteResponse.getDefaultInstance();
+        });
+    }
+
+    @Override
+    public void watch(final WatchRequest request, final StreamObserver<WatchEvent> observer) {
+        final String publicKey;
+        try {
+            publicKey = requirePublicKey(request.getPublicKey());
+        } catch (final StatusRuntimeException e) {
+            observer.onError(e);
+            return;
+        }
+        final ServerCallStreamObserver<WatchEvent> callObserver =
+                (ServerCallStreamObserver<WatchEvent>) observer;
+        final Watch watch = new Watch(publicKey, callObserver);
+        callObserver.setOnCancelHandler(() -> this.credentialWatcher.unwatch(publicKey, watch));
+        this.credentialWatcher.watch(publicKey, watch);
+        // Sending the credential as it is now.
+        watch.changed();
+    }
+
+    /**
+     * Sends the current credential to a watcher after each change. Changes
+     * made while it's being read are sent together.
+     */
+    private class Watch implements CredentialWatcher.Listener {
+        private final String publicKey;
+        private final ServerCallStreamObserver<WatchEvent> observer;
+        private final AtomicBoolean pending = new AtomicBoolean();
+        // Whether a credential was sent, and when it was updated.
+        private boolean sent;
+        private Date lastUpdatedAt;
+
+        Watch(final String publicKey, final ServerCallStreamObserver<WatchEvent> observer) {
+            this.publicKey = publicKey;
+            this.observer = observer;
+        }
+
+        @Override
+        public void changed() {
+            if (this.pending.compareAndSet(false, true)) {
+                this.send();
+            }
+        }
+
+        private synchronized void send() {
+            this.pending.set(false);
+            if (this.observer.isCancelled()) {
+                return;
+            }
+            try {
+                final Optional<Credential> credential = CredentialStorageService.this.credentialDAO
+                        .getCredentialByKey(this.publicKey);
+                if (credential.isPresent()) {
+                    // Reading it only changes its last access.
+                    final Date updatedAt = credential.get().getUpdatedAt();
+                    if (!this.sent || !Objects.equals(updatedAt, this.lastUpdatedAt)) {
+                        this.sent = true;
+                        this.lastUpdatedAt = updatedAt;
+                        this.observer.onNext(WatchEvent.newBuilder()
+                                .setType(WatchEvent.Type.UPDATED)
+                                .setCredential(toMessage(credential.get())).build());
+                    }
+                } else if (this.sent) {
+                    this.sent = false;
+                    this.observer.onNext(
+                            WatchEvent.newBuilder().setType(WatchEvent.Type.DELETED).build());
+                }
+            } catch (final IOException | JedisException e) {
+                // The next change, or the next subscription to the changes,
+                // tries again.
+                log.debug("Failed to read the watched credential.", e);
+            } catch (final StatusRuntimeException | IllegalStateException e) {
+                // The call was cancelled while the credential was read.
+                log.debug("Watch call is already closed.", e);
+            }
+        }
+    }
+
+    /**
+     * Runs the given call and completes the observer with its result, mapping
+     * the failures to the same statuses the REST API would return.
+     */
+    private <T> void call(final StreamObserver<T> observer, final Call<T> call) {
+        final T response;
+        try {
+            response = call.run();
+        } catch (final StatusRuntimeException e) {
+            observer.onError(e);
+            return;
+        } catch (final ExecutionException | InitializationException e) {
+            observer.onError(Status.INVALID_ARGUMENT.withDescription("Invalid public key.")
+                    .withCause(e).asRuntimeException());
+            return;
+        } catch (final ServiceUnavailableException | JedisException e) {
+            observer.onError(Status.UNAVAILABLE.withCause(e).asRuntimeException());
+            return;
+        } catch (final Exception e) {
+            log.error("gRPC call failed.", e);
+            observer.onError(Status.INTERNAL.withCause(e).asRuntimeException());
+            return;
+        }
+        observer.onNext(response);
+        observer.onCompleted();
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T run() throws Exception;
+    }
+
+    private static String requirePublicKey(final String publicKey) {
+        if (publicKey.isEmpty()) {
+            throw Status.INVALID_ARGUMENT.withDescription("The public key is missing.")
+                    .asRuntimeException();
+        }
+        return publicKey;
+    }
+
+    private static String emptyToNull(final String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Converts the stored credential, which holds the cipher texts in base64,
+     * to its message.
+     */
+    static CredentialPair toMessage(final Credential credential) {
+        final CredentialPair.Builder message = CredentialPair.newBuilder();
+        if (credential.getSymmetricKey() != null) {
+            message.setSymmetricKey(decode(credential.getSymmetricKey()));
+        }
+        if (credential.getCipherSuite() != null) {
+            message.setCipherSuite(credential.getCipherSuite().name());
+        }
+        if (credential.getPrimary() != null) {
+            message.setPrimary(decode(credential.getPrimary()));
+        }
+        if (credential.getSecondary() != null) {
+            message.setSecondary(decode(credential.getSecondary()));
+        }
+        if (credential.getDescription() != null) {
+            message.setDescription(credential.getDescription());
+        }
+        if (credential.getTtl() != null) {
+            message.setTtl(credential.getTtl());
+        }
+        if (credential.getExpiresAt() != null) {
+            message.setExpiresAt(credential.getExpiresAt());
+        }
+        if (credential.getCreatedAt() != null) {
+            message.setCreatedAt(credential.getCreatedAt().getTime());
+        }
+        if (credential.getUpdatedAt() != null) {
+            message.setUpdatedAt(credential.getUpdatedAt().getTime());
+        }
+        if (credential.getLastAccess() != null) {
+            message.setLastAccess(credential.getLastAccess().getTime());
+        }
+        return message.build();
+    }
+
+    private static ByteString decode(final String cipherText) {
+        return ByteString.copyFrom(Base64.decode(cipherText));
+    }
+}
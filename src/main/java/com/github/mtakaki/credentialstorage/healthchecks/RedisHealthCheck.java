@@ -1,16 +1,16 @@
 package com.github.mtakaki.credentialstorage.healthchecks;
 
 import com.codahale.metrics.health.HealthCheck;
+import com.github.mtakaki.credentialstorage.database.ConnectionProvider;
 
 import jodd.petite.meta.PetiteBean;
 import lombok.AllArgsConstructor;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 
 @AllArgsConstructor
 @PetiteBean
 public class RedisHealthCheck extends HealthCheck {
-    private final JedisPool jedisPool;
+    private final ConnectionProvider jedisPool;
 
     @Override
     protected Result check() throws Exception {
@@ -0,0 +1,126 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.ws.rs.Priorities;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.ConcurrencyLimitConfiguration;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Gives each resource method annotated with {@link ConcurrencyLimited} its
+ * own {@link ConcurrencyLimiter}. Requests over the limit get an immediate
+ * {@code 503 Service Unavailable}, before any work is done, and while any of
+ * the high priority endpoints is busy the low priority ones can only use part
+ * of their limit. The same instance should be registered in every Jersey
+ * environment, so the admin endpoints also yield to the user reads.
+ *
+ * <p>
+ * Each endpoint has the {@code concurrency-limit} and
+ * {@code concurrency-in-flight} gauges and the {@code concurrency-rejected}
+ * meter, named after the resource method like its {@code @Timed} metric.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class ConcurrencyLimitFeature implements DynamicFeature {
+    private static final String START_PROPERTY = ConcurrencyLimiter.class.getName();
+    // Sent in the Retry-After header, the limit adapts faster than that.
+    private static final long RETRY_AFTER_SECONDS = 1L;
+
+    private final ConcurrencyLimitConfiguration configuration;
+    private final MetricRegistry metricRegistry;
+    private final List<ConcurrencyLimiter> highPriorityLimiters = new CopyOnWriteArrayList<>();
+
+    public ConcurrencyLimitFeature(final ConcurrencyLimitConfiguration configuration,
+            final MetricRegistry metricRegistry) {
+        this.configuration = configuration;
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    public void configure(final ResourceInfo resourceInfo, final FeatureContext context) {
+        if (!this.configuration.isEnabled()) {
+            return;
+        }
+        final Method method = resourceInfo.getResourceMethod();
+        ConcurrencyLimited limited = method.getAnnotation(ConcurrencyLimited.class);
+        if (limited == null) {
+            limited = resourceInfo.getResourceClass().getAnnotation(ConcurrencyLimited.class);
+        }
+        if (limited == null) {
+            return;
+        }
+
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(limited.value(),
+                this.configuration);
+        if (limited.value() == Priority.HIGH) {
+            this.highPriorityLimiters.add(limiter);
+        }
+        final String name = MetricRegistry.name(resourceInfo.getResourceClass(),
+                method.getName());
+        this.metricRegistry.register(MetricRegistry.name(name, "concurrency-limit"),
+                (Gauge<Integer>) limiter::getLimit);
+        this.metricRegistry.register(MetricRegistry.name(name, "concurrency-in-flight"),
+                (Gauge<Integer>) limiter::getInFlight);
+        context.register(new ConcurrencyLimitFilter(limiter,
+                this.metricRegistry.meter(MetricRegistry.name(name, "concurrency-rejected"))));
+    }
+
+    private boolean isHighPriorityBusy() {
+        for (final ConcurrencyLimiter limiter : this.highPriorityLimiters) {
+            if (limiter.isBusy()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Running before the bulkheads, so a rejected request doesn't wait for a
+    // turn first.
+    @javax.annotation.Priority(Priorities.AUTHORIZATION)
+    @AllArgsConstructor
+    private class ConcurrencyLimitFilter
+            implements ContainerRequestFilter, ContainerResponseFilter {
+        private final ConcurrencyLimiter limiter;
+        private final Meter rejectedMeter;
+
+        @Override
+        public void filter(final ContainerRequestContext requestContext) {
+            final boolean yield = this.limiter.getPriority() == Priority.LOW
+                    && ConcurrencyLimitFeature.this.isHighPriorityBusy();
+            if (!this.limiter.tryAcquire(yield)) {
+                this.rejectedMeter.mark();
+                throw new ServiceUnavailableException(RETRY_AFTER_SECONDS);
+            }
+            requestContext.setProperty(START_PROPERTY, System.nanoTime());
+        }
+
+        @Override
+        public void filter(final ContainerRequestContext requestContext,
+                final ContainerResponseContext responseContext) {
+            // Rejected requests also get here, without having been let in.
+            final Object start = requestContext.getProperty(START_PROPERTY);
+            if (start != null) {
+                requestContext.removeProperty(START_PROPERTY);
+                this.limiter.release(System.nanoTime() - (Long) start);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Gives the annotated resource method, or each method of the annotated
+ * resource, an adaptive limit of concurrent requests. The requests over the
+ * limit are rejected right away.
+ *
+ * @author mtakaki
+ *
+ */
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConcurrencyLimited {
+    Priority value();
+
+    /**
+     * Low priority requests are the first to be rejected while the high
+     * priority ones are close to their limit.
+     */
+    enum Priority {
+        HIGH, LOW
+    }
+}
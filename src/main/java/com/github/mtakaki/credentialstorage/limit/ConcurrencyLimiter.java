@@ -0,0 +1,126 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.mtakaki.credentialstorage.configuration.ConcurrencyLimitConfiguration;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
+
+import lombok.Getter;
+
+/**
+ * Limits the concurrent requests of an endpoint, adjusting the limit to their
+ * latency.
+ *
+ * <p>
+ * The lowest latency seen is taken as the latency without any queuing. When
+ * a request takes longer than that times the tolerance, the limit goes down
+ * in proportion, as requests are likely queuing somewhere. Otherwise it grows
+ * by about its square root, so it keeps probing for more capacity. It only
+ * grows while the limit is in use, so a quiet endpoint doesn't build up a
+ * limit it was never tested with. The lowest latency is taken again over
+ * each window of requests, so the limit isn't stuck at the minimum after a
+ * change that made all the requests slower.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class ConcurrencyLimiter {
+    @Getter
+    private final Priority priority;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final int latencyWindow;
+    private final double lowPriorityShare;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    // Lowest latency of the last window, in nanoseconds.
+    private long lowestLatency;
+    private long windowLowestLatency = Long.MAX_VALUE;
+    private int windowRequests;
+
+    public ConcurrencyLimiter(final Priority priority,
+            final ConcurrencyLimitConfiguration configuration) {
+        this.priority = priority;
+        this.minLimit = configuration.getMinLimit();
+        this.maxLimit = Math.max(configuration.getMinLimit(), configuration.getMaxLimit());
+        this.tolerance = configuration.getTolerance();
+        this.smoothing = configuration.getSmoothing();
+        this.latencyWindow = configuration.getLatencyWindow();
+        this.lowPriorityShare = configuration.getLowPriorityShare();
+        this.limit = Math.min(this.maxLimit,
+                Math.max(this.minLimit, configuration.getInitialLimit()));
+    }
+
+    public int getLimit() {
+        return (int) this.limit;
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Whether the requests in flight are close to the limit, taking up more
+     * than the share the low priority requests can use while they yield.
+     */
+    public boolean isBusy() {
+        return this.inFlight.get() >= this.limit * this.lowPriorityShare;
+    }
+
+    /**
+     * Lets a request in if it's under the limit. It must be followed by
+     * {@link #release(long)}.
+     *
+     * @param yield
+     *            Whether the request can only use the low priority share of
+     *            the limit.
+     * @return {@code true} if the request can run, {@code false} if it has to
+     *         be rejected.
+     */
+    public boolean tryAcquire(final boolean yield) {
+        final double allowed = yield ? this.limit * this.lowPriorityShare : this.limit;
+        while (true) {
+            final int current = this.inFlight.get();
+            if (current >= Math.max(1, (int) allowed)) {
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends a request and adjusts the limit to how long it took.
+     *
+     * @param latencyNanos
+     *            How long the request took, in nanoseconds.
+     */
+    public void release(final long latencyNanos) {
+        final int current = this.inFlight.getAndDecrement();
+        this.update(Math.max(1L, latencyNanos), current);
+    }
+
+    private synchronized void update(final long latency, final int inFlightRequests) {
+        this.windowLowestLatency = Math.min(this.windowLowestLatency, latency);
+        if (this.lowestLatency == 0L || latency < this.lowestLatency) {
+            this.lowestLatency = latency;
+        }
+        if (++this.windowRequests >= this.latencyWindow) {
+            this.lowestLatency = this.windowLowestLatency;
+            this.windowLowestLatency = Long.MAX_VALUE;
+            this.windowRequests = 0;
+        }
+        if (inFlightRequests * 2 < this.limit) {
+            return;
+        }
+        final double gradient = Math.max(0.5,
+                Math.min(1.0, this.tolerance * this.lowestLatency / latency));
+        final double newLimit = this.limit * gradient + Math.sqrt(this.limit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit,
+                this.limit * (1.0 - this.smoothing) + newLimit * this.smoothing));
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import com.github.mtakaki.credentialstorage.configuration.RateLimitConfiguration;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Applies the {@link RateLimiter} to the resource methods annotated with
+ * {@link RateLimited}. Requests over the limit of their public key get a
+ * {@code 429 Too Many Requests} with a {@code Retry-After} header, before
+ * anything else is done for them.
+ *
+ * @author mtakaki
+ *
+ */
+@AllArgsConstructor
+public class RateLimitFeature implements DynamicFeature {
+    private static final String PUBLIC_KEY_HEADER = "X-Auth-RSA";
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final RateLimitConfiguration configuration;
+    private final RateLimiter rateLimiter;
+
+    @Override
+    public void configure(final ResourceInfo resourceInfo, final FeatureContext context) {
+        if (this.configuration.isEnabled()
+                && (resourceInfo.getResourceMethod().isAnnotationPresent(RateLimited.class)
+                        || resourceInfo.getResourceClass()
+                                .isAnnotationPresent(RateLimited.class))) {
+            context.register(new RateLimitFilter(this.rateLimiter));
+        }
+    }
+
+    // Running before the concurrency limits, so a client over its rate
+    // doesn't take a turn from the others.
+    @Priority(Priorities.AUTHORIZATION - 1)
+    @AllArgsConstructor
+    private static class RateLimitFilter implements ContainerRequestFilter {
+        private final RateLimiter rateLimiter;
+
+        @Override
+        public void filter(final ContainerRequestContext requestContext) {
+            final String publicKey = requestContext.getHeaderString(PUBLIC_KEY_HEADER);
+            // Requests without a key are rejected by the validation.
+            if (publicKey == null || publicKey.isEmpty()) {
+                return;
+            }
+            final long wait = this.rateLimiter.tryAcquire(publicKey);
+            if (wait > 0L) {
+                requestContext.abortWith(Response.status(TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER,
+                                Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(
+                                        wait + TimeUnit.SECONDS.toNanos(1L) - 1L)))
+                        .build());
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the rate of the requests made to the annotated resource method, or
+ * to each method of the annotated resource, per public key.
+ *
+ * @author mtakaki
+ *
+ */
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimited {
+}
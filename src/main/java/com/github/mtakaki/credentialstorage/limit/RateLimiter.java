@@ -0,0 +1,182 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.mtakaki.credentialstorage.configuration.RateLimitConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.RateLimitConfiguration.KeyLimit;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.RateLimitDAO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Limits the rate of the requests made with each public key, so a single
+ * client can't take up the capacity of all the others.
+ *
+ * <p>
+ * Each public key has a token bucket, kept as a single theoretical arrival
+ * time updated with compare-and-set, as in the generic cell rate algorithm, so
+ * no lock is taken. The buckets are kept in a cache bounded in size, and the
+ * ones not used for a while are dropped, as they are full again by then. When
+ * the limits are shared, the bucket is kept in redis instead, and the local
+ * one is only used while redis can't be reached.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class RateLimiter {
+    // The limits of given public keys, by fingerprint.
+    private final Map<String, Rate> keyRates = new HashMap<>();
+    private final Rate defaultRate;
+    private final boolean shared;
+    private final RateLimitDAO rateLimitDAO;
+    private final Cache<String, Bucket> buckets;
+    private final Meter rejectedMeter;
+    private final Meter sharedFailuresMeter;
+
+    public RateLimiter(final RateLimitConfiguration configuration,
+            final RateLimitDAO rateLimitDAO, final MetricRegistry metricRegistry) {
+        for (final KeyLimit keyLimit : configuration.getKeys()) {
+            this.keyRates.putIfAbsent(keyLimit.getFingerprint(),
+                    new Rate(keyLimit.getRatePerSecond(), keyLimit.getBurst()));
+        }
+        this.defaultRate = new Rate(configuration.getRatePerSecond(), configuration.getBurst());
+        this.shared = configuration.isShared();
+        this.rateLimitDAO = rateLimitDAO;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(configuration.getMaximumKeys())
+                .expireAfterAccess(configuration.getExpireAfterAccess().toNanoseconds(),
+                        TimeUnit.NANOSECONDS)
+                .build();
+        this.rejectedMeter = metricRegistry
+                .meter(MetricRegistry.name(RateLimiter.class, "rejected"));
+        this.sharedFailuresMeter = metricRegistry
+                .meter(MetricRegistry.name(RateLimiter.class, "shared-failures"));
+        metricRegistry.register(MetricRegistry.name(RateLimiter.class, "keys"),
+                (Gauge<Long>) this.buckets::estimatedSize);
+    }
+
+    /**
+     * Takes a request from the limit of the given public key.
+     *
+     * @param publicKey
+     *            The client public key, as sent in the header.
+     * @return How long to wait, in nanoseconds, for the next request to be
+     *         allowed, or 0 if this one is allowed.
+     */
+    public long tryAcquire(final String publicKey) {
+        final String fingerprint = KeyDigest.of(publicKey);
+        final Bucket bucket = this.buckets.get(fingerprint, this::newBucket);
+        long wait;
+        if (this.shared) {
+            try {
+                wait = TimeUnit.MICROSECONDS.toNanos(this.rateLimitDAO.acquire(fingerprint,
+                        TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()),
+                        TimeUnit.NANOSECONDS.toMicros(bucket.rate.intervalNanos),
+                        TimeUnit.NANOSECONDS.toMicros(bucket.rate.toleranceNanos)));
+            } catch (final JedisException e) {
+                this.sharedFailuresMeter.mark();
+                log.debug("Shared rate limit unavailable, using the local one.", e);
+                wait = bucket.acquire(System.nanoTime());
+            }
+        } else {
+            wait = bucket.acquire(System.nanoTime());
+        }
+        if (wait > 0L) {
+            bucket.rejected.increment();
+            this.rejectedMeter.mark();
+        }
+        return wait;
+    }
+
+    /**
+     * The public keys with the most rejected requests, among the ones still
+     * tracked.
+     *
+     * @param count
+     *            How many public keys to return.
+     * @return The fingerprints and their rejected requests, the most rejected
+     *         first.
+     */
+    public List<Rejections> getTopRejections(final int count) {
+        return this.buckets.asMap().entrySet().stream()
+                .map(entry -> new Rejections(entry.getKey(), entry.getValue().rejected.sum()))
+                .filter(rejections -> rejections.getRejected() > 0L)
+                .sorted(Comparator.comparingLong(Rejections::getRejected).reversed())
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    private Bucket newBucket(final String fingerprint) {
+        return new Bucket(this.keyRates.getOrDefault(fingerprint, this.defaultRate),
+                System.nanoTime());
+    }
+
+    private static class Rate {
+        // Time between two requests at the allowed rate.
+        private final long intervalNanos;
+        // How far ahead of time requests can be made, which gives the burst.
+        private final long toleranceNanos;
+
+        Rate(final double ratePerSecond, final int burst) {
+            this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1L)
+                    / ratePerSecond));
+            this.toleranceNanos = this.intervalNanos * (burst - 1);
+        }
+    }
+
+    private static class Bucket {
+        private final Rate rate;
+        // When the next request would be made, at the allowed rate.
+        private final AtomicLong arrival;
+        private final LongAdder rejected = new LongAdder();
+
+        Bucket(final Rate rate, final long now) {
+            this.rate = rate;
+            this.arrival = new AtomicLong(now);
+        }
+
+        long acquire(final long now) {
+            while (true) {
+                final long current = this.arrival.get();
+                // Compared by difference, as nanoTime can overflow.
+                final long next = current - now < 0L ? now : current;
+                final long wait = next - now - this.rate.toleranceNanos;
+                if (wait > 0L) {
+                    return wait;
+                }
+                if (this.arrival.compareAndSet(current, next + this.rate.intervalNanos)) {
+                    return 0L;
+                }
+            }
+        }
+    }
+
+    /**
+     * How many requests were rejected for a public key.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Rejections {
+        // Hex SHA-256 of the public key, as in the audit data.
+        private final String fingerprint;
+        private final long rejected;
+    }
+}
@@ -0,0 +1,197 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.mtakaki.credentialstorage.configuration.AuditLogConfiguration;
+import com.github.mtakaki.credentialstorage.database.AuditEventDAO;
+import com.github.mtakaki.credentialstorage.database.AuditStatsDAO;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap.Granularity;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records the audit events without adding a round trip to the requests.
+ *
+ * <p>
+ * Events are put in a bounded queue and a background thread sends them to
+ * the database in batches, along with the per minute and per hour statistics
+ * of the batch. If the queue is full, or if the database can't be
+ * reached, the events are dropped and counted, as the audit log must never
+ * slow down or fail the requests.
+ * </p>
+ *
+ * <p>
+ * Each event is sent to the namespace of the tenant whose request recorded
+ * it, so every tenant has its own log and statistics.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class AuditLog implements Managed {
+    private final AuditEventDAO auditEventDAO;
+    private final AuditStatsDAO auditStatsDAO;
+    private final Map<Granularity, Integer> statsRetentionSeconds;
+    private final BlockingQueue<QueuedEvent> queue;
+    private final int batchSize;
+    private final long maxLength;
+    private final long flushIntervalMillis;
+    private final String node;
+    private final ScheduledExecutorService flusher;
+    private final Meter appendedMeter;
+    private final Meter droppedMeter;
+    private final Meter failedMeter;
+    private final Meter statsFailedMeter;
+    private final Timer flushTimer;
+
+    public AuditLog(final AuditLogConfiguration configuration,
+            final AuditEventDAO auditEventDAO, final AuditStatsDAO auditStatsDAO,
+            final MetricRegistry metricRegistry) {
+        this.auditEventDAO = auditEventDAO;
+        this.auditStatsDAO = auditStatsDAO;
+        this.statsRetentionSeconds = ImmutableMap.of(
+                Granularity.MINUTE, (int) configuration.getMinuteRetention().toSeconds(),
+                Granularity.HOUR, (int) configuration.getHourRetention().toSeconds());
+        this.queue = new ArrayBlockingQueue<>(configuration.getQueueCapacity());
+        this.batchSize = configuration.getBatchSize();
+        this.maxLength = configuration.getMaxLength();
+        this.flushIntervalMillis = configuration.getFlushInterval().toMilliseconds();
+        this.node = configuration.getNode() == null ? getHostName() : configuration.getNode();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("audit-log-%d").setDaemon(true).build());
+        this.appendedMeter = metricRegistry
+                .meter(MetricRegistry.name(AuditLog.class, "appended"));
+        this.droppedMeter = metricRegistry.meter(MetricRegistry.name(AuditLog.class, "dropped"));
+        this.failedMeter = metricRegistry.meter(MetricRegistry.name(AuditLog.class, "failed"));
+        this.statsFailedMeter = metricRegistry
+                .meter(MetricRegistry.name(AuditLog.class, "stats-failed"));
+        this.flushTimer = metricRegistry.timer(MetricRegistry.name(AuditLog.class, "flush"));
+        metricRegistry.register(MetricRegistry.name(AuditLog.class, "queue-depth"),
+                (Gauge<Integer>) this.queue::size);
+    }
+
+    /**
+     * Queues an event for the given key. It never blocks.
+     *
+     * @param action
+     *            What was done.
+     * @param target
+     *            What it was done to.
+     * @param key
+     *            The client public key.
+     */
+    public void record(final Action action, final Target target, final String key) {
+        final AuditEvent event = AuditEvent.builder()
+                .timestamp(System.currentTimeMillis())
+                .action(action)
+                .target(target)
+                .keyDigest(KeyDigest.of(key))
+                .node(this.node)
+                .build();
+        if (!this.queue.offer(new QueuedEvent(TenantPool.getCurrent(), event))) {
+            this.droppedMeter.mark();
+        }
+    }
+
+    /**
+     * Sends the queued events, a batch per round trip. If a batch fails, the
+     * remaining events are left for the next run.
+     */
+    void flush() {
+        final List<QueuedEvent> batch = new ArrayList<>(this.batchSize);
+        while (this.queue.drainTo(batch, this.batchSize) > 0) {
+            // A round trip per tenant, usually a single one.
+            final Map<Tenant, List<AuditEvent>> eventsByTenant = new LinkedHashMap<>();
+            for (final QueuedEvent queuedEvent : batch) {
+                eventsByTenant.computeIfAbsent(queuedEvent.tenant, tenant -> new ArrayList<>())
+                        .add(queuedEvent.event);
+            }
+            try (Timer.Context context = this.flushTimer.time()) {
+                eventsByTenant.forEach((tenant, events) -> TenantPool.run(tenant, () -> {
+                    this.auditEventDAO.append(events, this.maxLength);
+                    this.appendedMeter.mark(events.size());
+                    this.incrementStats(events);
+                }));
+            } catch (final RuntimeException e) {
+                // Not letting it escape, as it would cancel the schedule.
+                this.failedMeter.mark(batch.size());
+                log.warn("Dropping {} audit events, they could not be sent: {}", batch.size(),
+                        e.toString());
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Counts the batch in the statistics. A failure here doesn't drop the
+     * events, as they are already in the log, so it's counted apart.
+     */
+    private void incrementStats(final List<AuditEvent> batch) {
+        try {
+            this.auditStatsDAO.increment(batch, this.statsRetentionSeconds);
+        } catch (final IOException | RuntimeException e) {
+            this.statsFailedMeter.mark(batch.size());
+            log.warn("Skipping the statistics of {} audit events: {}", batch.size(),
+                    e.toString());
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        this.flusher.scheduleWithFixedDelay(this::flush, this.flushIntervalMillis,
+                this.flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        this.flusher.shutdown();
+        this.flusher.awaitTermination(this.flushIntervalMillis, TimeUnit.MILLISECONDS);
+        // Sending what was queued since the last run.
+        this.flush();
+    }
+
+    /**
+     * An event waiting to be sent, along with the tenant it belongs to, or
+     * {@code null} for the default namespace.
+     */
+    @AllArgsConstructor
+    private static class QueuedEvent {
+        private final Tenant tenant;
+        private final AuditEvent event;
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (final UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
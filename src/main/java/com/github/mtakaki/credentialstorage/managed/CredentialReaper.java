@@ -0,0 +1,206 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.mtakaki.credentialstorage.configuration.ReaperConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.Index;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.IndexBatch;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.ScanParams;
+
+/**
+ * Periodically removes the audit sorted sets members whose credential is
+ * gone and, if configured, deletes the credentials that were not accessed for
+ * a while. The members of expired leases are found through their expiration,
+ * while the ones left by older versions need the sorted sets to be scanned.
+ * Each pass goes through the default namespace and then through each tenant,
+ * whose expired leases would otherwise keep counting towards their quota.
+ *
+ * <p>
+ * The work is done in small batches, each one a single round trip, and the
+ * batches are rate limited, so redis stays responsive for the requests. On a
+ * dry run the metrics and the log show what would have been removed.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class CredentialReaper implements Managed {
+    private final ReaperConfiguration configuration;
+    private final CredentialDAO credentialDAO;
+    private final TenantPool tenantPool;
+    private final ScheduledExecutorService scheduler;
+    private final RateLimiter rateLimiter;
+    private final AtomicLong passProgress = new AtomicLong();
+    private final AtomicLong lastPass = new AtomicLong();
+    private final Meter scannedMeter;
+    private final Meter orphansMeter;
+    private final Meter leasesMeter;
+    private final Meter idleMeter;
+    private final Meter failedMeter;
+    private final Timer passTimer;
+    private volatile boolean stopped;
+
+    public CredentialReaper(final ReaperConfiguration configuration,
+            final CredentialDAO credentialDAO, final TenantPool tenantPool,
+            final MetricRegistry metricRegistry) {
+        this.configuration = configuration;
+        this.credentialDAO = credentialDAO;
+        this.tenantPool = tenantPool;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("credential-reaper-%d").setDaemon(true).build());
+        this.rateLimiter = RateLimiter.create(configuration.getBatchesPerSecond());
+        this.scannedMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialReaper.class, "scanned"));
+        this.orphansMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialReaper.class, "orphans"));
+        this.leasesMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialReaper.class, "expired-leases"));
+        this.idleMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialReaper.class, "idle-expired"));
+        this.failedMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialReaper.class, "failed"));
+        this.passTimer = metricRegistry.timer(MetricRegistry.name(CredentialReaper.class, "pass"));
+        metricRegistry.register(MetricRegistry.name(CredentialReaper.class, "pass-progress"),
+                (Gauge<Long>) this.passProgress::get);
+        metricRegistry.register(MetricRegistry.name(CredentialReaper.class, "last-pass"),
+                (Gauge<Long>) this.lastPass::get);
+    }
+
+    /**
+     * Runs a full pass over the expired leases, both sorted sets and then over
+     * the idle credentials, of every namespace.
+     */
+    void runPass() {
+        this.passProgress.set(0L);
+        final PassTotals totals = new PassTotals();
+        try (Timer.Context context = this.passTimer.time()) {
+            for (final Tenant tenant : this.tenantPool.getNamespaces()) {
+                if (this.stopped) {
+                    return;
+                }
+                TenantPool.run(tenant, () -> this.runNamespacePass(totals));
+            }
+            this.lastPass.set(System.currentTimeMillis() / 1000L);
+            log.info("Reaper pass done{}: {} members scanned, {} expired leases, {} orphaned, "
+                    + "{} idle.", this.configuration.isDryRun() ? " (dry run)" : "",
+                    this.passProgress.get(), totals.leases, totals.orphans, totals.idle);
+        } catch (final RuntimeException e) {
+            // Not letting it escape, as it would cancel the schedule.
+            this.failedMeter.mark();
+            log.warn("Reaper pass failed, it will be retried on the next run.", e);
+        }
+    }
+
+    /**
+     * Adds the expired leases, orphans and idle credentials of the namespace
+     * of the current thread to the given totals.
+     */
+    private void runNamespacePass(final PassTotals totals) {
+        // On a dry run, the expired leases are counted as orphans.
+        if (!this.configuration.isDryRun()) {
+            totals.leases += this.removeExpiredLeases();
+        }
+        for (final Index index : Index.values()) {
+            totals.orphans += this.removeOrphanedMembers(index);
+        }
+        if (this.configuration.getIdleExpiration() != null) {
+            totals.idle += this.expireIdleCredentials();
+        }
+    }
+
+    private long removeExpiredLeases() {
+        final long now = System.currentTimeMillis() / 1000L;
+        long leases = 0L;
+        int offset = 0;
+        IndexBatch batch;
+        do {
+            this.rateLimiter.acquire();
+            batch = this.credentialDAO.removeExpiredLeases(now, offset,
+                    this.configuration.getBatchSize());
+            this.track(batch, this.leasesMeter);
+            leases += batch.getMatched();
+            if (!batch.isDone()) {
+                offset = Integer.parseInt(batch.getCursor());
+            }
+        } while (!this.stopped && !batch.isDone());
+        return leases;
+    }
+
+    private long removeOrphanedMembers(final Index index) {
+        long orphans = 0L;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            this.rateLimiter.acquire();
+            final IndexBatch batch = this.credentialDAO.removeOrphanedMembers(index, cursor,
+                    this.configuration.getBatchSize(), this.configuration.isDryRun());
+            this.track(batch, this.orphansMeter);
+            orphans += batch.getMatched();
+            cursor = batch.getCursor();
+        } while (!this.stopped && !ScanParams.SCAN_POINTER_START.equals(cursor));
+        return orphans;
+    }
+
+    private long expireIdleCredentials() {
+        final long horizon = System.currentTimeMillis() / 1000L
+                - this.configuration.getIdleExpiration().toSeconds();
+        long idle = 0L;
+        int offset = 0;
+        IndexBatch batch;
+        do {
+            this.rateLimiter.acquire();
+            batch = this.credentialDAO.expireIdleCredentials(horizon, offset,
+                    this.configuration.getBatchSize(), this.configuration.isDryRun());
+            this.track(batch, this.idleMeter);
+            idle += batch.getMatched();
+            if (!batch.isDone()) {
+                offset = Integer.parseInt(batch.getCursor());
+            }
+        } while (!this.stopped && !batch.isDone());
+        return idle;
+    }
+
+    private void track(final IndexBatch batch, final Meter matchedMeter) {
+        this.scannedMeter.mark(batch.getScanned());
+        this.passProgress.addAndGet(batch.getScanned());
+        matchedMeter.mark(batch.getMatched());
+    }
+
+    private static class PassTotals {
+        private long leases;
+        private long orphans;
+        private long idle;
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (this.configuration.isEnabled()) {
+            final long intervalSeconds = this.configuration.getInterval().toSeconds();
+            this.scheduler.scheduleWithFixedDelay(this::runPass, intervalSeconds,
+                    intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        // A pass in progress stops after its current batch.
+        this.stopped = true;
+        this.scheduler.shutdown();
+        this.scheduler.awaitTermination(1L, TimeUnit.SECONDS);
+    }
+}
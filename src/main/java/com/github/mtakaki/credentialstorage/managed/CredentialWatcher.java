@@ -0,0 +1,198 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.GrpcConfiguration;
+import com.github.mtakaki.credentialstorage.database.ConnectionProvider;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Tells the listeners of a credential whenever it's written or deleted, by any
+ * server, following the digests published by {@link CredentialDAO} on
+ * {@link CredentialDAO#CHANGES_CHANNEL}.
+ *
+ * <p>
+ * A single redis connection is kept subscribed, for all the listeners. If it's
+ * lost, it's subscribed again and every listener is told, as changes might
+ * have been missed in the meantime. Listeners are called in a separate pool
+ * of {@code grpc.watchThreads}, so they can read the credential from redis. A
+ * listener is queued at most once, so a burst of changes to a credential
+ * results in a single call, and the queue is bounded by the listeners.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class CredentialWatcher implements Managed {
+    private final GrpcConfiguration configuration;
+    private final ConnectionProvider jedisPool;
+    private final long retryIntervalMillis;
+    private final ConcurrentMap<String, Set<Listener>> listeners = new ConcurrentHashMap<>();
+    // The listeners queued to be called.
+    private final Set<Listener> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService subscriberExecutor;
+    private final ExecutorService listenerExecutor;
+    private final Meter changesMeter;
+    private final Meter failedMeter;
+    private final Subscriber subscriber = new Subscriber();
+    private volatile boolean stopped;
+    // Whether the subscription was lost before, so changes could be missed.
+    private volatile boolean resubscribing;
+
+    public CredentialWatcher(final GrpcConfiguration configuration,
+            final ConnectionProvider jedisPool, final MetricRegistry metricRegistry) {
+        this.configuration = configuration;
+        this.jedisPool = jedisPool;
+        this.retryIntervalMillis = configuration.getWatchRetryInterval().toMilliseconds();
+        this.subscriberExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("credential-watcher-%d").setDaemon(true).build());
+        this.listenerExecutor = Executors.newFixedThreadPool(configuration.getWatchThreads(),
+                new ThreadFactoryBuilder().setNameFormat("credential-watch-%d").setDaemon(true)
+                        .build());
+        this.changesMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialWatcher.class, "changes"));
+        this.failedMeter = metricRegistry
+                .meter(MetricRegistry.name(CredentialWatcher.class, "failed"));
+        metricRegistry.register(MetricRegistry.name(CredentialWatcher.class, "watched"),
+                (Gauge<Integer>) this.listeners::size);
+    }
+
+    /**
+     * Starts telling the given listener about the changes made to the
+     * credential of the given public key.
+     *
+     * @param publicKey
+     *            The client public key.
+     * @param listener
+     *            Called after each change.
+     */
+    public void watch(final String publicKey, final Listener listener) {
+        this.listeners.compute(KeyDigest.of(publicKey), (member, memberListeners) -> {
+            final Set<Listener> updated = memberListeners == null
+                    ? ConcurrentHashMap.newKeySet()
+                    : memberListeners;
+            updated.add(listener);
+            return updated;
+        });
+    }
+
+    /**
+     * Stops telling the given listener about the changes.
+     *
+     * @param publicKey
+     *            The client public key, as given to
+     *            {@link #watch(String, Listener)}.
+     * @param listener
+     *            The listener to remove.
+     */
+    public void unwatch(final String publicKey, final Listener listener) {
+        this.listeners.computeIfPresent(KeyDigest.of(publicKey),
+                (member, memberListeners) -> {
+                    memberListeners.remove(listener);
+                    return memberListeners.isEmpty() ? null : memberListeners;
+                });
+    }
+
+    private void notify(final Set<Listener> memberListeners) {
+        if (memberListeners != null) {
+            memberListeners.forEach(this::schedule);
+        }
+    }
+
+    private void schedule(final Listener listener) {
+        if (this.pending.add(listener)) {
+            this.listenerExecutor.execute(() -> {
+                // Taken off first, so a change made during the call isn't missed.
+                this.pending.remove(listener);
+                listener.changed();
+            });
+        }
+    }
+
+    private void subscribe() {
+        while (!this.stopped) {
+            try (Jedis jedis = this.jedisPool.getResource()) {
+                // Blocks until it's unsubscribed or the connection is lost.
+                jedis.subscribe(this.subscriber, CredentialDAO.CHANGES_CHANNEL);
+            } catch (final JedisException e) {
+                if (this.stopped) {
+                    return;
+                }
+                this.failedMeter.mark();
+                log.warn("Lost the subscription to the credential changes, retrying in {}ms.",
+                        this.retryIntervalMillis, e);
+                try {
+                    Thread.sleep(this.retryIntervalMillis);
+                } catch (final InterruptedException ie) {
+                    return;
+                }
+            }
+            this.resubscribing = true;
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        // Only the gRPC watches need it.
+        if (this.configuration.isEnabled()) {
+            this.subscriberExecutor.execute(this::subscribe);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        this.stopped = true;
+        if (this.subscriber.isSubscribed()) {
+            this.subscriber.unsubscribe();
+        }
+        this.subscriberExecutor.shutdownNow();
+        this.listenerExecutor.shutdown();
+        this.subscriberExecutor.awaitTermination(1L, TimeUnit.SECONDS);
+        this.listenerExecutor.awaitTermination(1L, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Called after the credential is written or deleted. Changes made before
+     * the call starts are told by a single call, and it can be called again
+     * for the same change, after the subscription is lost.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void changed();
+    }
+
+    private class Subscriber extends JedisPubSub {
+        @Override
+        public void onSubscribe(final String channel, final int subscribedChannels) {
+            if (CredentialWatcher.this.resubscribing) {
+                CredentialWatcher.this.listeners.values().forEach(CredentialWatcher.this::notify);
+            }
+        }
+
+        @Override
+        public void onMessage(final String channel, final String member) {
+            final Set<Listener> memberListeners = CredentialWatcher.this.listeners.get(member);
+            if (memberListeners != null) {
+                CredentialWatcher.this.changesMeter.mark();
+                CredentialWatcher.this.notify(memberListeners);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.ServiceUnavailableException;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.encryption.InitializationException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Runs the CPU bound encryption work in a pool sized to the number of cores,
+ * so a burst of writes can't take over all the request threads and starve the
+ * reads.
+ *
+ * <p>
+ * The pool has a bounded queue. When it's full the request is rejected right
+ * away with {@code 503 Service Unavailable} and a {@code Retry-After} header,
+ * instead of piling up more request threads waiting for the CPU.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class CryptoExecutor implements Managed {
+    private final ThreadPoolExecutor executor;
+    private final long retryAfterSeconds;
+    private final Timer waitTimer;
+    private final Timer executionTimer;
+    private final Meter rejectedMeter;
+
+    public CryptoExecutor(final CryptoExecutorConfiguration configuration,
+            final MetricRegistry metricRegistry) {
+        this.executor = new ThreadPoolExecutor(configuration.getThreads(),
+                configuration.getThreads(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(configuration.getQueueCapacity()),
+                new ThreadFactoryBuilder().setNameFormat("crypto-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.retryAfterSeconds = Math.max(1L, configuration.getRetryAfter().toSeconds());
+        this.waitTimer = metricRegistry.timer(MetricRegistry.name(CryptoExecutor.class, "wait"));
+        this.executionTimer = metricRegistry
+                .timer(MetricRegistry.name(CryptoExecutor.class, "execution"));
+        this.rejectedMeter = metricRegistry
+                .meter(MetricRegistry.name(CryptoExecutor.class, "rejected"));
+        metricRegistry.register(MetricRegistry.name(CryptoExecutor.class, "queue-depth"),
+                (Gauge<Integer>) () -> this.executor.getQueue().size());
+        metricRegistry.register(MetricRegistry.name(CryptoExecutor.class, "active"),
+                (Gauge<Integer>) this.executor::getActiveCount);
+    }
+
+    /**
+     * Runs the given task in the crypto pool and waits for its result.
+     *
+     * @param task
+     *            The encryption work.
+     * @return The task result.
+     * @throws InitializationException
+     *             Thrown by the task.
+     * @throws NoSuchAlgorithmException
+     *             Thrown by the task.
+     * @throws ExecutionException
+     *             Thrown by the task.
+     * @throws ServiceUnavailableException
+     *             Thrown if the queue is full or if we're interrupted while
+     *             waiting, which is mapped to a {@code 503} response.
+     */
+    public <T> T execute(final CryptoTask<T> task) throws InitializationException,
+            NoSuchAlgorithmException, ExecutionException {
+        final Timer.Context waitContext = this.waitTimer.time();
+        final Future<T> future;
+        try {
+            future = this.executor.submit(() -> {
+                waitContext.stop();
+                try (Timer.Context executionContext = this.executionTimer.time()) {
+                    return task.call();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            this.rejectedMeter.mark();
+            throw new ServiceUnavailableException(this.retryAfterSeconds);
+        }
+
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException(this.retryAfterSeconds);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof InitializationException) {
+                throw (InitializationException) cause;
+            }
+            if (cause instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) cause;
+            }
+            if (cause instanceof ExecutionException) {
+                throw (ExecutionException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        // The pool is created on the constructor, as it's passed around before
+        // the application starts.
+    }
+
+    @Override
+    public void stop() throws Exception {
+        this.executor.shutdown();
+        this.executor.awaitTermination(this.retryAfterSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Encryption work that runs in the crypto pool.
+     *
+     * @param <T>
+     *            The result type.
+     */
+    @FunctionalInterface
+    public interface CryptoTask<T> {
+        T call() throws InitializationException, NoSuchAlgorithmException, ExecutionException;
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.mtakaki.credentialstorage.configuration.GrpcConfiguration;
+
+import io.dropwizard.lifecycle.Managed;
+import io.grpc.BindableService;
+import io.grpc.Server;
+import io.grpc.netty.NettyServerBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs the gRPC server, on its own port, along with the application. Each
+ * client connection is kept open and carries many calls at once, over HTTP/2.
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class GrpcServer implements Managed {
+    private final GrpcConfiguration configuration;
+    private final Server server;
+
+    public GrpcServer(final GrpcConfiguration configuration, final BindableService service) {
+        this.configuration = configuration;
+        this.server = NettyServerBuilder.forPort(configuration.getPort())
+                .maxConcurrentCallsPerConnection(configuration.getMaxConcurrentCallsPerConnection())
+                .maxMessageSize((int) configuration.getMaxInboundMessageSize().toBytes())
+                .addService(service)
+                .build();
+    }
+
+    /**
+     * The port the server listens to, which is only known once it's started
+     * if it was configured as zero.
+     */
+    public int getPort() {
+        return this.server.getPort();
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (this.configuration.isEnabled()) {
+            this.server.start();
+            log.info("gRPC server listening on port {}", this.server.getPort());
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (this.configuration.isEnabled()) {
+            // New calls are refused, the ones in progress, such as watches,
+            // are cancelled once the grace period is over.
+            this.server.shutdown();
+            if (!this.server.awaitTermination(
+                    this.configuration.getShutdownGracePeriod().toMilliseconds(),
+                    TimeUnit.MILLISECONDS)) {
+                this.server.shutdownNow();
+            }
+        }
+    }
+}
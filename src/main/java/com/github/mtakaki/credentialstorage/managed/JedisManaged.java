@@ -1,7 +1,11 @@
 package com.github.mtakaki.credentialstorage.managed;
 
 import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
 
+import com.github.mtakaki.credentialstorage.bulkhead.TrafficClass;
+import com.github.mtakaki.credentialstorage.bulkhead.TrafficClassPool;
 import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
 
 import io.dropwizard.lifecycle.Managed;
@@ -10,18 +14,26 @@ import lombok.Getter;
 import redis.clients.jedis.JedisPool;
 
 /**
- * Managed redis connection pool, bound to the application life cycle.
+ * Managed redis connection pools, bound to the application life cycle. There
+ * is a shared pool and one pool for each {@link TrafficClass}, all handed out
+ * through a single {@link TrafficClassPool}.
  *
  * @author mtakaki
  *
  */
 public class JedisManaged implements Managed {
     @Getter
-    private final JedisPool jedisPool;
+    private final TrafficClassPool jedisPool;
 
     public JedisManaged(final RedisConfiguration configuration) {
-        this.jedisPool = new JedisPool(configuration.getPoolConfig(),
-                URI.create(configuration.getUrl()));
+        final URI uri = URI.create(configuration.getUrl());
+        final Map<TrafficClass, JedisPool> pools = new EnumMap<>(TrafficClass.class);
+        for (final TrafficClass trafficClass : TrafficClass.values()) {
+            pools.put(trafficClass, new JedisPool(
+                    trafficClass.getConfiguration(configuration).getPoolConfig(), uri));
+        }
+        this.jedisPool = new TrafficClassPool(
+                new JedisPool(configuration.getPoolConfig(), uri), pools);
     }
 
     @Override
@@ -34,4 +46,4 @@ public class JedisManaged implements Managed {
     public void stop() throws Exception {
         this.jedisPool.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.JournalConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.journal.WriteJournal;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Periodically replays the writes kept in the {@link WriteJournal} to redis,
+ * in the order they were made. While redis is still unavailable, the first
+ * entry fails and the journal is left as it is until the next run. A write is
+ * dropped if redis has a newer one for the same credential.
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class JournalReplayer implements Managed {
+    private final JournalConfiguration configuration;
+    private final WriteJournal writeJournal;
+    private final CredentialDAO credentialDAO;
+    private final ScheduledExecutorService scheduler;
+    private final Meter replayedMeter;
+    private final Meter skippedMeter;
+    private final Meter failedMeter;
+    private volatile boolean stopped;
+
+    public JournalReplayer(final JournalConfiguration configuration,
+            final WriteJournal writeJournal, final CredentialDAO credentialDAO,
+            final MetricRegistry metricRegistry) {
+        this.configuration = configuration;
+        this.writeJournal = writeJournal;
+        this.credentialDAO = credentialDAO;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("journal-replayer-%d").setDaemon(true).build());
+        this.replayedMeter = metricRegistry
+                .meter(MetricRegistry.name(JournalReplayer.class, "replayed"));
+        this.skippedMeter = metricRegistry
+                .meter(MetricRegistry.name(JournalReplayer.class, "skipped"));
+        this.failedMeter = metricRegistry
+                .meter(MetricRegistry.name(JournalReplayer.class, "failed"));
+    }
+
+    /**
+     * Replays all the journaled writes, in batches.
+     */
+    void runPass() {
+        if (this.writeJournal.getDepth() == 0) {
+            return;
+        }
+        try {
+            int replayed = 0;
+            int batch;
+            do {
+                batch = this.writeJournal.replay(this.configuration.getBatchSize(), entry -> {
+                    if (this.credentialDAO.replay(entry)) {
+                        this.replayedMeter.mark();
+                    } else {
+                        this.skippedMeter.mark();
+                    }
+                });
+                replayed += batch;
+            } while (!this.stopped && batch > 0);
+            log.info("Replayed {} journaled writes to redis.", replayed);
+        } catch (final IOException | RuntimeException e) {
+            // Not letting it escape, as it would cancel the schedule.
+            this.failedMeter.mark();
+            log.debug("Journal replay failed, it will be retried on the next run.", e);
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (this.writeJournal.isEnabled()) {
+            final long intervalMillis = this.configuration.getReplayInterval().toMilliseconds();
+            // Starting right away, for the writes journaled before a restart.
+            this.scheduler.scheduleWithFixedDelay(this::runPass, 0L, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        // A replay in progress stops after its current batch.
+        this.stopped = true;
+        this.scheduler.shutdown();
+        this.scheduler.awaitTermination(1L, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,305 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.mtakaki.credentialstorage.configuration.SnapshotConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.snapshot.SnapshotFile;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.ScanParams;
+
+/**
+ * Keeps a copy of all the credential records on the local disk, so reads can
+ * still be served, from a possibly stale copy, while redis is unavailable.
+ *
+ * <p>
+ * The copy is refreshed periodically, in small rate limited batches, into a
+ * new {@link SnapshotFile}, which replaces the current one once complete. It
+ * holds the records in redis, in both layouts, and in the cold tier. A full
+ * refresh scans redis, while the ones in between only read the records
+ * written since the last refresh and check the others are still there. The
+ * last snapshot is loaded on startup, so a node restarted during an outage
+ * can serve reads too. After a failure, reads skip redis for the configured
+ * retry interval, so they don't each wait on it.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class LocalSnapshot implements Managed {
+    private static final String SNAPSHOT_FILE = "credentials.snapshot";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final SnapshotConfiguration configuration;
+    private final CredentialDAO credentialDAO;
+    private final Path directory;
+    private final ScheduledExecutorService scheduler;
+    private final RateLimiter rateLimiter;
+    private final Meter degradedMeter;
+    private final Meter failedMeter;
+    private final Timer refreshTimer;
+    private volatile SnapshotFile snapshot;
+    // UNIX timestamp, in milliseconds, of when the last full refresh started.
+    private long lastFullRefresh;
+    // UNIX timestamp, in milliseconds, until when redis is skipped.
+    private volatile long bypassUntil;
+    private volatile boolean stopped;
+
+    public LocalSnapshot(final SnapshotConfiguration configuration,
+            final CredentialDAO credentialDAO, final MetricRegistry metricRegistry) {
+        this.configuration = configuration;
+        this.credentialDAO = credentialDAO;
+        this.directory = Paths.get(configuration.getDirectory());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("local-snapshot-%d").setDaemon(true).build());
+        this.rateLimiter = RateLimiter.create(configuration.getBatchesPerSecond());
+        this.degradedMeter = metricRegistry
+                .meter(MetricRegistry.name(LocalSnapshot.class, "degraded-hits"));
+        this.failedMeter = metricRegistry.meter(MetricRegistry.name(LocalSnapshot.class, "failed"));
+        this.refreshTimer = metricRegistry
+                .timer(MetricRegistry.name(LocalSnapshot.class, "refresh"));
+        metricRegistry.register(MetricRegistry.name(LocalSnapshot.class, "age"),
+                (Gauge<Long>) this::getAgeSeconds);
+        metricRegistry.register(MetricRegistry.name(LocalSnapshot.class, "records"),
+                (Gauge<Integer>) () -> this.snapshot == null ? 0 : this.snapshot.size());
+    }
+
+    /**
+     * Whether reads can fall back to the snapshot. It only holds the default
+     * namespace, so the tenants never do.
+     */
+    public boolean isEnabled() {
+        return this.configuration.isEnabled() && TenantPool.getCurrent() == null;
+    }
+
+    /**
+     * Whether redis failed recently, so reads should go straight to the
+     * snapshot.
+     */
+    public boolean isBypassingRedis() {
+        return this.isEnabled() && System.currentTimeMillis() < this.bypassUntil;
+    }
+
+    /**
+     * Serves the reads from the snapshot for the retry interval.
+     */
+    public void bypassRedis() {
+        this.bypassUntil = System.currentTimeMillis()
+                + this.configuration.getRetryInterval().toMilliseconds();
+    }
+
+    /**
+     * Reads the credential stored under the given key from the snapshot.
+     *
+     * @param key
+     *            Key used to store the credential.
+     * @return The credential or {@code Optional.absent()} if it's not in the
+     *         snapshot or its lease expired.
+     * @throws IOException
+     *             Thrown if the record can't be read.
+     */
+    public Optional<Credential> getCredentialByKey(final String key) throws IOException {
+        this.degradedMeter.mark();
+        SnapshotFile currentSnapshot;
+        Optional<Map<String, String>> record;
+        // Reading it again from the new snapshot, if it was replaced, and so
+        // closed, in the meantime.
+        do {
+            currentSnapshot = this.snapshot;
+            if (currentSnapshot == null) {
+                return Optional.absent();
+            }
+            record = currentSnapshot.get(KeyDigest.of(key));
+        } while (!record.isPresent() && currentSnapshot != this.snapshot);
+        if (!record.isPresent()) {
+            return Optional.absent();
+        }
+        final Optional<Credential> credential = CredentialDAO.toCredential(record.get());
+        if (credential.get().getExpiresAt() != null
+                && credential.get().getExpiresAt() <= System.currentTimeMillis() / 1000L) {
+            return Optional.absent();
+        }
+        return credential;
+    }
+
+    /**
+     * How old the snapshot is, in seconds, or -1 if there is none.
+     */
+    public long getAgeSeconds() {
+        final SnapshotFile currentSnapshot = this.snapshot;
+        return currentSnapshot == null ? -1L
+                : (System.currentTimeMillis() - currentSnapshot.getCreatedAt()) / 1000L;
+    }
+
+    /**
+     * Copies all the records into a new snapshot and replaces the current
+     * one, which is then closed. It's left in place if redis fails midway.
+     */
+    void refresh() {
+        final long createdAt = System.currentTimeMillis();
+        final SnapshotFile current = this.snapshot;
+        final boolean full = current == null || createdAt
+                - this.lastFullRefresh >= this.configuration.getFullRefreshInterval()
+                        .toMilliseconds();
+        try (Timer.Context context = this.refreshTimer.time();
+                SnapshotFile.Writer writer = new SnapshotFile.Writer(
+                        this.directory.resolve(SNAPSHOT_FILE + TEMPORARY_SUFFIX), createdAt)) {
+            // A later record takes precedence, so the cold copies go first.
+            this.credentialDAO.scanColdCredentials(writer::append);
+            if (full ? !this.copyAll(writer) : !this.copyChanges(current, writer)) {
+                return;
+            }
+            this.snapshot = writer.commit(this.directory.resolve(SNAPSHOT_FILE));
+            if (full) {
+                this.lastFullRefresh = createdAt;
+            }
+            if (current != null) {
+                current.close();
+            }
+            log.info("Credentials snapshot {} refreshed with {} records.",
+                    full ? "fully" : "incrementally", this.snapshot.size());
+        } catch (final IOException | RuntimeException e) {
+            // Not letting it escape, as it would cancel the schedule.
+            this.failedMeter.mark();
+            log.warn("Credentials snapshot refresh failed, keeping the current one.", e);
+        }
+    }
+
+    /**
+     * Scans redis for the records in both layouts.
+     *
+     * @return {@code false} if it was stopped midway.
+     */
+    private boolean copyAll(final SnapshotFile.Writer writer) throws IOException {
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            this.rateLimiter.acquire();
+            cursor = this.credentialDAO.scanLegacyCredentials(cursor,
+                    this.configuration.getBatchSize(), writer::append);
+            if (this.stopped) {
+                return false;
+            }
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        do {
+            this.rateLimiter.acquire();
+            cursor = this.credentialDAO.scanCredentials(cursor,
+                    this.configuration.getBatchSize(), writer::append);
+            if (this.stopped) {
+                return false;
+            }
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        return true;
+    }
+
+    /**
+     * Keeps the records of the current snapshot that are still in redis and
+     * reads the ones written since it was started. The records with a lease
+     * are read again too, as a renewal doesn't count as a write.
+     *
+     * @return {@code false} if it was stopped midway.
+     */
+    private boolean copyChanges(final SnapshotFile current, final SnapshotFile.Writer writer)
+            throws IOException {
+        // The last update is kept in seconds.
+        final Set<String> updated = new HashSet<>(
+                this.credentialDAO.getMembersUpdatedSince(current.getCreatedAt() / 1000L - 1L));
+        final int batchSize = this.configuration.getBatchSize();
+        final Iterator<String> members = current.getMembers().iterator();
+        while (members.hasNext()) {
+            // Key to the member and the record of each one.
+            final Map<String, Map.Entry<String, Map<String, String>>> batch = new HashMap<>();
+            while (members.hasNext() && batch.size() < batchSize) {
+                final String member = members.next();
+                final Optional<Map<String, String>> record = current.get(member);
+                if (updated.contains(member) || !record.isPresent()) {
+                    continue;
+                }
+                final Credential credential = CredentialDAO.toCredential(record.get()).get();
+                if (credential.getExpiresAt() != null) {
+                    updated.add(member);
+                } else {
+                    batch.put(credential.getKey(), Maps.immutableEntry(member, record.get()));
+                }
+            }
+            this.rateLimiter.acquire();
+            for (final String key : this.credentialDAO.getStoredKeys(batch.keySet())) {
+                final Map.Entry<String, Map<String, String>> record = batch.get(key);
+                writer.append(record.getKey(), record.getValue());
+            }
+            if (this.stopped) {
+                return false;
+            }
+        }
+
+        final List<String> updatedMembers = new ArrayList<>(updated);
+        for (int i = 0; i < updatedMembers.size(); i += batchSize) {
+            this.rateLimiter.acquire();
+            this.credentialDAO.readCredentials(
+                    updatedMembers.subList(i, Math.min(i + batchSize, updatedMembers.size())),
+                    writer::append);
+            if (this.stopped) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (this.configuration.isEnabled()) {
+            Files.createDirectories(this.directory);
+            final Path snapshotFile = this.directory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshotFile)) {
+                this.snapshot = SnapshotFile.open(snapshotFile);
+            }
+            // Left by an interrupted refresh.
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory,
+                    "*" + TEMPORARY_SUFFIX)) {
+                for (final Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            this.scheduler.scheduleWithFixedDelay(this::refresh, 0L,
+                    this.configuration.getInterval().toSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        // A refresh in progress is dropped after its current batch.
+        this.stopped = true;
+        this.scheduler.shutdown();
+        this.scheduler.awaitTermination(1L, TimeUnit.SECONDS);
+        if (this.snapshot != null) {
+            this.snapshot.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.mtakaki.credentialstorage.configuration.TieringConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.IndexBatch;
+import com.github.mtakaki.credentialstorage.database.cold.ColdTier;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Periodically moves the credentials that were not accessed for a while from
+ * redis to the {@link ColdTier}, so redis only holds the ones in use. They are
+ * found through the last accessed sorted set, without a scan, and moved in
+ * small rate limited batches. After each pass, the cold tier segments that
+ * are mostly garbage, left by the promoted records, are rewritten.
+ *
+ * @author mtakaki
+ *
+ */
+@Slf4j
+public class TieringEngine implements Managed {
+    private final TieringConfiguration configuration;
+    private final CredentialDAO credentialDAO;
+    private final ColdTier coldTier;
+    private final ScheduledExecutorService scheduler;
+    private final RateLimiter rateLimiter;
+    private final AtomicLong lastPass = new AtomicLong();
+    private final Meter demotedMeter;
+    private final Meter failedMeter;
+    private final Timer passTimer;
+    private volatile boolean stopped;
+
+    public TieringEngine(final TieringConfiguration configuration,
+            final CredentialDAO credentialDAO, final ColdTier coldTier,
+            final MetricRegistry metricRegistry) {
+        this.configuration = configuration;
+        this.credentialDAO = credentialDAO;
+        this.coldTier = coldTier;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("tiering-engine-%d").setDaemon(true).build());
+        this.rateLimiter = RateLimiter.create(configuration.getBatchesPerSecond());
+        this.demotedMeter = metricRegistry
+                .meter(MetricRegistry.name(TieringEngine.class, "demoted"));
+        this.failedMeter = metricRegistry.meter(MetricRegistry.name(TieringEngine.class, "failed"));
+        this.passTimer = metricRegistry.timer(MetricRegistry.name(TieringEngine.class, "pass"));
+        metricRegistry.register(MetricRegistry.name(TieringEngine.class, "last-pass"),
+                (Gauge<Long>) this.lastPass::get);
+    }
+
+    /**
+     * Moves all the idle credentials to the cold tier and compacts it.
+     */
+    void runPass() {
+        final long horizon = System.currentTimeMillis() / 1000L
+                - this.configuration.getIdleThreshold().toSeconds();
+        long demoted = 0L;
+        try (Timer.Context context = this.passTimer.time()) {
+            int offset = 0;
+            IndexBatch batch;
+            do {
+                this.rateLimiter.acquire();
+                batch = this.credentialDAO.demoteIdleCredentials(horizon, offset,
+                        this.configuration.getBatchSize());
+                this.demotedMeter.mark(batch.getMatched());
+                demoted += batch.getMatched();
+                if (!batch.isDone()) {
+                    offset = Integer.parseInt(batch.getCursor());
+                }
+            } while (!this.stopped && !batch.isDone());
+            final int compacted = this.coldTier.compact(this.configuration.getCompactionRatio());
+            this.lastPass.set(System.currentTimeMillis() / 1000L);
+            log.info("Tiering pass done: {} credentials moved to the cold tier, {} segments "
+                    + "compacted.", demoted, compacted);
+        } catch (final IOException | RuntimeException e) {
+            // Not letting it escape, as it would cancel the schedule.
+            this.failedMeter.mark();
+            log.warn("Tiering pass failed, it will be retried on the next run.", e);
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (this.configuration.isEnabled()) {
+            final long intervalSeconds = this.configuration.getInterval().toSeconds();
+            this.scheduler.scheduleWithFixedDelay(this::runPass, intervalSeconds,
+                    intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        // A pass in progress stops after its current batch.
+        this.stopped = true;
+        this.scheduler.shutdown();
+        this.scheduler.awaitTermination(1L, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.mtakaki.credentialstorage.resources;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.jaxrs.cbor.JacksonCBORProvider;
+import com.fasterxml.jackson.jaxrs.smile.JacksonSmileProvider;
+
+import io.dropwizard.jackson.Jackson;
+
+/**
+ * The binary formats offered along with JSON, Smile and CBOR, for the clients
+ * that would rather not parse JSON. They are picked by the {@code Accept} and
+ * {@code Content-Type} headers, and follow the same field names and
+ * {@link com.fasterxml.jackson.annotation.JsonView}s as JSON.
+ *
+ * @author mtakaki
+ *
+ */
+public final class BinaryFormats {
+    private BinaryFormats() {
+    }
+
+    /**
+     * Reads and writes {@code application/x-jackson-smile}.
+     */
+    public static JacksonSmileProvider smileProvider() {
+        return new JacksonSmileProvider(newObjectMapper(newSmileFactory()));
+    }
+
+    /**
+     * Reads and writes {@code application/cbor}.
+     */
+    public static JacksonCBORProvider cborProvider() {
+        return new JacksonCBORProvider(newObjectMapper(new CBORFactory()));
+    }
+
+    /**
+     * Smile encodes binary values as 7 bits by default, so they never hold its
+     * marker bytes. That adds a seventh to the cipher texts, and the header
+     * already tells the readers when raw bytes are used.
+     */
+    static SmileFactory newSmileFactory() {
+        return new SmileFactory().disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT);
+    }
+
+    static ObjectMapper newObjectMapper(final JsonFactory factory) {
+        return Jackson.newObjectMapper(factory)
+                .setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+    }
+}
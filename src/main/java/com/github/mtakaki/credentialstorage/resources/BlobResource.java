@@ -0,0 +1,208 @@
+package com.github.mtakaki.credentialstorage.resources;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+
+import javax.crypto.SecretKey;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.codahale.metrics.annotation.Timed;
+import com.github.mtakaki.credentialstorage.CredentialStorageConfiguration;
+import com.github.mtakaki.credentialstorage.bulkhead.Bulkheaded;
+import com.github.mtakaki.credentialstorage.bulkhead.TrafficClass;
+import com.github.mtakaki.credentialstorage.configuration.BlobConfiguration;
+import com.github.mtakaki.credentialstorage.database.BlobDAO;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
+import com.github.mtakaki.credentialstorage.database.model.Blob;
+import com.github.mtakaki.credentialstorage.encryption.ChunkedCipher;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.EncryptionUtil;
+import com.github.mtakaki.credentialstorage.encryption.InitializationException;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
+import com.github.mtakaki.credentialstorage.limit.RateLimited;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.github.mtakaki.dropwizard.circuitbreaker.jersey.CircuitBreaker;
+import com.google.common.base.Optional;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+
+/**
+ * Resource that handles binary secrets, such as keystores and certificates,
+ * that are too large to be sent as a credential pair.
+ *
+ * <p>
+ * The request body is encrypted with AES-GCM in fixed size chunks while it's
+ * being read, and the chunks are sent to the database as they are encrypted,
+ * so the whole payload is never held in memory. The response body is the
+ * sequence of encrypted chunks, each one prefixed by its length as a 4 bytes
+ * big-endian integer. See {@link ChunkedCipher} for the chunk format.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Path("/credential/blob")
+@Api("/credential/blob")
+@RateLimited
+@AllArgsConstructor
+@PetiteBean
+public class BlobResource {
+    private static final String BLOB_PATH = "/credential/blob/";
+    private static final String PUBLIC_KEY_HEADER = "X-Auth-RSA";
+    static final String SYMMETRIC_KEY_HEADER = "X-Symmetric-Key";
+    static final String CHUNK_SIZE_HEADER = "X-Chunk-Size";
+    static final String BLOB_SIZE_HEADER = "X-Blob-Size";
+    static final String CIPHER_SUITE_HEADER = "X-Cipher-Suite";
+
+    private final BlobDAO blobDAO;
+    private final PublicKeyStore publicKeyStore;
+    private final CryptoExecutor cryptoExecutor;
+    private final CryptoProviders cryptoProviders;
+    private final CredentialStorageConfiguration configuration;
+    private final AuditLog auditLog;
+
+    @GET
+    @ApiOperation(
+        value = "Streams the encrypted binary secret stored for the given public key",
+        notes = "Returns the encrypted chunks, each one prefixed by its length. The symetrical key, "
+                + "encrypted using the given assymetrical public key, is sent in the X-Symmetric-Key header "
+                + "and the algorithm used to encrypt it in the X-Cipher-Suite header.")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Timed
+    @CircuitBreaker
+    @Bulkheaded(TrafficClass.READ)
+    @ConcurrencyLimited(Priority.HIGH)
+    public Response getByKey(@HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey) {
+        final Optional<Blob> blobOptional = this.blobDAO.getBlobByKey(userPublicKey);
+        if (!blobOptional.isPresent()) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+
+        final Blob blob = blobOptional.get();
+        this.auditLog.record(Action.READ, Target.BLOB, userPublicKey);
+        // The body is written after the response filters, once the tenant
+        // filter left the namespace of the request.
+        final Tenant tenant = TenantPool.getCurrent();
+        final StreamingOutput body = output -> {
+            final DataOutputStream dataOutput = new DataOutputStream(output);
+            TenantPool.call(tenant, () -> {
+                this.blobDAO.readChunks(blob, (index, chunk) -> {
+                    dataOutput.writeInt(chunk.length);
+                    dataOutput.write(chunk);
+                });
+                return null;
+            });
+            dataOutput.flush();
+        };
+        return Response.ok(body)
+                .header(SYMMETRIC_KEY_HEADER, blob.getSymmetricKey())
+                .header(CIPHER_SUITE_HEADER, blob.getCipherSuite())
+                .header(CHUNK_SIZE_HEADER, blob.getChunkSize())
+                .header(BLOB_SIZE_HEADER, blob.getSize())
+                .build();
+    }
+
+    @PUT
+    @ApiOperation(
+        value = "Stores the given binary secret into the database.",
+        notes = "The payload is encrypted in chunks using AES-GCM, as it's received. "
+                + "The symmetrical key is encrypted using the public assymetrical key and stored in the database. "
+                + "If a binary secret already exists for the key, it will be replaced once the new one is fully stored.")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Timed
+    @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
+    public Response storeBlob(@HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey,
+            final InputStream payload)
+            throws ExecutionException, NoSuchAlgorithmException, InitializationException,
+            IOException {
+        final BlobConfiguration blobConfiguration = this.configuration.getBlob();
+        final Blob blob = Blob.builder()
+                .key(userPublicKey)
+                .chunkSize((int) blobConfiguration.getChunkSize().toBytes())
+                .build();
+
+        // The payload is read in the request thread, as it's mostly waiting on
+        // the client, and each chunk is encrypted in the crypto pool.
+        final SecretKey symmetricKey = this.cryptoExecutor.execute(() -> {
+            final EncryptionUtil cachedEncryptionUtil = this.publicKeyStore.get(userPublicKey);
+            final SecretKey generatedKey = cachedEncryptionUtil.generateSymmetricKey();
+            blob.setSymmetricKey(cachedEncryptionUtil.encrypt(generatedKey));
+            blob.setCipherSuite(cachedEncryptionUtil.getCipherSuite());
+            return generatedKey;
+        });
+
+        final ChunkedCipher chunkedCipher = new ChunkedCipher(symmetricKey, blob.getChunkSize(),
+                this.cryptoProviders.get(ChunkedCipher.TRANSFORMATION));
+        try {
+            this.blobDAO.save(blob,
+                    chunkedCipher.encrypt(payload,
+                            (index, plainText, length, last) -> this.encryptChunk(chunkedCipher,
+                                    index, plainText, length, last)),
+                    ChunkedCipher::getPlainTextLength,
+                    (int) blobConfiguration.getReplacedRetention().toSeconds(),
+                    (int) blobConfiguration.getUploadTimeout().toSeconds());
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        this.auditLog.record(Action.WRITE, Target.BLOB, userPublicKey);
+        return Response.created(URI.create(BLOB_PATH + userPublicKey)).build();
+    }
+
+    private byte[] encryptChunk(final ChunkedCipher chunkedCipher, final long index,
+            final byte[] plainText, final int length, final boolean last) {
+        try {
+            return this.cryptoExecutor
+                    .execute(() -> chunkedCipher.encryptChunk(index, plainText, length, last));
+        } catch (InitializationException | NoSuchAlgorithmException | ExecutionException e) {
+            // Not thrown by the chunk encryption, which fails as the
+            // iterator does.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @DELETE
+    @ApiOperation("Deletes a binary secret from the database.")
+    @Timed
+    @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
+    public Response deleteBlob(
+            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey) {
+        if (this.blobDAO.deleteByKey(userPublicKey)) {
+            this.auditLog.record(Action.DELETE, Target.BLOB, userPublicKey);
+            return Response.ok().build();
+        } else {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+    }
+}
@@ -2,11 +2,15 @@ package com.github.mtakaki.credentialstorage.resources;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 
 import javax.crypto.SecretKey;
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
@@ -15,29 +19,59 @@ import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
+import org.apache.commons.lang3.StringUtils;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import com.codahale.metrics.annotation.Timed;
 import com.fasterxml.jackson.annotation.JsonView;
-import com.github.mtakaki.credentialstorage.CredentialStorageConfiguration;
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
+import com.github.mtakaki.credentialstorage.bulkhead.Bulkheaded;
+import com.github.mtakaki.credentialstorage.bulkhead.TrafficClass;
 import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.PatchResult;
+import com.github.mtakaki.credentialstorage.database.GroupDAO;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
 import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.CredentialPatch;
+import com.github.mtakaki.credentialstorage.database.model.Lease;
 import com.github.mtakaki.credentialstorage.database.model.view.UserView;
 import com.github.mtakaki.credentialstorage.encryption.EncryptionUtil;
 import com.github.mtakaki.credentialstorage.encryption.InitializationException;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
+import com.github.mtakaki.credentialstorage.limit.RateLimited;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.github.mtakaki.credentialstorage.managed.LocalSnapshot;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
 import com.github.mtakaki.dropwizard.circuitbreaker.jersey.CircuitBreaker;
 import com.google.common.base.Optional;
-import com.google.common.cache.Cache;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 
 import jodd.petite.meta.PetiteBean;
 import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
 
 /**
  * Resource that handles the basic credential CRUD operations.
@@ -47,29 +81,104 @@ import lombok.AllArgsConstructor;
  */
 @Path("/credential")
 @Api("/credential")
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({ MediaType.APPLICATION_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE,
+        CBORMediaTypes.APPLICATION_JACKSON_CBOR })
+@Slf4j
+@RateLimited
 @AllArgsConstructor
 @PetiteBean
 public class CredentialResource {
     private static final String CREDENTIAL_PATH = "/credential/";
     private static final String PUBLIC_KEY_HEADER = "X-Auth-RSA";
+    private static final String WARNING_HEADER = "Warning";
+    private static final String AGE_HEADER = "Age";
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+    private static final String VERSION_FIELD = "version";
 
     private final CredentialDAO credentialDAO;
-    private final Cache<String, EncryptionUtil> encryptionUtil;
-    private final CredentialStorageConfiguration configuration;
+    private final PublicKeyStore publicKeyStore;
+    private final CryptoExecutor cryptoExecutor;
+    private final AuditLog auditLog;
+    private final LocalSnapshot localSnapshot;
+    private final GroupDAO groupDAO;
 
     @GET
     @ApiOperation(
         value = "Retrieves the credential pair for the given public key",
         notes = "Returns a symetrical key, encrypted using the given assymetrical public key. "
-                + "The symetrical key should be used to decrypt the credential pair.")
+                + "The symetrical key should be used to decrypt the credential pair. "
+                + "It can be sent as JSON, Smile or CBOR, where the encrypted fields are raw bytes instead of base64. "
+                + "While the database is unavailable it may be served from a local copy, "
+                + "with a Warning header and its Age in seconds. "
+                + "Keys without a credential of their own get the credential of the group they are a member of, if any. "
+                + "It's sent with an ETag, and 304 is returned if it matches If-None-Match.")
     @Timed
     @CircuitBreaker
+    @Bulkheaded(TrafficClass.READ)
+    @ConcurrencyLimited(Priority.HIGH)
     @JsonView(UserView.class)
-    public Optional<Credential> getByKey(
-            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey)
+    public Response getByKey(
+            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey,
+            @Context final Request request)
             throws IOException {
-        return this.credentialDAO.getCredentialByKey(userPublicKey);
+        if (!this.localSnapshot.isBypassingRedis()) {
+            try {
+                final Optional<Credential> credential = this.credentialDAO
+                        .getCredentialByKey(userPublicKey);
+                return this.toResponse(request, userPublicKey, credential.isPresent()
+                        ? credential
+                        : this.groupDAO.getCredentialForMember(userPublicKey));
+            } catch (final JedisException e) {
+                if (!this.localSnapshot.isEnabled()) {
+                    throw e;
+                }
+                log.warn("Redis is unavailable, serving reads from the local snapshot.", e);
+                this.localSnapshot.bypassRedis();
+            }
+        }
+        final long age = this.localSnapshot.getAgeSeconds();
+        if (age < 0L) {
+            throw new ServiceUnavailableException("No local snapshot to read from.");
+        }
+        return Response.fromResponse(this.toResponse(request, userPublicKey,
+                this.localSnapshot.getCredentialByKey(userPublicKey)))
+                .header(WARNING_HEADER, STALE_WARNING)
+                .header(AGE_HEADER, age)
+                .build();
+    }
+
+    private Response toResponse(final Request request, final String userPublicKey,
+            final Optional<Credential> credential) {
+        if (!credential.isPresent()) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, userPublicKey);
+        final EntityTag entityTag = entityTag(credential.get());
+        final ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(credential.get()).tag(entityTag).build();
+    }
+
+    /**
+     * Tags the credential as the client sees it. The encrypted symmetric key
+     * is different after every write, even if the credential pair is the
+     * same, and the lease changes the expiration, so clients can keep their
+     * copy until either changes. The last access is left out, as it changes
+     * on every read. The tag is weak, as the same credential is sent as JSON,
+     * Smile or CBOR under it.
+     */
+    static EntityTag entityTag(final Credential credential) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (final String field : new String[] { credential.getSymmetricKey(),
+                credential.getPrimary(), credential.getSecondary(),
+                credential.getDescription() }) {
+            // Separating the fields, so moving data between them changes it.
+            hasher.putString(String.valueOf(field), StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        hasher.putLong(credential.getExpiresAt() == null ? 0L : credential.getExpiresAt());
+        return new EntityTag(hasher.hash().toString(), true);
     }
 
     @POST
@@ -77,10 +186,16 @@ public class CredentialResource {
         value = "Stores the given credential pair into the database.",
         notes = "The credential pair is encrypted using a symmetric algorithm. "
                 + "The symmetrical key is encrypted using the public assymetrical key and stored in the database. "
-                + "If the credential already exists in the database, it will be completely overwritten with the new one.")
-    @Consumes(MediaType.APPLICATION_JSON)
+                + "If the credential already exists in the database, it will be completely overwritten with the new one. "
+                + "If a ttl is given, in seconds, the credential is removed once it expires, unless its lease is renewed. "
+                + "A new credential is rejected with 403 once the tenant quota is used up. "
+                + "While the database is unavailable the write may be journaled, returning 202, and stored once it's back.")
+    @Consumes({ MediaType.APPLICATION_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE,
+            CBORMediaTypes.APPLICATION_JACKSON_CBOR })
     @Timed
     @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
     public Response storeCredential(
             @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey,
             @Valid final Credential credential)
@@ -89,21 +204,37 @@ public class CredentialResource {
         // TODO Create token and client signs it with the private key. The
         // server must verify the signature is valid, using client's public key.
 
-        final Optional<Credential> savedCredentialOptional = this.credentialDAO
-                .getCredentialByKey(userPublicKey);
-        this.fillUpEncryptAndSaveCredential(userPublicKey, savedCredentialOptional.or(credential),
-                credential);
-
-        return Response.created(URI.create(CREDENTIAL_PATH + userPublicKey)).build();
+        final Optional<Credential> savedCredentialOptional = this
+                .getStoredCredential(userPublicKey);
+        final Credential savedCredential = savedCredentialOptional.or(credential);
+        // The lease is replaced as well, and it's only set by the server.
+        savedCredential.setTtl(credential.getTtl());
+        savedCredential.setExpiresAt(credential.getTtl() == null ? null
+                : System.currentTimeMillis() / 1000L + credential.getTtl());
+        // The version is only set by the server.
+        if (!savedCredentialOptional.isPresent()) {
+            this.checkCredentialQuota();
+            savedCredential.setVersion(null);
+        }
+        final URI location = URI.create(CREDENTIAL_PATH + userPublicKey);
+        if (this.fillUpEncryptAndSaveCredential(userPublicKey, savedCredential, credential)) {
+            return Response.accepted().location(location).build();
+        }
+        return Response.created(location).build();
     }
 
     @PUT
     @ApiOperation(
         value = "Updates the credential pair stored under the given public asymmetrical key.",
-        notes = "The credential pair is re-encrypted with a symetric algorithm and its new key is stored and encrypted using the given assymetrical public key.")
-    @Consumes(MediaType.APPLICATION_JSON)
+        notes = "The credential pair is re-encrypted with a symetric algorithm and its new key is stored and encrypted using the given assymetrical public key. "
+                + "The lease, if any, is kept as it is. Returns 404 if there's no credential to update. "
+                + "While the database is unavailable the write may be journaled, returning 202, and stored once it's back.")
+    @Consumes({ MediaType.APPLICATION_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE,
+            CBORMediaTypes.APPLICATION_JACKSON_CBOR })
     @Timed
     @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
     public Response updateCredential(
             @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey,
             @Valid final Credential credential)
@@ -111,18 +242,122 @@ public class CredentialResource {
             IOException {
         // As this is an update, we need to query and verify the credentials
         // exist in the database.
-        final Optional<Credential> savedCredentialOptional = this.credentialDAO
-                .getCredentialByKey(userPublicKey);
+        final Optional<Credential> savedCredentialOptional = this
+                .getStoredCredential(userPublicKey);
+        if (!savedCredentialOptional.isPresent()) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
 
         final Credential savedCredential = savedCredentialOptional.get();
         savedCredential.setPrimary(credential.getPrimary());
         savedCredential.setSecondary(credential.getSecondary());
 
-        this.fillUpEncryptAndSaveCredential(userPublicKey, savedCredential, credential);
-
+        if (this.fillUpEncryptAndSaveCredential(userPublicKey, savedCredential, credential)) {
+            return Response.accepted().build();
+        }
         return Response.ok().build();
     }
 
+    @PATCH
+    @ApiOperation(
+        value = "Changes only the given fields of the credential stored under the given public key.",
+        notes = "Fields left out are kept as they are. The credential pair is only re-encrypted when the primary "
+                + "is sent, and then a missing secondary is removed, as the stored one can't be decrypted. "
+                + "If a version is sent and the stored credential has another one, 409 is returned along with "
+                + "the stored version. Returns the new version. The lease, if any, is kept as it is.")
+    @Consumes({ MediaType.APPLICATION_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE,
+            CBORMediaTypes.APPLICATION_JACKSON_CBOR })
+    @Timed
+    @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
+    public Response patchCredential(
+            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey,
+            @Valid @NotNull final CredentialPatch patch)
+            throws ExecutionException, InitializationException, NoSuchAlgorithmException,
+            IOException {
+        if (patch.getPrimary() == null && patch.getSecondary() != null) {
+            throw new WebApplicationException(
+                    "The secondary can only be changed along with the primary.", 422);
+        }
+        if (patch.getPrimary() != null && StringUtils.isBlank(patch.getPrimary())) {
+            throw new WebApplicationException("The primary can't be blank.", 422);
+        }
+
+        final Credential changes = Credential.builder().description(patch.getDescription())
+                .build();
+        if (patch.getPrimary() != null) {
+            this.cryptoExecutor.execute(() -> {
+                final EncryptionUtil cachedEncryptionUtil = this.publicKeyStore.get(userPublicKey);
+                final SecretKey symetricKey = cachedEncryptionUtil.generateSymmetricKey();
+                changes.setSymmetricKey(cachedEncryptionUtil.encrypt(symetricKey));
+                changes.setCipherSuite(cachedEncryptionUtil.getCipherSuite());
+                changes.setPrimary(
+                        cachedEncryptionUtil.encrypt(symetricKey, patch.getPrimary()).get());
+                changes.setSecondary(cachedEncryptionUtil
+                        .encrypt(symetricKey, patch.getSecondary()).orElse(null));
+                return changes;
+            });
+        }
+
+        final PatchResult result = this.credentialDAO.patch(userPublicKey, changes,
+                patch.getVersion());
+        switch (result.getStatus()) {
+        case NOT_FOUND:
+            return Response.status(Status.NOT_FOUND).build();
+        case CONFLICT:
+            return Response.status(Status.CONFLICT)
+                    .entity(Collections.singletonMap(VERSION_FIELD, result.getVersion()))
+                    .build();
+        default:
+            this.auditLog.record(Action.WRITE, Target.CREDENTIAL, userPublicKey);
+            return Response.ok(Collections.singletonMap(VERSION_FIELD, result.getVersion()))
+                    .build();
+        }
+    }
+
+    /**
+     * Rejects a new credential if the tenant of the request already stores as
+     * many as its quota allows. It's checked before the write, so concurrent
+     * writes can go slightly over it.
+     */
+    private void checkCredentialQuota() {
+        final Tenant tenant = TenantPool.getCurrent();
+        if (tenant != null && tenant.getMaxCredentials() != null
+                && this.credentialDAO.countCredentials() >= tenant.getMaxCredentials()) {
+            throw new WebApplicationException(
+                    String.format("The tenant quota of %d credentials is used up.",
+                            tenant.getMaxCredentials()),
+                    Status.FORBIDDEN);
+        }
+    }
+
+    /**
+     * Reads the credential about to be overwritten. If redis can't be reached
+     * and the write will be journaled, it's read from the local snapshot
+     * instead.
+     *
+     * @throws ServiceUnavailableException
+     *             Thrown if redis can't be reached and there's no local
+     *             snapshot to tell whether the credential exists.
+     */
+    private Optional<Credential> getStoredCredential(final String userPublicKey)
+            throws IOException {
+        try {
+            return this.credentialDAO.getCredentialByKey(userPublicKey);
+        } catch (final JedisConnectionException e) {
+            if (!this.credentialDAO.isJournalEnabled()) {
+                throw e;
+            }
+            // Otherwise the write would lose the creation date and the
+            // version of the stored credential.
+            if (!this.localSnapshot.isEnabled() || this.localSnapshot.getAgeSeconds() < 0L) {
+                throw new ServiceUnavailableException("No local snapshot to read from.");
+            }
+            return this.localSnapshot.getCredentialByKey(userPublicKey);
+        }
+    }
+
     /**
      * Will encrypt the given credential using the incoming credential data and
      * will save it to the database. It will generate new symmetric keys every
@@ -137,6 +372,8 @@ public class CredentialResource {
      * @param incomingCredential
      *            The incoming credential payload. It will be used as the source
      *            of data.
+     * @return {@code true} if the write was journaled, to be stored once redis
+     *         is back.
      * @throws NoSuchAlgorithmException
      *             Thrown if either AES or RSA algorithms are not available.
      * @throws InitializationException
@@ -145,52 +382,68 @@ public class CredentialResource {
      *             validating it beforehand, or if the data is too long to be
      *             encrypted, or if the padding data is incorrect.
      * @throws ExecutionException
-     *             Thrown if we fail to create the {@link EncryptionUtil} from
-     *             within the cache.
+     *             Thrown if the public key is invalid and we fail to create the
+     *             {@link EncryptionUtil}.
      * @throws IOException
      *             Thrown if the CredentialDAO fails to close the transaction.
+     * @throws ServiceUnavailableException
+     *             Thrown if the crypto pool is saturated.
      */
-    private void fillUpEncryptAndSaveCredential(final String userPublicKey,
+    private boolean fillUpEncryptAndSaveCredential(final String userPublicKey,
             final Credential credential, final Credential incomingCredential)
             throws InitializationException, ExecutionException, NoSuchAlgorithmException,
             IOException {
-        final EncryptionUtil cachedEncryptionUtil = this.getEncryptionUtilFromCache(userPublicKey);
-        final SecretKey symetricKey = cachedEncryptionUtil.generateSymmetricKey();
-
-        // Setting the values from incomingCredential into credential to ensure
-        // we update the entry, when a field is removed.
-        credential.setPrimary(incomingCredential.getPrimary());
-        credential.setSecondary(incomingCredential.getSecondary());
-
-        // The asymmetric key is stored as it is. At this point there is no
-        // security threat to store it like this.
-        credential.setKey(userPublicKey);
-        // The symmetric key is stored encrypted using the asymmetric public
-        // key. This can only be decrypted using the private keys, so not even
-        // us can decrypt it later.
-        credential.setSymmetricKey(cachedEncryptionUtil.encrypt(symetricKey));
-        cachedEncryptionUtil.encrypt(symetricKey, incomingCredential.getPrimary())
-                .ifPresent(encryptedPrimary -> credential.setPrimary(encryptedPrimary));
-        cachedEncryptionUtil.encrypt(symetricKey, incomingCredential.getSecondary())
-                .ifPresent(encryptedSecondary -> credential.setSecondary(encryptedSecondary));
-
-        this.credentialDAO.save(credential);
+        // Parsing the key and encrypting are CPU bound, so they run in the
+        // crypto pool, leaving the request threads free to serve reads.
+        this.cryptoExecutor.execute(() -> {
+            final EncryptionUtil cachedEncryptionUtil = this.publicKeyStore.get(userPublicKey);
+            final SecretKey symetricKey = cachedEncryptionUtil.generateSymmetricKey();
+
+            // Setting the values from incomingCredential into credential to
+            // ensure we update the entry, when a field is removed.
+            credential.setPrimary(incomingCredential.getPrimary());
+            credential.setSecondary(incomingCredential.getSecondary());
+
+            // The asymmetric key is stored as it is. At this point there is no
+            // security threat to store it like this.
+            credential.setKey(userPublicKey);
+            // The symmetric key is stored encrypted using the asymmetric public
+            // key. This can only be decrypted using the private keys, so not
+            // even us can decrypt it later.
+            credential.setSymmetricKey(cachedEncryptionUtil.encrypt(symetricKey));
+            // Records are always re-encrypted with the current default suite.
+            credential.setCipherSuite(cachedEncryptionUtil.getCipherSuite());
+            cachedEncryptionUtil.encrypt(symetricKey, incomingCredential.getPrimary())
+                    .ifPresent(encryptedPrimary -> credential.setPrimary(encryptedPrimary));
+            cachedEncryptionUtil.encrypt(symetricKey, incomingCredential.getSecondary())
+                    .ifPresent(encryptedSecondary -> credential.setSecondary(encryptedSecondary));
+            return credential;
+        });
+
+        final boolean journaled = this.credentialDAO.save(credential);
+        this.auditLog.record(Action.WRITE, Target.CREDENTIAL, userPublicKey);
+        return journaled;
     }
 
-    /**
-     * Retrieves an {@link EncryptionUtil} from the cache or creates a new one
-     * if it cannot be found.
-     *
-     * @param userPublicKey
-     *            The incoming user's public key.
-     * @return An {@link EncryptionUtil} ready to be used for encryption.
-     * @throws ExecutionException
-     *             Thrown if we can't create a new {@link EncryptionUtil}.
-     */
-    private EncryptionUtil getEncryptionUtilFromCache(final String userPublicKey)
-            throws ExecutionException {
-        return this.encryptionUtil.get(userPublicKey, () -> new EncryptionUtil(userPublicKey,
-                CredentialResource.this.configuration.getSymmetricKeySize()));
+    @POST
+    @Path("/lease")
+    @ApiOperation(
+        value = "Renews the lease of the credential stored under the given public key.",
+        notes = "Only the expiration is moved forward, by the given ttl in seconds or else by the lease own ttl. "
+                + "The credential is not re-encrypted.")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Timed
+    @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
+    public Response renewLease(@HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey,
+            @QueryParam("ttl") @Min(1) final Long ttl) throws IOException {
+        final Optional<Lease> lease = this.credentialDAO.renewLease(userPublicKey, ttl);
+        if (!lease.isPresent()) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        this.auditLog.record(Action.RENEW, Target.CREDENTIAL, userPublicKey);
+        return Response.ok(lease.get()).build();
     }
 
     @DELETE
@@ -198,9 +451,13 @@ public class CredentialResource {
     @Consumes(MediaType.APPLICATION_JSON)
     @Timed
     @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
     public Response deleteCredential(
-            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey) {
+            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String userPublicKey)
+            throws IOException {
         if (this.credentialDAO.deleteByKey(userPublicKey)) {
+            this.auditLog.record(Action.DELETE, Target.CREDENTIAL, userPublicKey);
             return Response.ok().build();
         } else {
             return Response.status(Status.NOT_FOUND).build();
@@ -0,0 +1,209 @@
+package com.github.mtakaki.credentialstorage.resources;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import javax.crypto.SecretKey;
+import javax.validation.Valid;
+import javax.validation.constraints.Pattern;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.annotation.JsonView;
+import com.github.mtakaki.credentialstorage.bulkhead.Bulkheaded;
+import com.github.mtakaki.credentialstorage.bulkhead.TrafficClass;
+import com.github.mtakaki.credentialstorage.database.GroupDAO;
+import com.github.mtakaki.credentialstorage.database.GroupDAO.SaveResult;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.CredentialGroup;
+import com.github.mtakaki.credentialstorage.database.model.view.UserView;
+import com.github.mtakaki.credentialstorage.encryption.EncryptionUtil;
+import com.github.mtakaki.credentialstorage.encryption.InitializationException;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
+import com.github.mtakaki.credentialstorage.limit.RateLimited;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.github.mtakaki.dropwizard.circuitbreaker.jersey.CircuitBreaker;
+import com.google.common.base.Optional;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+
+/**
+ * Resource that handles the credential groups, a credential pair shared by
+ * many public keys.
+ *
+ * <p>
+ * The credential pair is encrypted once, and only its symmetric key is
+ * encrypted for each member, so storing and rotating a group costs its
+ * payload once plus an encrypted symmetric key per member, instead of a full
+ * credential per member. Members read it in the same format as their own
+ * credential.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@Path("/credential/group/{name}")
+@Api("/credential/group")
+@Produces(MediaType.APPLICATION_JSON)
+@RateLimited
+@AllArgsConstructor
+@PetiteBean
+public class GroupResource {
+    private static final String GROUP_PATH = "/credential/group/";
+    private static final String PUBLIC_KEY_HEADER = "X-Auth-RSA";
+    // No colons, so the names don't clash with the keys of other groups.
+    private static final String NAME_PATTERN = "[A-Za-z0-9_.-]{1,64}";
+
+    private final GroupDAO groupDAO;
+    private final PublicKeyStore publicKeyStore;
+    private final CryptoExecutor cryptoExecutor;
+    private final AuditLog auditLog;
+
+    @GET
+    @ApiOperation(
+        value = "Retrieves the group credential pair for the given member public key",
+        notes = "Returns the shared credential pair and its symetrical key, encrypted using the given "
+                + "assymetrical public key, as the credentials are. Returns 404 if the key is not a member. "
+                + "GET /credential also returns it to members without a credential of their own. "
+                + "It's sent with an ETag, and 304 is returned if it matches If-None-Match.")
+    @Timed
+    @CircuitBreaker
+    @Bulkheaded(TrafficClass.READ)
+    @ConcurrencyLimited(Priority.HIGH)
+    @JsonView(UserView.class)
+    public Response getByMember(@PathParam("name") @Pattern(regexp = NAME_PATTERN) final String name,
+            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String memberPublicKey,
+            @Context final Request request) throws IOException {
+        final Optional<Credential> credential = this.groupDAO.getCredentialForMember(name,
+                memberPublicKey);
+        if (!credential.isPresent()) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        this.auditLog.record(Action.READ, Target.GROUP, memberPublicKey);
+        final EntityTag entityTag = CredentialResource.entityTag(credential.get());
+        final ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(credential.get()).tag(entityTag).build();
+    }
+
+    @PUT
+    @ApiOperation(
+        value = "Stores the given credential pair for all the given member public keys.",
+        notes = "The credential pair is encrypted once, using a symmetric algorithm, and the symmetrical key "
+                + "is encrypted using each member assymetrical public key. "
+                + "The group and all its members are replaced at once, and only the public key that created "
+                + "the group can replace it, otherwise 403 is returned.")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Timed
+    @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
+    public Response storeGroup(@PathParam("name") @Pattern(regexp = NAME_PATTERN) final String name,
+            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String ownerPublicKey,
+            @Valid final CredentialGroup group)
+            throws ExecutionException, NoSuchAlgorithmException, InitializationException {
+        group.setName(name);
+        group.setOwner(KeyDigest.of(ownerPublicKey));
+        final Map<String, String> symmetricKeys = this.encrypt(ownerPublicKey, group);
+
+        final SaveResult result = this.groupDAO.save(group, symmetricKeys);
+        if (result == SaveResult.FORBIDDEN) {
+            return Response.status(Status.FORBIDDEN).build();
+        }
+        this.auditLog.record(Action.WRITE, Target.GROUP, ownerPublicKey);
+        return result == SaveResult.CREATED
+                ? Response.created(URI.create(GROUP_PATH + name)).build()
+                : Response.ok().build();
+    }
+
+    /**
+     * Encrypts the credential pair of the group with a new symmetric key, and
+     * the symmetric key with each member public key, in the crypto pool.
+     *
+     * @return The encrypted symmetric key of each member, by its public key.
+     */
+    private Map<String, String> encrypt(final String ownerPublicKey,
+            final CredentialGroup group)
+            throws InitializationException, NoSuchAlgorithmException, ExecutionException {
+        return this.cryptoExecutor.execute(() -> {
+            final EncryptionUtil ownerEncryptionUtil = this.publicKeyStore.get(ownerPublicKey);
+            final SecretKey symmetricKey = ownerEncryptionUtil.generateSymmetricKey();
+            group.setCipherSuite(ownerEncryptionUtil.getCipherSuite());
+            group.setPrimary(ownerEncryptionUtil.encrypt(symmetricKey, group.getPrimary())
+                    .orElse(null));
+            group.setSecondary(ownerEncryptionUtil.encrypt(symmetricKey, group.getSecondary())
+                    .orElse(null));
+
+            final List<String> members = group.getMembers();
+            final Map<String, String> symmetricKeys = new HashMap<>(members.size());
+            for (int i = 0; i < members.size(); i++) {
+                final EncryptionUtil memberEncryptionUtil;
+                try {
+                    memberEncryptionUtil = this.publicKeyStore.get(members.get(i));
+                } catch (final ExecutionException e) {
+                    throw new WebApplicationException(
+                            String.format("Member %d has an invalid public key.", i), 422);
+                }
+                symmetricKeys.put(members.get(i), memberEncryptionUtil.encrypt(symmetricKey));
+            }
+            return symmetricKeys;
+        });
+    }
+
+    @DELETE
+    @ApiOperation(
+        value = "Deletes a credential group and all its members.",
+        notes = "Only the public key that created the group can delete it, otherwise 403 is returned.")
+    @Timed
+    @CircuitBreaker
+    @Bulkheaded(TrafficClass.WRITE)
+    @ConcurrencyLimited(Priority.LOW)
+    public Response deleteGroup(
+            @PathParam("name") @Pattern(regexp = NAME_PATTERN) final String name,
+            @HeaderParam(PUBLIC_KEY_HEADER) @NotEmpty final String ownerPublicKey) {
+        final Optional<CredentialGroup> group = this.groupDAO.getGroup(name);
+        if (!group.isPresent()) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        if (!KeyDigest.of(ownerPublicKey).equals(group.get().getOwner())) {
+            return Response.status(Status.FORBIDDEN).build();
+        }
+        this.groupDAO.delete(name);
+        this.auditLog.record(Action.DELETE, Target.GROUP, ownerPublicKey);
+        return Response.ok().build();
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.mtakaki.credentialstorage.resources;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import javax.ws.rs.HttpMethod;
+
+/**
+ * Marks the methods handling {@code PATCH} requests, which JAX-RS 2.0 doesn't
+ * provide.
+ *
+ * @author mtakaki
+ *
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@HttpMethod("PATCH")
+@Documented
+public @interface PATCH {
+}
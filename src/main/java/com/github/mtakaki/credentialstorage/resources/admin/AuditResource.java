@@ -1,37 +1,100 @@
 package com.github.mtakaki.credentialstorage.resources.admin;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
+import com.github.mtakaki.credentialstorage.bulkhead.Bulkheaded;
+import com.github.mtakaki.credentialstorage.bulkhead.TrafficClass;
+import com.github.mtakaki.credentialstorage.database.AuditEventDAO;
+import com.github.mtakaki.credentialstorage.database.AuditStatsDAO;
 import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.model.AuditEventPage;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap.Granularity;
+import com.github.mtakaki.credentialstorage.database.model.CatalogueStats;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
 
 import jodd.petite.meta.PetiteBean;
 import lombok.AllArgsConstructor;
 
 @Path("/audit")
+@Bulkheaded(TrafficClass.ADMIN)
+@ConcurrencyLimited(Priority.LOW)
 @Consumes
 @Produces(MediaType.APPLICATION_JSON)
 @PetiteBean
 @AllArgsConstructor
 public class AuditResource {
+    private static final int MAX_EVENTS_PER_PAGE = 1000;
+    // A day of minutes, which keeps the pipeline reply small. The minute
+    // buckets are kept as long by default.
+    private static final long MAX_HEATMAP_BUCKETS = 1440L;
+
     private final CredentialDAO credentialDAO;
+    private final AuditEventDAO auditEventDAO;
+    private final AuditStatsDAO auditStatsDAO;
 
     @GET
-    public List<String> listKeys() {
+    public List<String> listKeys() throws IOException {
         return this.credentialDAO.getAllCredentialsKey();
     }
 
+    /**
+     * How many credentials there are, how large they are, when they were
+     * created and when they were last accessed, without reading them.
+     */
+    @GET
+    @Path("/stats")
+    public CatalogueStats getStats() {
+        return this.credentialDAO.getStatistics(System.currentTimeMillis() / 1000L);
+    }
+
     @GET
     @Path("/last_accessed")
     public Set<String> getLastAccessedBy(@QueryParam("timestamp") final long unixTimestamp) {
         return this.credentialDAO.getCredentialKeysAccessedSince(unixTimestamp,
                 System.currentTimeMillis() / 1000L);
     }
+
+    @GET
+    @Path("/events")
+    public AuditEventPage getEvents(@QueryParam("cursor") @DefaultValue("0") final long cursor,
+            @QueryParam("count") @DefaultValue("100") @Min(1) @Max(MAX_EVENTS_PER_PAGE) final int count) {
+        return this.auditEventDAO.getEvents(cursor, count);
+    }
+
+    /**
+     * Requests and distinct callers per minute or per hour. The range
+     * defaults to the last hour and the times are UNIX timestamps in seconds.
+     */
+    @GET
+    @Path("/heatmap")
+    public AuditHeatmap getHeatmap(
+            @QueryParam("granularity") @DefaultValue("MINUTE") final Granularity granularity,
+            @QueryParam("from") final Long from, @QueryParam("to") final Long to,
+            @QueryParam("key_digest") final String keyDigest) throws IOException {
+        final long end = to == null ? System.currentTimeMillis() / 1000L : to;
+        final long start = from == null ? end - 3600L : from;
+        if (start > end) {
+            throw new BadRequestException("from must not be after to");
+        }
+        if ((end - granularity.bucketOf(start)) / granularity.getSeconds() >= MAX_HEATMAP_BUCKETS) {
+            throw new BadRequestException(
+                    String.format("The range must have at most %d buckets", MAX_HEATMAP_BUCKETS));
+        }
+        return this.auditStatsDAO.getHeatmap(granularity, start, end, keyDigest);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.github.mtakaki.credentialstorage.resources.admin;
+
+import java.util.Collection;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders.Selection;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+
+/**
+ * Reports the JCA providers chosen at startup, with the self-test and
+ * benchmark results of every candidate.
+ */
+@Path("/crypto/providers")
+@Consumes
+@Produces(MediaType.APPLICATION_JSON)
+@PetiteBean
+@AllArgsConstructor
+public class CryptoProviderResource {
+    private final CryptoProviders cryptoProviders;
+
+    @GET
+    public Collection<Selection> getSelections() {
+        return this.cryptoProviders.getSelections();
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.mtakaki.credentialstorage.resources.admin;
+
+import java.util.List;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import com.github.mtakaki.credentialstorage.limit.RateLimiter;
+import com.github.mtakaki.credentialstorage.limit.RateLimiter.Rejections;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+
+/**
+ * Reports the public keys with the most requests rejected by their rate
+ * limit, by fingerprint.
+ */
+@Path("/rate-limits")
+@Consumes
+@Produces(MediaType.APPLICATION_JSON)
+@PetiteBean
+@AllArgsConstructor
+public class RateLimitResource {
+    private static final int MAX_KEYS = 1000;
+
+    private final RateLimiter rateLimiter;
+
+    @GET
+    public List<Rejections> getTopRejections(
+            @QueryParam("count") @DefaultValue("20") @Min(1) @Max(MAX_KEYS) final int count) {
+        return this.rateLimiter.getTopRejections(count);
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.mtakaki.credentialstorage.resources.admin;
+
+import java.io.IOException;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import com.github.mtakaki.credentialstorage.bulkhead.Bulkheaded;
+import com.github.mtakaki.credentialstorage.bulkhead.TrafficClass;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.model.DescriptionPage;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+
+@Path("/search")
+@Bulkheaded(TrafficClass.ADMIN)
+@ConcurrencyLimited(Priority.LOW)
+@Consumes
+@Produces(MediaType.APPLICATION_JSON)
+@PetiteBean
+@AllArgsConstructor
+public class SearchResource {
+    private static final int MAX_ENTRIES_PER_PAGE = 1000;
+
+    private final CredentialDAO credentialDAO;
+
+    /**
+     * Credentials whose description starts with the given prefix, in
+     * description order. Pages are fetched with the cursor returned by the
+     * previous one.
+     */
+    @GET
+    @Path("/description")
+    public DescriptionPage searchDescriptions(
+            @QueryParam("prefix") @DefaultValue("") final String prefix,
+            @QueryParam("cursor") final String cursor,
+            @QueryParam("count") @DefaultValue("100") @Min(1) @Max(MAX_ENTRIES_PER_PAGE) final int count)
+            throws IOException {
+        try {
+            return this.credentialDAO.searchDescriptions(prefix, cursor, count);
+        } catch (final IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+    }
+}
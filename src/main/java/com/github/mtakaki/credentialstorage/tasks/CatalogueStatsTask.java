@@ -0,0 +1,78 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import java.io.PrintWriter;
+
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.IndexBatch;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.RateLimiter;
+
+import io.dropwizard.servlets.tasks.Task;
+
+import jodd.petite.meta.PetiteBean;
+
+/**
+ * Admin task that counts the credentials again to rebuild the catalogue
+ * statistics. The writes keep them up to date, so it's only needed once for
+ * the credentials written before they existed. Batches are throttled, but the
+ * writes made while it runs are not counted, so it's best run when the
+ * service is quiet. It goes through the default namespace and then through
+ * each tenant, whose count is prefixed with its name.
+ *
+ * <pre>
+ * POST /tasks/recount-catalogue-stats?batchSize=100&amp;batchesPerSecond=10
+ * </pre>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+public class CatalogueStatsTask extends Task {
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final double DEFAULT_BATCHES_PER_SECOND = 10.0;
+
+    private final CredentialDAO credentialDAO;
+    private final TenantPool tenantPool;
+
+    public CatalogueStatsTask(final CredentialDAO credentialDAO, final TenantPool tenantPool) {
+        super("recount-catalogue-stats");
+        this.credentialDAO = credentialDAO;
+        this.tenantPool = tenantPool;
+    }
+
+    @Override
+    public void execute(final ImmutableMultimap<String, String> parameters,
+            final PrintWriter output) throws Exception {
+        final int batchSize = parameters.get("batchSize").stream().findFirst()
+                .map(Integer::parseInt).orElse(DEFAULT_BATCH_SIZE);
+        final RateLimiter rateLimiter = RateLimiter.create(parameters.get("batchesPerSecond")
+                .stream().findFirst().map(Double::parseDouble).orElse(DEFAULT_BATCHES_PER_SECOND));
+
+        for (final Tenant tenant : this.tenantPool.getNamespaces()) {
+            final long counted = TenantPool.call(tenant,
+                    () -> this.recount(batchSize, rateLimiter));
+            output.printf("%sCounted %d credentials%n",
+                    tenant == null ? "" : String.format("[%s] ", tenant.getName()), counted);
+        }
+    }
+
+    /**
+     * Recounts the namespace of the current thread.
+     *
+     * @return How many credentials were counted.
+     */
+    private long recount(final int batchSize, final RateLimiter rateLimiter) {
+        long counted = 0L;
+        IndexBatch batch;
+        String cursor = "0";
+        do {
+            rateLimiter.acquire();
+            batch = this.credentialDAO.recountStatistics(cursor, batchSize);
+            counted += batch.getMatched();
+            cursor = batch.getCursor();
+        } while (!batch.isDone());
+        return counted;
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.BatchConsumer;
+import com.github.mtakaki.credentialstorage.database.backup.BackupFile;
+import com.github.mtakaki.credentialstorage.database.cold.ColdRecord;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.servlets.tasks.Task;
+
+import jodd.petite.meta.PetiteBean;
+import redis.clients.jedis.ScanParams;
+
+/**
+ * Admin task that writes all the credentials, along with their audit sorted
+ * sets scores, to a {@link BackupFile} on the server local disk. Only the
+ * credential records are included, unlike a redis RDB file.
+ *
+ * <pre>
+ * POST /tasks/backup-credentials?file=/backups/credentials.gz&amp;batchSize=500&amp;inFlight=4
+ * </pre>
+ *
+ * <p>
+ * Records are read by scanning redis, each batch atomically with its scores,
+ * followed by the ones in the cold tier. Compressing and writing the batches
+ * runs in another thread, with at most {@code inFlight} batches read ahead.
+ * Records still in the legacy layout are migrated first, so they are included.
+ * The backup is written to a temporary file, moved in place once complete.
+ * Records written while the backup runs may or may not be included, and a
+ * record moved between redis and the cold tier while it runs may be missed.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+public class CredentialBackupTask extends Task {
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_IN_FLIGHT = 4;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final long WRITER_TIMEOUT_SECONDS = 10L;
+    // Tells the writer there are no more batches.
+    private static final List<ColdRecord> END = Collections.emptyList();
+
+    private final CredentialDAO credentialDAO;
+
+    public CredentialBackupTask(final CredentialDAO credentialDAO) {
+        super("backup-credentials");
+        this.credentialDAO = credentialDAO;
+    }
+
+    @Override
+    public void execute(final ImmutableMultimap<String, String> parameters,
+            final PrintWriter output) throws Exception {
+        final Path file = Paths.get(parameters.get("file").stream().findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("The file is missing.")));
+        final int batchSize = parameters.get("batchSize").stream().findFirst()
+                .map(Integer::parseInt).orElse(DEFAULT_BATCH_SIZE);
+        final int inFlight = parameters.get("inFlight").stream().findFirst()
+                .map(Integer::parseInt).orElse(DEFAULT_IN_FLIGHT);
+
+        this.credentialDAO.migrateLegacyKeys(batchSize);
+        final long startedAt = System.nanoTime();
+        final long records = this.backup(file, batchSize, inFlight);
+        final double seconds = (System.nanoTime() - startedAt) / 1e9;
+        output.printf("Backed up %d credentials to %s in %.1fs (%.0f records/s)%n", records,
+                file, seconds, records / seconds);
+    }
+
+    long backup(final Path file, final int batchSize, final int inFlight)
+            throws IOException, InterruptedException {
+        final Path temporaryFile = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+        final BlockingQueue<List<ColdRecord>> batches = new ArrayBlockingQueue<>(inFlight);
+        final ExecutorService writerExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("credential-backup-%d")
+                        .setDaemon(true).build());
+        try {
+            final Future<Long> written = writerExecutor.submit(() -> {
+                try (OutputStream stream = Files.newOutputStream(temporaryFile);
+                        BackupFile.Writer writer = new BackupFile.Writer(stream)) {
+                    List<ColdRecord> batch;
+                    while ((batch = batches.take()) != END) {
+                        writer.append(batch);
+                    }
+                    writer.finish();
+                    return writer.getRecords();
+                }
+            });
+            final BatchConsumer enqueue = batch -> this.enqueue(batches, batch, written);
+
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                cursor = this.credentialDAO.exportCredentials(cursor, batchSize, enqueue);
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+            this.credentialDAO.exportColdCredentials(batchSize, enqueue);
+            this.enqueue(batches, END, written);
+
+            final long records = written.get();
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            return records;
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to write the backup.", e.getCause());
+        } finally {
+            writerExecutor.shutdownNow();
+            // The writer may still be creating the file.
+            writerExecutor.awaitTermination(WRITER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Hands a batch to the writer, waiting while it's behind, unless it
+     * failed.
+     */
+    private void enqueue(final BlockingQueue<List<ColdRecord>> batches,
+            final List<ColdRecord> batch, final Future<Long> written) throws IOException {
+        try {
+            while (!batches.offer(batch, 1L, TimeUnit.SECONDS)) {
+                if (written.isDone()) {
+                    written.get();
+                    throw new IOException("The backup writer stopped.");
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Backup interrupted.");
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to write the backup.", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.backup.BackupFile;
+import com.github.mtakaki.credentialstorage.database.cold.ColdRecord;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.dropwizard.servlets.tasks.Task;
+
+import jodd.petite.meta.PetiteBean;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Admin task that loads the credentials from a {@link BackupFile} back into
+ * redis, along with their audit sorted sets scores and leases.
+ *
+ * <pre>
+ * POST /tasks/restore-credentials?file=/backups/credentials.gz&amp;threads=4
+ * </pre>
+ *
+ * <p>
+ * The backup is read and verified in the task thread, one batch at a time, and
+ * each batch is written by one of {@code threads} workers in a single
+ * pipeline. A credential written since the backup is kept as it is, and the
+ * ones whose lease expired since then are skipped. A corrupted or incomplete
+ * backup stops the restore at the first bad batch, leaving the batches before
+ * it restored.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+public class CredentialRestoreTask extends Task {
+    private static final int DEFAULT_THREADS = 4;
+
+    private final CredentialDAO credentialDAO;
+
+    public CredentialRestoreTask(final CredentialDAO credentialDAO) {
+        super("restore-credentials");
+        this.credentialDAO = credentialDAO;
+    }
+
+    @Override
+    public void execute(final ImmutableMultimap<String, String> parameters,
+            final PrintWriter output) throws Exception {
+        final Path file = Paths.get(parameters.get("file").stream().findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("The file is missing.")));
+        final int threads = parameters.get("threads").stream().findFirst()
+                .map(Integer::parseInt).orElse(DEFAULT_THREADS);
+
+        final long startedAt = System.nanoTime();
+        final Result result = this.restore(file, threads);
+        final double seconds = (System.nanoTime() - startedAt) / 1e9;
+        output.printf("Restored %d of %d credentials from %s in %.1fs (%.0f records/s)%n",
+                result.getRestored(), result.getRead(), file, seconds,
+                result.getRead() / seconds);
+    }
+
+    Result restore(final Path file, final int threads) throws IOException, InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("credential-restore-%d")
+                        .setDaemon(true).build());
+        // Bounds the batches read ahead of the workers.
+        final Semaphore inFlight = new Semaphore(threads * 2);
+        final List<Future<Long>> restored = new ArrayList<>();
+        try (InputStream stream = Files.newInputStream(file);
+                BackupFile.Reader reader = new BackupFile.Reader(stream)) {
+            List<ColdRecord> batch;
+            while ((batch = reader.next()) != null) {
+                final List<ColdRecord> records = batch;
+                inFlight.acquire();
+                restored.add(workers.submit(() -> {
+                    try {
+                        return this.credentialDAO.restoreCredentials(records);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            long restoredRecords = 0L;
+            for (final Future<Long> batchRestored : restored) {
+                restoredRecords += batchRestored.get();
+            }
+            return new Result(reader.getRecords(), restoredRecords);
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to restore the backup.", e.getCause());
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * How many records were read from the backup and how many were stored.
+     */
+    @Getter
+    @AllArgsConstructor
+    static class Result {
+        private final long read;
+        private final long restored;
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.IndexBatch;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.RateLimiter;
+
+import io.dropwizard.servlets.tasks.Task;
+
+import jodd.petite.meta.PetiteBean;
+
+/**
+ * Admin task that rebuilds the description index used by the description
+ * search. It adds the description of every credential in redis, which is
+ * needed once for the credentials written before the index existed, and then
+ * removes the entries left behind by expired leases and idle credentials.
+ * It goes through the default namespace and then through each tenant, whose
+ * lines are prefixed with its name. Batches are throttled, so it can run
+ * while the service takes traffic.
+ *
+ * <pre>
+ * POST /tasks/rebuild-description-index?batchSize=100&amp;batchesPerSecond=10
+ * </pre>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+public class DescriptionIndexTask extends Task {
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final double DEFAULT_BATCHES_PER_SECOND = 10.0;
+
+    private final CredentialDAO credentialDAO;
+    private final TenantPool tenantPool;
+
+    public DescriptionIndexTask(final CredentialDAO credentialDAO, final TenantPool tenantPool) {
+        super("rebuild-description-index");
+        this.credentialDAO = credentialDAO;
+        this.tenantPool = tenantPool;
+    }
+
+    @Override
+    public void execute(final ImmutableMultimap<String, String> parameters,
+            final PrintWriter output) throws Exception {
+        final int batchSize = parameters.get("batchSize").stream().findFirst()
+                .map(Integer::parseInt).orElse(DEFAULT_BATCH_SIZE);
+        final RateLimiter rateLimiter = RateLimiter.create(parameters.get("batchesPerSecond")
+                .stream().findFirst().map(Double::parseDouble).orElse(DEFAULT_BATCHES_PER_SECOND));
+
+        for (final Tenant tenant : this.tenantPool.getNamespaces()) {
+            final String prefix = tenant == null ? "" : String.format("[%s] ", tenant.getName());
+            TenantPool.call(tenant, () -> {
+                this.rebuild(batchSize, rateLimiter, prefix, output);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Rebuilds the index of the namespace of the current thread.
+     */
+    private void rebuild(final int batchSize, final RateLimiter rateLimiter, final String prefix,
+            final PrintWriter output) throws IOException {
+        long scanned = 0L;
+        long indexed = 0L;
+        IndexBatch batch;
+        String cursor = "0";
+        do {
+            rateLimiter.acquire();
+            batch = this.credentialDAO.indexDescriptions(cursor, batchSize);
+            scanned += batch.getScanned();
+            indexed += batch.getMatched();
+            cursor = batch.getCursor();
+        } while (!batch.isDone());
+        output.printf("%sIndexed %d of %d credentials%n", prefix, indexed, scanned);
+
+        long checked = 0L;
+        long removed = 0L;
+        cursor = null;
+        do {
+            rateLimiter.acquire();
+            batch = this.credentialDAO.removeStaleDescriptions(cursor, batchSize);
+            checked += batch.getScanned();
+            removed += batch.getMatched();
+            cursor = batch.getCursor();
+        } while (!batch.isDone());
+        output.printf("%sRemoved %d of %d index entries%n", prefix, removed, checked);
+    }
+}
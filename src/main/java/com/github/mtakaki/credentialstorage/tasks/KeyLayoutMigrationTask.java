@@ -0,0 +1,43 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import java.io.PrintWriter;
+
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.google.common.collect.ImmutableMultimap;
+
+import io.dropwizard.servlets.tasks.Task;
+
+import jodd.petite.meta.PetiteBean;
+
+/**
+ * Admin task that moves all the credentials still stored in the legacy layout,
+ * keyed by the full public key, to the digest based layout. Records are also
+ * migrated when they are accessed, so this task is only needed to reclaim the
+ * memory of the credentials that are rarely used.
+ *
+ * <pre>
+ * POST /tasks/migrate-key-layout?batchSize=100
+ * </pre>
+ *
+ * @author mtakaki
+ *
+ */
+@PetiteBean
+public class KeyLayoutMigrationTask extends Task {
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final CredentialDAO credentialDAO;
+
+    public KeyLayoutMigrationTask(final CredentialDAO credentialDAO) {
+        super("migrate-key-layout");
+        this.credentialDAO = credentialDAO;
+    }
+
+    @Override
+    public void execute(final ImmutableMultimap<String, String> parameters,
+            final PrintWriter output) throws Exception {
+        final int batchSize = parameters.get("batchSize").stream().findFirst()
+                .map(Integer::parseInt).orElse(DEFAULT_BATCH_SIZE);
+        output.printf("Migrated %d credentials%n", this.credentialDAO.migrateLegacyKeys(batchSize));
+    }
+}
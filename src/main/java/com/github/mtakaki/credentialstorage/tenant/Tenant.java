@@ -0,0 +1,116 @@
+package com.github.mtakaki.credentialstorage.tenant;
+
+import java.net.URI;
+import java.util.concurrent.Semaphore;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.mtakaki.credentialstorage.configuration.TenantConfiguration;
+
+import lombok.Getter;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
+import redis.clients.util.JedisURIHelper;
+
+/**
+ * A team sharing the service, with its keys in a redis database of its own
+ * and its own connections to it, so a busy tenant can only use up its own
+ * connections. Its requests are timed and counted apart, and can be capped,
+ * to tell which tenants are the heavy ones and size them on their own.
+ *
+ * @author mtakaki
+ *
+ */
+public class Tenant {
+    @Getter
+    private final String name;
+    @Getter
+    private final JedisPool pool;
+    // How many credentials it can store, or null if it's unlimited.
+    @Getter
+    private final Long maxCredentials;
+    // Null if the concurrent requests are unlimited.
+    private final Semaphore permits;
+    private final Timer requestsTimer;
+    private final Meter rejectedMeter;
+    private final Meter errorsMeter;
+
+    public Tenant(final String name, final TenantConfiguration configuration,
+            final URI defaultUri, final MetricRegistry metricRegistry) {
+        this.name = name;
+        final URI uri = getUri(configuration, defaultUri);
+        this.pool = new JedisPool(configuration.getPoolConfig(), uri.getHost(), getPort(uri),
+                Protocol.DEFAULT_TIMEOUT, JedisURIHelper.getPassword(uri),
+                configuration.getDatabase());
+        this.maxCredentials = configuration.getMaxCredentials();
+        this.permits = configuration.getMaxConcurrent() == null ? null
+                : new Semaphore(configuration.getMaxConcurrent());
+        this.requestsTimer = metricRegistry
+                .timer(MetricRegistry.name(Tenant.class, name, "requests"));
+        this.rejectedMeter = metricRegistry
+                .meter(MetricRegistry.name(Tenant.class, name, "rejected"));
+        this.errorsMeter = metricRegistry.meter(MetricRegistry.name(Tenant.class, name, "errors"));
+        if (this.permits != null) {
+            final int maxConcurrent = configuration.getMaxConcurrent();
+            metricRegistry.register(MetricRegistry.name(Tenant.class, name, "active"),
+                    (Gauge<Integer>) () -> maxConcurrent - this.permits.availablePermits());
+        }
+        metricRegistry.register(MetricRegistry.name(Tenant.class, name, "pool-active"),
+                (Gauge<Integer>) this.pool::getNumActive);
+        metricRegistry.register(MetricRegistry.name(Tenant.class, name, "pool-idle"),
+                (Gauge<Integer>) this.pool::getNumIdle);
+        metricRegistry.register(MetricRegistry.name(Tenant.class, name, "pool-waiters"),
+                (Gauge<Integer>) this.pool::getNumWaiters);
+    }
+
+    /**
+     * The redis server holding the keys of the tenant with the given settings.
+     */
+    static URI getUri(final TenantConfiguration configuration, final URI defaultUri) {
+        return configuration.getUrl() == null ? defaultUri : URI.create(configuration.getUrl());
+    }
+
+    static int getPort(final URI uri) {
+        return uri.getPort() == -1 ? Protocol.DEFAULT_PORT : uri.getPort();
+    }
+
+    /**
+     * Takes a turn for a request of this tenant, without waiting. If it's
+     * taken, it must be followed by {@link #release()}.
+     *
+     * @return {@code false} if the tenant is already running as many requests
+     *         as it's allowed to.
+     */
+    public boolean tryAcquire() {
+        if (this.permits == null || this.permits.tryAcquire()) {
+            return true;
+        }
+        this.rejectedMeter.mark();
+        return false;
+    }
+
+    /**
+     * Gives the turn to the next request.
+     */
+    public void release() {
+        if (this.permits != null) {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Starts timing a request of this tenant.
+     */
+    public Timer.Context time() {
+        return this.requestsTimer.time();
+    }
+
+    /**
+     * Counts a request of this tenant that failed on our side.
+     */
+    public void markError() {
+        this.errorsMeter.mark();
+    }
+}
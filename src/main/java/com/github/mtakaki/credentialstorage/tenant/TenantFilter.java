@@ -0,0 +1,102 @@
+package com.github.mtakaki.credentialstorage.tenant;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
+
+import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Serves each request in the namespace of its tenant, named in the
+ * {@code X-Tenant} header or in the path, as {@code /tenant/<name>/...},
+ * which is then matched as if the prefix wasn't there. Requests naming no
+ * tenant are served from the default namespace.
+ *
+ * <p>
+ * Requests naming an unknown tenant get a {@code 404 Not Found}, and requests
+ * over the concurrency quota of their tenant get a
+ * {@code 429 Too Many Requests}, before anything else is done for them.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+@PreMatching
+@Priority(Priorities.AUTHENTICATION)
+@AllArgsConstructor
+public class TenantFilter implements ContainerRequestFilter, ContainerResponseFilter {
+    public static final String TENANT_HEADER = "X-Tenant";
+    private static final String PATH_PREFIX = "tenant/";
+    private static final String TENANT_PROPERTY = Tenant.class.getName();
+    private static final String TIMER_PROPERTY = Timer.Context.class.getName();
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final TenantPool tenantPool;
+
+    @Override
+    public void filter(final ContainerRequestContext requestContext) {
+        final String header = requestContext.getHeaderString(TENANT_HEADER);
+        String name = header;
+        final UriInfo uriInfo = requestContext.getUriInfo();
+        final String path = uriInfo.getPath(false);
+        if (path.startsWith(PATH_PREFIX)) {
+            final int end = path.indexOf('/', PATH_PREFIX.length());
+            name = path.substring(PATH_PREFIX.length(), end < 0 ? path.length() : end);
+            requestContext.setRequestUri(uriInfo.getRequestUriBuilder()
+                    .replacePath(uriInfo.getBaseUri().getRawPath()
+                            + (end < 0 ? "" : path.substring(end + 1)))
+                    .build());
+            if (header != null && !header.equals(name)) {
+                requestContext.abortWith(Response.status(Status.BAD_REQUEST)
+                        .entity("The tenant header doesn't match the path.").build());
+                return;
+            }
+        }
+        if (name == null) {
+            return;
+        }
+
+        final Optional<Tenant> tenant = this.tenantPool.getTenant(name);
+        if (!tenant.isPresent()) {
+            requestContext.abortWith(
+                    Response.status(Status.NOT_FOUND).entity("Unknown tenant.").build());
+            return;
+        }
+        if (!tenant.get().tryAcquire()) {
+            requestContext.abortWith(Response.status(TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, 1).build());
+            return;
+        }
+        requestContext.setProperty(TENANT_PROPERTY, tenant.get());
+        requestContext.setProperty(TIMER_PROPERTY, tenant.get().time());
+        TenantPool.enter(tenant.get());
+    }
+
+    @Override
+    public void filter(final ContainerRequestContext requestContext,
+            final ContainerResponseContext responseContext) {
+        // Rejected requests also get here, without a tenant to leave.
+        final Tenant tenant = (Tenant) requestContext.getProperty(TENANT_PROPERTY);
+        if (tenant == null) {
+            return;
+        }
+        requestContext.removeProperty(TENANT_PROPERTY);
+        TenantPool.exit();
+        ((Timer.Context) requestContext.getProperty(TIMER_PROPERTY)).stop();
+        if (responseContext.getStatus() >= Status.INTERNAL_SERVER_ERROR.getStatusCode()) {
+            tenant.markError();
+        }
+        tenant.release();
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.mtakaki.credentialstorage.tenant;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TenantConfiguration;
+import com.github.mtakaki.credentialstorage.database.ConnectionProvider;
+import com.google.common.base.Optional;
+
+import io.dropwizard.lifecycle.Managed;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.JedisURIHelper;
+
+/**
+ * Hands out connections to the database of the tenant the current thread is
+ * serving, or from the default provider when it's not serving a tenant. The
+ * background jobs serving the tenants go through each of them with
+ * {@link #run(Tenant, Runnable)}. The DAOs are given this pool, so the same
+ * keys are kept in a database of their own for each tenant, along with their
+ * sorted sets, indexes and audit log, without the DAOs knowing which tenant
+ * they serve.
+ *
+ * <p>
+ * A connection is returned to the pool it came from when it's closed.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class TenantPool implements ConnectionProvider, Managed {
+    // Also used in the paths, as /tenant/<name>/credential.
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.-]{1,64}");
+    private static final String DEFAULT_NAMESPACE = "the default namespace";
+    private static final ThreadLocal<Tenant> CURRENT = new ThreadLocal<>();
+
+    /**
+     * A task run in the namespace of a tenant, throwing only what it declares.
+     */
+    @FunctionalInterface
+    public interface TenantTask<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private final ConnectionProvider defaultProvider;
+    private final Map<String, Tenant> tenants = new HashMap<>();
+
+    /**
+     * Connects to the databases of the configured tenants.
+     *
+     * @throws IllegalArgumentException
+     *             Thrown if a tenant name can't be used in a path, or if two
+     *             tenants, or a tenant and the default namespace, share a
+     *             database.
+     */
+    public TenantPool(final RedisConfiguration configuration,
+            final ConnectionProvider defaultProvider, final MetricRegistry metricRegistry) {
+        this.defaultProvider = defaultProvider;
+        final URI defaultUri = URI.create(configuration.getUrl());
+        final Map<String, String> databases = new HashMap<>();
+        databases.put(getDatabase(defaultUri, JedisURIHelper.getDBIndex(defaultUri)),
+                DEFAULT_NAMESPACE);
+        for (final Entry<String, TenantConfiguration> entry : configuration.getTenants()
+                .entrySet()) {
+            final String name = entry.getKey();
+            if (!NAME_PATTERN.matcher(name).matches()) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid tenant name: %s", name));
+            }
+            final String database = getDatabase(
+                    Tenant.getUri(entry.getValue(), defaultUri), entry.getValue().getDatabase());
+            final String owner = databases.putIfAbsent(database, name);
+            if (owner != null) {
+                throw new IllegalArgumentException(String.format(
+                        "Tenant %s uses the same database as %s: %s", name, owner, database));
+            }
+            this.tenants.put(name, new Tenant(name, entry.getValue(), defaultUri,
+                    metricRegistry));
+        }
+    }
+
+    private static String getDatabase(final URI uri, final int database) {
+        return String.format("%s:%d/%d", uri.getHost(), Tenant.getPort(uri), database);
+    }
+
+    static void enter(final Tenant tenant) {
+        CURRENT.set(tenant);
+    }
+
+    static void exit() {
+        CURRENT.remove();
+    }
+
+    /**
+     * The tenant the current thread is serving.
+     *
+     * @return The tenant, or {@code null} for the default namespace.
+     */
+    public static Tenant getCurrent() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the given task in the namespace of the given tenant, as work
+     * handed to another thread for a request does.
+     *
+     * @param tenant
+     *            The tenant, or {@code null} for the default namespace.
+     * @param task
+     *            The task using this pool.
+     */
+    public static void run(final Tenant tenant, final Runnable task) {
+        final Tenant previous = CURRENT.get();
+        CURRENT.set(tenant);
+        try {
+            task.run();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Calls the given task in the namespace of the given tenant, as
+     * {@link #run(Tenant, Runnable)} does, for the tasks that throw.
+     *
+     * @param tenant
+     *            The tenant, or {@code null} for the default namespace.
+     * @param task
+     *            The task using this pool.
+     * @return What the task returned.
+     * @throws E
+     *             Thrown by the task.
+     */
+    public static <T, E extends Exception> T call(final Tenant tenant,
+            final TenantTask<T, E> task) throws E {
+        final Tenant previous = CURRENT.get();
+        CURRENT.set(tenant);
+        try {
+            return task.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * The tenant with the given name.
+     */
+    public Optional<Tenant> getTenant(final String name) {
+        return Optional.fromNullable(this.tenants.get(name));
+    }
+
+    /**
+     * Every namespace, for the background jobs, as {@code null} for the
+     * default one followed by the tenants.
+     */
+    public List<Tenant> getNamespaces() {
+        final List<Tenant> namespaces = new ArrayList<>(this.tenants.size() + 1);
+        namespaces.add(null);
+        namespaces.addAll(this.tenants.values());
+        return Collections.unmodifiableList(namespaces);
+    }
+
+    @Override
+    public Jedis getResource() {
+        final Tenant tenant = CURRENT.get();
+        return tenant == null ? this.defaultProvider.getResource()
+                : tenant.getPool().getResource();
+    }
+
+    @Override
+    public void start() throws Exception {
+        // The pools are built on the constructor, as this pool is passed
+        // around before the application starts.
+    }
+
+    @Override
+    public void stop() throws Exception {
+        this.close();
+    }
+
+    /**
+     * Closes the pools of the tenants. The default provider is left to its
+     * owner.
+     */
+    public void close() {
+        this.tenants.values().forEach(tenant -> tenant.getPool().close());
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.mtakaki.credentialstorage.bulkhead;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import io.dropwizard.testing.junit.ResourceTestRule;
+import redis.clients.jedis.JedisPool;
+
+public class BulkheadFeatureTest {
+    // Never connected, the test resource doesn't use redis.
+    private static final TrafficClassPool POOL = new TrafficClassPool(new JedisPool(),
+            ImmutableMap.of(TrafficClass.READ, new JedisPool(), TrafficClass.WRITE,
+                    new JedisPool(), TrafficClass.ADMIN, new JedisPool()));
+    private static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
+    private static volatile CountDownLatch entered;
+    private static volatile CountDownLatch release;
+
+    @ClassRule
+    public static final ResourceTestRule resources = ResourceTestRule.builder()
+            .addProvider(new BulkheadFeature(new RedisConfiguration(), POOL, METRIC_REGISTRY))
+            .addResource(new TestResource())
+            .build();
+
+    private ExecutorService callers;
+
+    @Path("/admin")
+    @Bulkheaded(TrafficClass.ADMIN)
+    public static class TestResource {
+        @GET
+        @Path("/slow")
+        public String slow() {
+            entered.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return "done";
+        }
+
+        @GET
+        @Path("/read")
+        @Bulkheaded(TrafficClass.READ)
+        public String read() {
+            return "read";
+        }
+    }
+
+    @Before
+    public void setUp() {
+        entered = new CountDownLatch(2);
+        release = new CountDownLatch(1);
+        this.callers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        this.callers.shutdownNow();
+    }
+
+    private Response get(final String path) {
+        return resources.client().target(path).request().get();
+    }
+
+    @Test
+    public void testRejectsWhenTheTrafficClassIsFull() throws Exception {
+        // The default admin bulkhead lets two requests in.
+        final Future<Response> first = this.callers.submit(() -> this.get("/admin/slow"));
+        final Future<Response> second = this.callers.submit(() -> this.get("/admin/slow"));
+        assertThat(entered.await(5L, TimeUnit.SECONDS)).isTrue();
+
+        final Response rejected = this.get("/admin/slow");
+        assertThat(rejected.getStatus()).isEqualTo(Status.SERVICE_UNAVAILABLE.getStatusCode());
+        assertThat(rejected.getHeaderString("Retry-After")).isEqualTo("1");
+        // The other traffic classes are not affected.
+        assertThat(this.get("/admin/read").readEntity(String.class)).isEqualTo("read");
+
+        release.countDown();
+        assertThat(first.get(5L, TimeUnit.SECONDS).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+        assertThat(second.get(5L, TimeUnit.SECONDS).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+        // The turns are given back, even by the rejected request.
+        assertThat(METRIC_REGISTRY.getGauges()
+                .get(MetricRegistry.name(Bulkhead.class, "admin", "active")).getValue())
+                        .isEqualTo(0);
+    }
+}
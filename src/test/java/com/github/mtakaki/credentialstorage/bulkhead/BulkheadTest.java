@@ -0,0 +1,157 @@
+package com.github.mtakaki.credentialstorage.bulkhead;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.BulkheadConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.managed.JedisManaged;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import io.dropwizard.util.Duration;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class BulkheadTest {
+    private RedisServer redisServer;
+    private JedisManaged jedisManaged;
+    private TrafficClassPool jedisPool;
+    private MetricRegistry metricRegistry;
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisManaged = new JedisManaged(new RedisConfiguration(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0))));
+        this.jedisPool = this.jedisManaged.getJedisPool();
+        this.metricRegistry = new MetricRegistry();
+        this.callers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.callers.shutdownNow();
+        this.jedisManaged.stop();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    private Bulkhead buildBulkhead(final TrafficClass trafficClass, final int maxConcurrent) {
+        return new Bulkhead(trafficClass,
+                new BulkheadConfiguration(maxConcurrent, Duration.milliseconds(50L),
+                        Duration.seconds(5L), new JedisPoolConfig()),
+                this.jedisPool.getPool(trafficClass), this.metricRegistry);
+    }
+
+    @Test
+    public void testEnterRoutesConnectionsToTheTrafficClassPool() {
+        final Bulkhead bulkhead = this.buildBulkhead(TrafficClass.ADMIN, 1);
+
+        bulkhead.enter();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.ping();
+            assertThat(this.jedisPool.getPool(TrafficClass.ADMIN).getNumActive()).isEqualTo(1);
+            assertThat(this.jedisPool.getPool(TrafficClass.READ).getNumActive()).isZero();
+            assertThat(this.metricRegistry.getGauges()
+                    .get(MetricRegistry.name(Bulkhead.class, "admin", "pool-active"))
+                    .getValue()).isEqualTo(1);
+            assertThat(this.metricRegistry.getGauges()
+                    .get(MetricRegistry.name(Bulkhead.class, "admin", "active"))
+                    .getValue()).isEqualTo(1);
+        } finally {
+            bulkhead.exit();
+        }
+        assertThat(this.jedisPool.getPool(TrafficClass.ADMIN).getNumActive()).isZero();
+        assertThat(this.jedisPool.getPool(TrafficClass.ADMIN).getNumIdle()).isEqualTo(1);
+
+        // Outside of the bulkhead it's back to the shared pool.
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.ping();
+            assertThat(this.jedisPool.getPool(TrafficClass.ADMIN).getNumActive()).isZero();
+        }
+    }
+
+    @Test
+    public void testEnterRejectsWhenFull() throws Exception {
+        final Bulkhead bulkhead = this.buildBulkhead(TrafficClass.READ, 1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.callers.submit(() -> {
+            bulkhead.enter();
+            try {
+                entered.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            } finally {
+                bulkhead.exit();
+            }
+        });
+        assertThat(entered.await(5L, TimeUnit.SECONDS)).isTrue();
+
+        try {
+            bulkhead.enter();
+        } catch (final ServiceUnavailableException e) {
+            assertThat(e.getResponse().getStatus())
+                    .isEqualTo(Status.SERVICE_UNAVAILABLE.getStatusCode());
+            assertThat(e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+            assertThat(this.metricRegistry
+                    .meter(MetricRegistry.name(Bulkhead.class, "read", "rejected")).getCount())
+                            .isEqualTo(1L);
+            return;
+        } finally {
+            release.countDown();
+        }
+        throw new AssertionError("The request should have been rejected.");
+    }
+
+    @Test
+    public void testFullAdminPoolDoesNotHoldUpUserReads() throws Exception {
+        final Bulkhead admin = this.buildBulkhead(TrafficClass.ADMIN, 2);
+        final Bulkhead read = this.buildBulkhead(TrafficClass.READ, 1);
+        final CountDownLatch holding = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        // Two slow admin requests holding all the admin connections.
+        for (int i = 0; i < 2; i++) {
+            this.callers.submit(() -> {
+                admin.enter();
+                try (Jedis jedis = this.jedisPool.getResource()) {
+                    holding.countDown();
+                    Uninterruptibles.awaitUninterruptibly(release);
+                } finally {
+                    admin.exit();
+                }
+            });
+        }
+        assertThat(holding.await(5L, TimeUnit.SECONDS)).isTrue();
+        assertThat(this.jedisPool.getPool(TrafficClass.ADMIN).getNumActive())
+                .isEqualTo(2);
+
+        try {
+            read.enter();
+            try (Jedis jedis = this.jedisPool.getResource()) {
+                assertThat(jedis.ping()).isEqualTo("PONG");
+            } finally {
+                read.exit();
+            }
+        } finally {
+            release.countDown();
+        }
+    }
+}
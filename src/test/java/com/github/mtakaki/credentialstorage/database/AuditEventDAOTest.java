@@ -0,0 +1,106 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
+import com.github.mtakaki.credentialstorage.database.model.AuditEventPage;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class AuditEventDAOTest {
+    private AuditEventDAO dao;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.dao = new AuditEventDAO(this.jedisPool::getResource);
+    }
+
+    @After
+    public void tearDown() {
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testAppendAndGetEvents() {
+        final AuditEvent read = this.event(Action.READ, "a");
+        final AuditEvent write = this.event(Action.WRITE, "a");
+
+        assertThat(this.dao.append(Arrays.asList(read, write), 10L)).isEqualTo(2L);
+
+        final AuditEventPage page = this.dao.getEvents(0L, 10);
+        read.setId(1L);
+        write.setId(2L);
+        assertThat(page.getEvents()).containsExactly(read, write);
+        assertThat(page.getNextCursor()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testAppendKeepsIdenticalEvents() {
+        final AuditEvent event = this.event(Action.READ, "a");
+
+        this.dao.append(Arrays.asList(event, event), 10L);
+
+        assertThat(this.dao.getEvents(0L, 10).getEvents()).hasSize(2);
+    }
+
+    @Test
+    public void testAppendTrimsOldestEvents() {
+        for (int i = 0; i < 5; i++) {
+            this.dao.append(Arrays.asList(this.event(Action.READ, "a"),
+                    this.event(Action.WRITE, "a")), 3L);
+        }
+
+        final AuditEventPage page = this.dao.getEvents(0L, 10);
+        assertThat(page.getEvents()).extracting(AuditEvent::getId).containsExactly(8L, 9L, 10L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zcard(AuditEventDAO.EVENTS_KEY)).isEqualTo(3L);
+        }
+    }
+
+    @Test
+    public void testGetEventsPagesWithCursor() {
+        this.dao.append(Arrays.asList(this.event(Action.READ, "a"), this.event(Action.READ, "b"),
+                this.event(Action.DELETE, "c")), 10L);
+
+        final AuditEventPage firstPage = this.dao.getEvents(0L, 2);
+        assertThat(firstPage.getEvents()).extracting(AuditEvent::getId).containsExactly(1L, 2L);
+
+        final AuditEventPage secondPage = this.dao.getEvents(firstPage.getNextCursor(), 2);
+        assertThat(secondPage.getEvents()).extracting(AuditEvent::getId).containsExactly(3L);
+        assertThat(secondPage.getEvents().get(0).getAction()).isEqualTo(Action.DELETE);
+
+        final AuditEventPage emptyPage = this.dao.getEvents(secondPage.getNextCursor(), 2);
+        assertThat(emptyPage.getEvents()).isEmpty();
+        assertThat(emptyPage.getNextCursor()).isEqualTo(3L);
+    }
+
+    private AuditEvent event(final Action action, final String key) {
+        return AuditEvent.builder()
+                .timestamp(System.currentTimeMillis())
+                .action(action)
+                .target(Target.CREDENTIAL)
+                .keyDigest(KeyDigest.of(key))
+                .node("node")
+                .build();
+    }
+}
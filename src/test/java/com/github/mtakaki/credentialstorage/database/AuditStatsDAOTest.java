@@ -0,0 +1,133 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap.Bucket;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap.Granularity;
+import com.google.common.collect.ImmutableMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class AuditStatsDAOTest {
+    // 2017-01-01T00:00:00Z, in seconds.
+    private static final long MIDNIGHT = 1483228800L;
+    private static final Map<Granularity, Integer> RETENTION = ImmutableMap
+            .of(Granularity.MINUTE, 3600, Granularity.HOUR, 86400);
+
+    private AuditStatsDAO dao;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.dao = new AuditStatsDAO(this.jedisPool::getResource);
+    }
+
+    @After
+    public void tearDown() {
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testIncrementAndGetHeatmap() throws Exception {
+        this.dao.increment(Arrays.asList(
+                this.event(MIDNIGHT + 1L, "a"),
+                this.event(MIDNIGHT + 2L, "a"),
+                this.event(MIDNIGHT + 3L, "b"),
+                this.event(MIDNIGHT + 61L, "a")), RETENTION);
+
+        final AuditHeatmap heatmap = this.dao.getHeatmap(Granularity.MINUTE, MIDNIGHT,
+                MIDNIGHT + 179L, KeyDigest.of("a"));
+
+        assertThat(heatmap.getBuckets()).containsExactly(
+                new Bucket(MIDNIGHT, 3L, 2L, 2L),
+                new Bucket(MIDNIGHT + 60L, 1L, 1L, 1L),
+                new Bucket(MIDNIGHT + 120L, 0L, 0L, 0L));
+        assertThat(heatmap.getDistinctCallers()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testGetHeatmapByHour() throws Exception {
+        this.dao.increment(Arrays.asList(
+                this.event(MIDNIGHT + 1L, "a"),
+                this.event(MIDNIGHT + 3599L, "b"),
+                this.event(MIDNIGHT + 3600L, "c")), RETENTION);
+
+        final AuditHeatmap heatmap = this.dao.getHeatmap(Granularity.HOUR, MIDNIGHT + 10L,
+                MIDNIGHT + 3600L, null);
+
+        assertThat(heatmap.getBuckets()).containsExactly(
+                new Bucket(MIDNIGHT, 2L, 2L, null),
+                new Bucket(MIDNIGHT + 3600L, 1L, 1L, null));
+        assertThat(heatmap.getDistinctCallers()).isEqualTo(3L);
+    }
+
+    @Test
+    public void testIncrementAcrossBatches() throws Exception {
+        this.dao.increment(Arrays.asList(this.event(MIDNIGHT, "a")), RETENTION);
+        this.dao.increment(Arrays.asList(this.event(MIDNIGHT, "a")), RETENTION);
+
+        assertThat(this.dao.getHeatmap(Granularity.MINUTE, MIDNIGHT, MIDNIGHT, null)
+                .getBuckets()).containsExactly(new Bucket(MIDNIGHT, 2L, 1L, null));
+    }
+
+    @Test
+    public void testDistinctCallersEstimate() throws Exception {
+        final List<AuditEvent> events = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            events.add(this.event(MIDNIGHT, Integer.toString(i % 5000)));
+        }
+
+        this.dao.increment(events, RETENTION);
+
+        final Bucket bucket = this.dao.getHeatmap(Granularity.MINUTE, MIDNIGHT, MIDNIGHT, null)
+                .getBuckets().get(0);
+        assertThat(bucket.getCount()).isEqualTo(10000L);
+        // HyperLogLog has a standard error of 0.81%.
+        assertThat(bucket.getDistinctCallers()).isBetween(4800L, 5200L);
+    }
+
+    @Test
+    public void testBucketsExpire() throws Exception {
+        this.dao.increment(Arrays.asList(this.event(MIDNIGHT, "a")), RETENTION);
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.ttl("stats:minute:" + MIDNIGHT)).isBetween(1L, 3600L);
+            assertThat(jedis.ttl("stats:minute:" + MIDNIGHT + ":keys")).isBetween(1L, 3600L);
+            assertThat(jedis.ttl("stats:hour:" + MIDNIGHT + ":callers")).isBetween(3601L, 86400L);
+        }
+    }
+
+    private AuditEvent event(final long unixTimestamp, final String key) {
+        return AuditEvent.builder()
+                .timestamp(unixTimestamp * 1000L)
+                .action(Action.READ)
+                .target(Target.CREDENTIAL)
+                .keyDigest(KeyDigest.of(key))
+                .node("node")
+                .build();
+    }
+}
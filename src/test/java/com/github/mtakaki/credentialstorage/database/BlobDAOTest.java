@@ -0,0 +1,293 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import javax.crypto.KeyGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mtakaki.credentialstorage.database.model.Blob;
+import com.github.mtakaki.credentialstorage.encryption.ChunkedCipher;
+import com.github.mtakaki.credentialstorage.encryption.InitializationException;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class BlobDAOTest {
+    // SHA-256 of the key "a".
+    private static final String DIGEST_A = "ca978112ca1bbdcafac231b39a23dc4da786eff8147c4e72b9807785afee48bb";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int RETENTION_SECONDS = 60;
+    private static final int UPLOAD_TIMEOUT_SECONDS = 600;
+
+    private BlobDAO dao;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+    private ChunkedCipher chunkedCipher;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.dao = new BlobDAO(this.jedisPool::getResource);
+        final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        this.chunkedCipher = new ChunkedCipher(keyGenerator.generateKey(), CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testSaveAndReadChunks() throws Exception {
+        final byte[] payload = new byte[CHUNK_SIZE * 2 + 10];
+        new Random(0L).nextBytes(payload);
+
+        final Blob blob = this.save("a", new ByteArrayInputStream(payload));
+
+        final Blob savedBlob = this.dao.getBlobByKey("a").get();
+        assertThat(savedBlob).isEqualTo(blob);
+        assertThat(savedBlob.getChunkCount()).isEqualTo(3L);
+        assertThat(savedBlob.getSize()).isEqualTo(payload.length);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        this.dao.readChunks(savedBlob, (index, chunk) -> output
+                .write(this.decrypt(savedBlob, index, chunk)));
+        assertThat(output.toByteArray()).isEqualTo(payload);
+    }
+
+    @Test
+    public void testGetBlobByKeyNotFound() {
+        assertThat(this.dao.getBlobByKey("missing").isPresent()).isFalse();
+    }
+
+    @Test
+    public void testSaveUsesDigestLayout() throws Exception {
+        final Blob blob = this.save("a", new ByteArrayInputStream(new byte[10]));
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("blob:" + DIGEST_A)).isTrue();
+            assertThat(jedis.llen("blob:" + DIGEST_A + ":" + blob.getUploadId())).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void testSaveReplacesBlob() throws Exception {
+        final Blob replacedBlob = this.save("a", new ByteArrayInputStream(new byte[10]));
+        final Blob blob = this.save("a", new ByteArrayInputStream(new byte[20]));
+
+        assertThat(this.dao.getBlobByKey("a").get()).isEqualTo(blob);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // Kept for a while, so downloads in progress can finish.
+            final long ttl = jedis
+                    .ttl("blob:" + DIGEST_A + ":" + replacedBlob.getUploadId());
+            assertThat(ttl).isPositive().isLessThanOrEqualTo(RETENTION_SECONDS);
+            assertThat(jedis.ttl("blob:" + DIGEST_A + ":" + blob.getUploadId())).isEqualTo(-1L);
+        }
+    }
+
+    @Test
+    public void testSaveFailureKeepsCurrentBlob() throws Exception {
+        final Blob blob = this.save("a", new ByteArrayInputStream(new byte[10]));
+        final InputStream failingInput = new InputStream() {
+            private int remaining = CHUNK_SIZE * 3;
+
+            @Override
+            public int read() throws IOException {
+                if (this.remaining-- == 0) {
+                    throw new IOException("Connection reset");
+                }
+                return 0;
+            }
+        };
+
+        try {
+            this.save("a", failingInput);
+        } catch (final RuntimeException e) {
+            // Expected, the client went away in the middle of the upload.
+        }
+
+        assertThat(this.dao.getBlobByKey("a").get()).isEqualTo(blob);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // Only the current chunks are left.
+            assertThat(jedis.keys("blob:*")).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testUploadInProgressExpires() throws Exception {
+        final Blob blob = Blob.builder().key("a").symmetricKey("encrypted").chunkSize(CHUNK_SIZE)
+                .build();
+        final Iterator<byte[]> chunks = new Iterator<byte[]>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < 20;
+            }
+
+            @Override
+            public byte[] next() {
+                // The first chunks were synced by now.
+                if (this.index++ == 17) {
+                    try (Jedis jedis = BlobDAOTest.this.jedisPool.getResource()) {
+                        final Set<String> keys = jedis.keys("blob:" + DIGEST_A + ":*");
+                        assertThat(keys).hasSize(1);
+                        assertThat(jedis.ttl(keys.iterator().next())).isPositive()
+                                .isLessThanOrEqualTo(UPLOAD_TIMEOUT_SECONDS);
+                    }
+                }
+                return new byte[10];
+            }
+        };
+
+        this.dao.save(blob, chunks, chunk -> chunk.length, RETENTION_SECONDS,
+                UPLOAD_TIMEOUT_SECONDS);
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.ttl("blob:" + DIGEST_A + ":" + blob.getUploadId())).isEqualTo(-1L);
+        }
+    }
+
+    @Test
+    public void testSaveFailureIsNotMaskedByTheCleanup() throws Exception {
+        final InputStream failingInput = new InputStream() {
+            private int remaining = CHUNK_SIZE * 3;
+
+            @Override
+            public int read() throws IOException {
+                if (this.remaining-- == 0) {
+                    BlobDAOTest.this.redisServer.stop();
+                    throw new IOException("Connection reset");
+                }
+                return 0;
+            }
+        };
+
+        try {
+            this.save("a", failingInput);
+        } catch (final UncheckedIOException e) {
+            assertThat(e.getCause()).hasMessage("Connection reset");
+            assertThat(e.getSuppressed())
+                    .hasAtLeastOneElementOfType(JedisConnectionException.class);
+            return;
+        }
+        fail("Expected the upload to fail.");
+    }
+
+    @Test
+    public void testDeleteByKey() throws Exception {
+        this.save("a", new ByteArrayInputStream(new byte[10]));
+
+        assertThat(this.dao.deleteByKey("a")).isTrue();
+        assertThat(this.dao.getBlobByKey("a").isPresent()).isFalse();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.keys("blob:*")).isEmpty();
+        }
+    }
+
+    @Test
+    public void testDeleteByKeyNotFound() {
+        assertThat(this.dao.deleteByKey("a")).isFalse();
+    }
+
+    /**
+     * Streams a payload larger than the whole heap given to the tests, which
+     * is the same as our containers, so it would fail with
+     * {@link OutOfMemoryError} if the payload was buffered anywhere.
+     */
+    @Test
+    public void testSaveAndReadPayloadLargerThanHeap() throws Exception {
+        final long payloadSize = Math.max(160L * 1024 * 1024,
+                Runtime.getRuntime().maxMemory() + CHUNK_SIZE);
+        // Capping it, so the test doesn't take forever if it runs with a
+        // larger heap.
+        final GeneratedInputStream payload = new GeneratedInputStream(
+                Math.min(payloadSize, 512L * 1024 * 1024));
+
+        final Blob blob = this.save("a", payload);
+
+        final Hasher hasher = Hashing.sha256().newHasher();
+        this.dao.readChunks(blob,
+                (index, chunk) -> hasher.putBytes(this.decrypt(blob, index, chunk)));
+        assertThat(blob.getSize()).isEqualTo(payload.size);
+        assertThat(hasher.hash()).isEqualTo(payload.hasher.hash());
+    }
+
+    private Blob save(final String key, final InputStream payload) throws IOException {
+        final Blob blob = Blob.builder().key(key).symmetricKey("encrypted").chunkSize(CHUNK_SIZE)
+                .build();
+        this.dao.save(blob, this.chunkedCipher.encrypt(payload),
+                ChunkedCipher::getPlainTextLength, RETENTION_SECONDS, UPLOAD_TIMEOUT_SECONDS);
+        return blob;
+    }
+
+    private byte[] decrypt(final Blob blob, final long index, final byte[] chunk)
+            throws IOException {
+        try {
+            return this.chunkedCipher.decryptChunk(index, chunk,
+                    index == blob.getChunkCount() - 1);
+        } catch (final InitializationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Produces the given amount of bytes without holding them, keeping their
+     * digest to be compared later.
+     */
+    private static class GeneratedInputStream extends InputStream {
+        private final long size;
+        private final Hasher hasher = Hashing.sha256().newHasher();
+        private final Random random = new Random(0L);
+        private long position = 0L;
+
+        private GeneratedInputStream(final long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            return this.read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) {
+            if (this.position == this.size) {
+                return -1;
+            }
+            final int read = (int) Math.min(length, this.size - this.position);
+            final byte[] generated = new byte[read];
+            this.random.nextBytes(generated);
+            System.arraycopy(generated, 0, buffer, offset, read);
+            this.hasher.putBytes(generated);
+            this.position += read;
+            return read;
+        }
+    }
+}
@@ -1,30 +1,73 @@
 package com.github.mtakaki.credentialstorage.database;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.JournalConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TieringConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.Index;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.IndexBatch;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.PatchResult;
+import com.github.mtakaki.credentialstorage.database.cold.ColdTier;
+import com.github.mtakaki.credentialstorage.database.journal.JournalEntry;
+import com.github.mtakaki.credentialstorage.database.journal.WriteJournal;
+import com.github.mtakaki.credentialstorage.database.model.CatalogueStats;
 import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.DescriptionPage;
+import com.github.mtakaki.credentialstorage.database.model.Lease;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
 
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.embedded.RedisServer;
 import redis.embedded.ports.EphemeralPortProvider;
 
 public class CredentialDAOTest {
+    // SHA-256 of the key "a".
+    private static final String DIGEST_A = "ca978112ca1bbdcafac231b39a23dc4da786eff8147c4e72b9807785afee48bb";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
     private CredentialDAO dao;
+    private JedisPool jedisPool;
     private RedisServer redisServer;
 
     @Before
     public void setUp() {
         this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
         this.redisServer.start();
-        this.dao = new CredentialDAO(
-                new JedisPool(
-                        String.format("redis://localhost:%d", this.redisServer.ports().get(0))));
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.dao = new CredentialDAO(this.jedisPool::getResource);
     }
 
     @After
@@ -66,16 +109,971 @@ public class CredentialDAOTest {
     }
 
     @Test
-    public void testDeleteByKeyNotFound() {
+    public void testDeleteByKeyNotFound() throws IOException {
         assertThat(this.dao.deleteByKey("a")).isFalse();
     }
 
+    @Test
+    public void testGetCredentialByKeyNotFoundDoesNotCreateRecord() throws IOException {
+        assertThat(this.dao.getCredentialByKey("missing").isPresent()).isFalse();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.dbSize()).isZero();
+        }
+    }
+
+    @Test
+    public void testSaveUsesDigestLayout() throws IOException {
+        this.createCredentialAndSave();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.keys("cred:*")).containsExactly("cred:" + DIGEST_A);
+            assertThat(jedis.zrange("last_accessed", 0, -1)).containsExactly(DIGEST_A);
+            assertThat(jedis.zrange("last_updated", 0, -1)).containsExactly(DIGEST_A);
+        }
+    }
+
+    @Test
+    public void testGetCredentialByKeyMigratesLegacyRecord() throws IOException {
+        this.createLegacyCredential("a");
+
+        final Credential credential = this.dao.getCredentialByKey("a").get();
+        assertThat(credential.getPrimary()).isEqualTo("me@abc.com");
+        // Written before the cipher suite was recorded.
+        assertThat(credential.getCipherSuite()).isEqualTo(CipherSuite.AES_ECB_RSA_PKCS1);
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("credential:a")).isFalse();
+            assertThat(jedis.exists("cred:" + DIGEST_A)).isTrue();
+            assertThat(jedis.zrange("last_accessed", 0, -1)).containsExactly(DIGEST_A);
+            assertThat(jedis.zrange("last_updated", 0, -1)).containsExactly(DIGEST_A);
+        }
+    }
+
+    @Test
+    public void testGetCredentialsByKeys() throws IOException {
+        this.createCredentialAndSave();
+        this.createLegacyCredential("b");
+
+        final List<Optional<Credential>> credentials = this.dao
+                .getCredentialsByKeys(Arrays.asList("missing", "a", "b"));
+
+        assertThat(credentials).hasSize(3);
+        assertThat(credentials.get(0).isPresent()).isFalse();
+        assertThat(credentials.get(1).get().getKey()).isEqualTo("a");
+        assertThat(credentials.get(1).get().getCipherSuite())
+                .isEqualTo(CipherSuite.AES_GCM_RSA_OAEP);
+        assertThat(credentials.get(1).get().getSecondary()).isEqualTo("password");
+        // Read one by one, as it's still in the legacy layout.
+        assertThat(credentials.get(2).get().getKey()).isEqualTo("b");
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zscore("last_accessed", DIGEST_A)).isNotNull();
+            assertThat(jedis.exists("credential:b")).isFalse();
+        }
+    }
+
+    @Test
+    public void testSaveReplacesLegacyRecord() throws IOException {
+        this.createLegacyCredential("a");
+        this.createCredentialAndSave();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("credential:a")).isFalse();
+            assertThat(jedis.zrange("last_updated", 0, -1)).containsExactly(DIGEST_A);
+        }
+    }
+
+    @Test
+    public void testDeleteByKeyLegacyRecord() throws IOException {
+        this.createLegacyCredential("a");
+
+        assertThat(this.dao.deleteByKey("a")).isTrue();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.dbSize()).isZero();
+        }
+    }
+
+    @Test
+    public void testDeleteByKeyRemovesSortedSetsMembers() throws IOException {
+        this.createCredentialAndSave();
+
+        this.dao.deleteByKey("a");
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.dbSize()).isZero();
+        }
+    }
+
+    @Test
+    public void testSaveWithLease() throws IOException {
+        final long expiresAt = System.currentTimeMillis() / 1000L + 60L;
+        this.dao.save(Credential.builder().key("a").primary("user").ttl(60L)
+                .expiresAt(expiresAt).build());
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.ttl("cred:" + DIGEST_A)).isBetween(1L, 60L);
+            assertThat(jedis.zscore("expires_at", DIGEST_A)).isEqualTo(expiresAt);
+        }
+        final Credential credential = this.dao.getCredentialByKey("a").get();
+        assertThat(credential.getTtl()).isEqualTo(60L);
+        assertThat(credential.getExpiresAt()).isEqualTo(expiresAt);
+    }
+
+    @Test
+    public void testSaveWithoutLeaseRemovesIt() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").ttl(60L)
+                .expiresAt(System.currentTimeMillis() / 1000L + 60L).build());
+        this.createCredentialAndSave();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.ttl("cred:" + DIGEST_A)).isEqualTo(-1L);
+            assertThat(jedis.zcard("expires_at")).isZero();
+        }
+    }
+
+    @Test
+    public void testRenewLease() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").ttl(60L)
+                .expiresAt(System.currentTimeMillis() / 1000L + 1L).build());
+
+        final Lease lease = this.dao.renewLease("a", null).get();
+
+        assertThat(lease.getTtl()).isEqualTo(60L);
+        assertThat(lease.getExpiresAt())
+                .isBetween(System.currentTimeMillis() / 1000L + 59L,
+                        System.currentTimeMillis() / 1000L + 60L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.ttl("cred:" + DIGEST_A)).isGreaterThan(50L);
+            assertThat(jedis.zscore("expires_at", DIGEST_A))
+                    .isEqualTo((double) lease.getExpiresAt());
+        }
+        assertThat(this.dao.getCredentialByKey("a").get().getExpiresAt())
+                .isEqualTo(lease.getExpiresAt());
+    }
+
+    @Test
+    public void testRenewLeaseWithNewTtl() throws IOException {
+        this.createCredentialAndSave();
+
+        assertThat(this.dao.renewLease("a", 120L).get().getTtl()).isEqualTo(120L);
+        assertThat(this.dao.getCredentialByKey("a").get().getTtl()).isEqualTo(120L);
+    }
+
+    @Test
+    public void testRenewLeaseWithoutLease() throws IOException {
+        this.createCredentialAndSave();
+
+        assertThat(this.dao.renewLease("a", null).isPresent()).isFalse();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.ttl("cred:" + DIGEST_A)).isEqualTo(-1L);
+        }
+    }
+
+    @Test
+    public void testRenewLeaseNotFound() throws IOException {
+        assertThat(this.dao.renewLease("missing", 60L).isPresent()).isFalse();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.dbSize()).isZero();
+        }
+    }
+
+    @Test
+    public void testSaveBumpsVersion() throws IOException {
+        this.createCredentialAndSave();
+        assertThat(this.dao.getCredentialByKey("a").get().getVersion()).isEqualTo(1L);
+
+        this.dao.save(this.dao.getCredentialByKey("a").get());
+        assertThat(this.dao.getCredentialByKey("a").get().getVersion()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testSaveMovesPastTheStoredVersion() throws IOException {
+        this.createCredentialAndSave();
+        final Credential stale = this.dao.getCredentialByKey("a").get();
+        this.dao.save(this.dao.getCredentialByKey("a").get());
+
+        this.dao.save(stale);
+        assertThat(stale.getVersion()).isEqualTo(3L);
+        assertThat(this.dao.getCredentialByKey("a").get().getVersion()).isEqualTo(3L);
+        // Blind writes too.
+        this.dao.save(Credential.builder().key("a").primary("blind").build());
+        assertThat(this.dao.getCredentialByKey("a").get().getVersion()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testPatchOnlyGivenFields() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").secondary("password")
+                .symmetricKey("key").description("old").ttl(60L)
+                .expiresAt(System.currentTimeMillis() / 1000L + 60L).build());
+
+        final PatchResult result = this.dao.patch("a",
+                Credential.builder().description("new").build(), 1L);
+
+        assertThat(result.getStatus()).isEqualTo(PatchResult.Status.PATCHED);
+        assertThat(result.getVersion()).isEqualTo(2L);
+        final Credential credential = this.dao.getCredentialByKey("a").get();
+        assertThat(credential.getDescription()).isEqualTo("new");
+        assertThat(credential.getPrimary()).isEqualTo("user");
+        assertThat(credential.getSecondary()).isEqualTo("password");
+        assertThat(credential.getSymmetricKey()).isEqualTo("key");
+        assertThat(credential.getVersion()).isEqualTo(2L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // The lease is kept.
+            assertThat(jedis.ttl("cred:" + DIGEST_A)).isBetween(1L, 60L);
+        }
+    }
+
+    @Test
+    public void testPatchCredentialPairRemovesMissingSecondary() throws IOException {
+        this.createCredentialAndSave();
+
+        this.dao.patch("a", Credential.builder().symmetricKey("new-key").primary("new-user")
+                .build(), null);
+
+        final Credential credential = this.dao.getCredentialByKey("a").get();
+        assertThat(credential.getSymmetricKey()).isEqualTo("new-key");
+        assertThat(credential.getPrimary()).isEqualTo("new-user");
+        assertThat(credential.getSecondary()).isNull();
+    }
+
+    @Test
+    public void testPatchWithStaleVersion() throws IOException {
+        this.createCredentialAndSave();
+        this.dao.patch("a", Credential.builder().description("first").build(), 1L);
+
+        final PatchResult result = this.dao.patch("a",
+                Credential.builder().description("second").build(), 1L);
+
+        assertThat(result.getStatus()).isEqualTo(PatchResult.Status.CONFLICT);
+        assertThat(result.getVersion()).isEqualTo(2L);
+        assertThat(this.dao.getCredentialByKey("a").get().getDescription()).isEqualTo("first");
+    }
+
+    @Test
+    public void testPatchUpdatesLastUpdated() throws IOException {
+        this.createCredentialAndSave();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.zadd("last_updated", 10L, DIGEST_A);
+        }
+
+        this.dao.patch("a", Credential.builder().description("new").build(), null);
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zscore("last_updated", DIGEST_A))
+                    .isGreaterThan(System.currentTimeMillis() / 1000L - 10L);
+        }
+    }
+
+    @Test
+    public void testPatchLegacyRecord() throws IOException {
+        this.createLegacyCredential("a");
+
+        final PatchResult result = this.dao.patch("a",
+                Credential.builder().description("new").build(), 0L);
+
+        assertThat(result.getStatus()).isEqualTo(PatchResult.Status.PATCHED);
+        assertThat(result.getVersion()).isEqualTo(1L);
+        assertThat(this.dao.getCredentialByKey("a").get().getDescription()).isEqualTo("new");
+    }
+
+    @Test
+    public void testPatchNotFound() throws IOException {
+        assertThat(this.dao.patch("missing", Credential.builder().description("new").build(),
+                null).getStatus()).isEqualTo(PatchResult.Status.NOT_FOUND);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.dbSize()).isZero();
+        }
+    }
+
+    @Test
+    public void testRemoveExpiredLeases() throws IOException {
+        final long now = System.currentTimeMillis() / 1000L;
+        // Expires right away.
+        this.dao.save(Credential.builder().key("a").primary("user").ttl(1L)
+                .expiresAt(now - 1L).build());
+        this.dao.save(Credential.builder().key("b").primary("user").ttl(60L)
+                .expiresAt(now + 60L).build());
+
+        final IndexBatch batch = this.dao.removeExpiredLeases(now, 0, 10);
+
+        assertThat(batch.isDone()).isTrue();
+        assertThat(batch.getMatched()).isEqualTo(1L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zrange("last_accessed", 0, -1)).doesNotContain(DIGEST_A)
+                    .hasSize(1);
+            assertThat(jedis.zrange("last_updated", 0, -1)).doesNotContain(DIGEST_A)
+                    .hasSize(1);
+            assertThat(jedis.zrange("expires_at", 0, -1)).doesNotContain(DIGEST_A)
+                    .hasSize(1);
+        }
+    }
+
+    @Test
+    public void testRemoveExpiredLeasesFullBatch() throws IOException {
+        final long now = System.currentTimeMillis() / 1000L;
+        this.dao.save(Credential.builder().key("a").primary("user").ttl(1L)
+                .expiresAt(now - 1L).build());
+        this.dao.save(Credential.builder().key("b").primary("user").ttl(1L)
+                .expiresAt(now - 1L).build());
+
+        // The whole batch is removed, so the next one starts at the same
+        // offset, which isn't the end of the pass.
+        final IndexBatch batch = this.dao.removeExpiredLeases(now, 0, 1);
+        assertThat(batch.isDone()).isFalse();
+        assertThat(batch.getCursor()).isEqualTo("0");
+        assertThat(this.dao.removeExpiredLeases(now, 0, 1).getMatched()).isEqualTo(1L);
+        assertThat(this.dao.removeExpiredLeases(now, 0, 1).isDone()).isTrue();
+    }
+
+    @Test
+    public void testRemoveOrphanedMembers() throws IOException {
+        this.createCredentialAndSave();
+        this.createLegacyCredential("b");
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.zadd("last_updated", 10L, "orphan");
+            jedis.zadd("last_updated", 10L, "credential:orphan");
+        }
+
+        final IndexBatch batch = this.dao.removeOrphanedMembers(Index.LAST_UPDATED,
+                ScanParams.SCAN_POINTER_START, 100, false);
+
+        assertThat(batch.isDone()).isTrue();
+        assertThat(batch.getScanned()).isEqualTo(4);
+        assertThat(batch.getMatched()).isEqualTo(2L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zrange("last_updated", 0, -1))
+                    .containsOnly(DIGEST_A, "credential:b");
+        }
+    }
+
+    @Test
+    public void testRemoveOrphanedMembersDryRun() {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.zadd("last_accessed", 10L, "orphan");
+        }
+
+        assertThat(this.dao.removeOrphanedMembers(Index.LAST_ACCESSED,
+                ScanParams.SCAN_POINTER_START, 100, true).getMatched()).isEqualTo(1L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zcard("last_accessed")).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void testExpireIdleCredentials() throws IOException {
+        this.createLegacyCredential("b");
+        this.createCredentialAndSave();
+
+        final IndexBatch batch = this.dao.expireIdleCredentials(100L, 0, 10, false);
+
+        assertThat(batch.isDone()).isTrue();
+        assertThat(batch.getMatched()).isEqualTo(1L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("credential:b")).isFalse();
+            assertThat(jedis.zrange("last_accessed", 0, -1)).containsExactly(DIGEST_A);
+            assertThat(jedis.zrange("last_updated", 0, -1)).containsExactly(DIGEST_A);
+        }
+        assertThat(this.dao.getCredentialByKey("a").isPresent()).isTrue();
+    }
+
+    @Test
+    public void testExpireIdleCredentialsFullBatch() {
+        this.createLegacyCredential("b");
+        this.createLegacyCredential("c");
+
+        // The next batch starts at the same offset, as the first one is gone.
+        final IndexBatch batch = this.dao.expireIdleCredentials(100L, 0, 1, false);
+        assertThat(batch.isDone()).isFalse();
+        assertThat(batch.getCursor()).isEqualTo("0");
+        assertThat(this.dao.expireIdleCredentials(100L, 0, 1, false).getMatched())
+                .isEqualTo(1L);
+        assertThat(this.dao.expireIdleCredentials(100L, 0, 1, false).isDone()).isTrue();
+    }
+
+    @Test
+    public void testExpireIdleCredentialsDryRun() {
+        this.createLegacyCredential("b");
+        this.createLegacyCredential("c");
+
+        final IndexBatch firstBatch = this.dao.expireIdleCredentials(100L, 0, 1, true);
+        assertThat(firstBatch.isDone()).isFalse();
+        assertThat(firstBatch.getMatched()).isEqualTo(1L);
+        final IndexBatch secondBatch = this.dao.expireIdleCredentials(100L,
+                Integer.parseInt(firstBatch.getCursor()), 1, true);
+        assertThat(secondBatch.getMatched()).isEqualTo(1L);
+        assertThat(this.dao.expireIdleCredentials(100L,
+                Integer.parseInt(secondBatch.getCursor()), 1, true).isDone()).isTrue();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("credential:b")).isTrue();
+            assertThat(jedis.zcard("last_accessed")).isEqualTo(2L);
+        }
+    }
+
+    @Test
+    public void testDemoteIdleCredentials() throws Exception {
+        final ColdTier coldTier = this.openColdTier();
+        this.dao = new CredentialDAO(this.jedisPool::getResource, coldTier);
+        final Credential credential = this.createCredentialAndSave();
+        this.dao.save(Credential.builder().key("b").primary("user").build());
+        this.createLegacyCredential("c");
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.zadd("last_accessed", 10L, DIGEST_A);
+        }
+
+        final IndexBatch batch = this.dao.demoteIdleCredentials(100L, 0, 10);
+
+        assertThat(batch.isDone()).isTrue();
+        assertThat(batch.getScanned()).isEqualTo(2);
+        assertThat(batch.getMatched()).isEqualTo(1L);
+        assertThat(coldTier.contains(DIGEST_A)).isTrue();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("cred:" + DIGEST_A)).isFalse();
+            assertThat(jedis.zscore("last_accessed", DIGEST_A)).isNull();
+            assertThat(jedis.zscore("last_updated", DIGEST_A)).isNull();
+            // The legacy record is left for the migration.
+            assertThat(jedis.exists("credential:c")).isTrue();
+        }
+
+        // Promoted back on the first read.
+        assertThat(this.dao.getCredentialByKey("a").get())
+                .isEqualToIgnoringGivenFields(credential, "lastAccess", "createdAt", "updatedAt");
+        assertThat(coldTier.contains(DIGEST_A)).isFalse();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("cred:" + DIGEST_A)).isTrue();
+            assertThat(jedis.zscore("last_accessed", DIGEST_A)).isGreaterThan(100.0);
+            assertThat(jedis.zscore("last_updated", DIGEST_A)).isNotNull();
+        }
+        coldTier.stop();
+    }
+
+    @Test
+    public void testSaveReplacesColdCopy() throws Exception {
+        final ColdTier coldTier = this.openColdTier();
+        this.dao = new CredentialDAO(this.jedisPool::getResource, coldTier);
+        this.createCredentialAndSave();
+        this.dao.demoteIdleCredentials(Long.MAX_VALUE, 0, 10);
+
+        this.dao.save(Credential.builder().key("a").primary("updated").build());
+
+        assertThat(coldTier.contains(DIGEST_A)).isFalse();
+        assertThat(this.dao.getCredentialByKey("a").get().getPrimary()).isEqualTo("updated");
+        coldTier.stop();
+    }
+
+    @Test
+    public void testDeleteByKeyInColdTier() throws Exception {
+        final ColdTier coldTier = this.openColdTier();
+        this.dao = new CredentialDAO(this.jedisPool::getResource, coldTier);
+        this.createCredentialAndSave();
+        this.dao.demoteIdleCredentials(Long.MAX_VALUE, 0, 10);
+
+        assertThat(this.dao.getAllCredentialsKey()).containsOnly("a");
+        assertThat(this.dao.deleteByKey("a")).isTrue();
+        assertThat(this.dao.getCredentialByKey("a").isPresent()).isFalse();
+        assertThat(this.dao.getAllCredentialsKey()).isEmpty();
+        coldTier.stop();
+    }
+
+    @Test
+    public void testExpiredLeaseIsNotPromoted() throws Exception {
+        final ColdTier coldTier = this.openColdTier();
+        this.dao = new CredentialDAO(this.jedisPool::getResource, coldTier);
+        final long now = System.currentTimeMillis() / 1000L;
+        this.dao.save(Credential.builder().key("a").primary("user").ttl(60L)
+                .expiresAt(now + 60L).build());
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // As if it expired while in the cold tier.
+            jedis.hset("cred:" + DIGEST_A, "expiresAt", Long.toString(now - 1L));
+        }
+        this.dao.demoteIdleCredentials(Long.MAX_VALUE, 0, 10);
+
+        assertThat(this.dao.getCredentialByKey("a").isPresent()).isFalse();
+        assertThat(coldTier.contains(DIGEST_A)).isFalse();
+        coldTier.stop();
+    }
+
+    @Test
+    public void testRenewLeaseInColdTier() throws Exception {
+        final ColdTier coldTier = this.openColdTier();
+        this.dao = new CredentialDAO(this.jedisPool::getResource, coldTier);
+        this.dao.save(Credential.builder().key("a").primary("user").ttl(60L)
+                .expiresAt(System.currentTimeMillis() / 1000L + 60L).build());
+        this.dao.demoteIdleCredentials(Long.MAX_VALUE, 0, 10);
+
+        assertThat(this.dao.renewLease("a", 120L).get().getTtl()).isEqualTo(120L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.ttl("cred:" + DIGEST_A)).isBetween(119L, 120L);
+        }
+        coldTier.stop();
+    }
+
+    @Test
+    public void testSaveJournaledWhileRedisIsDown() throws Exception {
+        final WriteJournal writeJournal = this.openWriteJournal();
+        this.dao = new CredentialDAO(this.jedisPool::getResource, ColdTier.DISABLED, writeJournal);
+        this.createCredentialAndSave();
+        this.redisServer.stop();
+
+        assertThat(this.dao.save(Credential.builder().key("a").primary("updated").build()))
+                .isTrue();
+        assertThat(this.dao.save(Credential.builder().key("b").primary("new").build()))
+                .isTrue();
+        assertThat(writeJournal.getDepth()).isEqualTo(2);
+
+        this.redisServer.start();
+        assertThat(writeJournal.replay(10, this.dao::replay)).isEqualTo(2);
+        assertThat(this.dao.getCredentialByKey("a").get().getPrimary()).isEqualTo("updated");
+        assertThat(this.dao.getCredentialByKey("b").get().getPrimary()).isEqualTo("new");
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zrange("last_updated", 0, -1)).hasSize(2);
+        }
+        writeJournal.stop();
+    }
+
+    @Test
+    public void testReplayKeepsNewerWrite() throws IOException {
+        final long now = System.currentTimeMillis() / 1000L;
+        this.dao.save(Credential.builder().key("a").primary("newer").build());
+
+        assertThat(this.dao.replay(new JournalEntry("a",
+                Collections.singletonMap("primary", "older"), now - 60L))).isFalse();
+        assertThat(this.dao.getCredentialByKey("a").get().getPrimary()).isEqualTo("newer");
+
+        final Map<String, String> fields = new HashMap<>();
+        fields.put("key", "a");
+        fields.put("primary", "journaled");
+        assertThat(this.dao.replay(new JournalEntry("a", fields, now + 60L))).isTrue();
+        assertThat(this.dao.getCredentialByKey("a").get().getPrimary()).isEqualTo("journaled");
+    }
+
+    @Test
+    public void testReplayInTheSameSecondGoesByTheWriteTime() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("stored").build());
+        final long updatedAtMillis;
+        final long lastUpdated;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            updatedAtMillis = Long.parseLong(jedis.hget("cred:" + DIGEST_A, "updatedAtMillis"));
+            lastUpdated = jedis.zscore("last_updated", DIGEST_A).longValue();
+        }
+
+        final Map<String, String> fields = new HashMap<>();
+        fields.put("key", "a");
+        fields.put("primary", "older");
+        fields.put("updatedAtMillis", Long.toString(updatedAtMillis - 1L));
+        assertThat(this.dao.replay(new JournalEntry("a", fields, lastUpdated))).isFalse();
+        // Without the time of the write, the stored record is kept.
+        fields.remove("updatedAtMillis");
+        assertThat(this.dao.replay(new JournalEntry("a", fields, lastUpdated))).isFalse();
+        assertThat(this.dao.getCredentialByKey("a").get().getPrimary()).isEqualTo("stored");
+
+        fields.put("primary", "newer");
+        fields.put("updatedAtMillis", Long.toString(updatedAtMillis + 1L));
+        fields.put("version", "1");
+        assertThat(this.dao.replay(new JournalEntry("a", fields, lastUpdated))).isTrue();
+        final Credential credential = this.dao.getCredentialByKey("a").get();
+        assertThat(credential.getPrimary()).isEqualTo("newer");
+        // The journaled write was read with the stored version.
+        assertThat(credential.getVersion()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testSaveWhileRedisIsDownWithoutJournal() throws IOException {
+        this.redisServer.stop();
+
+        this.expectedException.expect(JedisConnectionException.class);
+        this.createCredentialAndSave();
+    }
+
+    @Test
+    public void testMigrateLegacyKeys() throws IOException {
+        this.createLegacyCredential("a");
+        this.createLegacyCredential("b");
+
+        assertThat(this.dao.migrateLegacyKeys(1)).isEqualTo(2L);
+        assertThat(this.dao.migrateLegacyKeys(1)).isZero();
+        assertThat(this.dao.getCredentialByKey("b").get().getKey()).isEqualTo("b");
+    }
+
+    @Test
+    public void testGetAllCredentialsKey() throws IOException {
+        this.createCredentialAndSave();
+        this.createLegacyCredential("b");
+
+        assertThat(this.dao.getAllCredentialsKey()).containsOnly("a", "b");
+    }
+
+    @Test
+    public void testGetCredentialKeysAccessedSince() throws IOException {
+        this.createCredentialAndSave();
+        this.createLegacyCredential("b");
+
+        assertThat(this.dao.getCredentialKeysAccessedSince(0L, Long.MAX_VALUE))
+                .containsOnly("a", "b");
+    }
+
+    @Test
+    public void testSaveIndexesDescription() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").description("db").build());
+        this.dao.save(Credential.builder().key("b").primary("user").build());
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zrange("description_index", 0, -1)).containsOnly("db\0" + DIGEST_A);
+        }
+    }
+
+    @Test
+    public void testSaveMovesDescription() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").description("old").build());
+        this.dao.save(Credential.builder().key("a").primary("user").description("new").build());
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zrange("description_index", 0, -1))
+                    .containsOnly("new\0" + DIGEST_A);
+        }
+
+        this.dao.save(Credential.builder().key("a").primary("user").build());
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("description_index")).isFalse();
+        }
+    }
+
+    @Test
+    public void testDeleteByKeyRemovesDescription() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").description("db").build());
+
+        assertThat(this.dao.deleteByKey("a")).isTrue();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("description_index")).isFalse();
+        }
+    }
+
+    @Test
+    public void testPatchMovesDescription() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").description("old").build());
+
+        this.dao.patch("a", Credential.builder().primary("other").build(), null);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zrange("description_index", 0, -1))
+                    .containsOnly("old\0" + DIGEST_A);
+        }
+
+        this.dao.patch("a", Credential.builder().description("new").build(), null);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zrange("description_index", 0, -1))
+                    .containsOnly("new\0" + DIGEST_A);
+        }
+    }
+
+    @Test
+    public void testSearchDescriptions() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").description("db-prod").build());
+        this.dao.save(Credential.builder().key("b").primary("user").description("db-dev").build());
+        this.dao.save(Credential.builder().key("c").primary("user").description("cache").build());
+        this.dao.save(Credential.builder().key("d").primary("user").description("DB").build());
+
+        final DescriptionPage page = this.dao.searchDescriptions("db", null, 10);
+
+        assertThat(page.getMatches()).containsExactly(new DescriptionPage.Match("b", "db-dev"),
+                new DescriptionPage.Match("a", "db-prod"));
+        assertThat(page.getNextCursor()).isNull();
+        assertThat(this.dao.searchDescriptions("", null, 10).getMatches()).hasSize(4);
+        assertThat(this.dao.searchDescriptions("x", null, 10).getMatches()).isEmpty();
+    }
+
+    @Test
+    public void testSearchDescriptionsPages() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            this.dao.save(Credential.builder().key("key" + i).primary("user")
+                    .description("db-" + i).build());
+        }
+
+        final List<String> keys = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            final DescriptionPage page = this.dao.searchDescriptions("db", cursor, 2);
+            page.getMatches().forEach(match -> keys.add(match.getKey()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertThat(keys).containsExactly("key0", "key1", "key2", "key3", "key4");
+        assertThat(pages).isEqualTo(3);
+    }
+
+    @Test
+    public void testSearchDescriptionsWithInvalidCursor() throws IOException {
+        this.expectedException.expect(IllegalArgumentException.class);
+        this.dao.searchDescriptions("db", "not a cursor!", 10);
+    }
+
+    @Test
+    public void testSearchDescriptionsSkipsStaleEntries() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").description("db").build());
+        this.dao.save(Credential.builder().key("b").primary("user").description("db").build());
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // As if its lease expired.
+            jedis.del("cred:" + DIGEST_A);
+        }
+
+        assertThat(this.dao.searchDescriptions("db", null, 10).getMatches())
+                .containsExactly(new DescriptionPage.Match("b", "db"));
+    }
+
+    @Test
+    public void testSearchDescriptionsInColdTier() throws Exception {
+        final ColdTier coldTier = this.openColdTier();
+        this.dao = new CredentialDAO(this.jedisPool::getResource, coldTier);
+        this.dao.save(Credential.builder().key("a").primary("user").description("db").build());
+        this.dao.demoteIdleCredentials(Long.MAX_VALUE, 0, 10);
+
+        assertThat(this.dao.searchDescriptions("db", null, 10).getMatches())
+                .containsExactly(new DescriptionPage.Match("a", "db"));
+        assertThat(this.dao.removeStaleDescriptions(null, 10).getMatched()).isZero();
+        coldTier.stop();
+    }
+
+    @Test
+    public void testIndexDescriptions() throws IOException {
+        this.dao.save(Credential.builder().key("a").primary("user").description("db").build());
+        this.dao.save(Credential.builder().key("b").primary("user").build());
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // As if they were written before the index existed.
+            jedis.del("description_index");
+        }
+        this.createLegacyCredential("c");
+
+        IndexBatch batch;
+        long indexed = 0L;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            batch = this.dao.indexDescriptions(cursor, 1);
+            indexed += batch.getMatched();
+            cursor = batch.getCursor();
+        } while (!batch.isDone());
+
+        assertThat(indexed).isEqualTo(1L);
+        assertThat(this.dao.searchDescriptions("db", null, 10).getMatches())
+                .containsExactly(new DescriptionPage.Match("a", "db"));
+    }
+
+    @Test
+    public void testMigrateLegacyKeyIndexesDescription() throws IOException {
+        this.createLegacyCredential("c");
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.hset("credential:c", "description", "legacy");
+        }
+
+        this.dao.migrateLegacyKeys(10);
+
+        assertThat(this.dao.searchDescriptions("legacy", null, 10).getMatches())
+                .containsExactly(new DescriptionPage.Match("c", "legacy"));
+    }
+
+    @Test
+    public void testRemoveStaleDescriptions() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            this.dao.save(Credential.builder().key("key" + i).primary("user")
+                    .description("db-" + i).build());
+        }
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.del("cred:" + KeyDigest.of("key0"));
+            jedis.hset("cred:" + KeyDigest.of("key2"), "description", "changed");
+        }
+
+        IndexBatch batch;
+        long removed = 0L;
+        String cursor = null;
+        do {
+            batch = this.dao.removeStaleDescriptions(cursor, 2);
+            removed += batch.getMatched();
+            cursor = batch.getCursor();
+        } while (!batch.isDone());
+
+        assertThat(removed).isEqualTo(2L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zrange("description_index", 0, -1))
+                    .containsOnly("db-1\0" + KeyDigest.of("key1"));
+        }
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        this.createCredentialAndSave();
+        this.dao.save(Credential.builder().key("b").primary(Strings.repeat("x", 300)).build());
+        // Replacing a credential doesn't count it twice.
+        this.createCredentialAndSave();
+
+        final CatalogueStats stats = this.dao.getStatistics(System.currentTimeMillis() / 1000L);
+
+        assertThat(stats.getCount()).isEqualTo(2L);
+        assertThat(stats.getBytes()).isEqualTo(318L);
+        assertThat(stats.getSizes()).containsOnly(entry(256L, 1L), entry(512L, 1L));
+        assertThat(stats.getCreatedByMonth())
+                .containsOnly(entry(new SimpleDateFormat("yyyy-MM").format(new Date()), 2L));
+        assertThat(stats.getLastAccessed()).containsExactly(entry("1d", 2L), entry("7d", 0L),
+                entry("30d", 0L), entry("90d", 0L), entry("older", 0L));
+        assertThat(stats.getCold()).isZero();
+
+        this.dao.deleteByKey("b");
+
+        assertThat(this.dao.getStatistics(System.currentTimeMillis() / 1000L))
+                .isEqualToComparingOnlyGivenFields(new CatalogueStats(1L, 18L,
+                        new TreeMap<>(Collections.singletonMap(256L, 1L)), null, null, 0L),
+                        "count", "bytes", "sizes");
+    }
+
+    @Test
+    public void testStatisticsLastAccessed() throws IOException {
+        final long now = System.currentTimeMillis() / 1000L;
+        for (final long days : new long[] { 0L, 3L, 10L, 60L, 100L, 1000L }) {
+            this.dao.save(Credential.builder().key("key" + days).primary("user").build());
+            try (Jedis jedis = this.jedisPool.getResource()) {
+                jedis.zadd("last_accessed", now - days * 86400L - 1L,
+                        KeyDigest.of("key" + days));
+            }
+        }
+
+        assertThat(this.dao.getStatistics(now).getLastAccessed()).containsExactly(
+                entry("1d", 1L), entry("7d", 1L), entry("30d", 1L), entry("90d", 1L),
+                entry("older", 2L));
+    }
+
+    @Test
+    public void testStatisticsOnPatch() throws IOException {
+        this.createCredentialAndSave();
+
+        this.dao.patch("a", Credential.builder().primary(Strings.repeat("x", 300))
+                .symmetricKey("new").build(), null);
+
+        final CatalogueStats stats = this.dao.getStatistics(System.currentTimeMillis() / 1000L);
+        assertThat(stats.getCount()).isEqualTo(1L);
+        assertThat(stats.getBytes()).isEqualTo(300L);
+        assertThat(stats.getSizes()).containsOnly(entry(512L, 1L));
+    }
+
+    @Test
+    public void testStatisticsOnExpiredLease() throws IOException {
+        final long now = System.currentTimeMillis() / 1000L;
+        this.dao.save(Credential.builder().key("a").primary("user").description("db").ttl(60L)
+                .expiresAt(now + 60L).build());
+        this.dao.save(Credential.builder().key("b").primary("user").build());
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // As if redis expired it.
+            jedis.del("cred:" + DIGEST_A);
+        }
+
+        this.dao.removeExpiredLeases(now + 120L, 0, 10);
+
+        assertThat(this.dao.getStatistics(now).getCount()).isEqualTo(1L);
+        assertThat(this.dao.getStatistics(now).getBytes()).isEqualTo(4L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("credential_stats:leases")).isFalse();
+            assertThat(jedis.exists("description_index")).isFalse();
+        }
+    }
+
+    @Test
+    public void testStatisticsOnRenewedLease() throws IOException {
+        final long now = System.currentTimeMillis() / 1000L;
+        this.dao.save(Credential.builder().key("a").primary("user").build());
+
+        this.dao.renewLease("a", 60L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.del("cred:" + DIGEST_A);
+        }
+        this.dao.save(Credential.builder().key("a").primary("other").build());
+
+        assertThat(this.dao.getStatistics(now).getCount()).isEqualTo(1L);
+        assertThat(this.dao.getStatistics(now).getBytes()).isEqualTo(5L);
+    }
+
+    @Test
+    public void testStatisticsInColdTier() throws Exception {
+        final ColdTier coldTier = this.openColdTier();
+        this.dao = new CredentialDAO(this.jedisPool::getResource, coldTier);
+        this.createCredentialAndSave();
+        this.dao.demoteIdleCredentials(Long.MAX_VALUE, 0, 10);
+
+        CatalogueStats stats = this.dao.getStatistics(System.currentTimeMillis() / 1000L);
+        assertThat(stats.getCount()).isZero();
+        assertThat(stats.getCold()).isEqualTo(1L);
+
+        this.dao.getCredentialByKey("a");
+
+        stats = this.dao.getStatistics(System.currentTimeMillis() / 1000L);
+        assertThat(stats.getCount()).isEqualTo(1L);
+        assertThat(stats.getBytes()).isEqualTo(18L);
+        assertThat(stats.getCold()).isZero();
+        coldTier.stop();
+    }
+
+    @Test
+    public void testRecountStatistics() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            this.dao.save(Credential.builder().key("key" + i).primary("user").ttl(60L)
+                    .expiresAt(System.currentTimeMillis() / 1000L + 60L).build());
+        }
+        final CatalogueStats expected = this.dao
+                .getStatistics(System.currentTimeMillis() / 1000L);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // As if they were written before the statistics existed.
+            jedis.del("credential_stats", "credential_stats:leases");
+            jedis.hset("credential_stats", "count", "100");
+        }
+
+        IndexBatch batch;
+        long counted = 0L;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            batch = this.dao.recountStatistics(cursor, 2);
+            counted += batch.getMatched();
+            cursor = batch.getCursor();
+        } while (!batch.isDone());
+
+        assertThat(counted).isEqualTo(5L);
+        assertThat(this.dao.getStatistics(System.currentTimeMillis() / 1000L))
+                .isEqualTo(expected);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.hlen("credential_stats:leases")).isEqualTo(5L);
+            assertThat(jedis.keys("*:recount")).isEmpty();
+        }
+    }
+
+    private ColdTier openColdTier() throws IOException {
+        return ColdTier.open(new TieringConfiguration(true, this.folder.getRoot().getPath(),
+                Duration.days(1L), Duration.minutes(1L), 10, 1000.0, Size.megabytes(1L), 0.5),
+                new MetricRegistry());
+    }
+
+    private WriteJournal openWriteJournal() throws IOException {
+        return WriteJournal.open(new JournalConfiguration(true,
+                this.folder.getRoot().toPath().resolve("credentials.journal").toString(),
+                Size.kilobytes(64L), Duration.seconds(1L), 100), new MetricRegistry());
+    }
+
+    private void createLegacyCredential(final String key) {
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final Map<String, String> record = new HashMap<>();
+            record.put("key", key);
+            record.put("primary", "me@abc.com");
+            record.put("symmetricKey", "key");
+            jedis.hmset("credential:" + key, record);
+            jedis.zadd("last_accessed", 10L, "credential:" + key);
+            jedis.zadd("last_updated", 10L, "credential:" + key);
+        }
+    }
+
     private Credential createCredentialAndSave() throws IOException {
         final Credential credential = Credential.builder()
                 .key("a")
                 .primary("me@abc.com")
                 .secondary("password")
                 .symmetricKey("key")
+                .cipherSuite(CipherSuite.AES_GCM_RSA_OAEP)
                 .build();
         this.dao.save(credential);
         return credential;
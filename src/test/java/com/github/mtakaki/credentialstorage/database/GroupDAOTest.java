@@ -0,0 +1,175 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mtakaki.credentialstorage.database.GroupDAO.SaveResult;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.CredentialGroup;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.google.common.collect.ImmutableMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class GroupDAOTest {
+    // SHA-256 of the key "a".
+    private static final String DIGEST_A = "ca978112ca1bbdcafac231b39a23dc4da786eff8147c4e72b9807785afee48bb";
+
+    private GroupDAO dao;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.dao = new GroupDAO(this.jedisPool::getResource);
+    }
+
+    @After
+    public void tearDown() {
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testSaveAndGetCredentialForMember() throws Exception {
+        assertThat(this.save("owner", "primary", ImmutableMap.of("a", "key-a", "b", "key-b")))
+                .isEqualTo(SaveResult.CREATED);
+
+        final Credential credential = this.dao.getCredentialForMember("db", "a").get();
+        assertThat(credential.getKey()).isEqualTo("a");
+        assertThat(credential.getSymmetricKey()).isEqualTo("key-a");
+        assertThat(credential.getCipherSuite()).isEqualTo(CipherSuite.AES_GCM_RSA_OAEP);
+        assertThat(credential.getPrimary()).isEqualTo("primary");
+        assertThat(credential.getSecondary()).isEqualTo("secondary");
+        assertThat(credential.getDescription()).isEqualTo("description");
+        assertThat(credential.getCreatedAt()).isNotNull();
+        assertThat(this.dao.getCredentialForMember("db", "b").get().getSymmetricKey())
+                .isEqualTo("key-b");
+    }
+
+    @Test
+    public void testGetCredentialForMemberNotFound() throws Exception {
+        this.save("owner", "primary", ImmutableMap.of("a", "key-a"));
+
+        assertThat(this.dao.getCredentialForMember("db", "c").isPresent()).isFalse();
+        assertThat(this.dao.getCredentialForMember("missing", "a").isPresent()).isFalse();
+    }
+
+    @Test
+    public void testSaveStoresPayloadOnce() {
+        this.save("owner", "primary", ImmutableMap.of("a", "key-a", "b", "key-b"));
+
+        final CredentialGroup group = this.dao.getGroup("db").get();
+        assertThat(group.getOwner()).isEqualTo("owner");
+        assertThat(group.getMemberCount()).isEqualTo(2);
+        assertThat(group.getMembers()).isNull();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.keys("group:*")).containsOnly("group:db", "group:db:keys");
+            assertThat(jedis.hget("group:db:keys", DIGEST_A)).isEqualTo("key-a");
+            assertThat(jedis.hlen("group:db:keys")).isEqualTo(2L);
+        }
+    }
+
+    @Test
+    public void testSaveReplacesMembers() throws Exception {
+        this.save("owner", "primary", ImmutableMap.of("a", "key-a", "b", "key-b"));
+        final CredentialGroup group = this.dao.getGroup("db").get();
+
+        final CredentialGroup rotated = this.group("owner", "rotated",
+                ImmutableMap.of("a", "new-key-a"));
+        assertThat(this.dao.save(rotated, ImmutableMap.of("a", "new-key-a")))
+                .isEqualTo(SaveResult.REPLACED);
+        assertThat(rotated.getCreatedAt()).isEqualTo(group.getCreatedAt());
+
+        final Credential credential = this.dao.getCredentialForMember("db", "a").get();
+        assertThat(credential.getPrimary()).isEqualTo("rotated");
+        assertThat(credential.getSymmetricKey()).isEqualTo("new-key-a");
+        assertThat(credential.getCreatedAt()).isEqualTo(group.getCreatedAt());
+        assertThat(this.dao.getCredentialForMember("db", "b").isPresent()).isFalse();
+        assertThat(this.dao.getCredentialForMember("b").isPresent()).isFalse();
+        assertThat(this.dao.getGroup("db").get().getMemberCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSaveWithAnotherOwner() throws Exception {
+        this.save("owner", "primary", ImmutableMap.of("a", "key-a"));
+
+        assertThat(this.save("other", "rotated", ImmutableMap.of("b", "key-b")))
+                .isEqualTo(SaveResult.FORBIDDEN);
+
+        assertThat(this.dao.getCredentialForMember("db", "a").get().getPrimary())
+                .isEqualTo("primary");
+        assertThat(this.dao.getCredentialForMember("db", "b").isPresent()).isFalse();
+        assertThat(this.dao.getCredentialForMember("b").isPresent()).isFalse();
+    }
+
+    @Test
+    public void testGetCredentialForMemberByKey() throws Exception {
+        this.save("owner", "primary", ImmutableMap.of("a", "key-a", "b", "key-b"));
+
+        assertThat(this.dao.getCredentialForMember("a").get().getSymmetricKey())
+                .isEqualTo("key-a");
+        assertThat(this.dao.getCredentialForMember("c").isPresent()).isFalse();
+
+        // Added to another group, which is the one it reads from then.
+        final CredentialGroup cache = this.group("owner", "cache", ImmutableMap.of("a", "key"));
+        cache.setName("cache");
+        this.dao.save(cache, ImmutableMap.of("a", "cache-key-a"));
+        assertThat(this.dao.getCredentialForMember("a").get().getPrimary()).isEqualTo("cache");
+        // Leaving the first group keeps it in the other one.
+        this.save("owner", "primary", ImmutableMap.of("b", "key-b"));
+        assertThat(this.dao.getCredentialForMember("a").get().getPrimary()).isEqualTo("cache");
+
+        this.dao.delete("cache");
+        assertThat(this.dao.getCredentialForMember("a").isPresent()).isFalse();
+        assertThat(this.dao.getCredentialForMember("b").get().getPrimary()).isEqualTo("primary");
+        this.dao.delete("db");
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("group_members")).isFalse();
+        }
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        this.save("owner", "primary", ImmutableMap.of("a", "key-a"));
+
+        assertThat(this.dao.delete("db")).isTrue();
+        assertThat(this.dao.getGroup("db").isPresent()).isFalse();
+        assertThat(this.dao.delete("db")).isFalse();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.keys("group:*")).isEmpty();
+        }
+    }
+
+    private SaveResult save(final String owner, final String primary,
+            final ImmutableMap<String, String> symmetricKeys) {
+        return this.dao.save(this.group(owner, primary, symmetricKeys), symmetricKeys);
+    }
+
+    private CredentialGroup group(final String owner, final String primary,
+            final ImmutableMap<String, String> symmetricKeys) {
+        return CredentialGroup.builder()
+                .name("db")
+                .owner(owner)
+                .cipherSuite(CipherSuite.AES_GCM_RSA_OAEP)
+                .primary(primary)
+                .secondary("secondary")
+                .description("description")
+                .members(Arrays.asList(symmetricKeys.keySet().toArray(new String[0])))
+                .build();
+    }
+}
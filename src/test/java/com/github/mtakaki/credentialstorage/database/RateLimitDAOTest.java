@@ -0,0 +1,72 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class RateLimitDAOTest {
+    // Ten requests per second with a burst of three.
+    private static final long INTERVAL = 100000L;
+    private static final long TOLERANCE = 2 * INTERVAL;
+    private static final long NOW = 1500000000000000L;
+
+    private RateLimitDAO dao;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.dao = new RateLimitDAO(this.jedisPool::getResource);
+    }
+
+    @After
+    public void tearDown() {
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testAcquireAllowsTheBurst() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(this.dao.acquire("a", NOW, INTERVAL, TOLERANCE)).isZero();
+        }
+
+        assertThat(this.dao.acquire("a", NOW, INTERVAL, TOLERANCE)).isEqualTo(INTERVAL);
+        // Other keys have their own limit.
+        assertThat(this.dao.acquire("b", NOW, INTERVAL, TOLERANCE)).isZero();
+    }
+
+    @Test
+    public void testAcquireRefillsOverTime() {
+        for (int i = 0; i < 3; i++) {
+            this.dao.acquire("a", NOW, INTERVAL, TOLERANCE);
+        }
+
+        assertThat(this.dao.acquire("a", NOW + INTERVAL / 2, INTERVAL, TOLERANCE))
+                .isEqualTo(INTERVAL / 2);
+        assertThat(this.dao.acquire("a", NOW + INTERVAL, INTERVAL, TOLERANCE)).isZero();
+    }
+
+    @Test
+    public void testAcquireExpiresTheKey() {
+        this.dao.acquire("a", NOW, INTERVAL, TOLERANCE);
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.get("rate:a")).isEqualTo(String.valueOf(NOW + INTERVAL));
+            assertThat(jedis.pttl("rate:a")).isBetween(1L, 100L);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.mtakaki.credentialstorage.database;
+
+import java.io.IOException;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.EncryptionUtil;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+/**
+ * Compares the memory taken by the credentials in the legacy layout, under
+ * {@code credential:<public key>}, and in the digest based layout, under
+ * {@code cred:<digest>}. It's not run with the tests, run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.mtakaki.credentialstorage.database.StorageLayoutBenchmark \
+ *     -Dexec.args="100000"
+ * </pre>
+ *
+ * <p>
+ * The given number of credentials, 100,000 by default, are saved by
+ * {@link CredentialDAO} into an empty embedded redis, with random public keys
+ * as long as a base64 encoded 2048 bits RSA key and the fields encrypted with
+ * the default cipher suite. They are then renamed to the legacy layout, keeping
+ * every field, and moved back by {@link CredentialDAO#migrateLegacyKeys(int)}.
+ * The {@code used_memory} reported by {@code INFO memory} is taken after each
+ * step, less the one of the empty database.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class StorageLayoutBenchmark {
+    private static final int DEFAULT_CREDENTIALS = 100_000;
+    private static final int BATCH_SIZE = 1000;
+    // The length of an X.509 encoded 2048 bits RSA public key.
+    private static final int PUBLIC_KEY_BYTES = 294;
+
+    public static void main(final String[] args) throws Exception {
+        final int credentials = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_CREDENTIALS;
+        final RedisServer redisServer = RedisServer.builder()
+                .port(new EphemeralPortProvider().next()).build();
+        redisServer.start();
+        final JedisPool jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", redisServer.ports().get(0)));
+        try (Jedis jedis = jedisPool.getResource()) {
+            final CredentialDAO credentialDAO = new CredentialDAO(jedisPool::getResource);
+            final long empty = getUsedMemory(jedis);
+
+            final List<String> publicKeys = save(credentialDAO, credentials);
+            final long digest = getUsedMemory(jedis) - empty;
+            toLegacyLayout(jedis, publicKeys);
+            final long legacy = getUsedMemory(jedis) - empty;
+            final long migrated = credentialDAO.migrateLegacyKeys(BATCH_SIZE);
+            final long migratedDigest = getUsedMemory(jedis) - empty;
+
+            System.out.printf("redis %s, %,d credentials, %,d migrated back%n",
+                    jedis.info("server").replaceAll("(?s).*redis_version:(\\S+).*", "$1"),
+                    credentials, migrated);
+            System.out.printf("%-16s %15s %15s %15s%n", "layout", "bytes", "bytes/record",
+                    "MB/million");
+            report("legacy", legacy, credentials);
+            report("digest", digest, credentials);
+            report("digest migrated", migratedDigest, credentials);
+            report("saved", legacy - digest, credentials);
+        } finally {
+            jedisPool.close();
+            redisServer.stop();
+        }
+        // Embedded redis leaves a thread behind that keeps the JVM running.
+        System.exit(0);
+    }
+
+    private static List<String> save(final CredentialDAO credentialDAO, final int credentials)
+            throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        final EncryptionUtil encryptionUtil = new EncryptionUtil(
+                keyPairGenerator.generateKeyPair().getPublic().getEncoded(), 128,
+                CipherSuite.AES_GCM_RSA_OAEP);
+        final SecretKey symmetricKey = encryptionUtil.generateSymmetricKey();
+        final String encryptedSymmetricKey = encryptionUtil.encrypt(symmetricKey);
+        final String primary = encryptionUtil
+                .encrypt(symmetricKey, "user-0123456789abcdef0123456789").get();
+        final String secondary = encryptionUtil
+                .encrypt(symmetricKey, "password-0123456789abcdef012345").get();
+
+        // Random keys, as generating that many RSA key pairs takes too long.
+        final Random random = new Random(0L);
+        final byte[] publicKey = new byte[PUBLIC_KEY_BYTES];
+        final List<String> publicKeys = new ArrayList<>(credentials);
+        for (int i = 0; i < credentials; i++) {
+            random.nextBytes(publicKey);
+            final String key = Base64.getEncoder().encodeToString(publicKey);
+            credentialDAO.save(Credential.builder().key(key).symmetricKey(encryptedSymmetricKey)
+                    .cipherSuite(CipherSuite.AES_GCM_RSA_OAEP).primary(primary)
+                    .secondary(secondary).build());
+            publicKeys.add(key);
+        }
+        return publicKeys;
+    }
+
+    /**
+     * Moves the records to where older versions kept them, with the public key
+     * in their key name and in both sorted sets.
+     */
+    private static void toLegacyLayout(final Jedis jedis, final List<String> publicKeys)
+            throws IOException {
+        final String[] indexes = { "last_accessed", "last_updated" };
+        for (int i = 0; i < publicKeys.size(); i += BATCH_SIZE) {
+            final List<String> batch = publicKeys.subList(i,
+                    Math.min(i + BATCH_SIZE, publicKeys.size()));
+            final List<Response<Double>> scores = new ArrayList<>();
+            try (final Pipeline pipeline = jedis.pipelined()) {
+                for (final String key : batch) {
+                    for (final String index : indexes) {
+                        scores.add(pipeline.zscore(index, KeyDigest.of(key)));
+                    }
+                }
+                pipeline.sync();
+            }
+            try (final Pipeline pipeline = jedis.pipelined()) {
+                int score = 0;
+                for (final String key : batch) {
+                    final String member = KeyDigest.of(key);
+                    final String legacyKey = "credential:" + key;
+                    pipeline.rename("cred:" + member, legacyKey);
+                    for (final String index : indexes) {
+                        pipeline.zadd(index, scores.get(score++).get(), legacyKey);
+                        pipeline.zrem(index, member);
+                    }
+                }
+                pipeline.sync();
+            }
+        }
+    }
+
+    private static long getUsedMemory(final Jedis jedis) {
+        return Long.parseLong(
+                jedis.info("memory").replaceAll("(?s).*used_memory:(\\d+).*", "$1"));
+    }
+
+    private static void report(final String layout, final long bytes, final int credentials) {
+        System.out.printf("%-16s %,15d %,15d %,15d%n", layout, bytes, bytes / credentials,
+                bytes * 1_000_000L / credentials / (1024L * 1024L));
+    }
+}
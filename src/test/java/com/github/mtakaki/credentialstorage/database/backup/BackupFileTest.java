@@ -0,0 +1,105 @@
+package com.github.mtakaki.credentialstorage.database.backup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.github.mtakaki.credentialstorage.database.cold.ColdRecord;
+import com.google.common.io.ByteStreams;
+
+public class BackupFileTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final List<ColdRecord> first = Arrays.asList(record("a", 1L), record("b", 2L));
+        final List<ColdRecord> second = Collections.singletonList(record("c", 3L));
+
+        try (BackupFile.Reader reader = new BackupFile.Reader(
+                new ByteArrayInputStream(write(first, second)))) {
+            assertThat(reader.next()).isEqualTo(first);
+            assertThat(reader.next()).isEqualTo(second);
+            assertThat(reader.next()).isNull();
+            assertThat(reader.getRecords()).isEqualTo(3L);
+        }
+    }
+
+    @Test
+    public void testIncompleteBackup() throws IOException {
+        final byte[] backup = write(Collections.singletonList(record("a", 1L)));
+        // Recompressing it without the trailer.
+        final byte[] content = ByteStreams.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(backup)));
+        final ByteArrayOutputStream truncated = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(truncated)) {
+            output.write(content, 0, content.length - 12);
+        }
+
+        try (BackupFile.Reader reader = new BackupFile.Reader(
+                new ByteArrayInputStream(truncated.toByteArray()))) {
+            assertThat(reader.next()).hasSize(1);
+            this.expectedException.expect(IOException.class);
+            this.expectedException.expectMessage("incomplete");
+            reader.next();
+        }
+    }
+
+    @Test
+    public void testCorruptedBatch() throws IOException {
+        final byte[] content = ByteStreams.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(write(Collections.singletonList(record("a", 1L))))));
+        // The last byte of the record, right before its checksum.
+        content[content.length - 17] ^= 0xff;
+        final ByteArrayOutputStream corrupted = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(corrupted)) {
+            output.write(content);
+        }
+
+        try (BackupFile.Reader reader = new BackupFile.Reader(
+                new ByteArrayInputStream(corrupted.toByteArray()))) {
+            this.expectedException.expect(IOException.class);
+            this.expectedException.expectMessage("checksum");
+            reader.next();
+        }
+    }
+
+    @Test
+    public void testNotABackup() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(bytes)) {
+            output.write(new byte[8]);
+        }
+
+        this.expectedException.expect(IOException.class);
+        new BackupFile.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @SafeVarargs
+    private static byte[] write(final List<ColdRecord>... batches) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BackupFile.Writer writer = new BackupFile.Writer(bytes)) {
+            for (final List<ColdRecord> batch : batches) {
+                writer.append(new ArrayList<>(batch));
+            }
+            writer.finish();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ColdRecord record(final String key, final long score) {
+        return new ColdRecord(Collections.singletonMap("key", key), score, score + 1L);
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.mtakaki.credentialstorage.database.cold;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        this.store = this.open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.store.close();
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        this.store.put("a", bytes("first"));
+        this.store.put("b", bytes("second"));
+        this.store.put("a", bytes("third"));
+
+        assertThat(this.store.get("a").get()).isEqualTo(bytes("third"));
+        assertThat(this.store.get("b").get()).isEqualTo(bytes("second"));
+        assertThat(this.store.get("c").isPresent()).isFalse();
+        assertThat(this.store.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRemove() throws IOException {
+        this.store.put("a", bytes("first"));
+        this.store.remove("a");
+        this.store.remove("missing");
+
+        assertThat(this.store.get("a").isPresent()).isFalse();
+        assertThat(this.store.contains("a")).isFalse();
+    }
+
+    @Test
+    public void testReopenRebuildsTheIndex() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            this.store.put("key" + i, bytes("value" + i));
+        }
+        this.store.remove("key3");
+        this.store.sync();
+        this.store.close();
+
+        this.store = this.open();
+
+        assertThat(this.store.size()).isEqualTo(19);
+        assertThat(this.store.get("key7").get()).isEqualTo(bytes("value7"));
+        assertThat(this.store.get("key3").isPresent()).isFalse();
+        // Rolled to new segments along the way.
+        assertThat(this.segments()).hasSize(5);
+    }
+
+    @Test
+    public void testReopenDropsATruncatedRecord() throws IOException {
+        this.store.put("a", bytes("first"));
+        this.store.put("b", bytes("second"));
+        this.store.close();
+        final File segment = this.segments()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 2L);
+        }
+
+        this.store = this.open();
+
+        assertThat(this.store.get("a").get()).isEqualTo(bytes("first"));
+        assertThat(this.store.contains("b")).isFalse();
+        // Appending after the truncated record.
+        this.store.put("c", bytes("third"));
+        this.store.close();
+        this.store = this.open();
+        assertThat(this.store.get("c").get()).isEqualTo(bytes("third"));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            this.store.put("key" + i, bytes("value" + i));
+        }
+        for (int i = 0; i < 18; i++) {
+            this.store.remove("key" + i);
+        }
+        final long diskSize = this.store.getDiskSize();
+
+        assertThat(this.store.compact(0.5)).isPositive();
+
+        assertThat(this.store.getDiskSize()).isLessThan(diskSize);
+        assertThat(this.store.get("key18").get()).isEqualTo(bytes("value18"));
+        assertThat(this.store.get("key19").get()).isEqualTo(bytes("value19"));
+
+        // Removed keys don't come back once the index is rebuilt.
+        this.store.close();
+        this.store = this.open();
+        assertThat(this.store.keys()).containsOnly("key18", "key19");
+    }
+
+    @Test
+    public void testCompactDropsTombstonesHidingNothing() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            this.store.put("key" + i, bytes("value" + i));
+        }
+        for (int i = 0; i < 20; i++) {
+            this.store.remove("key" + i);
+        }
+
+        assertThat(this.store.compact(0.5)).isPositive();
+
+        // Only the active segment is left, and there is nothing to compact.
+        assertThat(this.segments()).hasSize(1);
+        assertThat(this.store.compact(0.5)).isZero();
+        this.store.close();
+        this.store = this.open();
+        assertThat(this.store.keys()).isEmpty();
+    }
+
+    @Test
+    public void testCompactKeepsTombstonesHidingOlderRecords() throws IOException {
+        // Fills the first segment, which stays mostly live.
+        for (int i = 0; i < 5; i++) {
+            this.store.put("key" + i, bytes("value" + i));
+        }
+        // Followed by a segment of garbage only.
+        this.store.remove("key0");
+        for (int i = 0; i < 4; i++) {
+            this.store.put("y", bytes("v"));
+            this.store.remove("y");
+        }
+        this.store.put("z", bytes("last"));
+
+        assertThat(this.store.compact(0.5)).isEqualTo(1);
+
+        this.store.close();
+        this.store = this.open();
+        assertThat(this.store.keys()).containsOnly("key1", "key2", "key3", "key4", "z");
+    }
+
+    private SegmentStore open() throws IOException {
+        // Small segments, so a few records roll them.
+        return new SegmentStore(this.folder.getRoot().toPath(), 100L);
+    }
+
+    private File[] segments() {
+        return this.folder.getRoot().listFiles((dir, name) -> name.endsWith(".seg"));
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.mtakaki.credentialstorage.database.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mtakaki.credentialstorage.configuration.JournalConfiguration;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+public class WriteJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayInOrder() throws IOException {
+        final WriteJournal journal = this.open(Size.kilobytes(64L));
+        for (int i = 0; i < 10; i++) {
+            assertThat(journal.append(entry("key" + i, i))).isTrue();
+        }
+        assertThat(journal.getDepth()).isEqualTo(10);
+
+        final List<String> replayed = new ArrayList<>();
+        assertThat(journal.replay(4, entry -> replayed.add(entry.getKey()))).isEqualTo(4);
+        assertThat(journal.getDepth()).isEqualTo(6);
+        assertThat(journal.replay(100, entry -> replayed.add(entry.getKey()))).isEqualTo(6);
+
+        assertThat(replayed).containsExactly("key0", "key1", "key2", "key3", "key4", "key5",
+                "key6", "key7", "key8", "key9");
+        assertThat(journal.getDepth()).isZero();
+        assertThat(journal.replay(100, entry -> replayed.add(entry.getKey()))).isZero();
+    }
+
+    @Test
+    public void testPendingEntriesSurviveReopen() throws IOException {
+        final WriteJournal journal = this.open(Size.kilobytes(64L));
+        journal.append(entry("key0", 0L));
+        journal.append(entry("key1", 1L));
+        journal.append(entry("key2", 2L));
+        journal.replay(1, entry -> {
+        });
+
+        final WriteJournal reopened = this.open(Size.kilobytes(64L));
+        final List<JournalEntry> replayed = new ArrayList<>();
+        reopened.replay(100, replayed::add);
+
+        assertThat(replayed).containsExactly(entry("key1", 1L), entry("key2", 2L));
+    }
+
+    @Test
+    public void testFailedEntryIsKept() throws IOException {
+        final WriteJournal journal = this.open(Size.kilobytes(64L));
+        journal.append(entry("key0", 0L));
+        journal.append(entry("key1", 1L));
+
+        try {
+            journal.replay(100, entry -> {
+                if (entry.getKey().equals("key1")) {
+                    throw new IOException("Redis is down");
+                }
+            });
+        } catch (final IOException e) {
+            // Expected.
+        }
+
+        assertThat(journal.getDepth()).isEqualTo(1);
+        final List<String> replayed = new ArrayList<>();
+        journal.replay(100, entry -> replayed.add(entry.getKey()));
+        assertThat(replayed).containsExactly("key1");
+    }
+
+    @Test
+    public void testFullJournal() throws IOException {
+        final WriteJournal journal = this.open(Size.kilobytes(1L));
+        int appended = 0;
+        while (journal.append(entry("key" + appended, appended))) {
+            appended++;
+        }
+        assertThat(appended).isPositive();
+
+        // There is room again once it's replayed.
+        assertThat(journal.replay(100, entry -> {
+        })).isEqualTo(appended);
+        assertThat(journal.append(entry("key", 0L))).isTrue();
+    }
+
+    @Test
+    public void testTornEntryIsDropped() throws IOException {
+        final WriteJournal journal = this.open(Size.kilobytes(64L));
+        journal.append(entry("key0", 0L));
+        journal.append(entry("key1", 1L));
+        final long tornEntryStart = 12L + 8L + this.entryLength(entry("key0", 0L));
+        try (RandomAccessFile file = new RandomAccessFile(this.getFile(), "rw")) {
+            // Corrupting the last byte of the second entry.
+            final long position = tornEntryStart + 8L + this.entryLength(entry("key1", 1L)) - 1L;
+            file.seek(position);
+            final int lastByte = file.read();
+            file.seek(position);
+            file.write(lastByte ^ 0xff);
+        }
+
+        final WriteJournal reopened = this.open(Size.kilobytes(64L));
+        assertThat(reopened.getDepth()).isEqualTo(1);
+        reopened.append(entry("key2", 2L));
+        final List<String> replayed = new ArrayList<>();
+        reopened.replay(100, entry -> replayed.add(entry.getKey()));
+        assertThat(replayed).containsExactly("key0", "key2");
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        final WriteJournal journal = WriteJournal.open(new JournalConfiguration(),
+                new MetricRegistry());
+
+        assertThat(journal.isEnabled()).isFalse();
+        assertThat(journal.replay(100, entry -> {
+        })).isZero();
+    }
+
+    private WriteJournal open(final Size size) throws IOException {
+        return WriteJournal.open(new JournalConfiguration(true, this.getFile(), size,
+                Duration.seconds(1L), 100), new MetricRegistry());
+    }
+
+    private String getFile() {
+        return this.folder.getRoot().toPath().resolve("credentials.journal").toString();
+    }
+
+    private int entryLength(final JournalEntry entry) throws IOException {
+        return new ObjectMapper().writeValueAsBytes(entry).length;
+    }
+
+    private static JournalEntry entry(final String key, final long updatedAt) {
+        return new JournalEntry(key, Collections.singletonMap("key", key), updatedAt);
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.mtakaki.credentialstorage.database.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import jodd.util.Base64;
+
+public class CipherTextSerializerTest {
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+    private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
+    private static final byte[] CIPHER_TEXT = new byte[] { 7, -30, -25, 53, 86, 48, 48, -105, 75,
+            -84, -117, -24, 28, 84, -74, 4, 1 };
+
+    private final Credential credential = Credential.builder()
+            .symmetricKey(Base64.encodeToString(CIPHER_TEXT))
+            .primary(Base64.encodeToString(CIPHER_TEXT))
+            .secondary("not base64!")
+            .description("test").build();
+
+    @Test
+    public void testWritesRawBytesInSmile() throws IOException {
+        final byte[] payload = SMILE_MAPPER.writeValueAsBytes(this.credential);
+
+        assertThat(this.readField(SMILE_MAPPER, payload, "primary"))
+                .isEqualTo(JsonToken.VALUE_EMBEDDED_OBJECT);
+        assertThat(this.readField(SMILE_MAPPER, payload, "secondary"))
+                .isEqualTo(JsonToken.VALUE_STRING);
+        assertThat(SMILE_MAPPER.readValue(payload, Credential.class)).isEqualTo(this.credential);
+        assertThat(payload.length)
+                .isLessThan(JSON_MAPPER.writeValueAsBytes(this.credential).length);
+    }
+
+    @Test
+    public void testWritesRawBytesInCBOR() throws IOException {
+        final byte[] payload = CBOR_MAPPER.writeValueAsBytes(this.credential);
+
+        assertThat(this.readField(CBOR_MAPPER, payload, "symmetricKey"))
+                .isEqualTo(JsonToken.VALUE_EMBEDDED_OBJECT);
+        assertThat(CBOR_MAPPER.readValue(payload, Credential.class)).isEqualTo(this.credential);
+    }
+
+    @Test
+    public void testWritesBase64InJSON() throws IOException {
+        assertThat(JSON_MAPPER.readTree(JSON_MAPPER.writeValueAsBytes(this.credential))
+                .get("primary").asText()).isEqualTo(Base64.encodeToString(CIPHER_TEXT));
+    }
+
+    @Test
+    public void testConvertsToStrings() {
+        final Map<String, String> propertyValues = SMILE_MAPPER.convertValue(this.credential,
+                new TypeReference<Map<String, String>>() {
+                });
+
+        assertThat(propertyValues).containsEntry("primary", Base64.encodeToString(CIPHER_TEXT));
+    }
+
+    private JsonToken readField(final ObjectMapper mapper, final byte[] payload,
+            final String field) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(payload)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && field.equals(parser.getCurrentName())) {
+                    return parser.nextToken();
+                }
+            }
+            return null;
+        }
+    }
+}
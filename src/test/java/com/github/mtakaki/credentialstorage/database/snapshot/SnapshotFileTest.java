@@ -0,0 +1,82 @@
+package com.github.mtakaki.credentialstorage.database.snapshot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final Path file = this.folder.getRoot().toPath().resolve("test.snapshot");
+        final SnapshotFile snapshot;
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(
+                this.folder.getRoot().toPath().resolve("test.snapshot.tmp"), 1234L)) {
+            for (int i = 0; i < 100; i++) {
+                writer.append("member" + i, record("value" + i));
+            }
+            snapshot = writer.commit(file);
+        }
+
+        assertThat(snapshot.size()).isEqualTo(100);
+        assertThat(snapshot.getCreatedAt()).isEqualTo(1234L);
+        assertThat(snapshot.get("member42").get()).isEqualTo(record("value42"));
+        assertThat(snapshot.get("missing").isPresent()).isFalse();
+        // Reopened from the disk.
+        assertThat(SnapshotFile.open(file).get("member99").get()).isEqualTo(record("value99"));
+        assertThat(this.folder.getRoot().list()).containsOnly("test.snapshot");
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        final SnapshotFile snapshot;
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(
+                this.folder.getRoot().toPath().resolve("test.snapshot.tmp"), 1234L)) {
+            writer.append("member", record("value"));
+            snapshot = writer.commit(this.folder.getRoot().toPath().resolve("test.snapshot"));
+        }
+        assertThat(snapshot.getMembers()).containsOnly("member");
+
+        snapshot.close();
+        snapshot.close();
+
+        assertThat(snapshot.get("member").isPresent()).isFalse();
+    }
+
+    @Test
+    public void testDiscardedWhenNotCommitted() throws IOException {
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(
+                this.folder.getRoot().toPath().resolve("test.snapshot.tmp"), 1234L)) {
+            writer.append("member", record("value"));
+        }
+
+        assertThat(this.folder.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void testOpenInvalidFile() throws IOException {
+        final Path file = this.folder.newFile().toPath();
+        Files.write(file, new byte[20]);
+
+        this.expectedException.expect(IOException.class);
+        SnapshotFile.open(file);
+    }
+
+    private static Map<String, String> record(final String value) {
+        return Collections.singletonMap("primary", value);
+    }
+}
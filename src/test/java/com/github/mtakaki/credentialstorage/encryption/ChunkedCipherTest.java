@@ -0,0 +1,117 @@
+package com.github.mtakaki.credentialstorage.encryption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ChunkedCipherTest {
+    private static final int CHUNK_SIZE = 1024;
+
+    private ChunkedCipher chunkedCipher;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Before
+    public void setUp() throws Exception {
+        final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        final SecretKey symmetricKey = keyGenerator.generateKey();
+        this.chunkedCipher = new ChunkedCipher(symmetricKey, CHUNK_SIZE);
+    }
+
+    @Test
+    public void testEncryptAndDecrypt() throws Exception {
+        final byte[] payload = randomBytes(CHUNK_SIZE * 3 + 100);
+
+        final List<byte[]> frames = this.encrypt(payload);
+
+        assertThat(frames).hasSize(4);
+        assertThat(frames.get(0)).hasSize(
+                ChunkedCipher.NONCE_LENGTH + CHUNK_SIZE + ChunkedCipher.TAG_LENGTH);
+        assertThat(ChunkedCipher.getPlainTextLength(frames.get(3))).isEqualTo(100);
+        assertThat(this.decrypt(frames)).isEqualTo(payload);
+    }
+
+    @Test
+    public void testEncryptExactMultipleOfChunkSize() throws Exception {
+        final byte[] payload = randomBytes(CHUNK_SIZE * 2);
+
+        final List<byte[]> frames = this.encrypt(payload);
+
+        // No trailing empty chunk, the read ahead finds the end.
+        assertThat(frames).hasSize(2);
+        assertThat(this.decrypt(frames)).isEqualTo(payload);
+    }
+
+    @Test
+    public void testEncryptEmptyPayload() throws Exception {
+        final List<byte[]> frames = this.encrypt(new byte[0]);
+
+        assertThat(frames).hasSize(1);
+        assertThat(this.decrypt(frames)).isEmpty();
+    }
+
+    @Test
+    public void testDecryptReorderedChunks() throws Exception {
+        final List<byte[]> frames = this.encrypt(randomBytes(CHUNK_SIZE * 3));
+
+        this.expectedException.expect(InitializationException.class);
+        this.chunkedCipher.decryptChunk(0, frames.get(1), false);
+    }
+
+    @Test
+    public void testDecryptTruncatedPayload() throws Exception {
+        final List<byte[]> frames = this.encrypt(randomBytes(CHUNK_SIZE * 3));
+
+        // The second chunk was not encrypted as the last one.
+        this.expectedException.expect(InitializationException.class);
+        this.chunkedCipher.decryptChunk(1, frames.get(1), true);
+    }
+
+    @Test
+    public void testDecryptTamperedChunk() throws Exception {
+        final List<byte[]> frames = this.encrypt(randomBytes(100));
+        frames.get(0)[ChunkedCipher.NONCE_LENGTH] ^= 1;
+
+        this.expectedException.expect(InitializationException.class);
+        this.decrypt(frames);
+    }
+
+    private List<byte[]> encrypt(final byte[] payload) {
+        final List<byte[]> frames = new ArrayList<>();
+        final Iterator<byte[]> iterator = this.chunkedCipher
+                .encrypt(new ByteArrayInputStream(payload));
+        iterator.forEachRemaining(frames::add);
+        return frames;
+    }
+
+    private byte[] decrypt(final List<byte[]> frames) throws InitializationException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int i = 0; i < frames.size(); i++) {
+            final byte[] plainText = this.chunkedCipher.decryptChunk(i, frames.get(i),
+                    i == frames.size() - 1);
+            output.write(plainText, 0, plainText.length);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.mtakaki.credentialstorage.encryption;
+
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compares the throughput of the cipher suites, with 1, 2, 4 and so on threads,
+ * up to one per core, or with the thread counts given as arguments. It's not run
+ * with the tests, run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.mtakaki.credentialstorage.encryption.CipherSuiteBenchmark \
+ *     -Dexec.args="1 2 4 8"
+ * </pre>
+ *
+ * <p>
+ * It measures the whole work done when a credential is stored, generating and
+ * wrapping the symmetric key and encrypting both fields, and the symmetric
+ * encryption alone, for a small and a large payload.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class CipherSuiteBenchmark {
+    private static final long WARM_UP_SECONDS = 5L;
+    private static final long MEASURE_SECONDS = 10L;
+
+    @FunctionalInterface
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final List<Integer> threadCounts = getThreadCounts(args);
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        final byte[] publicKey = keyPairGenerator.generateKeyPair().getPublic().getEncoded();
+        final String smallPayload = StringUtils.repeat('a', 32);
+        final String largePayload = StringUtils.repeat('a', 16 * 1024);
+
+        System.out.printf("%s %s, %d cores%n", System.getProperty("java.vm.name"),
+                System.getProperty("java.version"), Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-18s %-20s %7s %15s%n", "suite", "operation", "threads", "ops/s");
+        for (final int threads : threadCounts) {
+            runSuites(threads, publicKey, smallPayload, largePayload);
+        }
+    }
+
+    private static List<Integer> getThreadCounts(final String[] args) {
+        final List<Integer> threadCounts = new ArrayList<>();
+        if (args.length > 0) {
+            for (final String arg : args) {
+                threadCounts.add(Integer.parseInt(arg));
+            }
+            return threadCounts;
+        }
+        final int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+        return threadCounts;
+    }
+
+    private static void runSuites(final int threads, final byte[] publicKey,
+            final String smallPayload, final String largePayload) throws Exception {
+        for (final CipherSuite cipherSuite : CipherSuite.values()) {
+            final EncryptionUtil encryptionUtil = new EncryptionUtil(publicKey, 128, cipherSuite);
+            final SecretKey symmetricKey = encryptionUtil.generateSymmetricKey();
+
+            report(cipherSuite, "store credential", threads, () -> {
+                final SecretKey generatedKey = encryptionUtil.generateSymmetricKey();
+                encryptionUtil.encrypt(generatedKey);
+                encryptionUtil.encrypt(generatedKey, smallPayload);
+                encryptionUtil.encrypt(generatedKey, smallPayload);
+            });
+            report(cipherSuite, "encrypt 32 bytes", threads,
+                    () -> encryptionUtil.encrypt(symmetricKey, smallPayload));
+            report(cipherSuite, "encrypt 16 KB", threads,
+                    () -> encryptionUtil.encrypt(symmetricKey, largePayload));
+        }
+    }
+
+    private static void report(final CipherSuite cipherSuite, final String name,
+            final int threads, final Operation operation) throws Exception {
+        run(threads, WARM_UP_SECONDS, operation);
+        final long operations = run(threads, MEASURE_SECONDS, operation);
+        System.out.printf("%-18s %-20s %7d %,15d%n", cipherSuite, name, threads,
+                operations / MEASURE_SECONDS);
+    }
+
+    private static long run(final int threads, final long seconds, final Operation operation)
+            throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                long count = 0L;
+                while (System.nanoTime() < deadline) {
+                    operation.run();
+                    count++;
+                }
+                return count;
+            }));
+        }
+        long total = 0L;
+        for (final Future<Long> result : results) {
+            total += result.get();
+        }
+        executor.shutdown();
+        return total;
+    }
+}
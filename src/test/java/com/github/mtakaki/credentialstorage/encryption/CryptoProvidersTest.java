@@ -0,0 +1,92 @@
+package com.github.mtakaki.credentialstorage.encryption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.mtakaki.credentialstorage.configuration.CryptoProviderConfiguration;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders.Candidate;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders.Selection;
+
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
+
+public class CryptoProvidersTest {
+    @Test
+    public void testSelect() throws Exception {
+        final CryptoProviders cryptoProviders = CryptoProviders.select(
+                new CryptoProviderConfiguration(Collections.emptyList(), Collections.emptyList(),
+                        Duration.milliseconds(10L)));
+
+        assertThat(cryptoProviders.getSelections()).extracting(Selection::getTransformation)
+                .containsExactly("RSA/ECB/PKCS1Padding", "AES/ECB/PKCS5Padding",
+                        "RSA/ECB/OAEPPadding", "AES/GCM/NoPadding");
+        for (final Selection selection : cryptoProviders.getSelections()) {
+            assertThat(selection.getProvider()).isNotNull();
+            assertThat(selection.getCandidates()).isNotEmpty();
+            assertThat(cryptoProviders.get(selection.getTransformation()))
+                    .isSameAs(selection.getProvider());
+        }
+        // Only SunJCE offers AES-GCM in a stock JVM.
+        assertThat(cryptoProviders.get("AES/GCM/NoPadding").getName()).isEqualTo("SunJCE");
+    }
+
+    @Test
+    public void testSelectOnlyConfiguredCandidates() throws Exception {
+        final CryptoProviders cryptoProviders = CryptoProviders.select(
+                new CryptoProviderConfiguration(Collections.emptyList(),
+                        Arrays.asList("Missing", "SunJCE"), Duration.milliseconds(0L)));
+
+        for (final Selection selection : cryptoProviders.getSelections()) {
+            assertThat(selection.getCandidates()).extracting(Candidate::getProvider)
+                    .containsExactly("SunJCE");
+            assertThat(selection.getProviderName()).isEqualTo("SunJCE");
+        }
+    }
+
+    @Test
+    public void testSelectWithoutCandidates() throws Exception {
+        final CryptoProviders cryptoProviders = CryptoProviders.select(
+                new CryptoProviderConfiguration(Collections.emptyList(),
+                        Collections.singletonList("Missing"), Duration.milliseconds(0L)));
+
+        // Falling back to the JVM default.
+        assertThat(cryptoProviders.get("AES/GCM/NoPadding")).isNull();
+    }
+
+    @Test
+    public void testSelectSkipsProvidersMissingFromClassPath() throws Exception {
+        final CryptoProviders cryptoProviders = CryptoProviders.select(
+                new CryptoProviderConfiguration(
+                        Collections.singletonList("org.conscrypt.OpenSSLProvider"),
+                        Collections.emptyList(), Duration.milliseconds(0L)));
+
+        assertThat(cryptoProviders.get("AES/GCM/NoPadding")).isNotNull();
+    }
+
+    @Test
+    public void testSelectionsSerialization() throws Exception {
+        final CryptoProviders cryptoProviders = CryptoProviders.select(
+                new CryptoProviderConfiguration(Collections.emptyList(),
+                        Collections.singletonList("SunJCE"), Duration.milliseconds(0L)));
+
+        final JsonNode selection = Jackson.newObjectMapper()
+                .valueToTree(cryptoProviders.getSelections()).get(0);
+        assertThat(selection.get("transformation").asText()).isEqualTo("RSA/ECB/PKCS1Padding");
+        assertThat(selection.get("providerName").asText()).isEqualTo("SunJCE");
+        // The provider itself is a map with all its algorithms.
+        assertThat(selection.has("provider")).isFalse();
+        assertThat(selection.get("candidates").get(0).get("provider").asText())
+                .isEqualTo("SunJCE");
+    }
+
+    @Test
+    public void testJvmDefault() {
+        assertThat(CryptoProviders.JVM_DEFAULT.get("AES/GCM/NoPadding")).isNull();
+        assertThat(CryptoProviders.JVM_DEFAULT.getSelections()).isEmpty();
+    }
+}
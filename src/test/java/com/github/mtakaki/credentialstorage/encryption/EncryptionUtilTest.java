@@ -3,15 +3,24 @@ package com.github.mtakaki.credentialstorage.encryption;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -92,4 +101,45 @@ public class EncryptionUtilTest {
         assertThat(this.encryptionUtil.encrypt(secretKey, "123"))
                 .hasValue("s+KpNGC/0McSdf4W2YxBuw==");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncryptWithGcmSuite() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        final EncryptionUtil gcmEncryptionUtil = new EncryptionUtil(
+                keyPair.getPublic().getEncoded(), 128, CipherSuite.AES_GCM_RSA_OAEP);
+        final SecretKey secretKey = gcmEncryptionUtil.generateSymmetricKey();
+
+        final Cipher rsa = Cipher.getInstance("RSA/ECB/OAEPPadding");
+        rsa.init(Cipher.DECRYPT_MODE, keyPair.getPrivate(), new OAEPParameterSpec("SHA-256",
+                "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+        assertThat(rsa.doFinal(Base64.decode(gcmEncryptionUtil.encrypt(secretKey))))
+                .isEqualTo(secretKey.getEncoded());
+
+        final byte[] encrypted = Base64.decode(gcmEncryptionUtil.encrypt(secretKey, "123").get());
+        // Nonce, the 3 bytes ciphertext and the tag.
+        assertThat(encrypted).hasSize(12 + 3 + 16);
+        final Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+        aes.init(Cipher.DECRYPT_MODE, secretKey,
+                new GCMParameterSpec(128, Arrays.copyOf(encrypted, 12)));
+        assertThat(aes.doFinal(encrypted, 12, encrypted.length - 12))
+                .isEqualTo("123".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEncryptWithGcmSuiteUsesRandomNonce() throws Exception {
+        final EncryptionUtil gcmEncryptionUtil = new EncryptionUtil(TEST_RSA_PUBLIC_KEY, 128,
+                CipherSuite.AES_GCM_RSA_OAEP);
+        final SecretKey secretKey = gcmEncryptionUtil
+                .loadSecretKey(Base64.encodeToString(TEST_DES_SYMETRIC_KEY));
+
+        assertThat(gcmEncryptionUtil.encrypt(secretKey, "123"))
+                .isNotEqualTo(gcmEncryptionUtil.encrypt(secretKey, "123"));
+    }
+
+    @Test
+    public void testDefaultCipherSuite() {
+        assertThat(this.encryptionUtil.getCipherSuite()).isEqualTo(CipherSuite.AES_ECB_RSA_PKCS1);
+    }
+}
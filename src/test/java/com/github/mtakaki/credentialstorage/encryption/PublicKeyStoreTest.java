@@ -0,0 +1,87 @@
+package com.github.mtakaki.credentialstorage.encryption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.KeyPairGenerator;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
+
+import jodd.util.Base64;
+
+public class PublicKeyStoreTest {
+    private MetricRegistry metricRegistry;
+    private PublicKeyStore publicKeyStore;
+    private String base64PublicKey;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Before
+    public void setUp() throws Exception {
+        this.metricRegistry = new MetricRegistry();
+        this.publicKeyStore = new PublicKeyStore(new PublicKeyStoreConfiguration(), 128,
+                CipherSuite.AES_GCM_RSA_OAEP, CryptoProviders.JVM_DEFAULT, this.metricRegistry);
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        this.base64PublicKey = Base64
+                .encodeToString(keyPairGenerator.generateKeyPair().getPublic().getEncoded());
+    }
+
+    @Test
+    public void testGetReusesParsedKey() throws Exception {
+        final EncryptionUtil encryptionUtil = this.publicKeyStore.get(this.base64PublicKey);
+
+        assertThat(encryptionUtil).isNotNull();
+        // A new string instance, so we know the lookup is not by reference.
+        assertThat(this.publicKeyStore.get(new String(this.base64PublicKey)))
+                .isSameAs(encryptionUtil);
+        assertThat(this.getGauge("hits")).isEqualTo(1L);
+        assertThat(this.getGauge("misses")).isEqualTo(1L);
+        assertThat(this.getGauge("size")).isEqualTo(1L);
+    }
+
+    @Test
+    public void testGetInvalidKey() throws Exception {
+        this.expectedException.expect(ExecutionException.class);
+        this.publicKeyStore.get("invalid");
+    }
+
+    @Test
+    public void testGetInvalidKeyIsCached() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try {
+                this.publicKeyStore.get("invalid");
+            } catch (final ExecutionException e) {
+                // Expected, the key is not valid.
+            }
+        }
+
+        assertThat(this.getGauge("misses")).isEqualTo(1L);
+        assertThat(this.getGauge("hits")).isEqualTo(2L);
+        assertThat(this.metricRegistry.meter(
+                MetricRegistry.name(PublicKeyStore.class, "rejected-keys")).getCount())
+                        .isEqualTo(3L);
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        final EncryptionUtil encryptionUtil = this.publicKeyStore.get(this.base64PublicKey);
+        this.publicKeyStore.invalidateAll();
+
+        assertThat(this.publicKeyStore.get(this.base64PublicKey)).isNotSameAs(encryptionUtil);
+    }
+
+    private Object getGauge(final String name) {
+        final Gauge<?> gauge = this.metricRegistry.getGauges()
+                .get(MetricRegistry.name(PublicKeyStore.class, name));
+        return gauge.getValue();
+    }
+}
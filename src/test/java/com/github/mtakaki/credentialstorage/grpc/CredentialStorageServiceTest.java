@@ -0,0 +1,284 @@
+package com.github.mtakaki.credentialstorage.grpc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.CredentialStorageConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.GrpcConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.grpc.proto.BatchGetRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.BatchGetResponse;
+import com.github.mtakaki.credentialstorage.grpc.proto.CredentialPair;
+import com.github.mtakaki.credentialstorage.grpc.proto.CredentialStorageGrpc;
+import com.github.mtakaki.credentialstorage.grpc.proto.CredentialStorageGrpc.CredentialStorageBlockingStub;
+import com.github.mtakaki.credentialstorage.grpc.proto.CredentialStorageGrpc.CredentialStorageStub;
+import com.github.mtakaki.credentialstorage.grpc.proto.DeleteRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.GetRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.StoreRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.WatchEvent;
+import com.github.mtakaki.credentialstorage.grpc.proto.WatchRequest;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CredentialWatcher;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import jodd.util.Base64;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CredentialStorageServiceTest {
+    @Mock
+    private AuditLog auditLog;
+
+    @Mock
+    private CredentialStorageConfiguration configuration;
+
+    private String publicKey;
+    private String otherPublicKey;
+    private CredentialDAO credentialDAO;
+    private CredentialWatcher credentialWatcher;
+    private Server server;
+    private ManagedChannel channel;
+    private CredentialStorageBlockingStub stub;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.credentialDAO = new CredentialDAO(this.jedisPool::getResource);
+        this.credentialWatcher = new CredentialWatcher(new GrpcConfiguration(true, 0, 100,
+                Size.megabytes(1L), 100, Duration.seconds(5L), Duration.seconds(1L), 4),
+                this.jedisPool::getResource, new MetricRegistry());
+        this.credentialWatcher.start();
+        when(this.configuration.getGrpc()).thenReturn(new GrpcConfiguration());
+
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        this.publicKey = Base64
+                .encodeToString(keyPairGenerator.generateKeyPair().getPublic().getEncoded());
+        this.otherPublicKey = Base64
+                .encodeToString(keyPairGenerator.generateKeyPair().getPublic().getEncoded());
+
+        final CredentialStorageService service = new CredentialStorageService(this.credentialDAO,
+                new PublicKeyStore(new PublicKeyStoreConfiguration(), 128,
+                        CipherSuite.AES_GCM_RSA_OAEP, CryptoProviders.JVM_DEFAULT,
+                        new MetricRegistry()),
+                new CryptoExecutor(new CryptoExecutorConfiguration(), new MetricRegistry()),
+                this.auditLog, this.credentialWatcher, this.configuration);
+        // In process, without touching the network.
+        final String name = UUID.randomUUID().toString();
+        this.server = InProcessServerBuilder.forName(name).directExecutor().addService(service)
+                .build().start();
+        this.channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        this.stub = CredentialStorageGrpc.newBlockingStub(this.channel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.channel.shutdownNow();
+        this.server.shutdownNow();
+        this.credentialWatcher.stop();
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    private void store(final String publicKey) {
+        this.stub.store(StoreRequest.newBuilder().setPublicKey(publicKey)
+                .setPrimary("user").setSecondary("pass").setDescription("db").build());
+    }
+
+    @Test
+    public void testStoreAndGet() throws Exception {
+        this.stub.store(StoreRequest.newBuilder().setPublicKey(this.publicKey)
+                .setPrimary("user").setSecondary("pass").setDescription("db").setTtl(60L)
+                .build());
+
+        final CredentialPair credentialPair = this.stub
+                .get(GetRequest.newBuilder().setPublicKey(this.publicKey).build());
+
+        final Credential credential = this.credentialDAO.getCredentialByKey(this.publicKey).get();
+        assertThat(credentialPair.getSymmetricKey().toByteArray())
+                .isEqualTo(Base64.decode(credential.getSymmetricKey()));
+        assertThat(credentialPair.getPrimary().toByteArray())
+                .isEqualTo(Base64.decode(credential.getPrimary()));
+        assertThat(credentialPair.getSecondary().toByteArray())
+                .isEqualTo(Base64.decode(credential.getSecondary()));
+        assertThat(credentialPair.getCipherSuite()).isEqualTo(CipherSuite.AES_GCM_RSA_OAEP.name());
+        assertThat(credentialPair.getDescription()).isEqualTo("db");
+        assertThat(credentialPair.getTtl()).isEqualTo(60L);
+        assertThat(credentialPair.getExpiresAt()).isEqualTo(credential.getExpiresAt());
+        assertThat(credentialPair.getUpdatedAt()).isEqualTo(credential.getUpdatedAt().getTime());
+        verify(this.auditLog).record(Action.WRITE, Target.CREDENTIAL, this.publicKey);
+        verify(this.auditLog).record(Action.READ, Target.CREDENTIAL, this.publicKey);
+    }
+
+    @Test
+    public void testStoreReplacesTheDescription() throws Exception {
+        this.store(this.publicKey);
+
+        this.stub.store(StoreRequest.newBuilder().setPublicKey(this.publicKey)
+                .setPrimary("user").setDescription("cache").build());
+        assertThat(this.credentialDAO.getCredentialByKey(this.publicKey).get().getDescription())
+                .isEqualTo("cache");
+        // An empty one keeps it.
+        this.stub.store(StoreRequest.newBuilder().setPublicKey(this.publicKey)
+                .setPrimary("user").build());
+        assertThat(this.credentialDAO.getCredentialByKey(this.publicKey).get().getDescription())
+                .isEqualTo("cache");
+    }
+
+    @Test
+    public void testGetNotFound() {
+        assertStatus(() -> this.stub.get(GetRequest.newBuilder().setPublicKey("123").build()),
+                Status.Code.NOT_FOUND);
+        assertStatus(() -> this.stub.get(GetRequest.getDefaultInstance()),
+                Status.Code.INVALID_ARGUMENT);
+    }
+
+    @Test
+    public void testBatchGet() {
+        this.store(this.publicKey);
+        this.store(this.otherPublicKey);
+
+        final BatchGetResponse response = this.stub.batchGet(BatchGetRequest.newBuilder()
+                .addAllPublicKeys(Arrays.asList(this.otherPublicKey, "123", this.publicKey))
+                .build());
+
+        assertThat(response.getResultsList()).hasSize(3);
+        assertThat(response.getResults(0).getPublicKey()).isEqualTo(this.otherPublicKey);
+        assertThat(response.getResults(0).hasCredential()).isTrue();
+        assertThat(response.getResults(1).getPublicKey()).isEqualTo("123");
+        assertThat(response.getResults(1).hasCredential()).isFalse();
+        assertThat(response.getResults(2).getPublicKey()).isEqualTo(this.publicKey);
+        assertThat(response.getResults(2).getCredential().getDescription()).isEqualTo("db");
+    }
+
+    @Test
+    public void testBatchGetTooLarge() {
+        final BatchGetRequest.Builder request = BatchGetRequest.newBuilder();
+        for (int i = 0; i <= new GrpcConfiguration().getMaxBatchSize(); i++) {
+            request.addPublicKeys(this.publicKey);
+        }
+
+        assertStatus(() -> this.stub.batchGet(request.build()), Status.Code.INVALID_ARGUMENT);
+    }
+
+    @Test
+    public void testStoreInvalid() {
+        assertStatus(() -> this.stub.store(
+                StoreRequest.newBuilder().setPublicKey(this.publicKey).build()),
+                Status.Code.INVALID_ARGUMENT);
+        assertStatus(() -> this.stub.store(
+                StoreRequest.newBuilder().setPublicKey("123").setPrimary("user").build()),
+                Status.Code.INVALID_ARGUMENT);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        this.store(this.publicKey);
+
+        this.stub.delete(DeleteRequest.newBuilder().setPublicKey(this.publicKey).build());
+
+        assertThat(this.credentialDAO.getCredentialByKey(this.publicKey).isPresent()).isFalse();
+        assertStatus(() -> this.stub
+                .delete(DeleteRequest.newBuilder().setPublicKey(this.publicKey).build()),
+                Status.Code.NOT_FOUND);
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        this.store(this.publicKey);
+        final BlockingQueue<WatchEvent> events = new LinkedBlockingQueue<>();
+        final CredentialStorageStub asyncStub = CredentialStorageGrpc.newStub(this.channel);
+        asyncStub.watch(WatchRequest.newBuilder().setPublicKey(this.publicKey).build(),
+                new StreamObserver<WatchEvent>() {
+                    @Override
+                    public void onNext(final WatchEvent event) {
+                        events.add(event);
+                    }
+
+                    @Override
+                    public void onError(final Throwable t) {
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+
+        // The credential as it is when the watch starts.
+        final WatchEvent initial = events.poll(5L, TimeUnit.SECONDS);
+        assertThat(initial.getType()).isEqualTo(WatchEvent.Type.UPDATED);
+        assertThat(initial.getCredential().getDescription()).isEqualTo("db");
+
+        // The subscription might not be ready yet, so it's written until it's
+        // told.
+        WatchEvent updated;
+        do {
+            this.stub.store(StoreRequest.newBuilder().setPublicKey(this.publicKey)
+                    .setPrimary("other").build());
+            updated = events.poll(100L, TimeUnit.MILLISECONDS);
+        } while (updated == null);
+        assertThat(updated.getType()).isEqualTo(WatchEvent.Type.UPDATED);
+        assertThat(updated.getCredential().getPrimary())
+                .isNotEqualTo(initial.getCredential().getPrimary());
+
+        this.stub.delete(DeleteRequest.newBuilder().setPublicKey(this.publicKey).build());
+        WatchEvent deleted;
+        do {
+            deleted = events.poll(5L, TimeUnit.SECONDS);
+        } while (deleted != null && deleted.getType() == WatchEvent.Type.UPDATED);
+        assertThat(deleted.getType()).isEqualTo(WatchEvent.Type.DELETED);
+        assertThat(deleted.hasCredential()).isFalse();
+    }
+
+    private static void assertStatus(final Runnable call, final Status.Code code) {
+        try {
+            call.run();
+            Assertions.fail("Expected " + code);
+        } catch (final StatusRuntimeException e) {
+            assertThat(e.getStatus().getCode()).isEqualTo(code);
+        }
+    }
+}
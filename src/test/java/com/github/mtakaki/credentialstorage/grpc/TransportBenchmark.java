@@ -0,0 +1,232 @@
+package com.github.mtakaki.credentialstorage.grpc;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+
+import ch.qos.logback.classic.Level;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.CredentialStorageConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.GrpcConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.GroupDAO;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.grpc.proto.BatchGetRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.CredentialStorageGrpc;
+import com.github.mtakaki.credentialstorage.grpc.proto.CredentialStorageGrpc.CredentialStorageBlockingStub;
+import com.github.mtakaki.credentialstorage.grpc.proto.GetRequest;
+import com.github.mtakaki.credentialstorage.grpc.proto.StoreRequest;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CredentialWatcher;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.github.mtakaki.credentialstorage.managed.LocalSnapshot;
+import com.github.mtakaki.credentialstorage.resources.CredentialResource;
+
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.jackson.JacksonMessageBodyProvider;
+import io.dropwizard.logging.BootstrapLogging;
+import io.grpc.ManagedChannel;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import jodd.util.Base64;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+/**
+ * Compares reading credentials over gRPC, with {@code Get} and
+ * {@code BatchGet}, with {@code GET /credential} on Jersey. It's not run with
+ * the tests, run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.mtakaki.credentialstorage.grpc.TransportBenchmark
+ * </pre>
+ *
+ * <p>
+ * Both servers listen on the loopback interface, in this JVM, over the same
+ * embedded redis holding 100 credentials: the gRPC service on Netty and the
+ * credential resource on Jersey in Jetty, as the service runs them, without
+ * the limits, metrics and filters of the application. The REST calls are made
+ * with {@link HttpURLConnection}, keeping the connection alive, and the gRPC
+ * calls with the blocking stub on a single channel. It runs on a single
+ * thread, so it compares the cost of a call rather than how each one scales.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class TransportBenchmark {
+    private static final long WARM_UP_SECONDS = 10L;
+    private static final long MEASURE_SECONDS = 10L;
+    private static final int CREDENTIALS = 100;
+    private static final int BATCH_SIZE = 10;
+
+    @FunctionalInterface
+    private interface Operation {
+        /**
+         * Makes a call.
+         *
+         * @return How many credentials it read.
+         */
+        int run() throws Exception;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        // Logging every frame would be measured along with the calls.
+        BootstrapLogging.bootstrap(Level.WARN);
+        final RedisServer redisServer = RedisServer.builder()
+                .port(new EphemeralPortProvider().next()).build();
+        redisServer.start();
+        final JedisPool jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", redisServer.ports().get(0)));
+        final CredentialDAO credentialDAO = new CredentialDAO(jedisPool::getResource);
+        final PublicKeyStore publicKeyStore = new PublicKeyStore(
+                new PublicKeyStoreConfiguration(), 128, CipherSuite.AES_GCM_RSA_OAEP,
+                CryptoProviders.JVM_DEFAULT, new MetricRegistry());
+        final CryptoExecutor cryptoExecutor = new CryptoExecutor(
+                new CryptoExecutorConfiguration(), new MetricRegistry());
+        // Stubs only, so the calls aren't kept for verification.
+        final AuditLog auditLog = mock(AuditLog.class, withSettings().stubOnly());
+        final CredentialStorageConfiguration configuration = mock(
+                CredentialStorageConfiguration.class, withSettings().stubOnly());
+        when(configuration.getGrpc()).thenReturn(new GrpcConfiguration());
+
+        final io.grpc.Server grpcServer = NettyServerBuilder
+                .forAddress(new InetSocketAddress("localhost", 0))
+                .addService(new CredentialStorageService(credentialDAO, publicKeyStore,
+                        cryptoExecutor, auditLog,
+                        new CredentialWatcher(new GrpcConfiguration(), jedisPool::getResource,
+                                new MetricRegistry()),
+                        configuration))
+                .build().start();
+        final ManagedChannel channel = NettyChannelBuilder
+                .forAddress("localhost", grpcServer.getPort()).usePlaintext(true).build();
+        final CredentialStorageBlockingStub stub = CredentialStorageGrpc.newBlockingStub(channel);
+
+        final Server jetty = new Server(new InetSocketAddress("localhost", 0));
+        final ServletContextHandler handler = new ServletContextHandler();
+        handler.addServlet(new ServletHolder(new ServletContainer(new ResourceConfig()
+                .register(new CredentialResource(credentialDAO, publicKeyStore, cryptoExecutor,
+                        auditLog, mock(LocalSnapshot.class, withSettings().stubOnly()),
+                        new GroupDAO(jedisPool::getResource)))
+                .register(new JacksonMessageBodyProvider(Jackson.newObjectMapper())))), "/*");
+        jetty.setHandler(handler);
+        jetty.start();
+        final URL credentialUrl = new URL(String.format("http://localhost:%d/credential",
+                ((ServerConnector) jetty.getConnectors()[0]).getLocalPort()));
+
+        try {
+            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            final List<String> publicKeys = new ArrayList<>(CREDENTIALS);
+            for (int i = 0; i < CREDENTIALS; i++) {
+                final String publicKey = Base64.encodeToString(
+                        keyPairGenerator.generateKeyPair().getPublic().getEncoded());
+                stub.store(StoreRequest.newBuilder().setPublicKey(publicKey)
+                        .setPrimary("user-0123456789abcdef0123456789")
+                        .setSecondary("password-0123456789abcdef012345")
+                        .setDescription("Database credentials").build());
+                publicKeys.add(publicKey);
+            }
+
+            System.out.printf("%s %s, %d cores%n", System.getProperty("java.vm.name"),
+                    System.getProperty("java.version"),
+                    Runtime.getRuntime().availableProcessors());
+            System.out.printf("%-22s %15s %15s%n", "call", "calls/s", "credentials/s");
+            final List<BatchGetRequest> batches = new ArrayList<>();
+            for (int i = 0; i < CREDENTIALS; i += BATCH_SIZE) {
+                batches.add(BatchGetRequest.newBuilder()
+                        .addAllPublicKeys(publicKeys.subList(i, i + BATCH_SIZE)).build());
+            }
+            final int[] next = new int[1];
+            final Map<String, Operation> calls = new LinkedHashMap<>();
+            calls.put("GET /credential", () -> get(credentialUrl,
+                    publicKeys.get(next[0]++ % CREDENTIALS)));
+            calls.put("gRPC Get", () -> {
+                stub.get(GetRequest.newBuilder()
+                        .setPublicKey(publicKeys.get(next[0]++ % CREDENTIALS)).build());
+                return 1;
+            });
+            calls.put(String.format("gRPC BatchGet of %d", BATCH_SIZE), () -> stub
+                    .batchGet(batches.get(next[0]++ % batches.size())).getResultsCount());
+
+            // All of them are warmed up before measuring any, as they share the
+            // code reading from redis and Jersey takes longer to be compiled.
+            for (final Operation operation : calls.values()) {
+                run(WARM_UP_SECONDS, operation);
+            }
+            for (final Map.Entry<String, Operation> call : calls.entrySet()) {
+                final long[] counts = run(MEASURE_SECONDS, call.getValue());
+                System.out.printf("%-22s %,15d %,15d%n", call.getKey(),
+                        counts[0] / MEASURE_SECONDS, counts[1] / MEASURE_SECONDS);
+            }
+        } finally {
+            channel.shutdownNow();
+            grpcServer.shutdownNow();
+            jetty.stop();
+            cryptoExecutor.stop();
+            jedisPool.close();
+            redisServer.stop();
+        }
+        // Embedded redis leaves a thread behind that keeps the JVM running.
+        System.exit(0);
+    }
+
+    private static int get(final URL credentialUrl, final String publicKey)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) credentialUrl
+                .openConnection();
+        connection.setRequestProperty("X-Auth-RSA", publicKey);
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected status: " + connection.getResponseCode());
+        }
+        // Read to the end, so the connection is reused.
+        try (InputStream body = connection.getInputStream()) {
+            final byte[] buffer = new byte[4096];
+            while (body.read(buffer) != -1) {
+                // Discarded.
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Makes calls for the given seconds.
+     *
+     * @return How many calls were made and how many credentials they read.
+     */
+    private static long[] run(final long seconds, final Operation operation) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final long[] counts = new long[2];
+        while (System.nanoTime() < deadline) {
+            counts[1] += operation.run();
+            counts[0]++;
+        }
+        return counts;
+    }
+}
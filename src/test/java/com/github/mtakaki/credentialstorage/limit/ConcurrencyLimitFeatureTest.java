@@ -0,0 +1,139 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.ConcurrencyLimitConfiguration;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import io.dropwizard.testing.junit.ResourceTestRule;
+
+public class ConcurrencyLimitFeatureTest {
+    private static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
+    private static volatile CountDownLatch entered;
+    private static volatile CountDownLatch release;
+
+    @ClassRule
+    public static final ResourceTestRule resources = ResourceTestRule.builder()
+            .addProvider(new ConcurrencyLimitFeature(
+                    new ConcurrencyLimitConfiguration(true, 2, 2, 2, 2.0, 0.2, 600, 0.5),
+                    METRIC_REGISTRY))
+            .addResource(new TestResource())
+            .build();
+
+    private ExecutorService callers;
+
+    @Path("/test")
+    public static class TestResource {
+        @GET
+        @ConcurrencyLimited(Priority.HIGH)
+        public String read() {
+            entered.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return "read";
+        }
+
+        @POST
+        @ConcurrencyLimited(Priority.LOW)
+        public String write() {
+            entered.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return "write";
+        }
+
+        @GET
+        @Path("/unlimited")
+        public String unlimited() {
+            return "unlimited";
+        }
+    }
+
+    @Before
+    public void setUp() {
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        this.callers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        this.callers.shutdownNow();
+    }
+
+    private Future<Response> startRead() {
+        return this.callers.submit(() -> resources.client().target("/test").request().get());
+    }
+
+    private Future<Response> startWrite() {
+        return this.callers
+                .submit(() -> resources.client().target("/test").request().post(null));
+    }
+
+    @Test
+    public void testRejectsOverTheLimit() throws Exception {
+        entered = new CountDownLatch(2);
+        final Future<Response> first = this.startRead();
+        final Future<Response> second = this.startRead();
+        assertThat(entered.await(5L, TimeUnit.SECONDS)).isTrue();
+
+        final Response rejected = resources.client().target("/test").request().get();
+        assertThat(rejected.getStatus()).isEqualTo(Status.SERVICE_UNAVAILABLE.getStatusCode());
+        assertThat(rejected.getHeaderString("Retry-After")).isEqualTo("1");
+        assertThat(resources.client().target("/test/unlimited").request().get()
+                .readEntity(String.class)).isEqualTo("unlimited");
+
+        release.countDown();
+        assertThat(first.get(5L, TimeUnit.SECONDS).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+        assertThat(second.get(5L, TimeUnit.SECONDS).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+        final String name = MetricRegistry.name(TestResource.class, "read");
+        assertThat(METRIC_REGISTRY.meter(MetricRegistry.name(name, "concurrency-rejected"))
+                .getCount()).isEqualTo(1L);
+        assertThat(METRIC_REGISTRY.getGauges()
+                .get(MetricRegistry.name(name, "concurrency-in-flight")).getValue())
+                        .isEqualTo(0);
+        assertThat(METRIC_REGISTRY.getGauges()
+                .get(MetricRegistry.name(name, "concurrency-limit")).getValue()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLowPriorityYieldsWhileReadsAreBusy() throws Exception {
+        entered = new CountDownLatch(2);
+        final Future<Response> read = this.startRead();
+        final Future<Response> write = this.startWrite();
+        assertThat(entered.await(5L, TimeUnit.SECONDS)).isTrue();
+
+        // The write limit is two, but while the reads are busy the writes can
+        // only use half of it.
+        assertThat(resources.client().target("/test").request().post(null).getStatus())
+                .isEqualTo(Status.SERVICE_UNAVAILABLE.getStatusCode());
+
+        release.countDown();
+        assertThat(read.get(5L, TimeUnit.SECONDS).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+        assertThat(write.get(5L, TimeUnit.SECONDS).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+        assertThat(resources.client().target("/test").request().post(null).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mtakaki.credentialstorage.configuration.ConcurrencyLimitConfiguration;
+import com.github.mtakaki.credentialstorage.limit.ConcurrencyLimited.Priority;
+
+public class ConcurrencyLimiterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1L);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(20L);
+
+    private ConcurrencyLimiter limiter;
+
+    @Before
+    public void setUp() {
+        this.limiter = new ConcurrencyLimiter(Priority.HIGH,
+                new ConcurrencyLimitConfiguration(true, 10, 2, 100, 2.0, 0.2, 100, 0.5));
+    }
+
+    /**
+     * Runs the given number of requests at the same time, all taking the
+     * given latency.
+     */
+    private void run(final int requests, final long latency) {
+        int acquired = 0;
+        while (acquired < requests && this.limiter.tryAcquire(false)) {
+            acquired++;
+        }
+        for (int i = 0; i < acquired; i++) {
+            this.limiter.release(latency);
+        }
+    }
+
+    @Test
+    public void testTryAcquireRejectsOverTheLimit() {
+        for (int i = 0; i < 10; i++) {
+            assertThat(this.limiter.tryAcquire(false)).isTrue();
+        }
+        assertThat(this.limiter.tryAcquire(false)).isFalse();
+        assertThat(this.limiter.getInFlight()).isEqualTo(10);
+
+        this.limiter.release(FAST);
+        assertThat(this.limiter.tryAcquire(false)).isTrue();
+    }
+
+    @Test
+    public void testTryAcquireYieldsToTheLowPriorityShare() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(this.limiter.tryAcquire(true)).isTrue();
+        }
+        assertThat(this.limiter.isBusy()).isTrue();
+        assertThat(this.limiter.tryAcquire(true)).isFalse();
+        assertThat(this.limiter.tryAcquire(false)).isTrue();
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyIsSteady() {
+        for (int i = 0; i < 50; i++) {
+            this.run(this.limiter.getLimit(), FAST);
+        }
+
+        assertThat(this.limiter.getLimit()).isEqualTo(100);
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhileUnused() {
+        for (int i = 0; i < 50; i++) {
+            this.run(2, FAST);
+        }
+
+        assertThat(this.limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyGoesUp() {
+        for (int i = 0; i < 10; i++) {
+            this.run(this.limiter.getLimit(), FAST);
+        }
+        final int limit = this.limiter.getLimit();
+
+        this.run(limit, SLOW);
+
+        assertThat(this.limiter.getLimit()).isLessThan(limit * 8 / 10);
+        assertThat(this.limiter.getLimit()).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    public void testLimitRecoversOnceLatencyIsBack() {
+        for (int i = 0; i < 10; i++) {
+            this.run(this.limiter.getLimit(), SLOW);
+        }
+        this.run(this.limiter.getLimit(), SLOW * 10);
+        final int limit = this.limiter.getLimit();
+
+        for (int i = 0; i < 20; i++) {
+            this.run(this.limiter.getLimit(), SLOW);
+        }
+
+        assertThat(this.limiter.getLimit()).isGreaterThan(limit);
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RateLimitConfiguration;
+
+import io.dropwizard.testing.junit.ResourceTestRule;
+import io.dropwizard.util.Duration;
+
+public class RateLimitFeatureTest {
+    // One request every 10 seconds, so it can't refill during the test.
+    private static final RateLimitConfiguration CONFIGURATION = new RateLimitConfiguration(true,
+            false, 0.1, 2, Collections.emptyList(), 100L, Duration.minutes(1L));
+
+    @ClassRule
+    public static final ResourceTestRule resources = ResourceTestRule.builder()
+            .addProvider(new RateLimitFeature(CONFIGURATION,
+                    new RateLimiter(CONFIGURATION, null, new MetricRegistry())))
+            .addResource(new TestResource())
+            .build();
+
+    @Path("/test")
+    public static class TestResource {
+        @GET
+        @RateLimited
+        public String limited() {
+            return "limited";
+        }
+
+        @GET
+        @Path("/unlimited")
+        public String unlimited() {
+            return "unlimited";
+        }
+    }
+
+    private Response get(final String path, final String publicKey) {
+        return resources.client().target(path).request().header("X-Auth-RSA", publicKey).get();
+    }
+
+    @Test
+    public void testRejectsOverTheRate() {
+        assertThat(this.get("/test", "a").getStatus()).isEqualTo(Status.OK.getStatusCode());
+        assertThat(this.get("/test", "a").getStatus()).isEqualTo(Status.OK.getStatusCode());
+
+        final Response rejected = this.get("/test", "a");
+        assertThat(rejected.getStatus()).isEqualTo(429);
+        assertThat(Long.parseLong(rejected.getHeaderString("Retry-After"))).isBetween(9L, 10L);
+
+        assertThat(this.get("/test", "b").getStatus()).isEqualTo(Status.OK.getStatusCode());
+        assertThat(this.get("/test/unlimited", "a").getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+    }
+
+    @Test
+    public void testIgnoresRequestsWithoutKey() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(resources.client().target("/test").request().get().getStatus())
+                    .isEqualTo(Status.OK.getStatusCode());
+        }
+    }
+}
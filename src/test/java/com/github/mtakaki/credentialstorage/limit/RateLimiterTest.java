@@ -0,0 +1,120 @@
+package com.github.mtakaki.credentialstorage.limit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RateLimitConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.RateLimitConfiguration.KeyLimit;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.RateLimitDAO;
+import com.github.mtakaki.credentialstorage.limit.RateLimiter.Rejections;
+
+import io.dropwizard.util.Duration;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class RateLimiterTest {
+    private RedisServer redisServer;
+    private JedisPool jedisPool;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.metricRegistry = new MetricRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    private RateLimiter buildRateLimiter(final boolean shared, final KeyLimit... keys) {
+        return new RateLimiter(
+                new RateLimitConfiguration(true, shared, 1.0, 3, Arrays.asList(keys), 100L,
+                        Duration.minutes(1L)),
+                new RateLimitDAO(this.jedisPool::getResource), this.metricRegistry);
+    }
+
+    @Test
+    public void testTryAcquireAllowsTheBurst() {
+        final RateLimiter rateLimiter = this.buildRateLimiter(false);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(rateLimiter.tryAcquire("a")).isZero();
+        }
+        assertThat(rateLimiter.tryAcquire("a")).isBetween(1L, 1000000000L);
+        assertThat(rateLimiter.tryAcquire("b")).isZero();
+        assertThat(this.metricRegistry.meter(MetricRegistry.name(RateLimiter.class, "rejected"))
+                .getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testTryAcquireUsesTheKeyLimit() {
+        final RateLimiter rateLimiter = this.buildRateLimiter(false,
+                new KeyLimit(KeyDigest.of("a"), 1.0, 1));
+
+        assertThat(rateLimiter.tryAcquire("a")).isZero();
+        assertThat(rateLimiter.tryAcquire("a")).isPositive();
+        assertThat(rateLimiter.tryAcquire("b")).isZero();
+        assertThat(rateLimiter.tryAcquire("b")).isZero();
+    }
+
+    @Test
+    public void testGetTopRejections() {
+        final RateLimiter rateLimiter = this.buildRateLimiter(false);
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.tryAcquire("a");
+        }
+        for (int i = 0; i < 4; i++) {
+            rateLimiter.tryAcquire("b");
+        }
+        rateLimiter.tryAcquire("c");
+
+        assertThat(rateLimiter.getTopRejections(10))
+                .extracting(Rejections::getFingerprint, Rejections::getRejected)
+                .containsExactly(tuple(KeyDigest.of("a"), 2L), tuple(KeyDigest.of("b"), 1L));
+        assertThat(rateLimiter.getTopRejections(1)).hasSize(1);
+    }
+
+    @Test
+    public void testSharedLimitAcrossServers() {
+        final RateLimiter first = this.buildRateLimiter(true);
+        // Another server, with its own metrics.
+        this.metricRegistry = new MetricRegistry();
+        final RateLimiter second = this.buildRateLimiter(true);
+
+        assertThat(first.tryAcquire("a")).isZero();
+        assertThat(second.tryAcquire("a")).isZero();
+        assertThat(first.tryAcquire("a")).isZero();
+        assertThat(second.tryAcquire("a")).isPositive();
+    }
+
+    @Test
+    public void testSharedLimitFallsBackWhileRedisIsDown() {
+        final RateLimiter rateLimiter = this.buildRateLimiter(true);
+        this.redisServer.stop();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(rateLimiter.tryAcquire("a")).isZero();
+        }
+        assertThat(rateLimiter.tryAcquire("a")).isPositive();
+        assertThat(this.metricRegistry
+                .meter(MetricRegistry.name(RateLimiter.class, "shared-failures")).getCount())
+                        .isEqualTo(4L);
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.AuditLogConfiguration;
+import com.github.mtakaki.credentialstorage.database.AuditEventDAO;
+import com.github.mtakaki.credentialstorage.database.AuditStatsDAO;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
+import com.github.mtakaki.credentialstorage.database.model.AuditHeatmap.Granularity;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.google.common.collect.ImmutableMap;
+
+import io.dropwizard.util.Duration;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class AuditLogTest {
+    private MetricRegistry metricRegistry;
+    private AuditEventDAO auditEventDAO;
+    private AuditStatsDAO auditStatsDAO;
+    private AuditLog auditLog;
+
+    @Before
+    public void setUp() {
+        this.metricRegistry = new MetricRegistry();
+        this.auditEventDAO = mock(AuditEventDAO.class);
+        this.auditStatsDAO = mock(AuditStatsDAO.class);
+        this.auditLog = new AuditLog(
+                new AuditLogConfiguration(100L, 3, 2, Duration.seconds(1L), Duration.hours(1L),
+                        Duration.days(1L), "node"),
+                this.auditEventDAO, this.auditStatsDAO, this.metricRegistry);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlushSendsBatches() throws Exception {
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+        this.auditLog.record(Action.WRITE, Target.CREDENTIAL, "a");
+        this.auditLog.record(Action.DELETE, Target.BLOB, "b");
+
+        // Copying the batches, as the list is reused.
+        final List<List<AuditEvent>> batches = new ArrayList<>();
+        doAnswer(invocation -> {
+            batches.add(new ArrayList<>(invocation.getArgumentAt(0, List.class)));
+            return 0L;
+        }).when(this.auditEventDAO).append(anyListOf(AuditEvent.class), eq(100L));
+
+        this.auditLog.flush();
+
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(0)).extracting(AuditEvent::getAction)
+                .containsExactly(Action.READ, Action.WRITE);
+        assertThat(batches.get(1)).extracting(AuditEvent::getTarget).containsExactly(Target.BLOB);
+        assertThat(batches.get(1).get(0).getKeyDigest()).isEqualTo(KeyDigest.of("b"));
+        assertThat(batches.get(1).get(0).getNode()).isEqualTo("node");
+        assertThat(this.meterCount("appended")).isEqualTo(3L);
+        verify(this.auditStatsDAO, times(2)).increment(anyListOf(AuditEvent.class),
+                eq(ImmutableMap.of(Granularity.MINUTE, 3600, Granularity.HOUR, 86400)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlushSendsEventsToTheirTenant() {
+        final Tenant tenant = mock(Tenant.class);
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+        TenantPool.run(tenant, () -> this.auditLog.record(Action.READ, Target.CREDENTIAL, "b"));
+
+        final List<Tenant> tenants = new ArrayList<>();
+        final List<List<AuditEvent>> batches = new ArrayList<>();
+        doAnswer(invocation -> {
+            tenants.add(TenantPool.getCurrent());
+            batches.add(new ArrayList<>(invocation.getArgumentAt(0, List.class)));
+            return 0L;
+        }).when(this.auditEventDAO).append(anyListOf(AuditEvent.class), eq(100L));
+
+        this.auditLog.flush();
+
+        assertThat(tenants).containsExactly(null, tenant);
+        assertThat(batches.get(0)).extracting(AuditEvent::getKeyDigest)
+                .containsExactly(KeyDigest.of("a"));
+        assertThat(batches.get(1)).extracting(AuditEvent::getKeyDigest)
+                .containsExactly(KeyDigest.of("b"));
+        assertThat(TenantPool.getCurrent()).isNull();
+    }
+
+    @Test
+    public void testStatsFailureKeepsEvents() throws Exception {
+        doThrow(new JedisConnectionException("down")).when(this.auditStatsDAO)
+                .increment(anyListOf(AuditEvent.class), any());
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+
+        this.auditLog.flush();
+
+        verify(this.auditEventDAO, times(2)).append(anyListOf(AuditEvent.class), anyLong());
+        assertThat(this.meterCount("appended")).isEqualTo(3L);
+        assertThat(this.meterCount("stats-failed")).isEqualTo(3L);
+        assertThat(this.meterCount("failed")).isZero();
+    }
+
+    @Test
+    public void testRecordDropsWhenQueueIsFull() {
+        for (int i = 0; i < 5; i++) {
+            this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+        }
+
+        assertThat(this.meterCount("dropped")).isEqualTo(2L);
+    }
+
+    @Test
+    public void testFlushFailureDropsOnlyTheBatch() {
+        doThrow(new JedisConnectionException("down")).when(this.auditEventDAO)
+                .append(anyListOf(AuditEvent.class), anyLong());
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+
+        this.auditLog.flush();
+
+        verify(this.auditEventDAO, times(1)).append(anyListOf(AuditEvent.class), anyLong());
+        assertThat(this.meterCount("failed")).isEqualTo(2L);
+        assertThat(this.metricRegistry.getGauges()
+                .get(MetricRegistry.name(AuditLog.class, "queue-depth")).getValue()).isEqualTo(1);
+    }
+
+    @Test
+    public void testStopFlushesQueuedEvents() throws Exception {
+        this.auditLog.start();
+        this.auditLog.record(Action.READ, Target.CREDENTIAL, "a");
+
+        this.auditLog.stop();
+
+        verify(this.auditEventDAO).append(anyListOf(AuditEvent.class), eq(100L));
+    }
+
+    @Test
+    public void testFlushWithEmptyQueue() {
+        this.auditLog.flush();
+
+        verify(this.auditEventDAO, never()).append(any(), anyLong());
+    }
+
+    private long meterCount(final String name) {
+        return this.metricRegistry.meter(MetricRegistry.name(AuditLog.class, name)).getCount();
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.ReaperConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TenantConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+
+import io.dropwizard.util.Duration;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class CredentialReaperTest {
+    private MetricRegistry metricRegistry;
+    private CredentialDAO credentialDAO;
+    private JedisPool jedisPool;
+    private TenantPool tenantPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        final RedisConfiguration configuration = new RedisConfiguration(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        configuration.getTenants().put("payments",
+                new TenantConfiguration(null, 1, new JedisPoolConfig(), null, 10L));
+        this.jedisPool = new JedisPool(configuration.getUrl());
+        this.metricRegistry = new MetricRegistry();
+        this.tenantPool = new TenantPool(configuration, this.jedisPool::getResource,
+                this.metricRegistry);
+        this.credentialDAO = new CredentialDAO(this.tenantPool);
+
+        this.credentialDAO.save(Credential.builder().key("a").primary("user").build());
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // Left behind by older versions.
+            for (int i = 0; i < 25; i++) {
+                jedis.zadd("last_accessed", 10L, "orphan" + i);
+                jedis.zadd("last_updated", 10L, "orphan" + i);
+            }
+            jedis.hset("cred:idle", "key", "idle");
+            jedis.zadd("last_accessed", 10L, "idle");
+            jedis.zadd("last_updated", 10L, "idle");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        this.tenantPool.close();
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testRunPassRemovesOrphans() {
+        this.reaper(null, false).runPass();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zcard("last_accessed")).isEqualTo(2L);
+            assertThat(jedis.zcard("last_updated")).isEqualTo(2L);
+            assertThat(jedis.exists("cred:idle")).isTrue();
+        }
+        assertThat(this.meterCount("orphans")).isEqualTo(50L);
+        assertThat(this.meterCount("idle-expired")).isZero();
+        assertThat(this.gauge("pass-progress")).isEqualTo(54L);
+        assertThat(this.gauge("last-pass")).isPositive();
+    }
+
+    @Test
+    public void testRunPassExpiresIdleCredentials() throws Exception {
+        this.reaper(Duration.days(1L), false).runPass();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.exists("cred:idle")).isFalse();
+            assertThat(jedis.zcard("last_accessed")).isEqualTo(1L);
+        }
+        assertThat(this.credentialDAO.getCredentialByKey("a").isPresent()).isTrue();
+        assertThat(this.meterCount("idle-expired")).isEqualTo(1L);
+    }
+
+    @Test
+    public void testRunPassRemovesExpiredLeases() throws Exception {
+        this.credentialDAO.save(Credential.builder().key("b").primary("user").ttl(1L)
+                .expiresAt(System.currentTimeMillis() / 1000L - 1L).build());
+
+        this.reaper(null, false).runPass();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zcard("expires_at")).isZero();
+            assertThat(jedis.zcard("last_accessed")).isEqualTo(2L);
+        }
+        assertThat(this.meterCount("expired-leases")).isEqualTo(1L);
+        // Found through the lease, so the scan has nothing left to remove.
+        assertThat(this.meterCount("orphans")).isEqualTo(50L);
+    }
+
+    @Test
+    public void testRunPassRemovesExpiredLeasesOfTenants() throws Exception {
+        final Tenant tenant = this.tenantPool.getTenant("payments").get();
+        TenantPool.call(tenant, () -> this.credentialDAO.save(Credential.builder().key("b")
+                .primary("user").ttl(60L).expiresAt(System.currentTimeMillis() / 1000L + 60L)
+                .build()));
+        try (Jedis jedis = tenant.getPool().getResource()) {
+            // As if redis expired it.
+            jedis.del("cred:" + KeyDigest.of("b"));
+            jedis.zadd("expires_at", 10L, KeyDigest.of("b"));
+        }
+        // Still counted towards the quota of the tenant.
+        assertThat(TenantPool.call(tenant, this.credentialDAO::countCredentials)).isEqualTo(1L);
+
+        this.reaper(null, false).runPass();
+
+        assertThat(TenantPool.call(tenant, this.credentialDAO::countCredentials)).isZero();
+        try (Jedis jedis = tenant.getPool().getResource()) {
+            assertThat(jedis.zcard("expires_at")).isZero();
+            assertThat(jedis.zcard("last_accessed")).isZero();
+            assertThat(jedis.hlen("credential_stats:leases")).isZero();
+        }
+        assertThat(this.meterCount("expired-leases")).isEqualTo(1L);
+        // The default namespace is reaped as well.
+        assertThat(this.meterCount("orphans")).isEqualTo(50L);
+    }
+
+    @Test
+    public void testRunPassRemovesExpiredLeasesOverManyBatches() throws Exception {
+        // Each full batch is removed, so every batch starts at offset zero.
+        for (int i = 0; i < 25; i++) {
+            this.credentialDAO.save(Credential.builder().key("lease" + i).primary("user")
+                    .ttl(1L).expiresAt(System.currentTimeMillis() / 1000L - 1L).build());
+        }
+
+        this.reaper(null, false).runPass();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zcard("expires_at")).isZero();
+        }
+        assertThat(this.meterCount("expired-leases")).isEqualTo(25L);
+    }
+
+    @Test
+    public void testRunPassDryRun() {
+        this.reaper(Duration.days(1L), true).runPass();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zcard("last_accessed")).isEqualTo(27L);
+            assertThat(jedis.zcard("last_updated")).isEqualTo(27L);
+            assertThat(jedis.exists("cred:idle")).isTrue();
+        }
+        assertThat(this.meterCount("orphans")).isEqualTo(50L);
+        // The orphans are idle too.
+        assertThat(this.meterCount("idle-expired")).isEqualTo(26L);
+    }
+
+    @Test
+    public void testRunPassFailureIsCounted() {
+        final CredentialReaper reaper = this.reaper(null, false);
+        this.redisServer.stop();
+
+        reaper.runPass();
+
+        assertThat(this.meterCount("failed")).isEqualTo(1L);
+    }
+
+    private CredentialReaper reaper(final Duration idleExpiration, final boolean dryRun) {
+        return new CredentialReaper(new ReaperConfiguration(true, Duration.hours(1L), 10,
+                1000.0, idleExpiration, dryRun), this.credentialDAO, this.tenantPool,
+                this.metricRegistry);
+    }
+
+    private long meterCount(final String name) {
+        return this.metricRegistry.meter(MetricRegistry.name(CredentialReaper.class, name))
+                .getCount();
+    }
+
+    private long gauge(final String name) {
+        return (Long) this.metricRegistry.getGauges()
+                .get(MetricRegistry.name(CredentialReaper.class, name)).getValue();
+    }
+}
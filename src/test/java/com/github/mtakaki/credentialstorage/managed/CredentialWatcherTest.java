@@ -0,0 +1,97 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.GrpcConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class CredentialWatcherTest {
+    private CredentialWatcher watcher;
+    private CredentialDAO dao;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.dao = new CredentialDAO(this.jedisPool::getResource);
+        this.watcher = new CredentialWatcher(new GrpcConfiguration(true, 0, 100,
+                Size.megabytes(1L), 100, Duration.seconds(5L), Duration.seconds(1L), 1),
+                this.jedisPool::getResource, new MetricRegistry());
+        this.watcher.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.watcher.stop();
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testWatchTellsWritesAndDeletes() throws Exception {
+        final Semaphore changes = new Semaphore(0);
+        this.watcher.watch("a", changes::release);
+        // Other credentials aren't told.
+        this.watcher.watch("b", () -> changes.release(100));
+
+        this.saveUntilTold("a", changes);
+        this.dao.deleteByKey("a");
+
+        assertThat(changes.tryAcquire(5L, TimeUnit.SECONDS)).isTrue();
+        assertThat(changes.availablePermits()).isZero();
+    }
+
+    @Test
+    public void testUnwatch() throws Exception {
+        final Semaphore changes = new Semaphore(0);
+        final CredentialWatcher.Listener listener = changes::release;
+        final Semaphore otherChanges = new Semaphore(0);
+        this.watcher.watch("a", listener);
+        this.watcher.watch("b", otherChanges::release);
+        this.saveUntilTold("a", changes);
+
+        this.watcher.unwatch("a", listener);
+        this.dao.deleteByKey("a");
+        // Changes are told in order, so once b is told a would have been.
+        this.saveUntilTold("b", otherChanges);
+
+        assertThat(changes.availablePermits()).isZero();
+    }
+
+    /**
+     * Writes the credential until the listener is told, as the subscription
+     * might not be ready yet.
+     */
+    private void saveUntilTold(final String key, final Semaphore changes)
+            throws IOException, InterruptedException {
+        do {
+            this.dao.save(Credential.builder().key(key).primary("me@abc.com").build());
+        } while (!changes.tryAcquire(100L, TimeUnit.MILLISECONDS));
+        // Dropping the changes told for the retries.
+        Thread.sleep(100L);
+        changes.drainPermits();
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.encryption.InitializationException;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import io.dropwizard.util.Duration;
+
+public class CryptoExecutorTest {
+    private MetricRegistry metricRegistry;
+    private CryptoExecutor cryptoExecutor;
+    private ExecutorService callers;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Before
+    public void setUp() {
+        this.metricRegistry = new MetricRegistry();
+        this.cryptoExecutor = new CryptoExecutor(
+                new CryptoExecutorConfiguration(1, 1, Duration.seconds(5L)), this.metricRegistry);
+        this.callers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.cryptoExecutor.stop();
+        this.callers.shutdownNow();
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        assertThat(this.cryptoExecutor.execute(() -> "encrypted")).isEqualTo("encrypted");
+        assertThat(this.metricRegistry.timer(MetricRegistry.name(CryptoExecutor.class, "wait"))
+                .getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testExecuteRethrowsTaskException() throws Exception {
+        this.expectedException.expect(ExecutionException.class);
+        this.cryptoExecutor.execute(() -> {
+            throw new ExecutionException(new InitializationException(new Exception()));
+        });
+    }
+
+    @Test
+    public void testExecuteRejectsWhenQueueIsFull() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // One task holds the only thread and another one fills up the queue.
+        this.callers.submit(() -> this.cryptoExecutor.execute(() -> {
+            running.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return null;
+        }));
+        assertThat(running.await(5L, TimeUnit.SECONDS)).isTrue();
+        this.callers.submit(() -> this.cryptoExecutor.execute(() -> null));
+        while (this.metricRegistry.getGauges()
+                .get(MetricRegistry.name(CryptoExecutor.class, "queue-depth"))
+                .getValue().equals(0)) {
+            Thread.sleep(10L);
+        }
+
+        try {
+            this.cryptoExecutor.execute(() -> null);
+        } catch (final ServiceUnavailableException e) {
+            assertThat(e.getResponse().getStatus())
+                    .isEqualTo(Status.SERVICE_UNAVAILABLE.getStatusCode());
+            assertThat(e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+            assertThat(this.metricRegistry
+                    .meter(MetricRegistry.name(CryptoExecutor.class, "rejected")).getCount())
+                            .isEqualTo(1L);
+            return;
+        } finally {
+            release.countDown();
+        }
+        throw new AssertionError("The task should have been rejected.");
+    }
+}
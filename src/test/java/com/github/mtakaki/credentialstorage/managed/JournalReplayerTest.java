@@ -0,0 +1,86 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.JournalConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.cold.ColdTier;
+import com.github.mtakaki.credentialstorage.database.journal.WriteJournal;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class JournalReplayerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricRegistry metricRegistry;
+    private JournalConfiguration configuration;
+    private WriteJournal writeJournal;
+    private CredentialDAO credentialDAO;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.metricRegistry = new MetricRegistry();
+        this.configuration = new JournalConfiguration(true,
+                this.folder.getRoot().toPath().resolve("credentials.journal").toString(),
+                Size.kilobytes(64L), Duration.seconds(1L), 2);
+        this.writeJournal = WriteJournal.open(this.configuration, this.metricRegistry);
+        this.credentialDAO = new CredentialDAO(this.jedisPool::getResource, ColdTier.DISABLED,
+                this.writeJournal);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.writeJournal.stop();
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testRunPassReplaysJournaledWrites() throws Exception {
+        final JournalReplayer replayer = new JournalReplayer(this.configuration,
+                this.writeJournal, this.credentialDAO, this.metricRegistry);
+        this.redisServer.stop();
+        for (int i = 0; i < 5; i++) {
+            this.credentialDAO.save(Credential.builder().key("key" + i).primary("user").build());
+        }
+
+        // Redis is still down, so everything is kept.
+        replayer.runPass();
+        assertThat(this.writeJournal.getDepth()).isEqualTo(5);
+        assertThat(this.meterCount("failed")).isEqualTo(1L);
+
+        this.redisServer.start();
+        replayer.runPass();
+
+        assertThat(this.writeJournal.getDepth()).isZero();
+        assertThat(this.meterCount("replayed")).isEqualTo(5L);
+        assertThat(this.credentialDAO.getCredentialByKey("key3").get().getPrimary())
+                .isEqualTo("user");
+    }
+
+    private long meterCount(final String name) {
+        return this.metricRegistry.meter(MetricRegistry.name(JournalReplayer.class, name))
+                .getCount();
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.SnapshotConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TieringConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.cold.ColdRecord;
+import com.github.mtakaki.credentialstorage.database.cold.ColdTier;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class LocalSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricRegistry metricRegistry;
+    private SnapshotConfiguration configuration;
+    private CredentialDAO credentialDAO;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.credentialDAO = new CredentialDAO(this.jedisPool::getResource);
+        this.metricRegistry = new MetricRegistry();
+        // Only refreshed by the tests.
+        this.configuration = new SnapshotConfiguration(true, this.folder.getRoot().getPath(),
+                Duration.days(1L), Duration.days(1L), 10, 1000.0, Duration.seconds(5L));
+
+        for (int i = 0; i < 25; i++) {
+            this.credentialDAO.save(Credential.builder().key("key" + i).primary("user" + i)
+                    .build());
+        }
+        final long now = System.currentTimeMillis() / 1000L;
+        this.credentialDAO.save(Credential.builder().key("expired").primary("user").ttl(1L)
+                .expiresAt(now + 1L).build());
+    }
+
+    @After
+    public void tearDown() {
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testServesReadsWhileRedisIsDown() throws Exception {
+        final LocalSnapshot snapshot = new LocalSnapshot(this.configuration,
+                this.credentialDAO, this.metricRegistry);
+        assertThat(snapshot.getAgeSeconds()).isEqualTo(-1L);
+        snapshot.refresh();
+        this.redisServer.stop();
+
+        assertThat(snapshot.getCredentialByKey("key7").get().getPrimary()).isEqualTo("user7");
+        assertThat(snapshot.getCredentialByKey("missing").isPresent()).isFalse();
+        assertThat(snapshot.getAgeSeconds()).isBetween(0L, 1L);
+        assertThat(this.metricRegistry.getGauges()
+                .get(MetricRegistry.name(LocalSnapshot.class, "records")).getValue())
+                        .isEqualTo(26);
+        assertThat(this.meterCount("degraded-hits")).isEqualTo(2L);
+
+        // A failed refresh keeps the current snapshot.
+        snapshot.refresh();
+        assertThat(this.meterCount("failed")).isEqualTo(1L);
+        assertThat(snapshot.getCredentialByKey("key3").isPresent()).isTrue();
+    }
+
+    @Test
+    public void testSkipsExpiredLeases() throws Exception {
+        final LocalSnapshot snapshot = new LocalSnapshot(this.configuration,
+                this.credentialDAO, this.metricRegistry);
+        snapshot.refresh();
+        Thread.sleep(2000L);
+
+        assertThat(snapshot.getCredentialByKey("expired").isPresent()).isFalse();
+    }
+
+    @Test
+    public void testLoadsTheLastSnapshotOnStart() throws Exception {
+        new LocalSnapshot(this.configuration, this.credentialDAO, this.metricRegistry)
+                .refresh();
+        this.redisServer.stop();
+
+        final LocalSnapshot snapshot = new LocalSnapshot(this.configuration,
+                this.credentialDAO, new MetricRegistry());
+        snapshot.start();
+
+        assertThat(snapshot.getCredentialByKey("key0").get().getPrimary()).isEqualTo("user0");
+        snapshot.stop();
+    }
+
+    @Test
+    public void testIncludesLegacyAndColdCredentials() throws Exception {
+        final ColdTier coldTier = ColdTier.open(new TieringConfiguration(true,
+                this.folder.newFolder("cold").getPath(), Duration.days(1L), Duration.minutes(1L),
+                10, 1000.0, Size.megabytes(1L), 0.5), new MetricRegistry());
+        final Map<String, String> coldFields = new HashMap<>();
+        coldFields.put("key", "cold");
+        coldFields.put("primary", "demoted");
+        coldTier.putAll(Collections.singletonMap(KeyDigest.of("cold"),
+                new ColdRecord(coldFields, 10L, 10L)));
+        this.credentialDAO = new CredentialDAO(this.jedisPool::getResource, coldTier);
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            final Map<String, String> legacyFields = new HashMap<>();
+            legacyFields.put("key", "legacy");
+            legacyFields.put("primary", "old layout");
+            jedis.hmset("credential:legacy", legacyFields);
+        }
+        final LocalSnapshot snapshot = new LocalSnapshot(this.configuration,
+                this.credentialDAO, this.metricRegistry);
+
+        snapshot.refresh();
+        // Kept by the incremental refreshes too.
+        snapshot.refresh();
+        this.redisServer.stop();
+
+        assertThat(snapshot.getCredentialByKey("cold").get().getPrimary()).isEqualTo("demoted");
+        assertThat(snapshot.getCredentialByKey("legacy").get().getPrimary())
+                .isEqualTo("old layout");
+        assertThat(snapshot.getCredentialByKey("key3").get().getPrimary()).isEqualTo("user3");
+        coldTier.stop();
+    }
+
+    @Test
+    public void testIncrementalRefresh() throws Exception {
+        final LocalSnapshot snapshot = new LocalSnapshot(this.configuration,
+                this.credentialDAO, this.metricRegistry);
+        snapshot.refresh();
+        this.credentialDAO.save(Credential.builder().key("new").primary("added").build());
+        this.credentialDAO.save(Credential.builder().key("key1").primary("changed").build());
+        this.credentialDAO.deleteByKey("key2");
+        final long expiresAt = System.currentTimeMillis() / 1000L + 60L;
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // A renewal, which doesn't count as a write.
+            jedis.hset("cred:" + KeyDigest.of("expired"), "expiresAt",
+                    Long.toString(expiresAt));
+        }
+
+        snapshot.refresh();
+        this.redisServer.stop();
+
+        assertThat(snapshot.getCredentialByKey("new").get().getPrimary()).isEqualTo("added");
+        assertThat(snapshot.getCredentialByKey("key1").get().getPrimary()).isEqualTo("changed");
+        assertThat(snapshot.getCredentialByKey("key2").isPresent()).isFalse();
+        assertThat(snapshot.getCredentialByKey("key3").get().getPrimary()).isEqualTo("user3");
+        assertThat(snapshot.getCredentialByKey("expired").get().getExpiresAt())
+                .isEqualTo(expiresAt);
+        assertThat(this.metricRegistry.getGauges()
+                .get(MetricRegistry.name(LocalSnapshot.class, "records")).getValue())
+                        .isEqualTo(26);
+    }
+
+    @Test
+    public void testBypassRedis() {
+        final LocalSnapshot snapshot = new LocalSnapshot(this.configuration,
+                this.credentialDAO, this.metricRegistry);
+        assertThat(snapshot.isBypassingRedis()).isFalse();
+
+        snapshot.bypassRedis();
+
+        assertThat(snapshot.isBypassingRedis()).isTrue();
+    }
+
+    private long meterCount(final String name) {
+        return this.metricRegistry.meter(MetricRegistry.name(LocalSnapshot.class, name))
+                .getCount();
+    }
+}
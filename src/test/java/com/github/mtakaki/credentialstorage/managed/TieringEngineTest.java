@@ -0,0 +1,105 @@
+package com.github.mtakaki.credentialstorage.managed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.TieringConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.cold.ColdTier;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class TieringEngineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricRegistry metricRegistry;
+    private TieringConfiguration configuration;
+    private ColdTier coldTier;
+    private CredentialDAO credentialDAO;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.metricRegistry = new MetricRegistry();
+        this.configuration = new TieringConfiguration(true, this.folder.getRoot().getPath(),
+                Duration.days(1L), Duration.minutes(1L), 10, 1000.0, Size.megabytes(1L), 0.5);
+        this.coldTier = ColdTier.open(this.configuration, this.metricRegistry);
+        this.credentialDAO = new CredentialDAO(this.jedisPool::getResource, this.coldTier);
+
+        for (int i = 0; i < 25; i++) {
+            this.credentialDAO.save(Credential.builder().key("idle" + i).primary("user").build());
+        }
+        this.credentialDAO.save(Credential.builder().key("active").primary("user").build());
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            for (final String member : jedis.zrange("last_accessed", 0L, -1L)) {
+                jedis.zadd("last_accessed", 10L, member);
+            }
+        }
+        this.credentialDAO.getCredentialByKey("active");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.coldTier.stop();
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testRunPassDemotesIdleCredentials() throws Exception {
+        new TieringEngine(this.configuration, this.credentialDAO, this.coldTier,
+                this.metricRegistry).runPass();
+
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zcard("last_accessed")).isEqualTo(1L);
+            assertThat(jedis.keys("cred:*")).hasSize(1);
+        }
+        assertThat(this.coldTier.getMembers()).hasSize(25);
+        assertThat(this.meterCount(TieringEngine.class, "demoted")).isEqualTo(25L);
+
+        assertThat(this.credentialDAO.getCredentialByKey("idle3").get().getPrimary())
+                .isEqualTo("user");
+        assertThat(this.credentialDAO.getCredentialByKey("missing").isPresent()).isFalse();
+        assertThat(this.coldTier.getMembers()).hasSize(24);
+        assertThat(this.meterCount(ColdTier.class, "cold-hits")).isEqualTo(1L);
+        assertThat(this.meterCount(ColdTier.class, "misses")).isEqualTo(1L);
+        assertThat(this.metricRegistry.timer(MetricRegistry.name(ColdTier.class, "promotion"))
+                .getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testRunPassFailureIsCounted() {
+        final TieringEngine engine = new TieringEngine(this.configuration, this.credentialDAO,
+                this.coldTier, this.metricRegistry);
+        this.redisServer.stop();
+
+        engine.runPass();
+
+        assertThat(this.meterCount(TieringEngine.class, "failed")).isEqualTo(1L);
+        assertThat(this.coldTier.getMembers()).isEmpty();
+    }
+
+    private long meterCount(final Class<?> type, final String name) {
+        return this.metricRegistry.meter(MetricRegistry.name(type, name)).getCount();
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.mtakaki.credentialstorage.resources;
+
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.view.UserView;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.EncryptionUtil;
+
+/**
+ * Compares the payload size and the serialization time of a credential in
+ * JSON, Smile and CBOR, as it's sent by {@link CredentialResource}. It's not
+ * run with the tests, run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.mtakaki.credentialstorage.resources.BinaryFormatsBenchmark
+ * </pre>
+ *
+ * <p>
+ * The credential holds a symmetric key wrapped by a 2048 bits RSA key and two
+ * 32 bytes fields, encrypted with the default cipher suite. It runs on a
+ * single thread.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class BinaryFormatsBenchmark {
+    private static final long WARM_UP_SECONDS = 5L;
+    private static final long MEASURE_SECONDS = 10L;
+
+    @FunctionalInterface
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        final EncryptionUtil encryptionUtil = new EncryptionUtil(
+                keyPairGenerator.generateKeyPair().getPublic().getEncoded(), 128,
+                CipherSuite.AES_GCM_RSA_OAEP);
+        final SecretKey symmetricKey = encryptionUtil.generateSymmetricKey();
+        final Credential credential = Credential.builder()
+                .symmetricKey(encryptionUtil.encrypt(symmetricKey))
+                .cipherSuite(CipherSuite.AES_GCM_RSA_OAEP)
+                .primary(encryptionUtil.encrypt(symmetricKey, "user-0123456789abcdef0123456789")
+                        .get())
+                .secondary(encryptionUtil
+                        .encrypt(symmetricKey, "password-0123456789abcdef012345").get())
+                .description("Database credentials").build();
+
+        System.out.printf("%s %s%n", System.getProperty("java.vm.name"),
+                System.getProperty("java.version"));
+        System.out.printf("%-8s %10s %15s %15s%n", "format", "bytes", "writes/s", "reads/s");
+        report("JSON", new JsonFactory(), credential);
+        report("Smile", BinaryFormats.newSmileFactory(), credential);
+        report("CBOR", new CBORFactory(), credential);
+    }
+
+    private static void report(final String name, final JsonFactory factory,
+            final Credential credential) throws Exception {
+        final ObjectMapper mapper = BinaryFormats.newObjectMapper(factory);
+        final ObjectWriter writer = mapper.writerWithView(UserView.class);
+        final ObjectReader reader = mapper.readerFor(Credential.class);
+        final byte[] payload = writer.writeValueAsBytes(credential);
+
+        final Operation write = () -> writer.writeValueAsBytes(credential);
+        final Operation read = () -> reader.readValue(payload);
+        run(WARM_UP_SECONDS, write);
+        run(WARM_UP_SECONDS, read);
+        System.out.printf("%-8s %,10d %,15d %,15d%n", name, payload.length,
+                run(MEASURE_SECONDS, write) / MEASURE_SECONDS,
+                run(MEASURE_SECONDS, read) / MEASURE_SECONDS);
+    }
+
+    private static long run(final long seconds, final Operation operation) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long count = 0L;
+        while (System.nanoTime() < deadline) {
+            operation.run();
+            count++;
+        }
+        return count;
+    }
+}
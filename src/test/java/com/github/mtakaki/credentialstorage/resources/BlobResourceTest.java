@@ -0,0 +1,194 @@
+package com.github.mtakaki.credentialstorage.resources;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.crypto.spec.SecretKeySpec;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.CredentialStorageConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.BlobConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TenantConfiguration;
+import com.github.mtakaki.credentialstorage.database.BlobDAO;
+import com.github.mtakaki.credentialstorage.encryption.ChunkedCipher;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import jodd.util.Base64;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class BlobResourceTest {
+    private RedisServer redisServer;
+    private JedisPool jedisPool;
+    private TenantPool tenantPool;
+    private BlobResource resource;
+    private KeyPair keyPair;
+    private String base64PublicKey;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        final RedisConfiguration redisConfiguration = new RedisConfiguration(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        redisConfiguration.getTenants().put("payments",
+                new TenantConfiguration(null, 1, new JedisPoolConfig(), null, null));
+        this.jedisPool = new JedisPool(redisConfiguration.getUrl());
+        this.tenantPool = new TenantPool(redisConfiguration, this.jedisPool::getResource,
+                new MetricRegistry());
+
+        final CredentialStorageConfiguration configuration = CredentialStorageConfiguration
+                .builder()
+                .blob(new BlobConfiguration(Size.kilobytes(1L), Duration.minutes(1L),
+                        Duration.minutes(10L)))
+                .build();
+        this.resource = new BlobResource(new BlobDAO(this.tenantPool),
+                new PublicKeyStore(new PublicKeyStoreConfiguration(), 128,
+                        CipherSuite.AES_GCM_RSA_OAEP, CryptoProviders.JVM_DEFAULT,
+                        new MetricRegistry()),
+                new CryptoExecutor(new CryptoExecutorConfiguration(), new MetricRegistry()),
+                CryptoProviders.JVM_DEFAULT, configuration, mock(AuditLog.class));
+
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        this.keyPair = keyPairGenerator.generateKeyPair();
+        this.base64PublicKey = Base64.encodeToString(this.keyPair.getPublic().getEncoded());
+    }
+
+    @After
+    public void tearDown() {
+        this.tenantPool.close();
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testStoreAndGetBlob() throws Exception {
+        final byte[] payload = new byte[2500];
+        new Random(0L).nextBytes(payload);
+
+        final Response storeResponse = this.resource.storeBlob(this.base64PublicKey,
+                new ByteArrayInputStream(payload));
+        assertThat(storeResponse.getStatus()).isEqualTo(Status.CREATED.getStatusCode());
+
+        final Response response = this.resource.getByKey(this.base64PublicKey);
+        assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+        assertThat(response.getHeaderString(BlobResource.CHUNK_SIZE_HEADER)).isEqualTo("1024");
+        assertThat(response.getHeaderString(BlobResource.BLOB_SIZE_HEADER)).isEqualTo("2500");
+        assertThat(response.getHeaderString(BlobResource.CIPHER_SUITE_HEADER))
+                .isEqualTo("AES_GCM_RSA_OAEP");
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(body);
+        assertThat(this.decrypt(response.getHeaderString(BlobResource.SYMMETRIC_KEY_HEADER),
+                body.toByteArray())).isEqualTo(payload);
+    }
+
+    @Test
+    public void testGetTenantBlob() throws Exception {
+        final byte[] payload = new byte[2500];
+        new Random(0L).nextBytes(payload);
+        final Tenant tenant = this.tenantPool.getTenant("payments").get();
+
+        final Response response = TenantPool.call(tenant, () -> {
+            this.resource.storeBlob(this.base64PublicKey, new ByteArrayInputStream(payload));
+            return this.resource.getByKey(this.base64PublicKey);
+        });
+        assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+
+        // Written once the tenant filter left the namespace of the request.
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(body);
+        assertThat(this.decrypt(response.getHeaderString(BlobResource.SYMMETRIC_KEY_HEADER),
+                body.toByteArray())).isEqualTo(payload);
+        assertThat(this.resource.getByKey(this.base64PublicKey).getStatus())
+                .isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    public void testGetBlobNotFound() {
+        assertThat(this.resource.getByKey(this.base64PublicKey).getStatus())
+                .isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    public void testDeleteBlob() throws Exception {
+        this.resource.storeBlob(this.base64PublicKey, new ByteArrayInputStream(new byte[10]));
+
+        assertThat(this.resource.deleteBlob(this.base64PublicKey).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+        assertThat(this.resource.deleteBlob(this.base64PublicKey).getStatus())
+                .isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    /**
+     * Does what a client would do, unwrapping the symmetric key with the
+     * private key and decrypting the framed chunks.
+     */
+    private byte[] decrypt(final String encryptedSymmetricKey, final byte[] body)
+            throws Exception {
+        final Cipher rsa = Cipher.getInstance("RSA/ECB/OAEPPadding");
+        rsa.init(Cipher.DECRYPT_MODE, this.keyPair.getPrivate(), new OAEPParameterSpec("SHA-256",
+                "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+        final ChunkedCipher chunkedCipher = new ChunkedCipher(
+                new SecretKeySpec(rsa.doFinal(Base64.decode(encryptedSymmetricKey)), "AES"),
+                1024);
+
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] frame = readFrame(input);
+        for (long index = 0; frame != null; index++) {
+            final byte[] next = readFrame(input);
+            output.write(chunkedCipher.decryptChunk(index, frame, next == null));
+            frame = next;
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] readFrame(final DataInputStream input) throws Exception {
+        final int length;
+        try {
+            length = input.readInt();
+        } catch (final EOFException e) {
+            return null;
+        }
+        final byte[] frame = new byte[length];
+        input.readFully(frame);
+        return frame;
+    }
+}
@@ -10,18 +10,35 @@ import static org.mockito.Mockito.when;
 import java.io.IOException;
 
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Test;
 
-import com.github.mtakaki.credentialstorage.CredentialStorageConfiguration;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
 import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.PatchResult;
+import com.github.mtakaki.credentialstorage.database.GroupDAO;
 import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.github.mtakaki.credentialstorage.managed.LocalSnapshot;
 import com.google.common.base.Optional;
-import com.google.common.cache.CacheBuilder;
 
 import io.dropwizard.testing.junit.ResourceTestRule;
 
@@ -63,7 +80,13 @@ public class CredentialResourceApiTest {
             -105, 75, -84, -117, -24, 28, 84, -74, 4 };
     private static final String BASE_64_PUBLIC_KEY = Base64.encodeToString(TEST_RSA_PUBLIC_KEY);
 
+    private static final ObjectMapper SMILE_MAPPER = BinaryFormats
+            .newObjectMapper(BinaryFormats.newSmileFactory());
+    private static final ObjectMapper CBOR_MAPPER = BinaryFormats
+            .newObjectMapper(new CBORFactory());
+
     private static CredentialDAO dao = mock(CredentialDAO.class);
+    private static GroupDAO groupDAO = mock(GroupDAO.class);
 
     private static Credential credential = Credential.builder()
             .key(Base64.encodeToString(TEST_RSA_PUBLIC_KEY))
@@ -71,21 +94,23 @@ public class CredentialResourceApiTest {
             .primary("test")
             .secondary("pass").build();
 
-    private static CredentialStorageConfiguration configuration = CredentialStorageConfiguration
-            .builder()
-            .symmetricKeySize(128).build();
-
     @ClassRule
     public static final ResourceTestRule resources = ResourceTestRule.builder()
-            .addResource(new CredentialResource(dao, CacheBuilder
-                    .from("maximumSize=100, expireAfterAccess=10m").recordStats().build(),
-                    configuration))
+            .addResource(new CredentialResource(dao,
+                    new PublicKeyStore(new PublicKeyStoreConfiguration(), 128,
+                            CipherSuite.AES_GCM_RSA_OAEP, CryptoProviders.JVM_DEFAULT,
+                            new MetricRegistry()),
+                    new CryptoExecutor(new CryptoExecutorConfiguration(), new MetricRegistry()),
+                    mock(AuditLog.class), mock(LocalSnapshot.class), groupDAO))
+            .addProvider(BinaryFormats.smileProvider())
+            .addProvider(BinaryFormats.cborProvider())
             .build();
 
     @BeforeClass
     public static void setUp() throws IOException {
         when(dao.getCredentialByKey(BASE_64_PUBLIC_KEY)).thenReturn(Optional.of(credential));
         when(dao.getCredentialByKey("missing")).thenReturn(Optional.absent());
+        when(groupDAO.getCredentialForMember("missing")).thenReturn(Optional.absent());
     }
 
     @Test
@@ -109,6 +134,27 @@ public class CredentialResourceApiTest {
                 .isEqualTo(Status.BAD_REQUEST.getStatusCode());
     }
 
+    @Test
+    public void getCredentialNotModified() {
+        final Response response = resources.client().target(CREDENTIAL_URI).request()
+                .header("X-Auth-RSA", BASE_64_PUBLIC_KEY).get();
+        final EntityTag entityTag = response.getEntityTag();
+        response.close();
+
+        assertThat(entityTag).isNotNull();
+        assertThat(entityTag.isWeak()).isTrue();
+        assertThat(resources.client().target(CREDENTIAL_URI).request()
+                .header("X-Auth-RSA", BASE_64_PUBLIC_KEY)
+                .header(HttpHeaders.IF_NONE_MATCH, entityTag.toString())
+                .get().getStatus())
+                        .isEqualTo(Status.NOT_MODIFIED.getStatusCode());
+        assertThat(resources.client().target(CREDENTIAL_URI).request()
+                .header("X-Auth-RSA", BASE_64_PUBLIC_KEY)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"other\"")
+                .get().getStatus())
+                        .isEqualTo(Status.OK.getStatusCode());
+    }
+
     @Test
     public void postCredential() throws IOException {
         final Credential credential = Credential.builder()
@@ -121,4 +167,56 @@ public class CredentialResourceApiTest {
 
         verify(dao, times(1)).save(any());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getCredentialAsSmile() throws IOException {
+        final byte[] payload = resources.client().target(CREDENTIAL_URI)
+                .request(SmileMediaTypes.APPLICATION_JACKSON_SMILE)
+                .header("X-Auth-RSA", BASE_64_PUBLIC_KEY)
+                .get(byte[].class);
+
+        final JsonNode node = SMILE_MAPPER.readTree(payload);
+        assertThat(node.get("symmetric_key").isBinary()).isTrue();
+        assertThat(node.get("symmetric_key").binaryValue()).isEqualTo(TEST_DES_SYMETRIC_KEY);
+        // The user view is kept, so the public key isn't sent back.
+        assertThat(node.has("key")).isFalse();
+        assertThat(SMILE_MAPPER.treeToValue(node, Credential.class))
+                .isEqualToIgnoringGivenFields(credential, "key");
+    }
+
+    @Test
+    public void getCredentialAsCBOR() throws IOException {
+        final byte[] payload = resources.client().target(CREDENTIAL_URI)
+                .request(CBORMediaTypes.APPLICATION_JACKSON_CBOR)
+                .header("X-Auth-RSA", BASE_64_PUBLIC_KEY)
+                .get(byte[].class);
+
+        assertThat(CBOR_MAPPER.readValue(payload, Credential.class))
+                .isEqualToIgnoringGivenFields(credential, "key");
+    }
+
+    @Test
+    public void postCredentialAsCBORIsValidated() throws IOException {
+        // Missing the primary credential, so it's read but never stored.
+        final Credential credential = Credential.builder().secondary("password").build();
+
+        assertThat(resources.client().target(CREDENTIAL_URI).request()
+                .header("X-Auth-RSA", BASE_64_PUBLIC_KEY)
+                .post(Entity.entity(CBOR_MAPPER.writeValueAsBytes(credential),
+                        CBORMediaTypes.APPLICATION_JACKSON_CBOR))
+                .getStatus()).isEqualTo(422);
+    }
+
+    @Test
+    public void patchCredential() throws IOException {
+        when(dao.patch(any(), any(), any()))
+                .thenReturn(new PatchResult(PatchResult.Status.CONFLICT, 5L));
+
+        final Response response = resources.client().target(CREDENTIAL_URI).request()
+                .header("X-Auth-RSA", BASE_64_PUBLIC_KEY)
+                .method("PATCH", Entity.json("{\"description\":\"database\",\"version\":4}"));
+
+        assertThat(response.getStatus()).isEqualTo(Status.CONFLICT.getStatusCode());
+        assertThat(response.readEntity(JsonNode.class).get("version").asLong()).isEqualTo(5L);
+    }
+}
@@ -1,12 +1,24 @@
 package com.github.mtakaki.credentialstorage.resources;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
 import java.util.concurrent.ExecutionException;
 
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
@@ -15,17 +27,34 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
-import com.github.mtakaki.credentialstorage.CredentialStorageConfiguration;
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
 import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO.PatchResult;
+import com.github.mtakaki.credentialstorage.database.GroupDAO;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Action;
+import com.github.mtakaki.credentialstorage.database.model.AuditEvent.Target;
 import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.CredentialPatch;
+import com.github.mtakaki.credentialstorage.database.model.Lease;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+import com.github.mtakaki.credentialstorage.managed.LocalSnapshot;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
 import com.google.common.base.Optional;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.net.HttpHeaders;
 
 import jodd.util.Base64;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class CredentialResourceTest {
@@ -70,8 +99,18 @@ public class CredentialResourceTest {
 
     @Mock
     private CredentialDAO dao;
+
+    @Mock
+    private AuditLog auditLog;
+
+    @Mock
+    private LocalSnapshot localSnapshot;
+
+    @Mock
+    private GroupDAO groupDAO;
+
     @Mock
-    private CredentialStorageConfiguration configuration;
+    private Request request;
 
     private CredentialResource resource;
 
@@ -81,33 +120,118 @@ public class CredentialResourceTest {
     @Before
     public void setUp() throws IOException {
         this.resource = new CredentialResource(this.dao,
-                CacheBuilder.from("maximumSize=100, expireAfterAccess=10m").build(),
-                this.configuration);
-        when(this.configuration.getSymmetricKeySize()).thenReturn(128);
+                new PublicKeyStore(new PublicKeyStoreConfiguration(), 128,
+                        CipherSuite.AES_GCM_RSA_OAEP, CryptoProviders.JVM_DEFAULT,
+                        new MetricRegistry()),
+                new CryptoExecutor(new CryptoExecutorConfiguration(), new MetricRegistry()),
+                this.auditLog, this.localSnapshot, this.groupDAO);
         when(this.dao.getCredentialByKey(any())).thenReturn(Optional.absent());
+        when(this.groupDAO.getCredentialForMember(any())).thenReturn(Optional.absent());
         when(this.dao.getCredentialByKey(BASE_64_PUBLIC_KEY)).thenReturn(Optional.of(credential));
     }
 
     @Test
     public void getCredential() throws IOException {
-        final Optional<Credential> resultCredential = this.resource.getByKey(BASE_64_PUBLIC_KEY);
+        final Response response = this.resource.getByKey(BASE_64_PUBLIC_KEY, this.request);
+
+        assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+        assertThat(response.getEntity()).isEqualTo(credential);
+        assertThat(response.getHeaderString("Warning")).isNull();
+        assertThat(response.getEntityTag()).isEqualTo(CredentialResource.entityTag(credential));
+        verify(this.auditLog).record(Action.READ, Target.CREDENTIAL, BASE_64_PUBLIC_KEY);
+    }
+
+    @Test
+    public void getCredentialNotModified() throws IOException {
+        when(this.request.evaluatePreconditions(CredentialResource.entityTag(credential)))
+                .thenReturn(Response.notModified());
+
+        final Response response = this.resource.getByKey(BASE_64_PUBLIC_KEY, this.request);
+
+        assertThat(response.getStatus()).isEqualTo(Status.NOT_MODIFIED.getStatusCode());
+        assertThat(response.getEntity()).isNull();
+    }
 
-        assertThat(resultCredential.isPresent()).isTrue();
-        assertThat(resultCredential.get()).isEqualTo(credential);
+    @Test
+    public void entityTagChangesWithTheCredential() {
+        final EntityTag entityTag = CredentialResource.entityTag(credential);
+        final Credential rotated = Credential.builder().key(credential.getKey())
+                .symmetricKey("other").primary(credential.getPrimary())
+                .secondary(credential.getSecondary()).build();
+        final Credential accessed = Credential.builder().key(credential.getKey())
+                .symmetricKey(credential.getSymmetricKey()).primary(credential.getPrimary())
+                .secondary(credential.getSecondary()).lastAccess(new Date()).build();
+
+        assertThat(CredentialResource.entityTag(rotated)).isNotEqualTo(entityTag);
+        assertThat(CredentialResource.entityTag(accessed)).isEqualTo(entityTag);
     }
 
     @Test
     public void getCredentialNotFound() throws IOException {
-        final Optional<Credential> resultCredential = this.resource.getByKey("123");
+        final Response response = this.resource.getByKey("123", this.request);
+
+        assertThat(response.getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+        verify(this.auditLog, never()).record(any(), any(), any());
+    }
+
+    @Test
+    public void getCredentialOfGroupMember() throws IOException {
+        final Credential groupCredential = Credential.builder().key("member")
+                .symmetricKey("key").primary("shared").build();
+        when(this.groupDAO.getCredentialForMember("member"))
+                .thenReturn(Optional.of(groupCredential));
+
+        final Response response = this.resource.getByKey("member", this.request);
 
-        assertThat(resultCredential.isPresent()).isFalse();
+        assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+        assertThat(response.getEntity()).isEqualTo(groupCredential);
     }
 
     @Test
     public void getCredentialWithoutHeader() throws IOException {
-        final Optional<Credential> resultCredential = this.resource.getByKey(null);
+        final Response response = this.resource.getByKey(null, this.request);
+
+        assertThat(response.getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    public void getCredentialFromSnapshot() throws IOException {
+        when(this.dao.getCredentialByKey(BASE_64_PUBLIC_KEY))
+                .thenThrow(new JedisConnectionException("Connection refused"));
+        when(this.localSnapshot.isEnabled()).thenReturn(true);
+        when(this.localSnapshot.getAgeSeconds()).thenReturn(42L);
+        when(this.localSnapshot.getCredentialByKey(BASE_64_PUBLIC_KEY))
+                .thenReturn(Optional.of(credential));
+
+        final Response response = this.resource.getByKey(BASE_64_PUBLIC_KEY, this.request);
+
+        assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+        assertThat(response.getEntity()).isEqualTo(credential);
+        assertThat(response.getHeaderString("Warning")).isEqualTo("110 - \"Response is Stale\"");
+        assertThat(response.getHeaderString("Age")).isEqualTo("42");
+        verify(this.localSnapshot).bypassRedis();
+    }
 
-        assertThat(resultCredential.isPresent()).isFalse();
+    @Test
+    public void getCredentialBypassingRedis() throws IOException {
+        when(this.localSnapshot.isBypassingRedis()).thenReturn(true);
+        when(this.localSnapshot.getAgeSeconds()).thenReturn(0L);
+        when(this.localSnapshot.getCredentialByKey("123")).thenReturn(Optional.absent());
+
+        final Response response = this.resource.getByKey("123", this.request);
+
+        assertThat(response.getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+        assertThat(response.getHeaderString("Age")).isEqualTo("0");
+        verifyZeroInteractions(this.dao);
+    }
+
+    @Test
+    public void getCredentialWithoutSnapshot() throws IOException {
+        when(this.dao.getCredentialByKey(BASE_64_PUBLIC_KEY))
+                .thenThrow(new JedisConnectionException("Connection refused"));
+
+        this.expectedException.expect(JedisConnectionException.class);
+        this.resource.getByKey(BASE_64_PUBLIC_KEY, this.request);
     }
 
     @Test
@@ -120,6 +244,233 @@ public class CredentialResourceTest {
         assertThat(response.getStatus()).isEqualTo(Status.CREATED.getStatusCode());
         assertThat(response.getHeaderString(HttpHeaders.LOCATION))
                 .isEqualTo("/credential/" + BASE_64_PUBLIC_KEY);
+        verify(this.auditLog).record(Action.WRITE, Target.CREDENTIAL, BASE_64_PUBLIC_KEY);
+    }
+
+    @Test
+    public void postCredentialRecordsCipherSuite() throws Exception {
+        final Credential credential = Credential.builder()
+                .primary("user").secondary("password").build();
+
+        this.resource.storeCredential(BASE_64_PUBLIC_KEY, credential);
+
+        final ArgumentCaptor<Credential> savedCredential = ArgumentCaptor
+                .forClass(Credential.class);
+        verify(this.dao).save(savedCredential.capture());
+        assertThat(savedCredential.getValue().getCipherSuite())
+                .isEqualTo(CipherSuite.AES_GCM_RSA_OAEP);
+    }
+
+    @Test
+    public void postCredentialWithTtl() throws Exception {
+        final Credential credential = Credential.builder()
+                .primary("user").secondary("password").ttl(60L).expiresAt(1L).build();
+
+        this.resource.storeCredential(BASE_64_PUBLIC_KEY, credential);
+
+        final ArgumentCaptor<Credential> savedCredential = ArgumentCaptor
+                .forClass(Credential.class);
+        verify(this.dao).save(savedCredential.capture());
+        assertThat(savedCredential.getValue().getTtl()).isEqualTo(60L);
+        assertThat(savedCredential.getValue().getExpiresAt()).isBetween(
+                System.currentTimeMillis() / 1000L + 59L, System.currentTimeMillis() / 1000L + 60L);
+    }
+
+    @Test
+    public void postCredentialJournaled() throws Exception {
+        when(this.dao.save(any())).thenReturn(true);
+
+        final Response response = this.resource.storeCredential(BASE_64_PUBLIC_KEY,
+                Credential.builder().primary("user").secondary("password").build());
+
+        assertThat(response.getStatus()).isEqualTo(Status.ACCEPTED.getStatusCode());
+        assertThat(response.getHeaderString(HttpHeaders.LOCATION))
+                .isEqualTo("/credential/" + BASE_64_PUBLIC_KEY);
+    }
+
+    @Test
+    public void putCredentialWhileRedisIsDown() throws Exception {
+        when(this.dao.getCredentialByKey(BASE_64_PUBLIC_KEY))
+                .thenThrow(new JedisConnectionException("Connection refused"));
+        when(this.dao.isJournalEnabled()).thenReturn(true);
+        when(this.dao.save(any())).thenReturn(true);
+        when(this.localSnapshot.isEnabled()).thenReturn(true);
+        when(this.localSnapshot.getCredentialByKey(BASE_64_PUBLIC_KEY))
+                .thenReturn(Optional.of(Credential.builder().key(BASE_64_PUBLIC_KEY).build()));
+
+        final Response response = this.resource.updateCredential(BASE_64_PUBLIC_KEY,
+                Credential.builder().primary("user").secondary("password").build());
+
+        assertThat(response.getStatus()).isEqualTo(Status.ACCEPTED.getStatusCode());
+        verify(this.dao).save(any());
+    }
+
+    @Test
+    public void putCredentialNotFound() throws Exception {
+        final Response response = this.resource.updateCredential(BASE_64_PUBLIC_KEY + "new",
+                Credential.builder().primary("user").secondary("password").build());
+
+        assertThat(response.getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+        verify(this.dao, never()).save(any());
+    }
+
+    @Test
+    public void postCredentialWhileRedisIsDownWithoutSnapshot() throws Exception {
+        when(this.dao.getCredentialByKey(BASE_64_PUBLIC_KEY))
+                .thenThrow(new JedisConnectionException("Connection refused"));
+        when(this.dao.isJournalEnabled()).thenReturn(true);
+
+        try {
+            this.resource.storeCredential(BASE_64_PUBLIC_KEY,
+                    Credential.builder().primary("user").secondary("password").build());
+            fail("Expected the write to be rejected without a snapshot to read from.");
+        } catch (final ServiceUnavailableException e) {
+            verify(this.dao, never()).save(any());
+        }
+    }
+
+    @Test
+    public void postCredentialWhileRedisIsDownWithoutJournal() throws Exception {
+        when(this.dao.getCredentialByKey(BASE_64_PUBLIC_KEY))
+                .thenThrow(new JedisConnectionException("Connection refused"));
+
+        this.expectedException.expect(JedisConnectionException.class);
+        this.resource.storeCredential(BASE_64_PUBLIC_KEY,
+                Credential.builder().primary("user").secondary("password").build());
+    }
+
+    @Test
+    public void postCredentialIgnoresVersion() throws Exception {
+        this.resource.storeCredential(BASE_64_PUBLIC_KEY + "new",
+                Credential.builder().primary("user").version(41L).build());
+
+        final ArgumentCaptor<Credential> savedCredential = ArgumentCaptor
+                .forClass(Credential.class);
+        verify(this.dao).save(savedCredential.capture());
+        assertThat(savedCredential.getValue().getVersion()).isNull();
+    }
+
+    @Test
+    public void postCredentialOverTheTenantQuota() throws Exception {
+        final Tenant tenant = mock(Tenant.class);
+        when(tenant.getMaxCredentials()).thenReturn(2L);
+        when(this.dao.countCredentials()).thenReturn(2L);
+        final Credential credential = Credential.builder().primary("user").build();
+
+        TenantPool.run(tenant, () -> {
+            try {
+                this.resource.storeCredential(BASE_64_PUBLIC_KEY + "new", credential);
+                fail("Expected the new credential to be rejected.");
+            } catch (final WebApplicationException e) {
+                assertThat(e.getResponse().getStatus())
+                        .isEqualTo(Status.FORBIDDEN.getStatusCode());
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        verify(this.dao, never()).save(any());
+
+        // Replacing a stored credential doesn't take up more of the quota.
+        TenantPool.run(tenant, () -> {
+            try {
+                assertThat(this.resource.storeCredential(BASE_64_PUBLIC_KEY, credential)
+                        .getStatus()).isEqualTo(Status.CREATED.getStatusCode());
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        verify(this.dao).save(any());
+    }
+
+    @Test
+    public void patchDescription() throws Exception {
+        when(this.dao.patch(any(), any(), any()))
+                .thenReturn(new PatchResult(PatchResult.Status.PATCHED, 3L));
+
+        final Response response = this.resource.patchCredential(BASE_64_PUBLIC_KEY,
+                CredentialPatch.builder().description("database").version(2L).build());
+
+        assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+        assertThat(response.getEntity()).isEqualTo(Collections.singletonMap("version", 3L));
+        final ArgumentCaptor<Credential> changes = ArgumentCaptor.forClass(Credential.class);
+        verify(this.dao).patch(eq(BASE_64_PUBLIC_KEY), changes.capture(), eq(2L));
+        // Not re-encrypted.
+        assertThat(changes.getValue()).isEqualTo(
+                Credential.builder().description("database").build());
+        verify(this.dao, never()).getCredentialByKey(any());
+        verify(this.auditLog).record(Action.WRITE, Target.CREDENTIAL, BASE_64_PUBLIC_KEY);
+    }
+
+    @Test
+    public void patchPrimaryReEncryptsThePair() throws Exception {
+        when(this.dao.patch(any(), any(), any()))
+                .thenReturn(new PatchResult(PatchResult.Status.PATCHED, 3L));
+
+        this.resource.patchCredential(BASE_64_PUBLIC_KEY,
+                CredentialPatch.builder().primary("user").build());
+
+        final ArgumentCaptor<Credential> changes = ArgumentCaptor.forClass(Credential.class);
+        verify(this.dao).patch(eq(BASE_64_PUBLIC_KEY), changes.capture(), eq(null));
+        assertThat(changes.getValue().getSymmetricKey()).isNotNull();
+        assertThat(changes.getValue().getCipherSuite()).isEqualTo(CipherSuite.AES_GCM_RSA_OAEP);
+        assertThat(changes.getValue().getPrimary()).isNotNull().isNotEqualTo("user");
+        assertThat(changes.getValue().getSecondary()).isNull();
+        assertThat(changes.getValue().getDescription()).isNull();
+    }
+
+    @Test
+    public void patchSecondaryWithoutPrimary() throws Exception {
+        try {
+            this.resource.patchCredential(BASE_64_PUBLIC_KEY,
+                    CredentialPatch.builder().secondary("password").build());
+            fail("Expected the patch to be rejected.");
+        } catch (final WebApplicationException e) {
+            assertThat(e.getResponse().getStatus()).isEqualTo(422);
+        }
+        verify(this.dao, never()).patch(any(), any(), any());
+    }
+
+    @Test
+    public void patchWithStaleVersion() throws Exception {
+        when(this.dao.patch(any(), any(), any()))
+                .thenReturn(new PatchResult(PatchResult.Status.CONFLICT, 5L));
+
+        final Response response = this.resource.patchCredential(BASE_64_PUBLIC_KEY,
+                CredentialPatch.builder().description("database").version(4L).build());
+
+        assertThat(response.getStatus()).isEqualTo(Status.CONFLICT.getStatusCode());
+        assertThat(response.getEntity()).isEqualTo(Collections.singletonMap("version", 5L));
+        verifyZeroInteractions(this.auditLog);
+    }
+
+    @Test
+    public void patchNotFound() throws Exception {
+        when(this.dao.patch(any(), any(), any()))
+                .thenReturn(new PatchResult(PatchResult.Status.NOT_FOUND, 0L));
+
+        assertThat(this.resource.patchCredential(BASE_64_PUBLIC_KEY,
+                CredentialPatch.builder().description("database").build()).getStatus())
+                        .isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    public void renewLease() throws IOException {
+        when(this.dao.renewLease(BASE_64_PUBLIC_KEY, null))
+                .thenReturn(Optional.of(new Lease(60L, 1000L)));
+
+        final Response response = this.resource.renewLease(BASE_64_PUBLIC_KEY, null);
+
+        assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+        assertThat(response.getEntity()).isEqualTo(new Lease(60L, 1000L));
+        verify(this.auditLog).record(Action.RENEW, Target.CREDENTIAL, BASE_64_PUBLIC_KEY);
+    }
+
+    @Test
+    public void renewLeaseNotFound() throws IOException {
+        when(this.dao.renewLease("123", 60L)).thenReturn(Optional.absent());
+
+        assertThat(this.resource.renewLease("123", 60L).getStatus())
+                .isEqualTo(Status.NOT_FOUND.getStatusCode());
     }
 
     @Test
@@ -0,0 +1,229 @@
+package com.github.mtakaki.credentialstorage.resources;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.crypto.spec.SecretKeySpec;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.CryptoExecutorConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.PublicKeyStoreConfiguration;
+import com.github.mtakaki.credentialstorage.database.GroupDAO;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.database.model.CredentialGroup;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.CryptoProviders;
+import com.github.mtakaki.credentialstorage.encryption.PublicKeyStore;
+import com.github.mtakaki.credentialstorage.managed.AuditLog;
+import com.github.mtakaki.credentialstorage.managed.CryptoExecutor;
+
+import jodd.util.Base64;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class GroupResourceTest {
+    private static KeyPair ownerKeyPair;
+    private static KeyPair memberKeyPair;
+    private static KeyPair otherKeyPair;
+
+    private RedisServer redisServer;
+    private JedisPool jedisPool;
+    private GroupResource resource;
+    private Request request;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        ownerKeyPair = keyPairGenerator.generateKeyPair();
+        memberKeyPair = keyPairGenerator.generateKeyPair();
+        otherKeyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+
+        this.resource = new GroupResource(new GroupDAO(this.jedisPool::getResource),
+                new PublicKeyStore(new PublicKeyStoreConfiguration(), 128,
+                        CipherSuite.AES_GCM_RSA_OAEP, CryptoProviders.JVM_DEFAULT,
+                        new MetricRegistry()),
+                new CryptoExecutor(new CryptoExecutorConfiguration(), new MetricRegistry()),
+                mock(AuditLog.class));
+        this.request = mock(Request.class);
+    }
+
+    @After
+    public void tearDown() {
+        this.jedisPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    @Test
+    public void testStoreAndGetAsMember() throws Exception {
+        final Response storeResponse = this.store(ownerKeyPair, "user", ownerKeyPair,
+                memberKeyPair);
+        assertThat(storeResponse.getStatus()).isEqualTo(Status.CREATED.getStatusCode());
+
+        for (final KeyPair keyPair : Arrays.asList(ownerKeyPair, memberKeyPair)) {
+            final Response response = this.resource.getByMember("db", publicKey(keyPair),
+                    this.request);
+            assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+            assertThat(response.getEntityTag()).isNotNull();
+            final Credential credential = (Credential) response.getEntity();
+            assertThat(credential.getKey()).isEqualTo(publicKey(keyPair));
+            assertThat(credential.getDescription()).isEqualTo("database");
+            assertThat(decrypt(keyPair, credential, credential.getPrimary())).isEqualTo("user");
+            assertThat(decrypt(keyPair, credential, credential.getSecondary()))
+                    .isEqualTo("pass");
+        }
+    }
+
+    @Test
+    public void testGetNotMember() throws Exception {
+        this.store(ownerKeyPair, "user", memberKeyPair);
+
+        assertThat(this.resource.getByMember("db", publicKey(otherKeyPair), this.request)
+                .getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+        assertThat(this.resource.getByMember("missing", publicKey(memberKeyPair), this.request)
+                .getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    public void testGetNotModified() throws Exception {
+        this.store(ownerKeyPair, "user", memberKeyPair);
+        when(this.request.evaluatePreconditions(any(EntityTag.class)))
+                .thenReturn(Response.notModified());
+
+        assertThat(this.resource.getByMember("db", publicKey(memberKeyPair), this.request)
+                .getStatus()).isEqualTo(Status.NOT_MODIFIED.getStatusCode());
+    }
+
+    @Test
+    public void testStoreReplacesMembers() throws Exception {
+        this.store(ownerKeyPair, "user", memberKeyPair);
+
+        final Response response = this.store(ownerKeyPair, "rotated", otherKeyPair);
+        assertThat(response.getStatus()).isEqualTo(Status.OK.getStatusCode());
+
+        assertThat(this.resource.getByMember("db", publicKey(memberKeyPair), this.request)
+                .getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+        final Credential credential = (Credential) this.resource
+                .getByMember("db", publicKey(otherKeyPair), this.request).getEntity();
+        assertThat(decrypt(otherKeyPair, credential, credential.getPrimary()))
+                .isEqualTo("rotated");
+    }
+
+    @Test
+    public void testStoreByAnotherOwner() throws Exception {
+        this.store(ownerKeyPair, "user", memberKeyPair);
+
+        assertThat(this.store(otherKeyPair, "stolen", otherKeyPair).getStatus())
+                .isEqualTo(Status.FORBIDDEN.getStatusCode());
+
+        final Credential credential = (Credential) this.resource
+                .getByMember("db", publicKey(memberKeyPair), this.request).getEntity();
+        assertThat(decrypt(memberKeyPair, credential, credential.getPrimary()))
+                .isEqualTo("user");
+    }
+
+    @Test
+    public void testStoreWithInvalidMember() throws Exception {
+        final CredentialGroup group = CredentialGroup.builder()
+                .primary("user")
+                .members(Arrays.asList(publicKey(memberKeyPair), "invalid"))
+                .build();
+
+        try {
+            this.resource.storeGroup("db", publicKey(ownerKeyPair), group);
+            fail("Expected the invalid member to be rejected.");
+        } catch (final WebApplicationException e) {
+            assertThat(e.getResponse().getStatus()).isEqualTo(422);
+            assertThat(e.getMessage()).isEqualTo("Member 1 has an invalid public key.");
+        }
+        assertThat(this.resource.getByMember("db", publicKey(memberKeyPair), this.request)
+                .getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    public void testDeleteGroup() throws Exception {
+        this.store(ownerKeyPair, "user", memberKeyPair);
+
+        assertThat(this.resource.deleteGroup("db", publicKey(memberKeyPair)).getStatus())
+                .isEqualTo(Status.FORBIDDEN.getStatusCode());
+        assertThat(this.resource.deleteGroup("db", publicKey(ownerKeyPair)).getStatus())
+                .isEqualTo(Status.OK.getStatusCode());
+        assertThat(this.resource.deleteGroup("db", publicKey(ownerKeyPair)).getStatus())
+                .isEqualTo(Status.NOT_FOUND.getStatusCode());
+        assertThat(this.resource.getByMember("db", publicKey(memberKeyPair), this.request)
+                .getStatus()).isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    private Response store(final KeyPair owner, final String primary, final KeyPair... members)
+            throws Exception {
+        final CredentialGroup group = CredentialGroup.builder()
+                .primary(primary)
+                .secondary("pass")
+                .description("database")
+                .build();
+        group.setMembers(Arrays.asList(Arrays.stream(members).map(GroupResourceTest::publicKey)
+                .toArray(String[]::new)));
+        return this.resource.storeGroup("db", publicKey(owner), group);
+    }
+
+    private static String publicKey(final KeyPair keyPair) {
+        return Base64.encodeToString(keyPair.getPublic().getEncoded());
+    }
+
+    /**
+     * Does what a client would do, unwrapping the symmetric key with the
+     * private key and decrypting the nonce prefixed cipher text.
+     */
+    private static String decrypt(final KeyPair keyPair, final Credential credential,
+            final String cipherText) throws Exception {
+        final Cipher rsa = Cipher.getInstance("RSA/ECB/OAEPPadding");
+        rsa.init(Cipher.DECRYPT_MODE, keyPair.getPrivate(), new OAEPParameterSpec("SHA-256",
+                "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+        final SecretKeySpec symmetricKey = new SecretKeySpec(
+                rsa.doFinal(Base64.decode(credential.getSymmetricKey())), "AES");
+
+        final ByteBuffer buffer = ByteBuffer.wrap(Base64.decode(cipherText));
+        final byte[] nonce = new byte[12];
+        buffer.get(nonce);
+        final byte[] encrypted = new byte[buffer.remaining()];
+        buffer.get(encrypted);
+        final Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+        aes.init(Cipher.DECRYPT_MODE, symmetricKey, new GCMParameterSpec(128, nonce));
+        return new String(aes.doFinal(encrypted), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.encryption.CipherSuite;
+import com.github.mtakaki.credentialstorage.encryption.EncryptionUtil;
+import com.google.common.collect.ImmutableMultimap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+/**
+ * Backs up and restores a million credentials, or the number given as
+ * argument, with the {@code backup-credentials} and
+ * {@code restore-credentials} admin tasks. It's not run with the tests, run it
+ * with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.mtakaki.credentialstorage.tasks.BackupBenchmark \
+ *     -Dexec.args="1000000"
+ * </pre>
+ *
+ * <p>
+ * The credentials are saved by {@link CredentialDAO} into an empty embedded
+ * redis, without RDB snapshots, with random public keys as long as a base64
+ * encoded 2048 bits RSA key and the fields encrypted with the default cipher
+ * suite. They are backed up to a temporary file with {@code batchSize=500} and
+ * {@code inFlight=4}, the database is flushed and they are restored with
+ * {@code threads=4}, and the tasks output is printed as it is.
+ * </p>
+ *
+ * @author mtakaki
+ *
+ */
+public class BackupBenchmark {
+    private static final int DEFAULT_CREDENTIALS = 1_000_000;
+    // The length of an X.509 encoded 2048 bits RSA public key.
+    private static final int PUBLIC_KEY_BYTES = 294;
+    private static final int FLUSH_TIMEOUT_MILLIS = 60_000;
+
+    public static void main(final String[] args) throws Exception {
+        final int credentials = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_CREDENTIALS;
+        final RedisServer redisServer = RedisServer.builder()
+                .port(new EphemeralPortProvider().next()).setting("save \"\"").build();
+        redisServer.start();
+        // Flushing a million records takes longer than the default timeout.
+        final JedisPool jedisPool = new JedisPool(new JedisPoolConfig(), "localhost",
+                redisServer.ports().get(0), FLUSH_TIMEOUT_MILLIS);
+        final Path directory = Files.createTempDirectory("backup-benchmark");
+        final Path file = directory.resolve("credentials.gz");
+        try (Jedis jedis = jedisPool.getResource()) {
+            final CredentialDAO credentialDAO = new CredentialDAO(jedisPool::getResource);
+            save(credentialDAO, credentials);
+
+            System.out.printf("%s %s, %d cores, redis %s%n", System.getProperty("java.vm.name"),
+                    System.getProperty("java.version"),
+                    Runtime.getRuntime().availableProcessors(),
+                    jedis.info("server").replaceAll("(?s).*redis_version:(\\S+).*", "$1"));
+            final PrintWriter output = new PrintWriter(System.out, true);
+            new CredentialBackupTask(credentialDAO).execute(ImmutableMultimap.of(
+                    "file", file.toString(), "batchSize", "500", "inFlight", "4"), output);
+            System.out.printf("%,d bytes%n", Files.size(file));
+            jedis.flushDB();
+            new CredentialRestoreTask(credentialDAO).execute(
+                    ImmutableMultimap.of("file", file.toString(), "threads", "4"), output);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+            jedisPool.close();
+            redisServer.stop();
+        }
+        // Embedded redis leaves a thread behind that keeps the JVM running.
+        System.exit(0);
+    }
+
+    private static void save(final CredentialDAO credentialDAO, final int credentials)
+            throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        final EncryptionUtil encryptionUtil = new EncryptionUtil(
+                keyPairGenerator.generateKeyPair().getPublic().getEncoded(), 128,
+                CipherSuite.AES_GCM_RSA_OAEP);
+        final SecretKey symmetricKey = encryptionUtil.generateSymmetricKey();
+        final String encryptedSymmetricKey = encryptionUtil.encrypt(symmetricKey);
+        final String primary = encryptionUtil
+                .encrypt(symmetricKey, "user-0123456789abcdef0123456789").get();
+        final String secondary = encryptionUtil
+                .encrypt(symmetricKey, "password-0123456789abcdef012345").get();
+
+        // Random keys, as generating that many RSA key pairs takes too long.
+        final Random random = new Random(0L);
+        final byte[] publicKey = new byte[PUBLIC_KEY_BYTES];
+        for (int i = 0; i < credentials; i++) {
+            random.nextBytes(publicKey);
+            credentialDAO.save(Credential.builder()
+                    .key(Base64.getEncoder().encodeToString(publicKey))
+                    .symmetricKey(encryptedSymmetricKey)
+                    .cipherSuite(CipherSuite.AES_GCM_RSA_OAEP).primary(primary)
+                    .secondary(secondary).build());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.model.CatalogueStats;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.google.common.collect.ImmutableMultimap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class CatalogueStatsTaskTest {
+    private CredentialDAO credentialDAO;
+    private JedisPool jedisPool;
+    private TenantPool tenantPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        final RedisConfiguration configuration = new RedisConfiguration(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.jedisPool = new JedisPool(configuration.getUrl());
+        this.tenantPool = new TenantPool(configuration, this.jedisPool::getResource,
+                new MetricRegistry());
+        this.credentialDAO = new CredentialDAO(this.tenantPool);
+
+        for (int i = 0; i < 25; i++) {
+            this.credentialDAO.save(Credential.builder().key("key" + i).primary("user")
+                    .secondary("password").build());
+        }
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // As if they were written before the statistics existed.
+            jedis.del("credential_stats");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.jedisPool.close();
+        this.redisServer.stop();
+    }
+
+    @Test
+    public void testRecount() throws Exception {
+        final StringWriter output = new StringWriter();
+        new CatalogueStatsTask(this.credentialDAO, this.tenantPool).execute(
+                ImmutableMultimap.of("batchSize", "10", "batchesPerSecond", "1000"),
+                new PrintWriter(output));
+
+        assertThat(output.toString()).contains("Counted 25 credentials");
+        final CatalogueStats stats = this.credentialDAO
+                .getStatistics(System.currentTimeMillis() / 1000L);
+        assertThat(stats.getCount()).isEqualTo(25L);
+        assertThat(stats.getBytes()).isEqualTo(25L * 12L);
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.TieringConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.backup.BackupFile;
+import com.github.mtakaki.credentialstorage.database.cold.ColdRecord;
+import com.github.mtakaki.credentialstorage.database.cold.ColdTier;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.google.common.collect.ImmutableMultimap;
+
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class CredentialBackupTaskTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ColdTier coldTier;
+    private CredentialDAO credentialDAO;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.coldTier = ColdTier.open(new TieringConfiguration(true,
+                this.folder.newFolder().getPath(), Duration.days(1L), Duration.minutes(1L), 10,
+                1000.0, Size.megabytes(1L), 0.5), new MetricRegistry());
+        this.credentialDAO = new CredentialDAO(this.jedisPool::getResource, this.coldTier);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.coldTier.stop();
+        this.jedisPool.close();
+        this.redisServer.stop();
+    }
+
+    @Test
+    public void testBackup() throws Exception {
+        for (int i = 0; i < 250; i++) {
+            this.credentialDAO.save(Credential.builder().key("key" + i).primary("user").build());
+        }
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            jedis.zadd("last_accessed", 10L, jedis.zrange("last_accessed", 0L, 0L).iterator()
+                    .next());
+            final Map<String, String> legacyRecord = new HashMap<>();
+            legacyRecord.put("key", "legacy");
+            legacyRecord.put("primary", "user");
+            jedis.hmset("credential:legacy", legacyRecord);
+        }
+        // One of them is in the cold tier.
+        this.credentialDAO.demoteIdleCredentials(100L, 0, 10);
+        assertThat(this.coldTier.getMembers()).hasSize(1);
+
+        final Path file = this.folder.getRoot().toPath().resolve("credentials.backup");
+        final StringWriter output = new StringWriter();
+        new CredentialBackupTask(this.credentialDAO).execute(
+                ImmutableMultimap.of("file", file.toString(), "batchSize", "100", "inFlight", "1"),
+                new PrintWriter(output));
+
+        assertThat(output.toString()).startsWith("Backed up 251 credentials");
+        assertThat(this.folder.getRoot().list()).doesNotContain("credentials.backup.tmp");
+        long records = 0L;
+        long coldRecords = 0L;
+        try (InputStream stream = Files.newInputStream(file);
+                BackupFile.Reader reader = new BackupFile.Reader(stream)) {
+            List<ColdRecord> batch;
+            while ((batch = reader.next()) != null) {
+                records += batch.size();
+                coldRecords += batch.stream().filter(record -> record.getLastAccessed() == 10L)
+                        .count();
+            }
+        }
+        assertThat(records).isEqualTo(251L);
+        assertThat(coldRecords).isEqualTo(1L);
+    }
+
+    @Test
+    public void testBackupWhileRedisIsDown() throws Exception {
+        final Path file = this.folder.getRoot().toPath().resolve("credentials.backup");
+        this.redisServer.stop();
+
+        try {
+            new CredentialBackupTask(this.credentialDAO).backup(file, 100, 1);
+        } catch (final RuntimeException e) {
+            // Expected.
+        }
+
+        assertThat(this.folder.getRoot().toPath().resolve("credentials.backup.tmp"))
+                .doesNotExist();
+        assertThat(file).doesNotExist();
+    }
+}
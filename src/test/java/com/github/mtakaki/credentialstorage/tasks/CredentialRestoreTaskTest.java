@@ -0,0 +1,117 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.backup.BackupFile;
+import com.github.mtakaki.credentialstorage.database.cold.ColdRecord;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.google.common.collect.ImmutableMultimap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class CredentialRestoreTaskTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CredentialDAO credentialDAO;
+    private JedisPool jedisPool;
+    private RedisServer redisServer;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.jedisPool = new JedisPool(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.credentialDAO = new CredentialDAO(this.jedisPool::getResource);
+        this.file = this.folder.getRoot().toPath().resolve("credentials.backup");
+
+        final long now = System.currentTimeMillis() / 1000L;
+        try (OutputStream stream = Files.newOutputStream(this.file);
+                BackupFile.Writer writer = new BackupFile.Writer(stream)) {
+            for (int batch = 0; batch < 5; batch++) {
+                final List<ColdRecord> records = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    records.add(record("key" + (batch * 50 + i), null, 10L, 20L));
+                }
+                writer.append(records);
+            }
+            writer.append(Arrays.asList(record("leased", now + 60L, 10L, 20L),
+                    record("expired", now - 60L, 10L, 20L)));
+            writer.finish();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.jedisPool.close();
+        this.redisServer.stop();
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        final StringWriter output = new StringWriter();
+        new CredentialRestoreTask(this.credentialDAO).execute(
+                ImmutableMultimap.of("file", this.file.toString(), "threads", "2"),
+                new PrintWriter(output));
+
+        assertThat(output.toString()).startsWith("Restored 251 of 252 credentials");
+        assertThat(this.credentialDAO.getCredentialByKey("key42").get().getPrimary())
+                .isEqualTo("user");
+        assertThat(this.credentialDAO.getCredentialByKey("expired").isPresent()).isFalse();
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.keys("cred:*")).hasSize(251);
+            assertThat(jedis.zscore("last_updated", KeyDigest.of("key7"))).isEqualTo(20.0);
+            assertThat(jedis.zscore("last_accessed", KeyDigest.of("key7"))).isEqualTo(10.0);
+            assertThat(jedis.ttl("cred:" + KeyDigest.of("leased"))).isBetween(58L, 60L);
+        }
+    }
+
+    @Test
+    public void testRestoreKeepsNewerWrites() throws Exception {
+        this.credentialDAO.save(Credential.builder().key("key0").primary("newer").build());
+
+        final CredentialRestoreTask.Result result = new CredentialRestoreTask(this.credentialDAO)
+                .restore(this.file, 2);
+
+        assertThat(result.getRead()).isEqualTo(252L);
+        assertThat(result.getRestored()).isEqualTo(250L);
+        assertThat(this.credentialDAO.getCredentialByKey("key0").get().getPrimary())
+                .isEqualTo("newer");
+    }
+
+    private static ColdRecord record(final String key, final Long expiresAt,
+            final long lastAccessed, final long lastUpdated) {
+        final Map<String, String> fields = new HashMap<>();
+        fields.put("key", key);
+        fields.put("primary", "user");
+        if (expiresAt != null) {
+            fields.put("ttl", "60");
+            fields.put("expiresAt", expiresAt.toString());
+        }
+        return new ColdRecord(fields, lastAccessed, lastUpdated);
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.mtakaki.credentialstorage.tasks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TenantConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.KeyDigest;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+import com.github.mtakaki.credentialstorage.tenant.Tenant;
+import com.github.mtakaki.credentialstorage.tenant.TenantPool;
+import com.google.common.collect.ImmutableMultimap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class DescriptionIndexTaskTest {
+    private CredentialDAO credentialDAO;
+    private JedisPool jedisPool;
+    private TenantPool tenantPool;
+    private RedisServer redisServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        final RedisConfiguration configuration = new RedisConfiguration(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        configuration.getTenants().put("payments",
+                new TenantConfiguration(null, 1, new JedisPoolConfig(), null, null));
+        this.jedisPool = new JedisPool(configuration.getUrl());
+        this.tenantPool = new TenantPool(configuration, this.jedisPool::getResource,
+                new MetricRegistry());
+        this.credentialDAO = new CredentialDAO(this.tenantPool);
+
+        for (int i = 0; i < 25; i++) {
+            this.credentialDAO.save(Credential.builder().key("key" + i).primary("user")
+                    .description("db-" + i).build());
+        }
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            // As if they were written before the index existed, except for an
+            // entry left behind by a deleted record.
+            jedis.del("description_index");
+            jedis.del("cred:" + KeyDigest.of("key0"));
+            jedis.zadd("description_index", 0, "db-0\0" + KeyDigest.of("key0"));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.tenantPool.close();
+        this.jedisPool.close();
+        this.redisServer.stop();
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        final StringWriter output = new StringWriter();
+        new DescriptionIndexTask(this.credentialDAO, this.tenantPool).execute(
+                ImmutableMultimap.of("batchSize", "10", "batchesPerSecond", "1000"),
+                new PrintWriter(output));
+
+        assertThat(output.toString()).contains("Indexed 24 of 24 credentials")
+                .contains("Removed 1 of 25 index entries");
+        try (Jedis jedis = this.jedisPool.getResource()) {
+            assertThat(jedis.zcard("description_index")).isEqualTo(24L);
+        }
+        assertThat(this.credentialDAO.searchDescriptions("db-1", null, 100).getMatches())
+                .hasSize(11);
+    }
+
+    @Test
+    public void testRebuildTenants() throws Exception {
+        final Tenant tenant = this.tenantPool.getTenant("payments").get();
+        TenantPool.call(tenant, () -> this.credentialDAO.save(Credential.builder().key("key0")
+                .primary("user").description("db-0").build()));
+        try (Jedis jedis = tenant.getPool().getResource()) {
+            // Left behind by an expired lease.
+            jedis.zadd("description_index", 0, "db-1\0" + KeyDigest.of("key1"));
+        }
+
+        final StringWriter output = new StringWriter();
+        new DescriptionIndexTask(this.credentialDAO, this.tenantPool).execute(
+                ImmutableMultimap.of("batchSize", "10", "batchesPerSecond", "1000"),
+                new PrintWriter(output));
+
+        assertThat(output.toString()).contains("Removed 1 of 25 index entries")
+                .contains("[payments] Indexed 0 of 1 credentials")
+                .contains("[payments] Removed 1 of 2 index entries");
+        try (Jedis jedis = tenant.getPool().getResource()) {
+            assertThat(jedis.zrange("description_index", 0, -1))
+                    .containsExactly("db-0\0" + KeyDigest.of("key0"));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.mtakaki.credentialstorage.tenant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TenantConfiguration;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import io.dropwizard.testing.junit.ResourceTestRule;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+public class TenantFilterTest {
+    private static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
+    // Never connected, the test resource doesn't use redis.
+    private static final TenantPool POOL = buildPool();
+    private static volatile CountDownLatch entered;
+    private static volatile CountDownLatch release;
+
+    @ClassRule
+    public static final ResourceTestRule resources = ResourceTestRule.builder()
+            .addProvider(new TenantFilter(POOL))
+            .addResource(new TestResource())
+            .build();
+
+    private ExecutorService callers;
+
+    private static TenantPool buildPool() {
+        final RedisConfiguration configuration = new RedisConfiguration("redis://localhost");
+        configuration.getTenants().put("payments",
+                new TenantConfiguration(null, 1, new JedisPoolConfig(), 1, null));
+        configuration.getTenants().put("billing",
+                new TenantConfiguration(null, 2, new JedisPoolConfig(), null, null));
+        return new TenantPool(configuration, new JedisPool()::getResource, METRIC_REGISTRY);
+    }
+
+    @Path("/credential")
+    public static class TestResource {
+        @GET
+        public String tenant() {
+            final Tenant tenant = TenantPool.getCurrent();
+            return tenant == null ? "default" : tenant.getName();
+        }
+
+        @GET
+        @Path("/slow")
+        public String slow() {
+            entered.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return this.tenant();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        this.callers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        this.callers.shutdownNow();
+    }
+
+    private Response get(final String path, final String tenant) {
+        return resources.client().target(path).request().header(TenantFilter.TENANT_HEADER, tenant)
+                .get();
+    }
+
+    @Test
+    public void testDefaultNamespace() {
+        assertThat(this.get("/credential", null).readEntity(String.class)).isEqualTo("default");
+    }
+
+    @Test
+    public void testTenantFromHeader() {
+        assertThat(this.get("/credential", "billing").readEntity(String.class))
+                .isEqualTo("billing");
+        assertThat(METRIC_REGISTRY.getTimers()
+                .get(MetricRegistry.name(Tenant.class, "billing", "requests")).getCount())
+                        .isPositive();
+    }
+
+    @Test
+    public void testTenantFromPath() {
+        assertThat(this.get("/tenant/billing/credential", null).readEntity(String.class))
+                .isEqualTo("billing");
+        assertThat(this.get("/tenant/billing/credential", "billing").readEntity(String.class))
+                .isEqualTo("billing");
+    }
+
+    @Test
+    public void testTenantMismatch() {
+        assertThat(this.get("/tenant/billing/credential", "payments").getStatus())
+                .isEqualTo(Status.BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    public void testUnknownTenant() {
+        assertThat(this.get("/credential", "missing").getStatus())
+                .isEqualTo(Status.NOT_FOUND.getStatusCode());
+        assertThat(this.get("/tenant/missing/credential", null).getStatus())
+                .isEqualTo(Status.NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    public void testRejectsOverTheConcurrencyQuota() throws Exception {
+        // The payments tenant runs one request at a time.
+        final Future<Response> first = this.callers
+                .submit(() -> this.get("/credential/slow", "payments"));
+        assertThat(entered.await(5L, TimeUnit.SECONDS)).isTrue();
+
+        final Response rejected = this.get("/credential", "payments");
+        assertThat(rejected.getStatus()).isEqualTo(429);
+        assertThat(rejected.getHeaderString("Retry-After")).isEqualTo("1");
+        // The other tenants are not affected.
+        assertThat(this.get("/credential", "billing").readEntity(String.class))
+                .isEqualTo("billing");
+
+        release.countDown();
+        assertThat(first.get(5L, TimeUnit.SECONDS).readEntity(String.class))
+                .isEqualTo("payments");
+        assertThat(this.get("/credential", "payments").readEntity(String.class))
+                .isEqualTo("payments");
+        assertThat(METRIC_REGISTRY.getMeters()
+                .get(MetricRegistry.name(Tenant.class, "payments", "rejected")).getCount())
+                        .isEqualTo(1L);
+        assertThat(METRIC_REGISTRY.getGauges()
+                .get(MetricRegistry.name(Tenant.class, "payments", "active")).getValue())
+                        .isEqualTo(0);
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.mtakaki.credentialstorage.tenant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.mtakaki.credentialstorage.configuration.RedisConfiguration;
+import com.github.mtakaki.credentialstorage.configuration.TenantConfiguration;
+import com.github.mtakaki.credentialstorage.database.CredentialDAO;
+import com.github.mtakaki.credentialstorage.database.model.Credential;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.embedded.RedisServer;
+import redis.embedded.ports.EphemeralPortProvider;
+
+public class TenantPoolTest {
+    // SHA-256 of the key "a".
+    private static final String DIGEST_A = "ca978112ca1bbdcafac231b39a23dc4da786eff8147c4e72b9807785afee48bb";
+
+    private RedisServer redisServer;
+    private RedisConfiguration configuration;
+    private JedisPool defaultPool;
+    private TenantPool tenantPool;
+    private Tenant tenant;
+    private CredentialDAO dao;
+
+    @Before
+    public void setUp() throws Exception {
+        this.redisServer = RedisServer.builder().port(new EphemeralPortProvider().next()).build();
+        this.redisServer.start();
+        this.configuration = new RedisConfiguration(
+                String.format("redis://localhost:%d", this.redisServer.ports().get(0)));
+        this.configuration.getTenants().put("payments", tenant(1));
+        this.defaultPool = new JedisPool(this.configuration.getUrl());
+        this.tenantPool = new TenantPool(this.configuration, this.defaultPool::getResource,
+                new MetricRegistry());
+        this.tenant = this.tenantPool.getTenant("payments").get();
+        this.dao = new CredentialDAO(this.tenantPool);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TenantPool.exit();
+        this.tenantPool.stop();
+        this.defaultPool.close();
+        if (this.redisServer.isActive()) {
+            this.redisServer.stop();
+        }
+    }
+
+    private static TenantConfiguration tenant(final int database) {
+        return new TenantConfiguration(null, database, new JedisPoolConfig(), null, null);
+    }
+
+    @Test
+    public void testRoutesConnectionsToTheTenantDatabase() throws Exception {
+        TenantPool.enter(this.tenant);
+        this.dao.save(Credential.builder().key("a").primary("tenant").build());
+        assertThat(this.dao.getCredentialByKey("a").get().getPrimary()).isEqualTo("tenant");
+        assertThat(this.dao.countCredentials()).isEqualTo(1L);
+        TenantPool.exit();
+
+        assertThat(this.dao.getCredentialByKey("a").isPresent()).isFalse();
+        assertThat(this.dao.countCredentials()).isZero();
+        try (Jedis jedis = this.defaultPool.getResource()) {
+            assertThat(jedis.dbSize()).isZero();
+            jedis.select(1);
+            assertThat(jedis.exists("cred:" + DIGEST_A)).isTrue();
+            assertThat(jedis.zscore("last_updated", DIGEST_A)).isNotNull();
+        }
+    }
+
+    @Test
+    public void testRunRestoresTheNamespace() {
+        TenantPool.run(this.tenant, () -> {
+            assertThat(TenantPool.getCurrent()).isSameAs(this.tenant);
+            TenantPool.run(null, () -> assertThat(TenantPool.getCurrent()).isNull());
+            assertThat(TenantPool.getCurrent()).isSameAs(this.tenant);
+        });
+        assertThat(TenantPool.getCurrent()).isNull();
+    }
+
+    @Test
+    public void testGetTenant() {
+        assertThat(this.tenantPool.getTenant("payments").get().getName()).isEqualTo("payments");
+        assertThat(this.tenantPool.getTenant("missing").isPresent()).isFalse();
+    }
+
+    @Test
+    public void testSharedDatabaseIsRejected() {
+        this.configuration.getTenants().put("billing", tenant(0));
+
+        try {
+            new TenantPool(this.configuration, this.defaultPool::getResource, new MetricRegistry());
+            fail("Expected the database of the default namespace to be rejected.");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e.getMessage()).startsWith("Tenant billing uses the same database as "
+                    + "the default namespace");
+        }
+    }
+
+    @Test
+    public void testInvalidNameIsRejected() {
+        this.configuration.getTenants().put("billing/eu", tenant(2));
+
+        try {
+            new TenantPool(this.configuration, this.defaultPool::getResource, new MetricRegistry());
+            fail("Expected the tenant name to be rejected.");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("Invalid tenant name: billing/eu");
+        }
+    }
+}